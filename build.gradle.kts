@@ -16,10 +16,21 @@ repositories {
     mavenCentral()
 }
 
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets["main"].output + sourceSets["main"].runtimeClasspath
+        runtimeClasspath += sourceSets["main"].output + sourceSets["main"].runtimeClasspath
+    }
+}
+
 dependencies {
     implementation("org.springframework.boot:spring-boot-starter-web")
+    implementation("org.springframework.boot:spring-boot-starter-actuator")
+    implementation("io.micrometer:micrometer-registry-prometheus")
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 tasks.test {
@@ -31,4 +42,26 @@ tasks.register<JavaExec>("runClientMain") {
     description = "Runs the Main class in the client package"
     classpath = sourceSets["main"].runtimeClasspath
     mainClass.set("org.example.client.Main")
-}
\ No newline at end of file
+}
+val jmhResults = layout.buildDirectory.file("reports/jmh/results.json")
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks and writes the results as JSON to build/reports/jmh/results.json; " +
+            "-PjmhInclude=<regex> selects benchmarks, -PjmhArgs=\"...\" passes further JMH options"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val include = providers.gradleProperty("jmhInclude").getOrElse(".*")
+    val extra = providers.gradleProperty("jmhArgs").map { it.split(" ").filter(String::isNotBlank) }.getOrElse(emptyList())
+    args = listOf(include, "-rf", "json", "-rff", jmhResults.get().asFile.path) + extra
+    doFirst { jmhResults.get().asFile.parentFile.mkdirs() }
+}
+
+tasks.register<JavaExec>("jmhCompare") {
+    group = "benchmark"
+    description = "Compares build/reports/jmh/results.json with the JMH results given by -PjmhBaseline=<file>"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.example.BenchmarkComparison")
+    args = listOf(providers.gradleProperty("jmhBaseline").getOrElse(""), jmhResults.get().asFile.path,
+            providers.gradleProperty("jmhThreshold").getOrElse("0.10"))
+}
@@ -0,0 +1,69 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files, benchmark by benchmark and parameter set by parameter set.
+ * A result counts as a regression when it is worse than the baseline by more than the threshold
+ * and by more than the two error margins together; the exit status is 1 if there is any.
+ * Usage: BenchmarkComparison baseline.json results.json [threshold, e.g. 0.10]
+ */
+public class BenchmarkComparison {
+
+    private record Score(String mode, double score, double error, String unit) {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args[0].isEmpty()) {
+            System.err.println("Usage: BenchmarkComparison baseline.json results.json [threshold]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+        Map<String, Score> baseline = read(new File(args[0]));
+        Map<String, Score> results = read(new File(args[1]));
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %9s%n", "benchmark", "baseline", "current", "change");
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            Score current = entry.getValue();
+            Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-90s %14s %14.3f %9s%n", entry.getKey(), "-", current.score(), "new");
+                continue;
+            }
+            double change = (current.score() - before.score()) / before.score();
+            // Throughput modes are better when higher, time modes when lower
+            double worse = current.mode().equals("thrpt") ? -change : change;
+            boolean regression = worse > threshold
+                    && Math.abs(current.score() - before.score()) > current.error() + before.error();
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%% %s%s%n", entry.getKey(), before.score(), current.score(),
+                    change * 100, current.unit(), regression ? "  REGRESSION" : "");
+        }
+        System.out.printf("%d regression(s) beyond %.0f%%%n", regressions, threshold * 100);
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            Map<String, String> params = new TreeMap<>();
+            result.path("params").fields().forEachRemaining(param -> params.put(param.getKey(), param.getValue().asText()));
+            String key = result.get("benchmark").asText().replace("org.example.", "") + (params.isEmpty() ? "" : " " + params);
+            JsonNode metric = result.get("primaryMetric");
+            double error = metric.path("scoreError").asDouble(0);
+            scores.put(key, new Score(result.get("mode").asText(), metric.get("score").asDouble(),
+                    Double.isNaN(error) ? 0 : error, metric.get("scoreUnit").asText()));
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,92 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generated device lists for the benchmarks: one tree with a fan-out of 16, so a million devices are five levels deep.
+ * The gateway is the root, the devices directly below it are switches and all others are access points.
+ */
+public class BenchmarkTopology {
+
+    static final int FAN_OUT = 16;
+
+    /**
+     * Order in which the devices are added.
+     */
+    public enum InsertOrder {
+        /**
+         * Every device after its uplink.
+         */
+        IN_ORDER,
+        /**
+         * Every device before its uplink, so each waits as an orphan until the uplink arrives.
+         */
+        REVERSE,
+        /**
+         * Parents first, but every other device points at an uplink that is never added and stays an orphan.
+         */
+        ORPHAN_HEAVY
+    }
+
+    private BenchmarkTopology() {}
+
+    /**
+     * Generates the devices of a tree.
+     * @param size number of devices
+     * @param order insert order
+     * @return devices in insert order
+     */
+    public static List<Device> devices(int size, InsertOrder order) {
+        List<Device> devices = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String uplink;
+            if (i == 0) {
+                uplink = "";
+            } else if (order == InsertOrder.ORPHAN_HEAVY && i % 2 == 0) {
+                uplink = MacAddress.format((0xFEL << 40) | i);
+            } else {
+                uplink = mac((i - 1) / FAN_OUT);
+            }
+            String type = i == 0 ? "Gateway" : i <= FAN_OUT ? "Switch" : "Access Point";
+            devices.add(new Device(mac(i), type, uplink));
+        }
+        if (order == InsertOrder.REVERSE) {
+            Collections.reverse(devices);
+        }
+        return devices;
+    }
+
+    /**
+     * Generates a chain: every device is the uplink of the next one.
+     * @param depth number of devices
+     * @return devices from the root down
+     */
+    public static List<Device> chain(int depth) {
+        List<Device> devices = new ArrayList<>(depth);
+        for (int i = 0; i < depth; i++) {
+            devices.add(new Device(mac(i), i == 0 ? "Gateway" : "Switch", i == 0 ? "" : mac(i - 1)));
+        }
+        return devices;
+    }
+
+    /**
+     * Generates log lines in the "LEVEL date time user message" format read by NetworkNode.getLogCountMap.
+     * @param size number of lines
+     * @return log lines over 1000 users and a handful of levels
+     */
+    public static List<String> logs(int size) {
+        String[] levels = {"ERROR", "WARN", "INFO", "DEBUG", "FATAL"};
+        List<String> logs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            logs.add(levels[i % levels.length] + " 2025-10-24 10:12:" + String.format("%02d", i % 60)
+                    + " User" + (i * 31 % 1_000) + " message " + i);
+        }
+        return logs;
+    }
+
+    static String mac(long index) {
+        return MacAddress.format(index + 1);
+    }
+}
@@ -0,0 +1,54 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one cycle check when a device is linked below the deepest node of a chain:
+ * the uplink walk of NetworkNode.isSelfDescendant, linear in the depth, against the
+ * constant-time label comparison of the AncestorIndex used by the stores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class CycleCheckBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int depth;
+
+    private Map<String, NetworkNode> nodeMap;
+    private NetworkNode leaf;
+    private AncestorIndex ancestors;
+
+    @Setup
+    public void build() {
+        List<Device> chain = BenchmarkTopology.chain(depth);
+        nodeMap = new HashMap<>(chain.size() * 2);
+        for (Device device : chain) {
+            nodeMap.put(device.getMacAddress(), new NetworkNode(device));
+        }
+        leaf = new NetworkNode(new Device("FE:00:00:00:00:01", "Access Point", chain.get(depth - 1).getMacAddress()));
+        ancestors = new AncestorIndex(depth + 1);
+        ancestors.add(0);
+        for (int i = 1; i < depth; i++) {
+            ancestors.add(i, i - 1);
+        }
+    }
+
+    @Benchmark
+    public boolean isSelfDescendant() {
+        return NetworkNode.isSelfDescendant(leaf, nodeMap);
+    }
+
+    @Benchmark
+    public boolean ancestorIndex() {
+        return ancestors.isAncestor(0, depth - 1);
+    }
+}
@@ -0,0 +1,78 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory per device of the device stores, loaded with a tree of 10M devices (fan-out 16) one put at a time.
+ * The footprint is the heap retained after a full GC plus the direct and mapped buffers the store allocated,
+ * reported as the secondary result bytesPerDevice; the primary result is the load time.
+ * The NetworkNode store needs several hundred bytes per device, so compare it at 1M devices:
+ * {@code ./gradlew jmh -PjmhInclude=FootprintBenchmark -PjmhArgs="-p store=memory,compact,offheap -p size=1000000"}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g", "-XX:MaxDirectMemorySize=2g"})
+@State(Scope.Benchmark)
+public class FootprintBenchmark {
+
+    @Param({"compact", "offheap"})
+    public String store;
+
+    @Param({"10000000"})
+    public int size;
+
+    /**
+     * Secondary results of an iteration.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public double bytesPerDevice;
+    }
+
+    private long baseline;
+
+    @Setup(Level.Iteration)
+    public void measureBaseline() {
+        baseline = retainedBytes();
+    }
+
+    @Benchmark
+    public int load(Footprint footprint) throws Exception {
+        try (DeviceStore devices = switch (store) {
+            case "memory" -> new InMemoryDeviceStore();
+            case "compact" -> new CompactDeviceStore(size);
+            case "offheap" -> new OffHeapDeviceStore(null, size);
+            default -> throw new IllegalArgumentException("Unknown store: " + store);
+        }) {
+            for (int i = 0; i < size; i++) {
+                String type = i == 0 ? "Gateway" : i <= BenchmarkTopology.FAN_OUT ? "Switch" : "Access Point";
+                String uplink = i == 0 ? "" : BenchmarkTopology.mac((i - 1) / BenchmarkTopology.FAN_OUT);
+                devices.put(new Device(BenchmarkTopology.mac(i), type, uplink));
+            }
+            devices.publish();
+            footprint.bytesPerDevice = (double) (retainedBytes() - baseline) / size;
+            return devices.size();
+        }
+    }
+
+    /**
+     * Heap used after a full GC, plus the direct and mapped buffers in use.
+     */
+    private static long retainedBytes() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        long bytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            bytes += pool.getMemoryUsed();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import org.example.BenchmarkTopology.InsertOrder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build a topology of the given size one device at a time, per insert order:
+ * through DeviceController.addDevice (validation, ingest pipeline, store, type index, events and cache)
+ * and through NetworkNode.linkNode alone on plain maps.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class InsertBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"IN_ORDER", "REVERSE", "ORPHAN_HEAVY"})
+    public InsertOrder order;
+
+    private List<Device> devices;
+    private List<NetworkNode> nodes;
+    private DeviceController controller;
+    private Map<String, NetworkNode> nodeMap;
+    private Map<String, List<NetworkNode>> orphans;
+    private Set<NetworkNode> roots;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        devices = BenchmarkTopology.devices(size, order);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        controller = new DeviceController();
+        nodes = new ArrayList<>(size);
+        for (Device device : devices) {
+            nodes.add(new NetworkNode(device));
+        }
+        nodeMap = new HashMap<>();
+        orphans = new HashMap<>();
+        roots = new HashSet<>();
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        controller.close();
+    }
+
+    @Benchmark
+    public DeviceController addDevice() {
+        for (Device device : devices) {
+            controller.addDevice(device);
+        }
+        return controller;
+    }
+
+    @Benchmark
+    public Set<NetworkNode> linkNode() {
+        for (NetworkNode node : nodes) {
+            nodeMap.put(node.device.getMacAddress(), node);
+            NetworkNode.linkNode(node, nodeMap, orphans, roots);
+        }
+        return roots;
+    }
+}
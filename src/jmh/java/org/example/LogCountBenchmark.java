@@ -0,0 +1,45 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NetworkNode.getLogCountMap over the given number of log lines, against the LogAnalytics engine reading the same lines as a stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class LogCountBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int lines;
+
+    private List<String> logs;
+    private byte[] body;
+    private final LogAnalytics analytics = new LogAnalytics();
+
+    @Setup
+    public void generate() {
+        logs = BenchmarkTopology.logs(lines);
+        body = (String.join("\n", logs) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Map<String, Pair> getLogCountMap() {
+        return NetworkNode.getLogCountMap(logs);
+    }
+
+    @Benchmark
+    public LogAnalytics.Result analyzeStream() throws IOException {
+        return analytics.analyze(new ByteArrayInputStream(body));
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.example.BenchmarkTopology.InsertOrder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths over a topology of the given size: the full sorted device listing (the former sortedDevices,
+ * now served from the type index), its first page, a page of children and of a MAC prefix from the MAC index,
+ * and encoding the whole forest of getFullNetwork as JSON.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ReadBenchmark {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private DeviceController controller;
+
+    @Setup
+    public void build() {
+        InMemoryDeviceStore store = new InMemoryDeviceStore();
+        store.putAll(BenchmarkTopology.devices(size, InsertOrder.IN_ORDER));
+        controller = new DeviceController(store, null, 0);
+    }
+
+    @TearDown
+    public void close() {
+        controller.close();
+    }
+
+    @Benchmark
+    public List<Device> sortedDevices() {
+        return controller.listDevices();
+    }
+
+    @Benchmark
+    public List<Device> sortedDevicesFirstPage() {
+        return controller.listDevices(100, null, null);
+    }
+
+    @Benchmark
+    public List<Device> childrenPage() {
+        return controller.getChildren(BenchmarkTopology.mac(1), null, 100);
+    }
+
+    @Benchmark
+    public List<Device> macPrefixPage() {
+        return controller.listDevices(100, null, null, "00:00:00:00:01", null);
+    }
+
+    @Benchmark
+    public JsonGenerator getFullNetwork() throws IOException {
+        try (JsonGenerator generator = JSON.createGenerator(OutputStream.nullOutputStream(), JsonEncoding.UTF8)) {
+            new TopologyJsonWriter().writeForest(controller.getFullNetwork(), generator);
+            return generator;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.example;
+
+import org.example.BenchmarkTopology.InsertOrder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subtree search of a 1M-device tree on fork-join pools of the given parallelism, against a sequential walk.
+ * The filter matches few devices, so the time is the traversal; run with -PjmhArgs="-p parallelism=..." up to the core count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    private static final SubtreeSearch.Filter FILTER = new SubtreeSearch.Filter("Access Point", "00:00:00:0F:", Integer.MAX_VALUE);
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private InMemoryDeviceStore store;
+    private NetworkNode gateway;
+    private ForkJoinPool pool;
+    private SubtreeSearch parallel;
+    private SubtreeSearch sequential;
+
+    @Setup
+    public void build() {
+        store = new InMemoryDeviceStore();
+        store.putAll(BenchmarkTopology.devices(1_000_000, InsertOrder.IN_ORDER));
+        gateway = store.get(BenchmarkTopology.mac(0));
+        pool = new ForkJoinPool(parallelism);
+        parallel = new SubtreeSearch(pool, SubtreeSearch.SEQUENTIAL_THRESHOLD);
+        sequential = new SubtreeSearch(pool, Integer.MAX_VALUE);
+    }
+
+    @TearDown
+    public void close() {
+        pool.shutdown();
+        store.close();
+    }
+
+    @Benchmark
+    public List<Device> forkJoin() {
+        return parallel.search(gateway, FILTER, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<Device> sequential() {
+        return sequential.search(gateway, FILTER, Integer.MAX_VALUE);
+    }
+}
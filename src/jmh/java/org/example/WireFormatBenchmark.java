@@ -0,0 +1,130 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.BenchmarkTopology.InsertOrder;
+import org.example.client.TopologyBinaryDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON against the binary wire format of TopologyBinaryFormat: encoding the whole forest as the server does,
+ * decoding it on the client (Jackson tree model against TopologyBinaryDecoder), and parsing a bulk load
+ * as the batch endpoint does. The body sizes are printed during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private List<NetworkNode> forest;
+    private byte[] forestJson;
+    private byte[] forestBinary;
+    private byte[] batchJson;
+    private byte[] batchBinary;
+
+    @Setup
+    public void build() throws IOException {
+        List<Device> devices = BenchmarkTopology.devices(size, InsertOrder.IN_ORDER);
+        InMemoryDeviceStore store = new InMemoryDeviceStore();
+        store.putAll(devices);
+        forest = new ArrayList<>(store.roots());
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeJson(buffer);
+        forestJson = buffer.toByteArray();
+        buffer.reset();
+        writeBinary(buffer);
+        forestBinary = buffer.toByteArray();
+
+        buffer.reset();
+        for (Device device : devices) {
+            JSON.writeValue(buffer, device);
+            buffer.write('\n');
+        }
+        batchJson = buffer.toByteArray();
+        buffer.reset();
+        TopologyBinaryDecoder.writeDevices(devices, buffer);
+        batchBinary = buffer.toByteArray();
+
+        System.out.printf("%n%d devices: forest %d bytes JSON, %d bytes binary; batch %d bytes JSON, %d bytes binary%n",
+                size, forestJson.length, forestBinary.length, batchJson.length, batchBinary.length);
+    }
+
+    @Benchmark
+    public OutputStream encodeForestJson() throws IOException {
+        return writeJson(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public OutputStream encodeForestBinary() throws IOException {
+        return writeBinary(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public JsonNode decodeForestJson() throws IOException {
+        return JSON.readTree(forestJson);
+    }
+
+    @Benchmark
+    public List<TopologyBinaryDecoder.Node> decodeForestBinary() throws IOException {
+        return TopologyBinaryDecoder.readForest(new ByteArrayInputStream(forestBinary));
+    }
+
+    @Benchmark
+    public int parseBatchJson() throws IOException {
+        int count = 0;
+        try (JsonParser parser = JSON.createParser(batchJson)) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                count += parser.readValueAs(Device.class).getMacAddress().length();
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int parseBatchBinary() throws IOException {
+        int count = 0;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(batchBinary));
+        int flags;
+        while ((flags = TopologyBinaryFormat.readFlags(in)) >= 0) {
+            count += TopologyBinaryFormat.readDevice(flags, in).getMacAddress().length();
+        }
+        return count;
+    }
+
+    private OutputStream writeJson(OutputStream out) throws IOException {
+        try (JsonGenerator generator = JSON.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            new TopologyJsonWriter().writeForest(forest, generator);
+        }
+        return out;
+    }
+
+    private OutputStream writeBinary(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 << 10));
+        new TopologyBinaryWriter().writeForest(forest, data);
+        return out;
+    }
+}
@@ -0,0 +1,219 @@
+package org.example;
+
+import java.util.Arrays;
+
+/**
+ * Ancestor index over a forest of devices identified by dense int ids, answering
+ * "is A an ancestor of B" in constant time.
+ * The forest is kept as an Euler tour: every node contributes an enter and an exit token, and a
+ * subtree is the contiguous run of tokens between its root's enter and exit. The tour is a doubly
+ * linked list whose tokens carry increasing long labels, so A is an ancestor of B exactly when
+ * A's labels enclose B's. New tokens take the midpoint label of their neighbours. When two neighbours
+ * have no label left between them, the smallest aligned label range around them that is sparse
+ * enough is relabeled evenly (gap-based order maintenance), which is amortized O(log n) per insert.
+ * Moving a subtree splices its tokens out and back in, and costs O(subtree size) inserts.
+ * Not thread-safe.
+ */
+public class AncestorIndex {
+    /**
+     * Parent id of a root.
+     */
+    public static final int NONE = -1;
+
+    private static final int HEAD = 0;
+    private static final int TAIL = 1;
+    private static final long MAX_LABEL = 1L << 62;
+    /**
+     * A label range of 2^level may hold up to DENSITY^level tokens before a larger range is relabeled.
+     */
+    private static final double DENSITY = 2 / 1.3;
+
+    private long[] labels;
+    private int[] next;
+    private int[] prev;
+
+    /**
+     * Creates an empty index sized for the given number of nodes without growing.
+     * @param expectedSize expected number of nodes
+     */
+    public AncestorIndex(int expectedSize) {
+        int tokens = 2 + 2 * Math.max(16, expectedSize);
+        labels = new long[tokens];
+        next = new int[tokens];
+        prev = new int[tokens];
+        Arrays.fill(next, NONE);
+        Arrays.fill(prev, NONE);
+        labels[HEAD] = 0;
+        labels[TAIL] = MAX_LABEL;
+        next[HEAD] = TAIL;
+        prev[TAIL] = HEAD;
+    }
+
+    /**
+     * Adds a node as the root of a new tree, at the end of the tour.
+     * @param node id of the node, not in the index yet
+     */
+    public void add(int node) {
+        add(node, NONE);
+    }
+
+    /**
+     * Adds a node as the last child of the given parent.
+     * @param node id of the node, not in the index yet
+     * @param parent id of the parent, or NONE to make the node a root
+     */
+    public void add(int node, int parent) {
+        ensureCapacity(node);
+        insertAfter(parent == NONE ? prev[TAIL] : prev[exit(parent)], enter(node));
+        insertAfter(enter(node), exit(node));
+    }
+
+    /**
+     * Moves a node with its whole subtree, making it the last child of the given parent.
+     * @param node id of the node
+     * @param parent id of the new parent, or NONE to make the node a root
+     * @throws IllegalArgumentException if the parent lies in the node's subtree
+     */
+    public void move(int node, int parent) {
+        if (parent != NONE && (parent == node || isAncestor(node, parent))) {
+            throw new IllegalArgumentException("Cycle detected: cannot link node as it would create a cycle.");
+        }
+        int first = enter(node);
+        int last = exit(node);
+        int before = prev[first];
+        int after = next[last];
+        // Splice the subtree's tokens out of the tour, then insert them one by one at the target
+        next[before] = after;
+        prev[after] = before;
+        int target = parent == NONE ? prev[TAIL] : prev[exit(parent)];
+        int token = first;
+        while (true) {
+            int following = next[token];
+            insertAfter(target, token);
+            target = token;
+            if (token == last) {
+                break;
+            }
+            token = following;
+        }
+    }
+
+    /**
+     * Removes a node without children from the index.
+     * @param node id of the node
+     * @throws IllegalStateException if the node still has children
+     */
+    public void remove(int node) {
+        if (next[enter(node)] != exit(node)) {
+            throw new IllegalStateException("Only nodes without children can be removed");
+        }
+        int before = prev[enter(node)];
+        int after = next[exit(node)];
+        next[before] = after;
+        prev[after] = before;
+        next[enter(node)] = NONE;
+        prev[enter(node)] = NONE;
+        next[exit(node)] = NONE;
+        prev[exit(node)] = NONE;
+    }
+
+    /**
+     * Checks whether a node is in the index.
+     * @param node id of the node
+     * @return true if added and not removed
+     */
+    public boolean contains(int node) {
+        return enter(node) < next.length && next[enter(node)] != NONE;
+    }
+
+    /**
+     * Checks whether one node is a strict ancestor of another.
+     * @param ancestor id of the candidate ancestor
+     * @param descendant id of the candidate descendant
+     * @return true if the descendant lies in the ancestor's subtree and is not the ancestor itself
+     */
+    public boolean isAncestor(int ancestor, int descendant) {
+        return ancestor != descendant
+                && labels[enter(ancestor)] < labels[enter(descendant)]
+                && labels[exit(descendant)] < labels[exit(ancestor)];
+    }
+
+    /**
+     * Returns the number of bytes held by the index's arrays.
+     * @return approximate heap footprint of the index
+     */
+    public long estimatedBytes() {
+        return (long) labels.length * (Long.BYTES + 2 * Integer.BYTES);
+    }
+
+    private static int enter(int node) {
+        return 2 + 2 * node;
+    }
+
+    private static int exit(int node) {
+        return 3 + 2 * node;
+    }
+
+    /**
+     * Links a detached token into the tour right after another one, relabeling if there is no gap.
+     */
+    private void insertAfter(int before, int token) {
+        if (labels[next[before]] - labels[before] < 2) {
+            // The head sentinel keeps its label, relabel around the first token instead
+            relabelAround(before == HEAD ? next[before] : before);
+        }
+        int after = next[before];
+        labels[token] = labels[before] + (labels[after] - labels[before]) / 2;
+        next[token] = after;
+        prev[token] = before;
+        next[before] = token;
+        prev[after] = token;
+    }
+
+    /**
+     * Spreads the tokens of the smallest aligned label range around the given token that is sparse
+     * enough, leaving a gap after every token.
+     */
+    private void relabelAround(int token) {
+        int first = token;
+        int last = token;
+        int count = 1;
+        for (int level = 1; level <= 62; level++) {
+            long low = labels[token] & -(1L << level);
+            long high = low + (1L << level);
+            while (prev[first] != HEAD && labels[prev[first]] >= low) {
+                first = prev[first];
+                count++;
+            }
+            while (next[last] != TAIL && labels[next[last]] < high) {
+                last = next[last];
+                count++;
+            }
+            long step = (high - Math.max(low, 1)) / (count + 1);
+            if (step >= 2 && count + 1 <= Math.pow(DENSITY, level)) {
+                long label = Math.max(low, 1);
+                for (int current = first; ; current = next[current]) {
+                    label += step;
+                    labels[current] = label;
+                    if (current == last) {
+                        return;
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException("Ancestor index is full");
+    }
+
+    private void ensureCapacity(int node) {
+        if (exit(node) < labels.length) {
+            return;
+        }
+        int tokens = Math.max(exit(node) + 1, labels.length + (labels.length >> 1));
+        labels = Arrays.copyOf(labels, tokens);
+        int grownFrom = next.length;
+        next = Arrays.copyOf(next, tokens);
+        prev = Arrays.copyOf(prev, tokens);
+        Arrays.fill(next, grownFrom, tokens, NONE);
+        Arrays.fill(prev, grownFrom, tokens, NONE);
+    }
+}
@@ -0,0 +1,34 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk device ingest: the number of accepted devices and every rejected one.
+ */
+public class BatchResult {
+    /**
+     * A device rejected from a batch, with the reason it was rejected.
+     */
+    public static class Rejection {
+        public String macAddress;
+        public String reason;
+
+        public Rejection(String macAddress, String reason) {
+            this.macAddress = macAddress;
+            this.reason = reason;
+        }
+    }
+
+    public int accepted;
+    public List<Rejection> rejected = new ArrayList<>();
+
+    /**
+     * Adds the counts and rejections of another (partial) result to this one.
+     * @param other the result to merge in
+     */
+    public void merge(BatchResult other) {
+        accepted += other.accepted;
+        rejected.addAll(other.rejected);
+    }
+}
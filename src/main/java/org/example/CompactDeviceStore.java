@@ -0,0 +1,627 @@
+package org.example;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * Device store keeping the forest on the heap in struct-of-arrays form.
+ * Devices are dense int indexes into primitive arrays: the 48-bit MAC address and uplink as longs,
+ * the parent, first child, next and previous sibling, previous and next root as ints, the descendant
+ * count in total and by type, and a one-byte type code. MAC addresses resolve through an open-addressing
+ * long to int index outside the heap, so a device costs a few dozen bytes and no objects, instead of
+ * a NetworkNode, a Device, their strings and a HashMap entry.
+ * <p>
+ * Cycle checks walk the parent indexes up from the prospective parent, O(depth), instead of keeping
+ * an ancestor index, which would add 32 bytes per device. Devices waiting for their uplink are chained
+ * through the sibling arrays under a pending index keyed by the uplink MAC address. Indexes of removed
+ * devices are reused by later additions.
+ * <p>
+ * NetworkNode and Device objects are views created on read. Child lists are materialized lazily,
+ * so walking a subtree only creates objects for the nodes actually visited.
+ * Written by a single applier thread; reads may run concurrently.
+ */
+public class CompactDeviceStore implements DeviceStore {
+    private static final int NONE = -1;
+    private static final long NO_UPLINK = -1L;
+    private static final byte DELETED = -1;
+    private static final int TYPE_COUNT = Device.deviceTypesInOrder().size();
+
+    /**
+     * The arrays of the store, swapped as one when they grow so readers never mix old and new arrays.
+     */
+    private static final class Columns {
+        private final long[] macs;
+        private final long[] uplinks;
+        private final int[] parents;
+        private final int[] firstChildren;
+        private final int[] nextSiblings;
+        private final int[] prevSiblings;
+        private final int[] prevRoots;
+        private final int[] nextRoots;
+        private final int[] descendants;
+        /**
+         * TYPE_COUNT ints per device: the number of its descendants of each type.
+         */
+        private final int[] typeDescendants;
+        private final byte[] types;
+
+        private Columns(int capacity) {
+            macs = new long[capacity];
+            uplinks = new long[capacity];
+            parents = new int[capacity];
+            firstChildren = new int[capacity];
+            nextSiblings = new int[capacity];
+            prevSiblings = new int[capacity];
+            prevRoots = new int[capacity];
+            nextRoots = new int[capacity];
+            descendants = new int[capacity];
+            typeDescendants = new int[capacity * TYPE_COUNT];
+            types = new byte[capacity];
+        }
+
+        private Columns(Columns from, int capacity) {
+            macs = Arrays.copyOf(from.macs, capacity);
+            uplinks = Arrays.copyOf(from.uplinks, capacity);
+            parents = Arrays.copyOf(from.parents, capacity);
+            firstChildren = Arrays.copyOf(from.firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(from.nextSiblings, capacity);
+            prevSiblings = Arrays.copyOf(from.prevSiblings, capacity);
+            prevRoots = Arrays.copyOf(from.prevRoots, capacity);
+            nextRoots = Arrays.copyOf(from.nextRoots, capacity);
+            descendants = Arrays.copyOf(from.descendants, capacity);
+            typeDescendants = Arrays.copyOf(from.typeDescendants, capacity * TYPE_COUNT);
+            types = Arrays.copyOf(from.types, capacity);
+        }
+
+        private int capacity() {
+            return macs.length;
+        }
+
+        /**
+         * @return bytes held by the arrays
+         */
+        private long bytes() {
+            return (long) capacity() * (2 * Long.BYTES + 7 * Integer.BYTES + TYPE_COUNT * Integer.BYTES + Byte.BYTES);
+        }
+    }
+
+    private volatile Columns columns;
+    /**
+     * Number of indexes ever handed out, including those of removed devices.
+     */
+    private int used;
+    /**
+     * Number of registered devices; written after each mutation so readers see its effects.
+     */
+    private volatile int count;
+    private volatile int rootHead = NONE;
+    private volatile int rootCount;
+    /**
+     * Number of registered devices by type code.
+     */
+    private final AtomicIntegerArray typeCounts = new AtomicIntegerArray(TYPE_COUNT);
+
+    private final DirectLongIntHashMap index;
+    /**
+     * Uplink MAC to the last device parked waiting for it; the waiting devices are doubly linked
+     * through nextSiblings (towards earlier ones) and prevSiblings.
+     */
+    private final DirectLongIntHashMap pendingChildren = new DirectLongIntHashMap(16);
+    /**
+     * Indexes of removed devices available for reuse.
+     */
+    private final Deque<Integer> freeIndexes = new ArrayDeque<>();
+
+    /**
+     * Creates a store sized for the given number of devices without growing.
+     * @param expectedSize expected number of devices
+     */
+    public CompactDeviceStore(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        columns = new Columns(capacity);
+        index = new DirectLongIntHashMap(capacity);
+    }
+
+    @Override
+    public boolean accepts(String macAddress) {
+        return MacAddress.isValid(macAddress);
+    }
+
+    /**
+     * @throws IllegalArgumentException also if a MAC address is malformed
+     */
+    @Override
+    public void put(Device device) {
+        add(MacAddress.parse(device.getMacAddress()), Device.typeCode(device.getDeviceType()), uplinkOf(device.getUplinkMacAddress()));
+    }
+
+    /**
+     * Adding the devices one at a time already rejects the last device of every cycle.
+     */
+    @Override
+    public List<Device> putAll(List<Device> devices) {
+        List<Device> rejected = new ArrayList<>();
+        for (Device device : devices) {
+            try {
+                put(device);
+            } catch (IllegalArgumentException e) {
+                rejected.add(device);
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * @throws IllegalArgumentException also if a MAC address is malformed
+     */
+    @Override
+    public Device move(String macAddress, String uplinkMacAddress) {
+        int node = indexOf(macAddress);
+        if (node == NONE) {
+            throw new IllegalArgumentException("Device not found");
+        }
+        Columns c = columns;
+        long uplink = uplinkOf(uplinkMacAddress);
+        int parent = uplink == NO_UPLINK ? NONE : index.get(uplink);
+        if (parent == node || (parent != NONE && isAncestor(c, node, parent))) {
+            throw new IllegalArgumentException("Cycle detected: cannot link node as it would create a cycle.");
+        }
+        unlink(c, node);
+        c.uplinks[node] = uplink;
+        if (parent != NONE) {
+            removeRoot(c, node);
+            attach(c, parent, node);
+        } else if (uplink != NO_UPLINK) {
+            park(c, uplink, node);
+        }
+        count = count; // Publishes the move to readers
+        return device(c, node);
+    }
+
+    @Override
+    public Device remove(String macAddress) {
+        int node = indexOf(macAddress);
+        if (node == NONE) {
+            return null;
+        }
+        Columns c = columns;
+        Device removed = device(c, node);
+        long mac = c.macs[node];
+        unlink(c, node);
+        removeRoot(c, node);
+        // Children wait for the removed MAC again, oldest first, as they were linked
+        int child = lastChild(c, node);
+        while (child != NONE) {
+            int later = c.prevSiblings[child];
+            c.parents[child] = NONE;
+            addRoot(c, child);
+            park(c, mac, child);
+            child = later;
+        }
+        c.firstChildren[node] = NONE;
+        clearDescendants(c, node);
+        index.remove(mac);
+        typeCounts.decrementAndGet(c.types[node]);
+        c.types[node] = DELETED;
+        freeIndexes.push(node);
+        count = count - 1;
+        return removed;
+    }
+
+    @Override
+    public boolean isAncestor(String ancestorMacAddress, String descendantMacAddress) {
+        int ancestor = indexOf(ancestorMacAddress);
+        int descendant = indexOf(descendantMacAddress);
+        return ancestor != NONE && descendant != NONE && isAncestor(columns, ancestor, descendant);
+    }
+
+    @Override
+    public NetworkNode get(String macAddress) {
+        int node = indexOf(macAddress);
+        return node == NONE ? null : view(columns, node);
+    }
+
+    @Override
+    public boolean contains(String macAddress) {
+        return indexOf(macAddress) != NONE;
+    }
+
+    @Override
+    public List<NetworkNode> children(String macAddress) {
+        NetworkNode node = get(macAddress);
+        return node == null ? null : node.children;
+    }
+
+    @Override
+    public Collection<NetworkNode> roots() {
+        int limit = count;
+        Columns c = columns;
+        List<NetworkNode> result = new ArrayList<>(rootCount);
+        // Bounded by the device count, so a list changing under the walk cannot loop forever
+        for (int root = rootHead; root != NONE && result.size() < limit; root = c.nextRoots[root]) {
+            result.add(view(c, root));
+        }
+        return result;
+    }
+
+    @Override
+    public int count(byte typeCode) {
+        return typeCounts.get(typeCode);
+    }
+
+    @Override
+    public int rootCount() {
+        return rootCount;
+    }
+
+    @Override
+    public List<NetworkNode> ancestors(String macAddress) {
+        int node = indexOf(macAddress);
+        if (node == NONE) {
+            return null;
+        }
+        Columns c = columns;
+        List<NetworkNode> path = new ArrayList<>();
+        for (int ancestor = c.parents[node]; ancestor != NONE && path.size() < count; ancestor = c.parents[ancestor]) {
+            path.add(view(c, ancestor));
+        }
+        return path;
+    }
+
+    @Override
+    public Map<String, List<Device>> orphans() {
+        Columns c = columns;
+        Map<String, List<Device>> result = new HashMap<>();
+        pendingChildren.forEach((uplink, last) -> {
+            List<Device> waiting = new ArrayList<>();
+            for (int node = last; node != NONE; node = c.nextSiblings[node]) {
+                waiting.add(device(c, node));
+            }
+            Collections.reverse(waiting);
+            result.put(MacAddress.format(uplink), waiting);
+        });
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public void forEach(Consumer<Device> action) {
+        Columns c = columns;
+        int limit = used;
+        for (int node = 0; node < limit; node++) {
+            if (c.types[node] != DELETED) {
+                action.accept(device(c, node));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes held by the arrays on the heap and by both indexes outside it.
+     * @return footprint of the store
+     */
+    public long estimatedBytes() {
+        return columns.bytes() + index.estimatedBytes() + pendingChildren.estimatedBytes();
+    }
+
+    /**
+     * The arrays are reclaimed by the garbage collector; the indexes' direct buffers with them.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Fills an index, reusing one of a removed device if any, links it to its parent if registered
+     * and adopts the devices waiting for it.
+     * @throws IllegalArgumentException if the device already exists or would create a cycle
+     */
+    private void add(long mac, byte type, long uplink) {
+        if (index.get(mac) != DirectLongIntHashMap.MISSING) {
+            throw new IllegalArgumentException("Device with this MAC address already exists");
+        }
+        if (uplink == mac) {
+            throw new IllegalArgumentException("Device cannot be its own uplink");
+        }
+        Columns c = columns;
+        int parent = uplink == NO_UPLINK ? NONE : index.get(uplink);
+        if (parent != NONE) {
+            // The new device's subtree will be the trees waiting for it, whose tops wait for its MAC
+            int top = parent;
+            while (c.parents[top] != NONE) {
+                top = c.parents[top];
+            }
+            if (c.uplinks[top] == mac) {
+                throw new IllegalArgumentException("Cycle detected: cannot link node as it would create a cycle.");
+            }
+        }
+
+        boolean reused = !freeIndexes.isEmpty();
+        if (!reused && used == c.capacity()) {
+            c = grow(c);
+        }
+        int node = reused ? freeIndexes.pop() : used++;
+        c.macs[node] = mac;
+        c.uplinks[node] = uplink;
+        c.types[node] = type;
+        index.put(mac, node);
+        link(c, node, parent);
+        typeCounts.incrementAndGet(type);
+        count = count + 1;
+    }
+
+    /**
+     * Links a filled index: attaches it to its parent or parks it under its missing uplink as a root,
+     * then adopts the devices waiting for it.
+     */
+    private void link(Columns c, int node, int parent) {
+        c.parents[node] = NONE;
+        c.firstChildren[node] = NONE;
+        c.nextSiblings[node] = NONE;
+        c.prevSiblings[node] = NONE;
+        clearDescendants(c, node);
+        long uplink = c.uplinks[node];
+        if (parent != NONE) {
+            attach(c, parent, node);
+        } else {
+            addRoot(c, node);
+            if (uplink != NO_UPLINK) {
+                park(c, uplink, node);
+            }
+        }
+
+        // Adopt the waiting devices oldest first, so children stay in the order they were added
+        int waiting = pendingChildren.remove(c.macs[node]);
+        if (waiting != DirectLongIntHashMap.MISSING) {
+            while (c.nextSiblings[waiting] != NONE) {
+                waiting = c.nextSiblings[waiting];
+            }
+            while (waiting != NONE) {
+                int later = c.prevSiblings[waiting];
+                removeRoot(c, waiting);
+                attach(c, node, waiting);
+                waiting = later;
+            }
+        }
+    }
+
+    /**
+     * Detaches a device from its parent, adjusting the ancestors' descendant counts, and makes it
+     * a root; a device that is a root already is taken out of the pending index instead.
+     */
+    private void unlink(Columns c, int node) {
+        int parent = c.parents[node];
+        if (parent == NONE) {
+            long uplink = c.uplinks[node];
+            if (uplink != NO_UPLINK) {
+                unpark(c, uplink, node);
+            }
+            return;
+        }
+        int prev = c.prevSiblings[node];
+        int next = c.nextSiblings[node];
+        if (prev == NONE) {
+            c.firstChildren[parent] = next;
+        } else {
+            c.nextSiblings[prev] = next;
+        }
+        if (next != NONE) {
+            c.prevSiblings[next] = prev;
+        }
+        c.prevSiblings[node] = NONE;
+        c.nextSiblings[node] = NONE;
+        addSubtree(c, parent, node, -1);
+        c.parents[node] = NONE;
+        addRoot(c, node);
+    }
+
+    /**
+     * Links a child under a parent and adds the child's subtree to every ancestor's descendant counts.
+     * Children are prepended; views list them in reverse, i.e. in the order they were linked.
+     */
+    private void attach(Columns c, int parent, int child) {
+        int first = c.firstChildren[parent];
+        c.parents[child] = parent;
+        c.prevSiblings[child] = NONE;
+        c.nextSiblings[child] = first;
+        if (first != NONE) {
+            c.prevSiblings[first] = child;
+        }
+        c.firstChildren[parent] = child;
+        addSubtree(c, parent, child, 1);
+    }
+
+    /**
+     * Adds (sign 1) or subtracts (sign -1) the subtree of a child to the descendant counts of a parent and its ancestors.
+     */
+    private void addSubtree(Columns c, int parent, int child, int sign) {
+        int subtreeSize = sign * (c.descendants[child] + 1);
+        byte childType = c.types[child];
+        for (int ancestor = parent; ancestor != NONE; ancestor = c.parents[ancestor]) {
+            c.descendants[ancestor] += subtreeSize;
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                int subtreeOfType = c.typeDescendants[child * TYPE_COUNT + type] + (type == childType ? 1 : 0);
+                c.typeDescendants[ancestor * TYPE_COUNT + type] += sign * subtreeOfType;
+            }
+        }
+    }
+
+    private void clearDescendants(Columns c, int node) {
+        c.descendants[node] = 0;
+        Arrays.fill(c.typeDescendants, node * TYPE_COUNT, (node + 1) * TYPE_COUNT, 0);
+    }
+
+    /**
+     * Parks a root under the uplink it waits for, as the latest waiting device.
+     */
+    private void park(Columns c, long uplink, int node) {
+        int last = pendingChildren.get(uplink); // MISSING doubles as NONE, both are -1
+        c.prevSiblings[node] = NONE;
+        c.nextSiblings[node] = last;
+        if (last != NONE) {
+            c.prevSiblings[last] = node;
+        }
+        pendingChildren.put(uplink, node);
+    }
+
+    private void unpark(Columns c, long uplink, int node) {
+        int prev = c.prevSiblings[node];
+        int next = c.nextSiblings[node];
+        if (prev == NONE) {
+            if (next == NONE) {
+                pendingChildren.remove(uplink);
+            } else {
+                pendingChildren.put(uplink, next);
+            }
+        } else {
+            c.nextSiblings[prev] = next;
+        }
+        if (next != NONE) {
+            c.prevSiblings[next] = prev;
+        }
+        c.prevSiblings[node] = NONE;
+        c.nextSiblings[node] = NONE;
+    }
+
+    private void addRoot(Columns c, int node) {
+        int head = rootHead;
+        c.prevRoots[node] = NONE;
+        c.nextRoots[node] = head;
+        if (head != NONE) {
+            c.prevRoots[head] = node;
+        }
+        rootHead = node;
+        rootCount = rootCount + 1;
+    }
+
+    private void removeRoot(Columns c, int node) {
+        int prev = c.prevRoots[node];
+        int next = c.nextRoots[node];
+        if (prev == NONE) {
+            rootHead = next;
+        } else {
+            c.nextRoots[prev] = next;
+        }
+        if (next != NONE) {
+            c.prevRoots[next] = prev;
+        }
+        c.prevRoots[node] = NONE;
+        c.nextRoots[node] = NONE;
+        rootCount = rootCount - 1;
+    }
+
+    /**
+     * Walks up the parents of a device, so the check costs O(depth).
+     */
+    private static boolean isAncestor(Columns c, int ancestor, int descendant) {
+        for (int node = c.parents[descendant]; node != NONE; node = c.parents[node]) {
+            if (node == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int lastChild(Columns c, int node) {
+        int last = c.firstChildren[node];
+        if (last == NONE) {
+            return NONE;
+        }
+        while (c.nextSiblings[last] != NONE) {
+            last = c.nextSiblings[last];
+        }
+        return last;
+    }
+
+    private int indexOf(String macAddress) {
+        if (count == 0 || !MacAddress.isValid(macAddress)) {
+            return NONE;
+        }
+        return index.get(MacAddress.parse(macAddress));
+    }
+
+    private static long uplinkOf(String uplinkMacAddress) {
+        return uplinkMacAddress == null || uplinkMacAddress.isEmpty() ? NO_UPLINK : MacAddress.parse(uplinkMacAddress);
+    }
+
+    private static Device device(Columns c, int node) {
+        long uplink = c.uplinks[node];
+        return new Device(
+                MacAddress.format(c.macs[node]),
+                Device.typeName(c.types[node]),
+                uplink == NO_UPLINK ? "" : MacAddress.format(uplink));
+    }
+
+    private NetworkNode view(Columns c, int node) {
+        NetworkNode view = new NetworkNode(device(c, node));
+        view.hasParent = c.parents[node] != NONE;
+        view.descendantCount = c.descendants[node];
+        if (view.descendantCount > 0) {
+            view.descendantTypeCounts = Arrays.copyOfRange(c.typeDescendants, node * TYPE_COUNT, (node + 1) * TYPE_COUNT);
+        }
+        view.children = new ChildList(c, node);
+        return view;
+    }
+
+    /**
+     * Read-only child list of a view, resolved on first access.
+     */
+    private final class ChildList extends AbstractList<NetworkNode> {
+        private final Columns columns;
+        private final int parent;
+        private int[] children;
+
+        private ChildList(Columns columns, int parent) {
+            this.columns = columns;
+            this.parent = parent;
+        }
+
+        @Override
+        public NetworkNode get(int i) {
+            return view(columns, children()[i]);
+        }
+
+        @Override
+        public int size() {
+            return children().length;
+        }
+
+        private int[] children() {
+            if (children == null) {
+                int[] newestFirst = new int[Math.min(columns.descendants[parent], 16)];
+                int linked = 0;
+                int limit = count;
+                for (int child = columns.firstChildren[parent]; child != NONE && linked < limit; child = columns.nextSiblings[child]) {
+                    if (linked == newestFirst.length) {
+                        newestFirst = Arrays.copyOf(newestFirst, Math.max(16, linked * 2));
+                    }
+                    newestFirst[linked++] = child;
+                }
+                // Linked first comes first
+                int[] ordered = new int[linked];
+                for (int i = 0; i < linked; i++) {
+                    ordered[i] = newestFirst[linked - 1 - i];
+                }
+                children = ordered;
+            }
+            return children;
+        }
+    }
+
+    /**
+     * Grows the arrays by half. Readers holding the previous arrays keep reading the devices they had.
+     */
+    private Columns grow(Columns c) {
+        int capacity = c.capacity();
+        if (capacity == Integer.MAX_VALUE / TYPE_COUNT) {
+            throw new IllegalStateException("Compact device store is full");
+        }
+        Columns grown = new Columns(c, (int) Math.min(Integer.MAX_VALUE / TYPE_COUNT, capacity + (capacity >> 1)));
+        columns = grown;
+        return grown;
+    }
+}
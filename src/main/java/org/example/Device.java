@@ -1,5 +1,6 @@
 package org.example;
 
+import java.util.List;
 import java.util.Map;
 
 public class Device implements Comparable<Device> {
@@ -13,6 +14,11 @@ public class Device implements Comparable<Device> {
         "Gateway", 3
     );
 
+    private static final List<String> deviceTypesInOrder = deviceTypePriority.entrySet().stream()
+        .sorted(Map.Entry.comparingByValue())
+        .map(Map.Entry::getKey)
+        .toList();
+
     public Device() {}
 
     public Device(
@@ -48,6 +54,37 @@ public class Device implements Comparable<Device> {
         this.uplinkMacAddress = uplinkMacAddress;
     }
 
+    /**
+     * Returns the supported device types in the order compareTo sorts them.
+     * @return device types, lowest priority first
+     */
+    public static List<String> deviceTypesInOrder() {
+        return deviceTypesInOrder;
+    }
+
+    /**
+     * Returns the compact one-byte code of a device type: its position in deviceTypesInOrder.
+     * @param deviceType a supported device type
+     * @return the type code
+     * @throws IllegalArgumentException if the device type is not supported
+     */
+    public static byte typeCode(String deviceType) {
+        Integer priority = deviceType == null ? null : deviceTypePriority.get(deviceType);
+        if (priority == null) {
+            throw new IllegalArgumentException("Invalid device type");
+        }
+        return (byte) (priority - 1);
+    }
+
+    /**
+     * Returns the device type for a code produced by typeCode.
+     * @param code the type code
+     * @return the device type
+     */
+    public static String typeName(byte code) {
+        return deviceTypesInOrder.get(code);
+    }
+
     @Override
     public int compareTo(Device other) {
         return deviceTypePriority.get(this.deviceType) - deviceTypePriority.get(other.deviceType);
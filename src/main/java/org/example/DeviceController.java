@@ -1,14 +1,42 @@
 package org.example;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * REST controller for managing network devices and their topology.
  * Provides endpoints for adding devices, retrieving devices, and network trees.
+ * All topology mutations are applied by the single applier thread of the ingest pipeline.
  */
 @RestController
 @RequestMapping("/api")
@@ -16,18 +44,258 @@ public class DeviceController {
 
     private static final Set<String> VALID_DEVICE_TYPES = Set.of("Access Point", "Switch", "Gateway");
 
+    private static final int INGEST_CAPACITY = 65_536;
+    private static final int INGEST_BATCH_SIZE = 1_024;
+    private static final int BULK_CHUNK_SIZE = 8_192;
+    private static final long DEFAULT_SNAPSHOT_INTERVAL = 1_000_000;
+    private static final long DEFAULT_CACHE_BYTES = 64L << 20;
+    private static final int DEFAULT_CACHE_ENTRY_BYTES = 4 << 20;
+    private static final int DEFAULT_COALESCE_BYTES = 64 << 20;
     /**
-     * In-memory store of devices as NetworkNode objects, keyed by MAC address.
+     * Lower bound of the encoded size of one node, used to skip encoding trees that cannot be buffered.
      */
-    private final Map<String, NetworkNode> devices = new HashMap<>();
+    private static final int MIN_ENCODED_NODE_BYTES = 100;
+    private static final int EVENT_HISTORY_SIZE = 65_536;
+    private static final int EVENT_SUBSCRIBER_BUFFER = 256;
+    private static final int DEFAULT_SEARCH_LIMIT = 1_000;
+    private static final int REPLICATION_HISTORY_SIZE = 1_000_000;
+    private static final int REPLICATION_SUBSCRIBER_BUFFER = 256;
+    private static final int BINARY_BUFFER_BYTES = 64 << 10;
+    /**
+     * Response header carrying the topology version a tree was read from.
+     */
+    public static final String TOPOLOGY_VERSION_HEADER = "X-Topology-Version";
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Store of the device forest, including its roots and the devices waiting for their uplink.
+     * Written by the ingest applier thread only, read concurrently by request threads.
+     */
+    private final DeviceStore store;
+
+    /**
+     * Devices sorted by type priority, then MAC address, maintained on insert.
+     */
+    private final DeviceTypeIndex devicesByType = new DeviceTypeIndex();
+    private final DeviceMacIndex devicesByMac = new DeviceMacIndex();
+
+    /**
+     * Single-writer pipeline through which every topology mutation is applied.
+     */
+    private final DeviceIngestPipeline pipeline = new DeviceIngestPipeline(INGEST_CAPACITY, INGEST_BATCH_SIZE, this::afterBatch);
+
+    /**
+     * Write-ahead log and snapshots, or null when the topology is kept in memory only.
+     */
+    private final DevicePersistence persistence;
+
+    /**
+     * Encoded subtree responses with their ETags, invalidated along the uplink chain of every mutation.
+     */
+    private final SubtreeResponseCache responseCache;
+
+    /**
+     * Coalesces concurrent identical tree reads based on the same topology, so they share one traversal and encoding.
+     */
+    private final SingleFlight<TreeRead, SubtreeResponseCache.Entry> treeReads = new SingleFlight<>();
+
+    /**
+     * Size of the largest tree response that is encoded into a buffer and shared; larger ones are streamed per request.
+     */
+    private final int coalesceMaxBytes;
+
+    /**
+     * Change feed of /network/events, flushed once per ingest batch.
+     */
+    private final TopologyEventFeed eventFeed = new TopologyEventFeed(EVENT_HISTORY_SIZE, EVENT_SUBSCRIBER_BUFFER);
+
+    /**
+     * Mutation stream of /replication/stream, flushed once per ingest batch after the batch is durable.
+     */
+    private final ReplicationFeed replicationFeed = new ReplicationFeed(REPLICATION_HISTORY_SIZE, REPLICATION_SUBSCRIBER_BUFFER,
+            this::replicationSnapshot);
+
+    /**
+     * Follower of the primary when this instance is a read replica, else null.
+     */
+    private volatile ReplicationFollower follower;
+    private volatile String primaryUrl;
+
+    /**
+     * Parallel search of /network/{macAddress}/search, on the common fork-join pool.
+     */
+    private final SubtreeSearch subtreeSearch = new SubtreeSearch();
+
+    /**
+     * Counters, timers and gauges exposed through the Prometheus endpoint.
+     */
+    private final DeviceMetrics metrics;
+
+    /**
+     * Set while the topology is rebuilt from disk, so recovered mutations are not logged again.
+     */
+    private boolean recovering = false;
+
+    /**
+     * Creates a controller keeping the topology in memory only.
+     */
+    public DeviceController() {
+        this(new InMemoryDeviceStore(), null, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Creates a controller with an in-memory store, recovering the topology from the persistence directory if one is set.
+     * @param persistenceDir directory for the write-ahead log and snapshots, or null/empty to keep the topology in memory only
+     * @param snapshotInterval number of logged mutations after which a snapshot is written
+     */
+    public DeviceController(String persistenceDir, long snapshotInterval) {
+        this(new InMemoryDeviceStore(), persistenceDir, snapshotInterval);
+    }
+
+    /**
+     * Creates a controller on top of the given store, recovering the topology from the persistence directory if one is set.
+     * Devices already in the store (e.g. a reopened off-heap store) are indexed by type and published first.
+     * The controller closes the store when it is closed itself.
+     * @param store store of the device forest
+     * @param persistenceDir directory for the write-ahead log and snapshots, or null/empty to keep the topology in memory only
+     * @param snapshotInterval number of logged mutations after which a snapshot is written
+     */
+    public DeviceController(DeviceStore store, String persistenceDir, long snapshotInterval) {
+        this(store, new DeviceMetrics(new SimpleMeterRegistry()), persistenceDir, snapshotInterval,
+                DEFAULT_CACHE_BYTES, DEFAULT_CACHE_ENTRY_BYTES, DEFAULT_COALESCE_BYTES, null);
+    }
+
+    /**
+     * Creates a controller on top of the given store, recovering the topology from the persistence directory if one is set.
+     * Devices already in the store (e.g. a reopened off-heap store) are indexed by type and published first.
+     * The controller closes the store when it is closed itself.
+     * @param store store of the device forest
+     * @param metrics meters the controller records to
+     * @param persistenceDir directory for the write-ahead log and snapshots, or null/empty to keep the topology in memory only
+     * @param snapshotInterval number of logged mutations after which a snapshot is written
+     * @param cacheMaxBytes total size of the cached subtree responses
+     * @param cacheMaxEntryBytes size of the largest subtree response that is cached
+     * @param coalesceMaxBytes size of the largest tree response that concurrent identical requests share
+     * @param primary base URL of the primary to follow as a read replica, or null/empty to accept writes
+     */
+    @Autowired
+    public DeviceController(
+            DeviceStore store,
+            DeviceMetrics metrics,
+            @Value("${devicenet.persistence.dir:}") String persistenceDir,
+            @Value("${devicenet.persistence.snapshot-interval:1000000}") long snapshotInterval,
+            @Value("${devicenet.cache.max-bytes:67108864}") long cacheMaxBytes,
+            @Value("${devicenet.cache.max-entry-bytes:4194304}") int cacheMaxEntryBytes,
+            @Value("${devicenet.coalesce.max-bytes:67108864}") int coalesceMaxBytes,
+            @Value("${devicenet.replication.primary:}") String primary) {
+        this.store = store;
+        this.metrics = metrics;
+        this.responseCache = new SubtreeResponseCache(cacheMaxBytes, cacheMaxEntryBytes);
+        this.coalesceMaxBytes = Math.max(coalesceMaxBytes, responseCache.maxEntryBytes());
+        metrics.observe(store, responseCache, treeReads, eventFeed);
+        metrics.observe(replicationFeed);
+        store.forEach(device -> {
+            devicesByType.add(device);
+            devicesByMac.add(device);
+        });
+        if (persistenceDir == null || persistenceDir.isEmpty()) {
+            persistence = null;
+            // Publishes the devices already in the store as the first version
+            await(pipeline.submit(() -> null));
+        } else {
+            try {
+                persistence = new DevicePersistence(Path.of(persistenceDir), snapshotInterval);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            await(pipeline.submit(this::recover));
+        }
+        if (primary != null && !primary.isEmpty()) {
+            follow(ReplicationFollower.http(primary));
+            primaryUrl = primary;
+        }
+    }
+
+    /**
+     * Turns this instance into a read replica of a primary: the primary's mutations are applied as they arrive,
+     * and writes are refused from now on.
+     * @param connector opens the primary's replication stream
+     * @throws IllegalStateException if the instance already follows a primary
+     */
+    public synchronized void follow(ReplicationFollower.Connector connector) {
+        if (follower != null) {
+            throw new IllegalStateException("Already following a primary");
+        }
+        follower = new ReplicationFollower(connector, (reset, groups, whenApplied) ->
+                pipeline.submit(() -> applyReplicated(reset, groups, whenApplied)));
+        metrics.observe(follower);
+    }
     
     /**
      * Returns a sorted list of all devices.
      * @return sorted list of Device objects
      */
-    @GetMapping("/devices")
     public List<Device> listDevices() {
-        return sortedDevices();
+        return listDevices(null, null, null);
+    }
+
+    /**
+     * Returns a page of devices sorted by device type, then MAC address, served from the type index.
+     * @param limit maximum number of devices to return, or null for all of them
+     * @param after MAC address of the last device of the previous page, or null for the first page
+     * @param type only list devices of this type, or null for all types
+     * @return sorted list of Device objects
+     */
+    public List<Device> listDevices(Integer limit, String after, String type) {
+        return listDevices(limit, after, type, null, null);
+    }
+
+    /**
+     * Returns a page of devices sorted by device type, then MAC address, served from the type index.
+     * The cursor is a position, so a page resumes correctly after the last device of the previous page was removed.
+     * The position's device type is taken from afterType, else from the cursor device if still registered, else from type.
+     * With a MAC prefix, only the devices under that prefix are listed, sorted by MAC address and served from the MAC index.
+     * @param limit maximum number of devices to return, or null for all of them
+     * @param after MAC address of the last device of the previous page, or null for the first page
+     * @param type only list devices of this type, or null for all types
+     * @param macPrefix start of the MAC address, e.g. an OUI "AA:BB:CC", or null for all devices
+     * @param afterType device type of the last device of the previous page, or null to look it up
+     * @return sorted list of Device objects
+     * @throws ResponseStatusException 400 if the cursor's device type is not given and cannot be looked up
+     */
+    @GetMapping("/devices")
+    public List<Device> listDevices(
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String macPrefix,
+            @RequestParam(required = false) String afterType) {
+        if (limit != null && limit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be positive");
+        }
+        if ((type != null && !VALID_DEVICE_TYPES.contains(type)) || (afterType != null && !VALID_DEVICE_TYPES.contains(afterType))) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid device type");
+        }
+        if (macPrefix != null && !macPrefix.isEmpty()) {
+            // The cursor only needs a position in MAC address order, so it may be any address
+            try {
+                return devicesByMac.byPrefix(macPrefix, after, type, limit == null ? Integer.MAX_VALUE : limit);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid MAC prefix");
+            }
+        }
+        String cursorType = null;
+        if (after != null) {
+            NetworkNode afterNode = afterType == null ? store.get(after) : null;
+            cursorType = afterType != null ? afterType : afterNode != null ? afterNode.device.getDeviceType() : type;
+            if (cursorType == null) {
+                // Removed since, and its position among the types is unknown
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown cursor device");
+            }
+        }
+        return devicesByType.page(type, cursorType, after, limit == null ? Integer.MAX_VALUE : limit);
     }
 
     /**
@@ -37,10 +305,29 @@ public class DeviceController {
      */
     @GetMapping("/devices/{macAddress}")
     public Device getDevice(@PathVariable String macAddress) {
-        if (!devices.containsKey(macAddress)) {
+        NetworkNode node = store.get(macAddress);
+        return node == null ? null : node.device;
+    }
+
+    /**
+     * Returns a page of the children of a device, sorted by MAC address and served from the (uplink, MAC address) index.
+     * @param macAddress MAC address of the device
+     * @param after MAC address of the last child of the previous page, or null for the first page
+     * @param limit maximum number of children to return, or null for all of them
+     * @return the children following the cursor, or null if the device is not found
+     */
+    @GetMapping("/devices/{macAddress}/children")
+    public List<Device> getChildren(
+            @PathVariable String macAddress,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit) {
+        if (limit != null && limit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be positive");
+        }
+        if (!store.contains(macAddress)) {
             return null;
         }
-        return devices.get(macAddress).device;
+        return devicesByMac.children(macAddress, after, limit == null ? Integer.MAX_VALUE : limit);
     }
 
     /**
@@ -51,70 +338,1097 @@ public class DeviceController {
      */
     @PostMapping("/devices")
     public Device addDevice(@RequestBody Device device) {
-        // Basic validation
-        if (device.getMacAddress() == null || device.getMacAddress().isEmpty()) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "MAC address is required");
-        }
-        if (devices.containsKey(device.getMacAddress())) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Device with this MAC address already exists");
-        }
-        if (device.getDeviceType() == null || device.getDeviceType().isEmpty()) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Device type is required");
-        }
-        if (VALID_DEVICE_TYPES.stream().noneMatch(dt -> dt.equals(device.getDeviceType()))) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid device type");
+        checkWritable();
+        // Basic validation, done on the request thread before the device is enqueued
+        DeviceRejection rejection = validationError(device);
+        if (rejection != null) {
+            metrics.rejected(rejection);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, rejection.message);
         }
-        if (device.getMacAddress().equals(device.getUplinkMacAddress())) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Device cannot be its own uplink");
+        return await(pipeline.submit(() -> applyAddDevice(device)));
+    }
+
+    /**
+     * Registers a validated device and links it into the topology. Runs on the ingest applier thread.
+     * @param device Device object to add
+     * @return the added Device object
+     * @throws ResponseStatusException if the device already exists or would create a cycle
+     */
+    private Device applyAddDevice(Device device) {
+        if (store.contains(device.getMacAddress())) {
+            metrics.rejected(DeviceRejection.DUPLICATE);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, DeviceRejection.DUPLICATE.message);
         }
 
         // Potentially add that the uplink must have priority equal or higher.
         // This was not specified in the requirements, so skipping for now.
     
-        NetworkNode node = new NetworkNode(device);
-        devices.put(device.getMacAddress(), node);
+        long start = System.nanoTime();
         try {
-            NetworkNode.linkNode(node, devices);
+            store.put(device);
         } catch (IllegalArgumentException e) {
-            devices.remove(device.getMacAddress()); // Clean up if linking fails
+            // Validation and the duplicate check ran before, so the store can only refuse the link
+            metrics.rejected(DeviceRejection.CYCLE);
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
         }
+        metrics.linkedDevice(System.nanoTime() - start);
+        metrics.added(1);
+        devicesByType.add(device);
+        devicesByMac.add(device);
+        DeviceMutation mutation = DeviceMutation.add(device);
+        publish(mutation);
+        replicate(List.of(mutation));
+        recordAdded(List.of(device));
+        invalidateCached(List.of(), List.of(device.getMacAddress()));
         return device;
     }
 
     /**
-     * Returns the network subtree starting from the given root MAC address.
+     * Moves a device, with its subtree, under a new uplink, e.g. after an access point is recabled.
+     * Only the uplink can be changed. If the new uplink is not registered, the device becomes a root
+     * waiting for it, like a device added before its uplink.
+     * @param macAddress MAC address of the device
+     * @param patch the fields to change; uplinkMacAddress is required, empty to make the device a root
+     * @return the device with its new uplink
+     * @throws ResponseStatusException 404 if the device does not exist, 400 if the move is invalid or would create a cycle
+     */
+    @PatchMapping("/devices/{macAddress}")
+    public Device moveDevice(@PathVariable String macAddress, @RequestBody Device patch) {
+        checkWritable();
+        if (patch.getMacAddress() != null && !patch.getMacAddress().equals(macAddress)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "MAC address cannot be changed");
+        }
+        String uplink = patch.getUplinkMacAddress();
+        if (uplink == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Uplink MAC address is required");
+        }
+        if (uplink.equals(macAddress)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Device cannot be its own uplink");
+        }
+        if (!uplink.isEmpty() && !store.accepts(uplink)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid MAC address");
+        }
+        return await(pipeline.submit(() -> applyMoveDevice(macAddress, patch.getDeviceType(), uplink)));
+    }
+
+    /**
+     * Moves a device under a new uplink. Runs on the ingest applier thread.
+     * @param macAddress MAC address of the device
+     * @param deviceType device type given with the change, or null
+     * @param uplinkMacAddress MAC address of the new uplink, empty for none
+     * @return the device with its new uplink
+     */
+    private Device applyMoveDevice(String macAddress, String deviceType, String uplinkMacAddress) {
+        NetworkNode node = store.get(macAddress);
+        if (node == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Device not found");
+        }
+        if (deviceType != null && !deviceType.equals(node.device.getDeviceType())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Device type cannot be changed");
+        }
+        Set<String> before = affectedSubtrees(macAddress);
+        Device previous = node.device;
+        Device moved;
+        try {
+            moved = store.move(macAddress, uplinkMacAddress);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        devicesByType.add(moved);
+        devicesByMac.move(previous, moved);
+        DeviceMutation mutation = DeviceMutation.move(moved);
+        publish(mutation);
+        replicate(List.of(mutation));
+        if (!recovering) {
+            eventFeed.record(TopologyEvent.moved(moved));
+            if (store.get(macAddress).hasParent) {
+                eventFeed.record(TopologyEvent.linked(macAddress, uplinkMacAddress));
+            }
+        }
+        invalidateCached(before, List.of(macAddress));
+        return moved;
+    }
+
+    /**
+     * Removes a device. Its children stay registered and become roots waiting for it,
+     * so they are linked below it again if it is added back.
+     * @param macAddress MAC address of the device
+     * @return the removed device
+     * @throws ResponseStatusException 404 if the device does not exist
+     */
+    @DeleteMapping("/devices/{macAddress}")
+    public Device removeDevice(@PathVariable String macAddress) {
+        checkWritable();
+        return await(pipeline.submit(() -> applyRemoveDevice(macAddress)));
+    }
+
+    /**
+     * Removes a device. Runs on the ingest applier thread.
+     * @param macAddress MAC address of the device
+     * @return the removed device
+     */
+    private Device applyRemoveDevice(String macAddress) {
+        Set<String> before = affectedSubtrees(macAddress);
+        Device removed = store.remove(macAddress);
+        if (removed == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Device not found");
+        }
+        devicesByType.remove(removed);
+        devicesByMac.remove(removed);
+        DeviceMutation mutation = DeviceMutation.remove(removed);
+        publish(mutation);
+        replicate(List.of(mutation));
+        if (!recovering) {
+            eventFeed.record(TopologyEvent.removed(removed));
+        }
+        invalidateCached(before, List.of());
+        return removed;
+    }
+
+    /**
+     * Adds many devices at once. The body is either a JSON array of devices or newline-delimited
+     * JSON (one device object per line), and is parsed as a stream: devices are validated as they
+     * are read and handed to the ingest pipeline in chunks, each linked in a single pass.
+     * Devices parsed before a malformed part of the body are still added.
+     * @param body request body stream
+     * @return number of accepted devices and the rejected MAC addresses with reasons
+     * @throws IOException if the body cannot be read
+     */
+    @PostMapping("/devices/batch")
+    public BatchResult addDevices(InputStream body) throws IOException {
+        checkWritable();
+        BulkIngest ingest = new BulkIngest();
+        String parseError = null;
+        try (JsonParser parser = JSON.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token == JsonToken.START_OBJECT) {
+                ingest.add(parser.readValueAs(Device.class));
+                token = parser.nextToken();
+            }
+            if (array ? token != JsonToken.END_ARRAY : token != null) {
+                parseError = "Expected a JSON array or newline-delimited JSON objects of devices";
+            }
+        } catch (JsonProcessingException e) {
+            parseError = "Malformed batch body: " + e.getOriginalMessage();
+        }
+        return ingest.finish(parseError);
+    }
+
+    /**
+     * Adds many devices at once from a body in the binary format of TopologyBinaryFormat: devices one after
+     * the other up to the end of the body. Read as a stream and ingested in chunks, like the JSON variant.
+     * @param body request body stream
+     * @return number of accepted devices and the rejected MAC addresses with reasons
+     */
+    @PostMapping(path = "/devices/batch", consumes = TopologyBinaryFormat.MEDIA_TYPE_VALUE)
+    public BatchResult addDevicesBinary(InputStream body) {
+        checkWritable();
+        BulkIngest ingest = new BulkIngest();
+        String parseError = null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(body, BINARY_BUFFER_BYTES));
+        try {
+            int flags;
+            while ((flags = TopologyBinaryFormat.readFlags(in)) >= 0) {
+                ingest.add(TopologyBinaryFormat.readDevice(flags, in));
+            }
+        } catch (EOFException e) {
+            parseError = "Truncated batch body";
+        } catch (IOException e) {
+            parseError = "Malformed batch body: " + e.getMessage();
+        }
+        return ingest.finish(parseError);
+    }
+
+    /**
+     * Validates the devices of a bulk request as they are read and hands them to the ingest pipeline in chunks.
+     */
+    private class BulkIngest {
+        private final BatchResult result = new BatchResult();
+        private final List<CompletableFuture<BatchResult>> pending = new ArrayList<>();
+        private List<Device> chunk = new ArrayList<>(BULK_CHUNK_SIZE);
+
+        void add(Device device) {
+            DeviceRejection rejection = validationError(device);
+            if (rejection != null) {
+                metrics.rejected(rejection);
+                result.rejected.add(new BatchResult.Rejection(device.getMacAddress(), rejection.message));
+                return;
+            }
+            chunk.add(device);
+            if (chunk.size() == BULK_CHUNK_SIZE) {
+                List<Device> full = chunk;
+                pending.add(pipeline.submit(() -> applyAddDevices(full)));
+                chunk = new ArrayList<>(BULK_CHUNK_SIZE);
+            }
+        }
+
+        /**
+         * Submits the last chunk and waits for every chunk to be applied.
+         * @param parseError why the body could not be read to its end, or null
+         * @return the merged result of all chunks
+         * @throws ResponseStatusException 400 if there was a parse error, after the devices before it were added
+         */
+        BatchResult finish(String parseError) {
+            if (!chunk.isEmpty()) {
+                List<Device> last = chunk;
+                pending.add(pipeline.submit(() -> applyAddDevices(last)));
+            }
+            for (CompletableFuture<BatchResult> future : pending) {
+                result.merge(await(future));
+            }
+            if (parseError != null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        parseError + " (" + result.accepted + " devices before it were added)");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Registers a chunk of validated devices and links them in one pass. Runs on the ingest applier thread.
+     * @param chunk devices to add
+     * @return number of accepted devices and the rejected ones
+     */
+    private BatchResult applyAddDevices(List<Device> chunk) {
+        BatchResult result = new BatchResult();
+        List<Device> fresh = new ArrayList<>(chunk.size());
+        Set<String> chunkMacs = new HashSet<>();
+        for (Device device : chunk) {
+            if (store.contains(device.getMacAddress()) || !chunkMacs.add(device.getMacAddress())) {
+                metrics.rejected(DeviceRejection.DUPLICATE);
+                result.rejected.add(new BatchResult.Rejection(device.getMacAddress(), DeviceRejection.DUPLICATE.message));
+                continue;
+            }
+            fresh.add(device);
+        }
+        Set<Device> cycles = Collections.newSetFromMap(new IdentityHashMap<>());
+        long start = System.nanoTime();
+        cycles.addAll(store.putAll(fresh));
+        metrics.linkedBatch(System.nanoTime() - start);
+        metrics.added(fresh.size() - cycles.size());
+        List<Device> added = new ArrayList<>(fresh.size());
+        List<DeviceMutation> mutations = new ArrayList<>(fresh.size());
+        for (Device device : fresh) {
+            if (cycles.contains(device)) {
+                metrics.rejected(DeviceRejection.CYCLE);
+                result.rejected.add(new BatchResult.Rejection(device.getMacAddress(), DeviceRejection.CYCLE.message));
+            } else {
+                devicesByType.add(device);
+                devicesByMac.add(device);
+                DeviceMutation mutation = DeviceMutation.add(device);
+                publish(mutation);
+                mutations.add(mutation);
+                added.add(device);
+            }
+        }
+        // Linked in one pass, so a replica links them in one pass too and gets the same child order
+        replicate(mutations);
+        recordAdded(added);
+        invalidateCached(List.of(), added.stream().map(Device::getMacAddress).toList());
+        result.accepted = fresh.size() - cycles.size();
+        return result;
+    }
+
+    /**
+     * Returns devices whose uplink is not registered yet, grouped by the missing uplink MAC address.
+     * @return map of uplink MAC address to the devices waiting for it
+     */
+    @GetMapping("/network/orphans")
+    public Map<String, List<Device>> getOrphans() {
+        // The orphans index is owned by the applier, so the snapshot is taken there
+        return await(pipeline.submit(store::orphans));
+    }
+
+    /**
+     * Returns the network subtree starting from the given root MAC address, as of the latest published version.
      * @param rootMacAddress MAC address of the root device
      * @return NetworkNode representing the subtree, or null if not found
      */
+    public NetworkNode getNetwork(String rootMacAddress) {
+        return store.snapshot(TopologySnapshot.LATEST).get(rootMacAddress);
+    }
+
+    /**
+     * Returns the network subtree starting from the given root MAC address, optionally bounded.
+     * Every node carries its descendantCount, so clients know what they can expand without fetching it.
+     * Responses are served from the subtree response cache with a strong ETag; a client sending
+     * the ETag back in If-None-Match gets 304 while the subtree is unchanged.
+     * On a cache miss, concurrent identical requests share one encoding of the tree.
+     * Subtrees larger than devicenet.coalesce.max-bytes are streamed per request, without an ETag.
+     * The tree is read from one published version of the topology, sent in the X-Topology-Version header;
+     * reads of an older version that is still retained are streamed per request, without an ETag.
+     * @param rootMacAddress MAC address of the root device
+     * @param depth number of levels below the root to include, or null for the whole subtree
+     * @param childLimit maximum number of children returned per node, or null for all of them
+     * @param childCursor offset of the first child of the root to return (nextChildCursor of a previous page)
+     * @param atVersion topology version to read, or null for the latest
+     * @param ifNoneMatch ETags of the client's cached copies, or null
+     * @return the encoded subtree, 304 if the client's copy is current, or an empty body if not found
+     */
     @GetMapping("/network/{rootMacAddress}")
-    public NetworkNode getNetwork(@PathVariable String rootMacAddress) {
-        if (!devices.containsKey(rootMacAddress)) {
+    public ResponseEntity<Object> getNetworkResponse(
+            @PathVariable String rootMacAddress,
+            @RequestParam(required = false) Integer depth,
+            @RequestParam(required = false) Integer childLimit,
+            @RequestParam(required = false) Integer childCursor,
+            @RequestParam(required = false) Long atVersion,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // Read before the version is pinned, so a mutation published after it keeps the body out of the cache
+        long epoch = responseCache.epoch();
+        TopologySnapshot snapshot = pin(atVersion);
+        SubtreeQuery query = getNetwork(snapshot, rootMacAddress, depth, childLimit, childCursor);
+        if (query == null) {
+            return versioned(ResponseEntity.ok(), snapshot).build();
+        }
+        if (atVersion != null) {
+            return versioned(ResponseEntity.ok(), snapshot).body(query);
+        }
+        SubtreeResponseCache.Key key = SubtreeResponseCache.Key.of(query);
+        SubtreeResponseCache.Entry entry = responseCache.get(key);
+        if (entry == null) {
+            boolean whole = query.maxDepth == Integer.MAX_VALUE && query.childLimit == Integer.MAX_VALUE && query.childCursor == 0;
+            entry = treeReads.run(new TreeRead(key, snapshot.version()), () -> {
+                byte[] body = encodeBounded(whole ? query.root.descendantCount + 1L : 1,
+                        generator -> new TopologyJsonWriter().writeTree(query, generator));
+                return body == null ? null : responseCache.put(key, body, epoch);
+            });
+            if (entry == null) {
+                return versioned(ResponseEntity.ok(), snapshot).body(query);
+            }
+        }
+        return respond(entry, ifNoneMatch, false, snapshot);
+    }
+
+    /**
+     * Returns the network subtree starting from the given root MAC address in the binary format of TopologyBinaryFormat,
+     * for clients that accept it. Encoded per request and streamed, without an ETag.
+     * @param rootMacAddress MAC address of the root device
+     * @param depth number of levels below the root to include, or null for the whole subtree
+     * @param childLimit maximum number of children returned per node, or null for all of them
+     * @param childCursor offset of the first child of the root to return (nextChildCursor of a previous page)
+     * @param atVersion topology version to read, or null for the latest
+     * @return the subtree, or an empty body if not found
+     */
+    @GetMapping(path = "/network/{rootMacAddress}", produces = TopologyBinaryFormat.MEDIA_TYPE_VALUE)
+    public ResponseEntity<Object> getNetworkBinary(
+            @PathVariable String rootMacAddress,
+            @RequestParam(required = false) Integer depth,
+            @RequestParam(required = false) Integer childLimit,
+            @RequestParam(required = false) Integer childCursor,
+            @RequestParam(required = false) Long atVersion) {
+        TopologySnapshot snapshot = pin(atVersion);
+        SubtreeQuery query = getNetwork(snapshot, rootMacAddress, depth, childLimit, childCursor);
+        if (query == null) {
+            return versioned(ResponseEntity.ok(), snapshot).build();
+        }
+        return versioned(ResponseEntity.ok(), snapshot).contentType(TopologyBinaryMessageConverter.MEDIA_TYPE).body(query);
+    }
+
+    /**
+     * Returns the whole forest in the binary format of TopologyBinaryFormat, for clients that accept it.
+     * Encoded per request and streamed, without an ETag.
+     * @param atVersion topology version to read, or null for the latest
+     * @return all root nodes and their subtrees
+     */
+    @GetMapping(path = "/network", produces = TopologyBinaryFormat.MEDIA_TYPE_VALUE)
+    public ResponseEntity<Object> getFullNetworkBinary(@RequestParam(required = false) Long atVersion) {
+        TopologySnapshot snapshot = pin(atVersion);
+        return versioned(ResponseEntity.ok(), snapshot).contentType(TopologyBinaryMessageConverter.MEDIA_TYPE)
+                .body(snapshot.roots().toArray(new NetworkNode[0]));
+    }
+
+    /**
+     * Returns the whole forest: all root nodes and their subtrees.
+     * Concurrent requests based on the same topology share one encoding, which carries a strong ETag;
+     * a client sending it back in If-None-Match gets 304 while nothing has changed.
+     * Forests larger than devicenet.coalesce.max-bytes are streamed per request, without an ETag.
+     * The forest is read from one published version of the topology, sent in the X-Topology-Version header.
+     * @param atVersion topology version to read, or null for the latest
+     * @param ifNoneMatch ETags of the client's cached copies, or null
+     * @return the encoded forest, or 304 if the client's copy is current
+     */
+    @GetMapping("/network")
+    public ResponseEntity<Object> getFullNetworkResponse(
+            @RequestParam(required = false) Long atVersion,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        TopologySnapshot snapshot = pin(atVersion);
+        SubtreeResponseCache.Entry entry = treeReads.run(new TreeRead(null, snapshot.version()), () -> {
+            Collection<NetworkNode> roots = snapshot.roots();
+            byte[] body = encodeBounded(snapshot.size(), generator -> new TopologyJsonWriter().writeForest(roots, generator));
+            return body == null ? null : new SubtreeResponseCache.Entry(body);
+        });
+        if (entry == null) {
+            return versioned(ResponseEntity.ok(), snapshot).body(snapshot.roots().toArray(new NetworkNode[0]));
+        }
+        return respond(entry, ifNoneMatch, true, snapshot);
+    }
+
+    /**
+     * Returns how many tree reads were encoded and how many shared an identical read in flight.
+     * @return coalescing counters
+     */
+    @GetMapping("/network/coalescing")
+    public SingleFlight.Stats getCoalescingStats() {
+        return treeReads.stats();
+    }
+
+    /**
+     * Answers with an encoded tree, or 304 if the client already has it.
+     */
+    private ResponseEntity<Object> respond(SubtreeResponseCache.Entry entry, String ifNoneMatch, boolean forest, TopologySnapshot snapshot) {
+        if (entry.matches(ifNoneMatch)) {
+            return versioned(ResponseEntity.status(HttpStatus.NOT_MODIFIED), snapshot).eTag(entry.etag).build();
+        }
+        if (forest) {
+            metrics.networkResponse(entry.body.length);
+        } else {
+            metrics.subtreeResponse(entry.body.length);
+        }
+        return versioned(ResponseEntity.ok(), snapshot).eTag(entry.etag).contentType(MediaType.APPLICATION_JSON).body(entry.body);
+    }
+
+    /**
+     * Pins the topology version a tree is read from.
+     * @param atVersion a version still retained, or null for the latest
+     * @return the snapshot
+     * @throws ResponseStatusException 410 if the version is no longer retained, 400 if it is not published yet
+     */
+    private TopologySnapshot pin(Long atVersion) {
+        if (atVersion == null) {
+            return store.snapshot(TopologySnapshot.LATEST);
+        }
+        if (atVersion < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Version must not be negative");
+        }
+        TopologySnapshot snapshot = store.snapshot(atVersion);
+        if (snapshot == null) {
+            if (atVersion > store.snapshot(TopologySnapshot.LATEST).version()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Topology version " + atVersion + " is not published yet");
+            }
+            throw new ResponseStatusException(HttpStatus.GONE, "Topology version " + atVersion + " is no longer retained");
+        }
+        return snapshot;
+    }
+
+    private static <B extends ResponseEntity.HeadersBuilder<B>> B versioned(B response, TopologySnapshot snapshot) {
+        return response.header(TOPOLOGY_VERSION_HEADER, Long.toString(snapshot.version()));
+    }
+
+    /**
+     * Streams topology changes as server-sent events. Each "topology" event carries a JSON array of the
+     * changes applied by one ingest batch, and its id is "epoch-version": the epoch of the feed, which changes
+     * on restart, and the version of the last change. A reconnecting client resumes where it stopped through
+     * Last-Event-ID. A "reset" event tells the client that it has to fetch the topology again, because the
+     * changes since its version are no longer retained or are from before a restart.
+     * @param since id of the event to resume after, used when no Last-Event-ID is sent
+     * @param lastEventId id of the last event the client received, sent by EventSource on reconnect
+     * @return the event stream
+     * @throws ResponseStatusException if the event id is malformed
+     */
+    @GetMapping(path = "/network/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getEvents(
+            @RequestParam(required = false) String since,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        String eventId = lastEventId != null ? lastEventId : since;
+        long epoch = 0;
+        Long version = null;
+        if (eventId != null) {
+            String id = eventId.trim();
+            int separator = id.indexOf('-');
+            try {
+                // A bare version has no epoch, so it cannot be trusted across restarts and gets a reset
+                if (separator >= 0) {
+                    epoch = Long.parseLong(id.substring(0, separator));
+                }
+                version = Long.parseLong(id.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid event id");
+            }
+        }
+        SseEmitter emitter = new SseEmitter(0L);
+        TopologyEventFeed.Subscription subscription = eventFeed.subscribe(epoch, version, new TopologyEventFeed.FrameSink() {
+            @Override
+            public void send(byte[] frames) throws IOException {
+                metrics.eventFrames(frames.length);
+                emitter.send(Set.of(new ResponseBodyEmitter.DataWithMediaType(frames, MediaType.TEXT_EVENT_STREAM)));
+            }
+
+            @Override
+            public void close() {
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(subscription::close);
+        emitter.onError(error -> subscription.close());
+        return emitter;
+    }
+
+    /**
+     * Streams the applied mutations to a read replica, in the binary frames of ReplicationFeed.
+     * A follower passing the stream id and sequence of the last frame it received gets only the frames after it,
+     * while they are retained; otherwise it gets a reset and a snapshot of the topology first.
+     * @param stream stream id of the follower's frames, 0 or absent if it has none
+     * @param from sequence of the last mutation the follower received
+     * @return the frame stream
+     */
+    @GetMapping("/replication/stream")
+    public ResponseEntity<ResponseBodyEmitter> getReplicationStream(
+            @RequestParam(defaultValue = "0") long stream,
+            @RequestParam(defaultValue = "0") long from) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(0L);
+        ReplicationFeed.Subscription subscription = subscribeReplication(stream, from, new TopologyEventFeed.FrameSink() {
+            @Override
+            public void send(byte[] frames) throws IOException {
+                emitter.send(frames, MediaType.APPLICATION_OCTET_STREAM);
+            }
+
+            @Override
+            public void close() {
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(subscription::close);
+        emitter.onError(error -> subscription.close());
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(emitter);
+    }
+
+    /**
+     * Subscribes a follower to the replication feed, e.g. over a transport other than HTTP.
+     * @param stream stream id of the follower's frames, 0 if it has none
+     * @param from sequence of the last mutation the follower received
+     * @param sink target of the frames
+     * @return the subscription, to be closed when the follower goes away
+     */
+    public ReplicationFeed.Subscription subscribeReplication(long stream, long from, TopologyEventFeed.FrameSink sink) {
+        ReplicationFeed.Subscription subscription = replicationFeed.subscribe(stream, from, sink);
+        // Followers are attached at the end of a batch; make sure one runs even if no writes come in
+        pipeline.submit(() -> null);
+        return subscription;
+    }
+
+    /**
+     * Returns the replication role of this instance, its feed, and on a replica how far it is behind the primary.
+     * @return replication status
+     */
+    @GetMapping("/replication")
+    public ReplicationStatus getReplicationStatus() {
+        ReplicationStatus status = new ReplicationStatus();
+        ReplicationFollower current = follower;
+        status.role = current == null ? "primary" : "replica";
+        status.streamId = replicationFeed.streamId();
+        status.sequence = replicationFeed.sequence();
+        status.followers = replicationFeed.subscriberCount();
+        if (current != null) {
+            status.primary = primaryUrl;
+            status.replication = current.status();
+        }
+        return status;
+    }
+
+    /**
+     * Returns the hit, miss and eviction counters and the size of the subtree response cache.
+     * @return cache statistics
+     */
+    @GetMapping("/network/cache")
+    public SubtreeResponseCache.Stats getCacheStats() {
+        return responseCache.stats();
+    }
+
+    /**
+     * Returns the network subtree starting from the given root MAC address, optionally bounded,
+     * as of the latest published version.
+     * @param rootMacAddress MAC address of the root device
+     * @param depth number of levels below the root to include, or null for the whole subtree
+     * @param childLimit maximum number of children returned per node, or null for all of them
+     * @param childCursor offset of the first child of the root to return (nextChildCursor of a previous page)
+     * @return the subtree with its limits, or null if not found
+     */
+    public SubtreeQuery getNetwork(
+            String rootMacAddress,
+            Integer depth,
+            Integer childLimit,
+            Integer childCursor) {
+        return getNetwork(store.snapshot(TopologySnapshot.LATEST), rootMacAddress, depth, childLimit, childCursor);
+    }
+
+    private SubtreeQuery getNetwork(
+            TopologySnapshot snapshot,
+            String rootMacAddress,
+            Integer depth,
+            Integer childLimit,
+            Integer childCursor) {
+        if (depth != null && depth < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Depth must not be negative");
+        }
+        if (childLimit != null && childLimit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Child limit must be positive");
+        }
+        if (childCursor != null && childCursor < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Child cursor must not be negative");
+        }
+        NetworkNode root = snapshot.get(rootMacAddress);
+        if (root == null) {
+            return null;
+        }
+        return new SubtreeQuery(root,
+                depth == null ? Integer.MAX_VALUE : depth,
+                childLimit == null ? Integer.MAX_VALUE : childLimit,
+                childCursor == null ? 0 : childCursor);
+    }
+
+    /**
+     * Returns the path from a device up to the root of its tree, as of the latest published version.
+     * @param macAddress MAC address of the device
+     * @return the device followed by its ancestors, root last, or null if not found
+     */
+    @GetMapping("/network/{macAddress}/path")
+    public List<Device> getPath(@PathVariable String macAddress) {
+        TopologySnapshot snapshot = store.snapshot(TopologySnapshot.LATEST);
+        NetworkNode node = snapshot.get(macAddress);
+        List<NetworkNode> ancestors = snapshot.ancestors(macAddress);
+        if (node == null || ancestors == null) {
+            return null;
+        }
+        List<Device> path = new ArrayList<>(ancestors.size() + 1);
+        path.add(node.device);
+        ancestors.forEach(ancestor -> path.add(ancestor.device));
+        return path;
+    }
+
+    /**
+     * Searches the devices below a device by type and MAC address prefix, one page at a time.
+     * Large subtrees are searched in parallel on the common fork-join pool; results come in pre-order either way.
+     * The search and the cursor path read the latest published version, so they never see a batch half applied.
+     * @param macAddress MAC address of the searched device, not returned itself
+     * @param type only return devices of this type, or null for all types
+     * @param macPrefix only return devices whose MAC address starts with this prefix, ignoring case, or null for all
+     * @param maxDepth deepest level searched, the children of the device being level 1, or null for the whole subtree
+     * @param limit maximum number of devices to return, 1000 if not given
+     * @param after the last device of the previous page, or null to start from the beginning
+     * @return the matching devices following the cursor, or null if the searched device is not found
+     */
+    @GetMapping("/network/{macAddress}/search")
+    public List<Device> searchNetwork(
+            @PathVariable String macAddress,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String macPrefix,
+            @RequestParam(required = false) Integer maxDepth,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String after) {
+        if (type != null && !VALID_DEVICE_TYPES.contains(type)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid device type");
+        }
+        if (maxDepth != null && maxDepth <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Max depth must be positive");
+        }
+        if (limit != null && limit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be positive");
+        }
+        TopologySnapshot snapshot = store.snapshot(TopologySnapshot.LATEST);
+        NetworkNode root = snapshot.get(macAddress);
+        if (root == null) {
             return null;
         }
-        return devices.get(rootMacAddress);
+        SubtreeSearch.Filter filter = new SubtreeSearch.Filter(type, macPrefix == null || macPrefix.isEmpty() ? null : macPrefix,
+                maxDepth == null ? Integer.MAX_VALUE : maxDepth);
+        int pageSize = limit == null ? DEFAULT_SEARCH_LIMIT : limit;
+        if (after == null) {
+            return subtreeSearch.search(root, filter, pageSize);
+        }
+        // Resume from the cursor: the path from it up to the searched device, in the same version
+        NetworkNode cursor = snapshot.get(after);
+        List<NetworkNode> ancestors = snapshot.ancestors(after);
+        if (cursor == null || ancestors == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown cursor device");
+        }
+        List<NetworkNode> path = new ArrayList<>();
+        path.add(cursor);
+        for (NetworkNode ancestor : ancestors) {
+            path.add(ancestor);
+            if (ancestor.device.getMacAddress().equals(root.device.getMacAddress())) {
+                return subtreeSearch.search(path, filter, pageSize);
+            }
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown cursor device");
     }
 
     /**
-     * Returns a forest of all root nodes and their corresponding subtrees.
+     * Returns the number of devices of each type below a device, and in the whole forest.
+     * The counts are maintained on every link, move and removal, so this takes constant time whatever the subtree size.
+     * Subtree and forest counts are read from the same published version, so they always agree.
+     * @param macAddress MAC address of the device
+     * @return the subtree and forest counts, or null if not found
+     */
+    @GetMapping("/network/{macAddress}/stats")
+    public SubtreeStats getStats(@PathVariable String macAddress) {
+        TopologySnapshot snapshot = store.snapshot(TopologySnapshot.LATEST);
+        NetworkNode node = snapshot.get(macAddress);
+        if (node == null) {
+            return null;
+        }
+        SubtreeStats stats = new SubtreeStats();
+        stats.macAddress = node.device.getMacAddress();
+        stats.deviceType = node.device.getDeviceType();
+        stats.descendantCount = node.descendantCount;
+        stats.forest.deviceCount = snapshot.size();
+        stats.forest.rootCount = snapshot.rootCount();
+        for (String deviceType : Device.deviceTypesInOrder()) {
+            byte typeCode = Device.typeCode(deviceType);
+            stats.descendantsByType.put(deviceType, node.descendantCount(typeCode));
+            stats.forest.devicesByType.put(deviceType, snapshot.count(typeCode));
+        }
+        return stats;
+    }
+
+    /**
+     * Returns a forest of all root nodes and their corresponding subtrees, as of the latest published version.
      * @return list of NetworkNode objects representing all network trees
      */
-    @GetMapping("/network")
     public List<NetworkNode> getFullNetwork() {
-        List<NetworkNode> forest = new ArrayList<>();
-        devices.values().stream()
-            .filter(d -> !d.hasParent)
-            .forEach(root -> forest.add(root));
-        return forest;
+        return new ArrayList<>(store.snapshot(TopologySnapshot.LATEST).roots());
     }
 
     /**
-     * Returns a sorted list of all devices.
-     * @return sorted list of Device objects
+     * Returns the MAC address and subtree size of every root node, without the trees, as of the latest published version.
+     * @return list of root summaries
      */
-    private List<Device> sortedDevices() {
-        return devices.values().stream().map(node -> node.device)
-                .sorted()
+    @GetMapping("/network/roots")
+    public List<RootSummary> getRoots() {
+        return store.snapshot(TopologySnapshot.LATEST).roots().stream()
+                .map(root -> new RootSummary(root.device.getMacAddress(), root.descendantCount + 1))
                 .toList();
     }
+
+    /**
+     * A tree read: the subtree query, or null for the whole forest, and the topology version it pinned.
+     * Only reads of the same version are coalesced, so a read never returns a tree older than its own start.
+     */
+    private record TreeRead(SubtreeResponseCache.Key subtree, long version) {}
+
+    /**
+     * Writes a tree or forest as JSON.
+     */
+    @FunctionalInterface
+    private interface TreeWriting {
+        void writeTo(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * Encodes a tree or forest into a buffer, to be cached or shared between identical requests.
+     * @param nodes number of nodes that will be written, or a lower bound of it
+     * @param writing writes the JSON
+     * @return the JSON body, or null if it is larger than devicenet.coalesce.max-bytes
+     */
+    private byte[] encodeBounded(long nodes, TreeWriting writing) {
+        int limit = coalesceMaxBytes;
+        if (nodes * MIN_ENCODED_NODE_BYTES > limit) {
+            return null;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream() {
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                if (count + length > limit) {
+                    throw new BufferOverflowException();
+                }
+                super.write(bytes, offset, length);
+            }
+        };
+        try (JsonGenerator generator = JSON.getFactory().createGenerator(buffer, JsonEncoding.UTF8)) {
+            writing.writeTo(generator);
+        } catch (BufferOverflowException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Records the events of added devices: each device with the parent it was linked below,
+     * and the waiting devices it adopted. Runs on the ingest applier thread.
+     * @param added accepted devices, in the order they were added
+     */
+    private void recordAdded(List<Device> added) {
+        if (recovering) {
+            return;
+        }
+        // Within a chunk, a link to a device added later is reported as that device's adoption
+        Map<String, Integer> positions = new HashMap<>(added.size() * 2);
+        if (added.size() > 1) {
+            for (int i = 0; i < added.size(); i++) {
+                positions.put(added.get(i).getMacAddress(), i);
+            }
+        }
+        for (int i = 0; i < added.size(); i++) {
+            Device device = added.get(i);
+            NetworkNode node = store.get(device.getMacAddress());
+            Integer uplinkPosition = positions.get(device.getUplinkMacAddress());
+            boolean linked = node.hasParent && (uplinkPosition == null || uplinkPosition < i);
+            eventFeed.record(TopologyEvent.added(device, linked ? device.getUplinkMacAddress() : null));
+            List<String> adopted = new ArrayList<>();
+            for (NetworkNode child : node.children) {
+                Integer childPosition = positions.get(child.device.getMacAddress());
+                if (childPosition == null || childPosition < i) {
+                    adopted.add(child.device.getMacAddress());
+                }
+            }
+            if (!adopted.isEmpty()) {
+                eventFeed.record(TopologyEvent.adopted(device.getMacAddress(), adopted));
+            }
+        }
+    }
+
+    /**
+     * Collects the subtree roots whose cached responses a mutation of the given device changes:
+     * the device itself, its children (whose hasParent may flip) and every device up its uplink chain.
+     * @param macAddress MAC address of the mutated device
+     * @return MAC addresses of the affected subtree roots, empty if the device is not registered
+     */
+    private Set<String> affectedSubtrees(String macAddress) {
+        Set<String> affected = new HashSet<>();
+        List<NetworkNode> children = store.children(macAddress);
+        List<NetworkNode> ancestors = store.ancestors(macAddress);
+        if (children == null || ancestors == null) {
+            return affected;
+        }
+        affected.add(macAddress);
+        children.forEach(child -> affected.add(child.device.getMacAddress()));
+        ancestors.forEach(ancestor -> affected.add(ancestor.device.getMacAddress()));
+        return affected;
+    }
+
+    /**
+     * Drops the cached responses changed by an applied mutation. Runs on the ingest applier thread.
+     * The subtrees above the mutated devices are only looked up when the cache holds anything.
+     * @param before subtree roots affected before the mutation, collected while the old uplink chain was linked
+     * @param mutated MAC addresses of the devices that were added or moved
+     */
+    private void invalidateCached(Collection<String> before, Collection<String> mutated) {
+        if (!responseCache.advance()) {
+            return;
+        }
+        Set<String> affected = new HashSet<>(before);
+        for (String macAddress : mutated) {
+            affected.addAll(affectedSubtrees(macAddress));
+        }
+        responseCache.invalidate(affected);
+    }
+
+    /**
+     * Records an applied mutation in the write-ahead log. Runs on the ingest applier thread;
+     * the log is synced once per batch, before the batch's requests complete.
+     * @param mutation the applied mutation
+     */
+    private void publish(DeviceMutation mutation) {
+        if (persistence == null || recovering) {
+            return;
+        }
+        try {
+            persistence.append(mutation);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a group of applied mutations to the replication feed. Runs on the ingest applier thread.
+     * @param group mutations applied together
+     */
+    private void replicate(List<DeviceMutation> group) {
+        if (!recovering) {
+            replicationFeed.append(group);
+        }
+    }
+
+    /**
+     * Applies mutations received from the primary. Runs on the ingest applier thread.
+     * Additions go through the same bulk path as on the primary, so followers link them identically.
+     * @param reset whether to remove every device first
+     * @param groups groups of mutations, each applied together on the primary
+     * @param whenApplied runs once the mutations are applied
+     * @return null
+     */
+    private Void applyReplicated(boolean reset, List<List<DeviceMutation>> groups, Runnable whenApplied) {
+        if (reset) {
+            List<String> all = new ArrayList<>(store.size());
+            store.forEach(device -> all.add(device.getMacAddress()));
+            all.forEach(this::applyRemoveDevice);
+        }
+        for (List<DeviceMutation> group : groups) {
+            List<Device> added = new ArrayList<>(group.size());
+            for (DeviceMutation mutation : group) {
+                try {
+                    switch (mutation.type) {
+                        case ADD -> added.add(mutation.device);
+                        case MOVE -> applyMoveDevice(mutation.device.getMacAddress(), null, mutation.device.getUplinkMacAddress());
+                        case REMOVE -> applyRemoveDevice(mutation.device.getMacAddress());
+                    }
+                } catch (ResponseStatusException e) {
+                    // Already applied before a reconnect
+                }
+            }
+            if (!added.isEmpty()) {
+                applyAddDevices(added);
+            }
+        }
+        whenApplied.run();
+        return null;
+    }
+
+    /**
+     * Lists every device for a follower's snapshot, parents before their children and children in order,
+     * so adding them in this order rebuilds the same forest. Runs on the ingest applier thread.
+     * @return the registered devices in pre-order
+     */
+    private List<Device> replicationSnapshot() {
+        List<Device> devices = new ArrayList<>(store.size());
+        Deque<NetworkNode> stack = new ArrayDeque<>(store.roots());
+        while (!stack.isEmpty()) {
+            NetworkNode node = stack.pop();
+            devices.add(node.device);
+            List<NetworkNode> children = store.children(node.device.getMacAddress());
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Refuses writes on a read replica, which only applies the mutations of its primary.
+     * @throws ResponseStatusException 403 if this instance follows a primary
+     */
+    private void checkWritable() {
+        if (follower != null) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Read-only replica: send writes to the primary");
+        }
+    }
+
+    /**
+     * Group commit: makes every mutation of the applied batch durable with one fsync,
+     * and starts a snapshot when one is due. Then publishes the batch's events, so subscribers
+     * only see durable changes. Runs on the ingest applier thread.
+     * @throws IOException if the log cannot be written
+     */
+    private void afterBatch() throws IOException {
+        if (persistence != null) {
+            persistence.sync();
+            if (persistence.snapshotDue()) {
+                List<Device> all = new ArrayList<>(store.size());
+                store.forEach(all::add);
+                persistence.snapshot(all);
+            }
+        }
+        // Readers see the batch once it is durable, and before its events go out
+        store.publish();
+        responseCache.settle();
+        eventFeed.flush();
+        replicationFeed.flush();
+    }
+
+    /**
+     * Rebuilds the topology from the latest snapshot and the log written after it.
+     * Runs on the ingest applier thread, before any request is accepted.
+     * @return number of recovered mutations
+     * @throws IOException if the snapshot or log cannot be read
+     */
+    private long recover() throws IOException {
+        recovering = true;
+        try {
+            List<Device> chunk = new ArrayList<>(BULK_CHUNK_SIZE);
+            long recovered = persistence.recover(mutation -> {
+                if (mutation.type == DeviceMutation.Type.ADD) {
+                    chunk.add(mutation.device);
+                    if (chunk.size() < BULK_CHUNK_SIZE) {
+                        return;
+                    }
+                }
+                // Additions are replayed in chunks, anything else in log order after them
+                applyAddDevices(chunk);
+                chunk.clear();
+                try {
+                    switch (mutation.type) {
+                        case MOVE -> applyMoveDevice(mutation.device.getMacAddress(), null, mutation.device.getUplinkMacAddress());
+                        case REMOVE -> applyRemoveDevice(mutation.device.getMacAddress());
+                        default -> {}
+                    }
+                } catch (ResponseStatusException e) {
+                    // No longer applicable, like a duplicate addition
+                }
+            });
+            if (!chunk.isEmpty()) {
+                applyAddDevices(chunk);
+            }
+            return recovered;
+        } finally {
+            recovering = false;
+        }
+    }
+
+    /**
+     * Stops the ingest pipeline, then closes the write-ahead log and the store when the application shuts down.
+     */
+    @PreDestroy
+    public void close() {
+        if (follower != null) {
+            follower.close();
+        }
+        pipeline.close();
+        eventFeed.close();
+        replicationFeed.close();
+        try {
+            if (persistence != null) {
+                persistence.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Checks the fields of a device that can be validated without looking at the topology.
+     * @param device Device object to check
+     * @return why the device is invalid, or null if it is valid
+     */
+    private DeviceRejection validationError(Device device) {
+        if (device.getMacAddress() == null || device.getMacAddress().isEmpty()) {
+            return DeviceRejection.MISSING_MAC;
+        }
+        if (device.getDeviceType() == null || device.getDeviceType().isEmpty()) {
+            return DeviceRejection.MISSING_TYPE;
+        }
+        if (VALID_DEVICE_TYPES.stream().noneMatch(dt -> dt.equals(device.getDeviceType()))) {
+            return DeviceRejection.INVALID_TYPE;
+        }
+        if (device.getMacAddress().equals(device.getUplinkMacAddress())) {
+            return DeviceRejection.SELF_UPLINK;
+        }
+        String uplink = device.getUplinkMacAddress();
+        if (!store.accepts(device.getMacAddress()) || (uplink != null && !uplink.isEmpty() && !store.accepts(uplink))) {
+            return DeviceRejection.INVALID_MAC;
+        }
+        return null;
+    }
+
+    /**
+     * Waits for a pipeline mutation and rethrows its failure on the request thread.
+     * @param future future returned by the ingest pipeline
+     * @return the mutation result
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
 }
@@ -0,0 +1,216 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Single-writer pipeline for topology mutations.
+ * Request threads enqueue mutations into a bounded ring buffer, and a single applier thread
+ * drains them in batches and applies them in submission order. The topology is therefore only
+ * ever mutated from the applier thread and needs no locking of its own.
+ * An optional hook runs once per batch, after the batch is applied and before any of its futures
+ * completes, e.g. to make the whole batch durable with a single fsync (group commit).
+ * If the hook fails, every future of the batch fails with it, but the batch's mutations are not rolled back:
+ * they stay applied, and the next batch whose hook succeeds makes them durable and visible with its own.
+ * A failed future therefore means the outcome of its mutation is unknown, not that it was discarded.
+ * If the applier thread itself dies, the pipeline stops: every pending future fails and later submits are rejected.
+ */
+public class DeviceIngestPipeline implements AutoCloseable {
+
+    /**
+     * Work done once per applied batch, on the applier thread.
+     */
+    @FunctionalInterface
+    public interface BatchHook {
+        void afterBatch() throws Exception;
+    }
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * A queued mutation together with the future of the request that submitted it.
+     */
+    private static final class Mutation<T> {
+        private final Callable<T> action;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+        private Throwable failure;
+
+        private Mutation(Callable<T> action) {
+            this.action = action;
+        }
+
+        private void apply() {
+            try {
+                result = action.call();
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+
+        private void complete(Throwable batchFailure) {
+            if (failure == null && batchFailure != null) {
+                failure = batchFailure;
+            }
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    private final BlockingQueue<Mutation<?>> ringBuffer;
+    private final int maxBatchSize;
+    private final BatchHook batchHook;
+    private final Thread applier;
+    private volatile boolean running = true;
+    /**
+     * Error that stopped the applier thread, or null while it runs or once closed normally.
+     */
+    private volatile Throwable stopCause;
+
+    /**
+     * Creates the pipeline and starts its applier thread.
+     * @param capacity number of mutations the ring buffer holds before submitters block
+     * @param maxBatchSize maximum number of mutations applied per drain
+     */
+    public DeviceIngestPipeline(int capacity, int maxBatchSize) {
+        this(capacity, maxBatchSize, () -> {});
+    }
+
+    /**
+     * Creates the pipeline and starts its applier thread.
+     * @param capacity number of mutations the ring buffer holds before submitters block
+     * @param maxBatchSize maximum number of mutations applied per drain
+     * @param batchHook runs after each batch is applied; if it fails, every future of the batch fails with it,
+     *                  while the batch's mutations stay applied
+     */
+    public DeviceIngestPipeline(int capacity, int maxBatchSize, BatchHook batchHook) {
+        this.ringBuffer = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.batchHook = batchHook;
+        this.applier = Thread.ofPlatform()
+                .name("device-ingest-applier")
+                .daemon()
+                .start(this::applyLoop);
+    }
+
+    /**
+     * Enqueues a mutation to be applied on the applier thread.
+     * Blocks while the ring buffer is full.
+     * @param action the mutation; exceptions it throws complete the future exceptionally
+     * @return future completed once the batch containing the mutation has been applied
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> action) {
+        Mutation<T> mutation = new Mutation<>(action);
+        if (Thread.currentThread() == applier) {
+            // Nested submission from inside a mutation, apply it in place to avoid deadlocking the applier
+            mutation.apply();
+            mutation.complete(null);
+            return mutation.future;
+        }
+        if (!running) {
+            mutation.future.completeExceptionally(closedException());
+            return mutation.future;
+        }
+        try {
+            ringBuffer.put(mutation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mutation.future.completeExceptionally(e);
+        }
+        if (!running) {
+            // Closed while enqueueing, the applier may already be gone
+            failPending();
+        }
+        return mutation.future;
+    }
+
+    /**
+     * Drains the ring buffer in batches: every mutation of a batch is applied first,
+     * then the batch hook runs, then all of the batch's futures are completed.
+     * If anything escapes the loop, the pipeline stops, and the batch in progress and the queue are failed.
+     */
+    private void applyLoop() {
+        List<Mutation<?>> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running) {
+                try {
+                    batch.add(ringBuffer.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                ringBuffer.drainTo(batch, maxBatchSize - 1);
+                for (Mutation<?> mutation : batch) {
+                    mutation.apply();
+                }
+                Throwable batchFailure = null;
+                try {
+                    batchHook.afterBatch();
+                } catch (Throwable t) {
+                    // E.g. an fsync failure or an OutOfMemoryError while publishing; the mutations stay applied
+                    batchFailure = t;
+                }
+                for (Mutation<?> mutation : batch) {
+                    mutation.complete(batchFailure);
+                }
+                batch.clear();
+            }
+        } catch (Throwable t) {
+            stopCause = t;
+            throw t;
+        } finally {
+            running = false;
+            for (Mutation<?> mutation : batch) {
+                // No-op for the futures already completed
+                mutation.future.completeExceptionally(closedException());
+            }
+            failPending();
+        }
+    }
+
+    /**
+     * Fails whatever is still queued once the pipeline has been closed or has stopped.
+     */
+    private void failPending() {
+        List<Mutation<?>> pending = new ArrayList<>();
+        ringBuffer.drainTo(pending);
+        for (Mutation<?> mutation : pending) {
+            mutation.future.completeExceptionally(closedException());
+        }
+    }
+
+    /**
+     * @return the failure of a mutation submitted once the pipeline is closed or has stopped
+     */
+    private IllegalStateException closedException() {
+        Throwable cause = stopCause;
+        return cause == null
+                ? new IllegalStateException("Ingest pipeline is closed")
+                : new IllegalStateException("Ingest pipeline stopped", cause);
+    }
+
+    /**
+     * Stops the applier thread once the batch in progress is done. Mutations still queued are failed.
+     * The applier is woken up rather than interrupted, so a batch hook doing I/O is never cut short.
+     */
+    @Override
+    public void close() {
+        running = false;
+        // Wake the applier up if it waits on an empty buffer; if the buffer is full it is busy anyway
+        ringBuffer.offer(new Mutation<>(() -> null));
+        if (Thread.currentThread() == applier) {
+            return;
+        }
+        try {
+            applier.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.example;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted indexes of devices by MAC address, and by uplink then MAC address, maintained on insert.
+ * MAC addresses are keyed by their 48-bit value, so a page of the children of a device, or of the devices
+ * under a MAC address prefix such as an OUI, is one range scan and costs O(log n + page size).
+ * A device is indexed under its uplink whether the uplink is registered or not, so the children of a registered
+ * device are exactly the entries under its MAC address.
+ * Written by the ingest applier thread only, read concurrently by request threads.
+ */
+public class DeviceMacIndex {
+
+    /**
+     * Value of MAC addresses that are not of the form "AA:BB:CC:DD:EE:FF", above every 48-bit value.
+     */
+    private static final long OTHER = 1L << 48;
+
+    /**
+     * Key of a MAC address: its 48-bit value, and the address itself unless it is upper case.
+     * Lower-case addresses sort right after the upper-case form of the same value, addresses that are not
+     * of the form "AA:BB:CC:DD:EE:FF" after all others, by their text.
+     */
+    record MacKey(long value, String text) implements Comparable<MacKey> {
+        static final MacKey FIRST = new MacKey(Long.MIN_VALUE, null);
+
+        static MacKey of(String macAddress) {
+            long value;
+            try {
+                value = MacAddress.parse(macAddress);
+            } catch (IllegalArgumentException e) {
+                return new MacKey(OTHER, macAddress);
+            }
+            for (int i = 0; i < macAddress.length(); i++) {
+                if (Character.isLowerCase(macAddress.charAt(i))) {
+                    return new MacKey(value, macAddress);
+                }
+            }
+            return new MacKey(value, null);
+        }
+
+        @Override
+        public int compareTo(MacKey other) {
+            int order = Long.compare(value, other.value);
+            if (order != 0 || Objects.equals(text, other.text)) {
+                return order;
+            }
+            if (text == null || other.text == null) {
+                return text == null ? -1 : 1;
+            }
+            return text.compareTo(other.text);
+        }
+    }
+
+    /**
+     * Key of a device under its uplink: the uplink first, so the children of a device are one run of keys.
+     */
+    record LinkKey(MacKey parent, MacKey child) implements Comparable<LinkKey> {
+        @Override
+        public int compareTo(LinkKey other) {
+            int order = parent.compareTo(other.parent);
+            return order != 0 ? order : child.compareTo(other.child);
+        }
+    }
+
+    private final NavigableMap<MacKey, Device> byMac = new ConcurrentSkipListMap<>();
+    private final NavigableMap<LinkKey, Device> byUplink = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds a device, under its MAC address and under its uplink.
+     * @param device the device to add
+     */
+    public void add(Device device) {
+        MacKey key = MacKey.of(device.getMacAddress());
+        byMac.put(key, device);
+        String uplink = device.getUplinkMacAddress();
+        if (uplink != null && !uplink.isEmpty()) {
+            byUplink.put(new LinkKey(MacKey.of(uplink), key), device);
+        }
+    }
+
+    /**
+     * Removes a device.
+     * @param device the device to remove, with the uplink it was added with
+     */
+    public void remove(Device device) {
+        MacKey key = MacKey.of(device.getMacAddress());
+        byMac.remove(key);
+        String uplink = device.getUplinkMacAddress();
+        if (uplink != null && !uplink.isEmpty()) {
+            byUplink.remove(new LinkKey(MacKey.of(uplink), key));
+        }
+    }
+
+    /**
+     * Replaces a device by the same device under another uplink.
+     * @param previous the device with the uplink it had
+     * @param moved the device with its new uplink
+     */
+    public void move(Device previous, Device moved) {
+        remove(previous);
+        add(moved);
+    }
+
+    /**
+     * Returns a page of the children of a device, in MAC address order.
+     * @param macAddress MAC address of the parent
+     * @param after MAC address of the last child of the previous page, or null to start from the first child
+     * @param limit maximum number of children to return
+     * @return the children following the cursor
+     */
+    public List<Device> children(String macAddress, String after, int limit) {
+        MacKey parent = MacKey.of(macAddress);
+        LinkKey from = new LinkKey(parent, after == null ? MacKey.FIRST : MacKey.of(after));
+        List<Device> page = new ArrayList<>(Math.min(limit, 1024));
+        for (Map.Entry<LinkKey, Device> entry : byUplink.tailMap(from, false).entrySet()) {
+            if (page.size() == limit || !entry.getKey().parent().equals(parent)) {
+                break;
+            }
+            page.add(entry.getValue());
+        }
+        return page;
+    }
+
+    /**
+     * Returns a page of the devices whose MAC address starts with a prefix, in MAC address order.
+     * Only MAC addresses of the form "AA:BB:CC:DD:EE:FF" match, in either case.
+     * @param prefix start of a MAC address, e.g. the OUI "AA:BB:CC", case-insensitive
+     * @param after MAC address of the last device of the previous page, or null to start from the beginning
+     * @param deviceType only list devices of this type, or null for all types
+     * @param limit maximum number of devices to return
+     * @return the matching devices following the cursor
+     * @throws IllegalArgumentException if the prefix is not the start of a MAC address
+     */
+    public List<Device> byPrefix(String prefix, String after, String deviceType, int limit) {
+        int digits = prefixDigits(prefix);
+        long low = MacAddress.parse(prefix + "00:00:00:00:00:00".substring(prefix.length()));
+        long high = low + (1L << (48 - 4 * digits));
+        MacKey start = new MacKey(low, null);
+        MacKey cursor = after == null ? null : MacKey.of(after);
+        NavigableMap<MacKey, Device> range = cursor == null || cursor.compareTo(start) < 0
+                ? byMac.tailMap(start, true)
+                : byMac.tailMap(cursor, false);
+        List<Device> page = new ArrayList<>(Math.min(limit, 1024));
+        for (Map.Entry<MacKey, Device> entry : range.entrySet()) {
+            if (page.size() == limit || entry.getKey().value() >= high) {
+                break;
+            }
+            if (deviceType == null || deviceType.equals(entry.getValue().getDeviceType())) {
+                page.add(entry.getValue());
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Checks a MAC address prefix and counts its hex digits.
+     * @param prefix start of a MAC address
+     * @return the number of hex digits
+     * @throws IllegalArgumentException if the prefix is not the start of a MAC address
+     */
+    private static int prefixDigits(String prefix) {
+        if (prefix.length() > 17) {
+            throw new IllegalArgumentException("Invalid MAC prefix: " + prefix);
+        }
+        int digits = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            boolean separator = i % 3 == 2;
+            char c = prefix.charAt(i);
+            if (separator ? c != ':' : Character.digit(c, 16) < 0) {
+                throw new IllegalArgumentException("Invalid MAC prefix: " + prefix);
+            }
+            if (!separator) {
+                digits++;
+            }
+        }
+        return digits;
+    }
+}
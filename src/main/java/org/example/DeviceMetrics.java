@@ -0,0 +1,219 @@
+package org.example;
+
+import io.micrometer.core.instrument.*;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters of the device controller and the topology linking.
+ * Every meter is registered up front, so recording on the ingest path only updates existing
+ * counters and never allocates. Per-endpoint request timers are the http.server.requests
+ * timers recorded by Spring MVC.
+ */
+@Component
+public class DeviceMetrics {
+
+    /**
+     * Devices rejected on add, indexed by DeviceRejection ordinal.
+     */
+    private final Counter[] rejected;
+    private final Counter added;
+    private final Timer linkDevice;
+    private final Timer linkBatch;
+    private final DistributionSummary walkSteps;
+    private final DistributionSummary indexSteps;
+    private final DistributionSummary networkBytes;
+    private final DistributionSummary subtreeBytes;
+    private final DistributionSummary streamedBytes;
+    private final DistributionSummary binaryBytes;
+    private final DistributionSummary eventBytes;
+    private final MeterRegistry registry;
+
+    /**
+     * Registers the meters. Cycle checks are recorded once a store is observed.
+     * @param registry registry the meters are registered with
+     */
+    public DeviceMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        DeviceRejection[] reasons = DeviceRejection.values();
+        rejected = new Counter[reasons.length];
+        for (DeviceRejection reason : reasons) {
+            rejected[reason.ordinal()] = Counter.builder("devicenet.devices.rejected")
+                    .description("Devices rejected on add")
+                    .tag("reason", reason.tag)
+                    .register(registry);
+        }
+        added = Counter.builder("devicenet.devices.added")
+                .description("Devices added to the topology")
+                .register(registry);
+        linkDevice = linkTimer("device", registry);
+        linkBatch = linkTimer("batch", registry);
+        walkSteps = cycleCheckSummary("walk", registry);
+        indexSteps = cycleCheckSummary("index", registry);
+        networkBytes = responseSizeSummary("network", registry);
+        subtreeBytes = responseSizeSummary("subtree", registry);
+        streamedBytes = responseSizeSummary("streamed", registry);
+        binaryBytes = responseSizeSummary("binary", registry);
+        eventBytes = responseSizeSummary("events", registry);
+    }
+
+    private static Timer linkTimer(String mode, MeterRegistry registry) {
+        return Timer.builder("devicenet.link")
+                .description("Time to put devices into the store and link them into the topology")
+                .tag("mode", mode)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static DistributionSummary cycleCheckSummary(String method, MeterRegistry registry) {
+        return DistributionSummary.builder("devicenet.link.cycle.check.steps")
+                .description("Steps of a cycle check: uplinks walked, or waiting trees checked against the ancestor index")
+                .tag("method", method)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static DistributionSummary responseSizeSummary(String endpoint, MeterRegistry registry) {
+        return DistributionSummary.builder("devicenet.response.size")
+                .description("Size of serialized topology responses")
+                .baseUnit("bytes")
+                .tag("endpoint", endpoint)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Registers gauges of the topology and of the read-side caches, read at scrape time,
+     * and records the cycle checks the store makes while linking.
+     * @param store store of the device forest
+     * @param cache subtree response cache
+     * @param treeReads coalescer of tree reads
+     * @param eventFeed topology event feed
+     */
+    public void observe(DeviceStore store, SubtreeResponseCache cache, SingleFlight<?, ?> treeReads, TopologyEventFeed eventFeed) {
+        store.setCycleCheckListener(this::recordCycleCheck);
+        gauge("devicenet.devices", "Registered devices", store, DeviceStore::size);
+        gauge("devicenet.roots", "Roots of the forest, including devices waiting for their uplink", store, DeviceStore::rootCount);
+        gauge("devicenet.orphans", "Devices waiting for their uplink", store, DeviceStore::orphanCount);
+        gauge("devicenet.topology.version", "Latest published topology version", store,
+                s -> s.snapshot(TopologySnapshot.LATEST).version());
+        gauge("devicenet.topology.retained.versions", "Topology versions still readable with atVersion", store,
+                s -> s.snapshot(TopologySnapshot.LATEST).version() - s.oldestVersion() + 1);
+        functionCounter("devicenet.cache.hits", "Subtree response cache hits", cache, c -> c.stats().hits);
+        functionCounter("devicenet.cache.misses", "Subtree response cache misses", cache, c -> c.stats().misses);
+        functionCounter("devicenet.cache.evictions", "Subtree responses evicted from the cache", cache, c -> c.stats().evictions);
+        functionCounter("devicenet.cache.invalidations", "Subtree responses invalidated by mutations", cache, c -> c.stats().invalidations);
+        gauge("devicenet.cache.size", "Total size of the cached subtree responses", cache, c -> c.stats().bytes);
+        functionCounter("devicenet.reads.computed", "Tree reads that were encoded", treeReads, r -> r.stats().computed);
+        functionCounter("devicenet.reads.coalesced", "Tree reads that shared an identical read in flight", treeReads, r -> r.stats().coalesced);
+        gauge("devicenet.events.version", "Version of the last flushed topology event", eventFeed, TopologyEventFeed::version);
+        gauge("devicenet.events.subscribers", "Connected topology event subscribers", eventFeed, TopologyEventFeed::subscriberCount);
+        functionCounter("devicenet.events.dropped", "Topology event subscribers dropped for falling behind", eventFeed, TopologyEventFeed::droppedSubscribers);
+    }
+
+    /**
+     * Registers gauges of the replication feed served to followers.
+     * @param feed replication feed
+     */
+    public void observe(ReplicationFeed feed) {
+        gauge("devicenet.replication.sequence", "Sequence of the last mutation shipped to followers", feed, ReplicationFeed::sequence);
+        gauge("devicenet.replication.followers", "Connected replication followers", feed, ReplicationFeed::subscriberCount);
+        functionCounter("devicenet.replication.dropped", "Replication followers dropped for falling behind", feed, ReplicationFeed::droppedSubscribers);
+    }
+
+    /**
+     * Registers gauges of the lag of a read replica behind its primary.
+     * @param follower follower of the primary
+     */
+    public void observe(ReplicationFollower follower) {
+        gauge("devicenet.replication.lag.mutations", "Mutations of the primary not applied yet", follower, f -> f.status().lagMutations);
+        gauge("devicenet.replication.lag.millis", "Age of the latest applied primary state", follower, f -> f.status().lagMillis);
+        functionCounter("devicenet.replication.reconnects", "Reconnects to the primary", follower, f -> f.status().reconnects);
+    }
+
+    private <T> void gauge(String name, String description, T source, ToDoubleFunction<T> value) {
+        Gauge.builder(name, source, value).description(description).register(registry);
+    }
+
+    private <T> void functionCounter(String name, String description, T source, ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, source, value).description(description).register(registry);
+    }
+
+    /**
+     * Counts a device rejected on add.
+     * @param reason why it was rejected
+     */
+    public void rejected(DeviceRejection reason) {
+        rejected[reason.ordinal()].increment();
+    }
+
+    /**
+     * Counts devices added to the topology.
+     * @param count number of devices
+     */
+    public void added(int count) {
+        added.increment(count);
+    }
+
+    /**
+     * Records the time to put one device into the store.
+     * @param nanos elapsed time in nanoseconds
+     */
+    public void linkedDevice(long nanos) {
+        linkDevice.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the time to put a chunk of devices into the store.
+     * @param nanos elapsed time in nanoseconds
+     */
+    public void linkedBatch(long nanos) {
+        linkBatch.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void recordCycleCheck(boolean indexed, int steps) {
+        (indexed ? indexSteps : walkSteps).record(steps);
+    }
+
+    /**
+     * Records the size of an encoded /network response.
+     * @param bytes body size
+     */
+    public void networkResponse(int bytes) {
+        networkBytes.record(bytes);
+    }
+
+    /**
+     * Records the size of an encoded /network/{mac} response.
+     * @param bytes body size
+     */
+    public void subtreeResponse(int bytes) {
+        subtreeBytes.record(bytes);
+    }
+
+    /**
+     * Records the size of a tree streamed by the message converter, too large to be buffered.
+     * @param bytes body size
+     */
+    public void streamedResponse(long bytes) {
+        streamedBytes.record(bytes);
+    }
+
+    /**
+     * Records the size of a tree or device list written in the binary format.
+     * @param bytes body size
+     */
+    public void binaryResponse(long bytes) {
+        binaryBytes.record(bytes);
+    }
+
+    /**
+     * Records the size of the event frames sent to one subscriber at once.
+     * @param bytes size of the frames
+     */
+    public void eventFrames(int bytes) {
+        eventBytes.record(bytes);
+    }
+}
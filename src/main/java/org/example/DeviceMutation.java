@@ -0,0 +1,90 @@
+package org.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A single applied change to the device topology, as recorded in the write-ahead log.
+ */
+public class DeviceMutation {
+    /**
+     * Kinds of mutations. The ordinal is part of the on-disk format, only append new kinds.
+     */
+    public enum Type {
+        ADD,
+        /**
+         * The device carries its new uplink.
+         */
+        MOVE,
+        REMOVE
+    }
+
+    public final Type type;
+    public final Device device;
+
+    public DeviceMutation(Type type, Device device) {
+        this.type = type;
+        this.device = device;
+    }
+
+    /**
+     * Creates the mutation registering the given device.
+     * @param device the added device
+     * @return an ADD mutation
+     */
+    public static DeviceMutation add(Device device) {
+        return new DeviceMutation(Type.ADD, device);
+    }
+
+    /**
+     * Creates the mutation moving a device under a new uplink.
+     * @param device the device with its new uplink
+     * @return a MOVE mutation
+     */
+    public static DeviceMutation move(Device device) {
+        return new DeviceMutation(Type.MOVE, device);
+    }
+
+    /**
+     * Creates the mutation removing a device.
+     * @param device the removed device
+     * @return a REMOVE mutation
+     */
+    public static DeviceMutation remove(Device device) {
+        return new DeviceMutation(Type.REMOVE, device);
+    }
+
+    /**
+     * Writes the mutation in its binary form.
+     * @param out target
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeUTF(device.getMacAddress());
+        out.writeUTF(device.getDeviceType());
+        // Keep null and empty uplinks apart, both are accepted by addDevice
+        out.writeBoolean(device.getUplinkMacAddress() != null);
+        if (device.getUplinkMacAddress() != null) {
+            out.writeUTF(device.getUplinkMacAddress());
+        }
+    }
+
+    /**
+     * Reads a mutation written by writeTo.
+     * @param in source
+     * @return the mutation
+     * @throws IOException if reading fails or the record is malformed
+     */
+    public static DeviceMutation readFrom(DataInput in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= Type.values().length) {
+            throw new IOException("Unknown mutation type " + ordinal);
+        }
+        String macAddress = in.readUTF();
+        String deviceType = in.readUTF();
+        String uplinkMacAddress = in.readBoolean() ? in.readUTF() : null;
+        return new DeviceMutation(Type.values()[ordinal], new Device(macAddress, deviceType, uplinkMacAddress));
+    }
+}
@@ -0,0 +1,339 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable storage of the device topology: an append-only, checksummed write-ahead log of
+ * mutations plus periodic snapshots that allow the log to be truncated.
+ * The log is split into numbered segments. Appends are buffered in memory and written with a
+ * single fsync per sync call, so one ingest batch costs one fsync (group commit). Snapshot N holds
+ * every device logged before segment N; it is written in the background from a copy of the
+ * device list, after which older snapshots and segments are deleted. Recovery loads the latest
+ * snapshot and replays the segments from N on; a torn or corrupt record ends the replay and is
+ * truncated away, together with every later segment, so the next recovery replays exactly what this one did.
+ * Records are framed as [int length][int CRC32C][payload]. All methods except recover and close
+ * are meant to be called from the ingest applier thread.
+ */
+public class DevicePersistence implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DevicePersistence.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x444E5331; // "DNS1"
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * ByteArrayOutputStream exposing its buffer, so records can be checksummed without a copy.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        private byte[] array() {
+            return buf;
+        }
+    }
+
+    private final Path directory;
+    private final long snapshotInterval;
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(runnable ->
+            Thread.ofPlatform().name("device-snapshot-writer").daemon().unstarted(runnable));
+
+    private final RecordBuffer record = new RecordBuffer();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final RecordBuffer pending = new RecordBuffer();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private final CRC32C checksum = new CRC32C();
+    private int pendingRecords = 0;
+    private long loggedSinceSnapshot = 0;
+
+    private FileChannel segment;
+    private long segmentId;
+    private Future<?> snapshotInFlight;
+
+    /**
+     * @param directory directory holding the log segments and snapshots; created if missing
+     * @param snapshotInterval number of logged mutations after which a snapshot is due
+     * @throws IOException if the directory cannot be created
+     */
+    public DevicePersistence(Path directory, long snapshotInterval) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Loads the latest snapshot, replays the log written after it, and opens a new log segment
+     * for appends. Must be called once, before the first append.
+     * @param apply receives every recovered mutation, in log order
+     * @return number of recovered mutations
+     * @throws IOException if the snapshot or log cannot be read
+     */
+    public long recover(Consumer<DeviceMutation> apply) throws IOException {
+        deleteFiles(TEMP_SUFFIX, Long.MAX_VALUE);
+        long[] count = {0};
+        Consumer<DeviceMutation> counting = mutation -> {
+            count[0]++;
+            apply.accept(mutation);
+        };
+
+        List<Long> snapshots = listIds(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        long replayFrom = 0;
+        if (!snapshots.isEmpty()) {
+            replayFrom = snapshots.get(snapshots.size() - 1);
+            readSnapshot(snapshotPath(replayFrom), counting);
+        }
+        long lastSegment = replayFrom - 1;
+        List<Long> segments = listIds(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        for (int i = 0; i < segments.size(); i++) {
+            long id = segments.get(i);
+            lastSegment = Math.max(lastSegment, id);
+            if (id >= replayFrom && !replaySegment(segmentPath(id), counting)) {
+                // Later segments were not replayed, so they must not be replayed on the next start either
+                List<Long> later = segments.subList(i + 1, segments.size());
+                for (long laterId : later) {
+                    Files.deleteIfExists(segmentPath(laterId));
+                }
+                log.warn("Write-ahead log segment {} ends with a torn or corrupt record, truncated it and deleted {} later segments",
+                        id, later.size());
+                break;
+            }
+        }
+        openSegment(lastSegment + 1);
+        log.info("Recovered {} device mutations from {}", count[0], directory);
+        return count[0];
+    }
+
+    /**
+     * Buffers a mutation for the next sync.
+     * @param mutation the applied mutation
+     * @throws IOException if the mutation cannot be encoded
+     */
+    public void append(DeviceMutation mutation) throws IOException {
+        record.reset();
+        mutation.writeTo(recordOut);
+        checksum.reset();
+        checksum.update(record.array(), 0, record.size());
+        pendingOut.writeInt(record.size());
+        pendingOut.writeInt((int) checksum.getValue());
+        record.writeTo(pendingOut);
+        pendingRecords++;
+    }
+
+    /**
+     * Writes every buffered mutation to the current log segment and fsyncs it once.
+     * @throws IOException if writing or syncing fails
+     */
+    public void sync() throws IOException {
+        if (pendingRecords == 0) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(pending.array(), 0, pending.size());
+        while (bytes.hasRemaining()) {
+            segment.write(bytes);
+        }
+        segment.force(false);
+        loggedSinceSnapshot += pendingRecords;
+        pendingRecords = 0;
+        pending.reset();
+    }
+
+    /**
+     * Returns whether enough mutations were logged since the last snapshot and no snapshot is being written.
+     * @return true if snapshot should be called
+     */
+    public boolean snapshotDue() {
+        return loggedSinceSnapshot >= snapshotInterval && (snapshotInFlight == null || snapshotInFlight.isDone());
+    }
+
+    /**
+     * Starts a new log segment and writes a snapshot of the given devices in the background.
+     * Once the snapshot is durable, older snapshots and log segments are deleted.
+     * Must be called right after sync, with the devices registered at that point.
+     * @param devices every registered device; the list must not change afterwards
+     * @throws IOException if the new log segment cannot be opened
+     */
+    public void snapshot(List<Device> devices) throws IOException {
+        long coveredUpTo = segmentId + 1;
+        openSegment(coveredUpTo);
+        loggedSinceSnapshot = 0;
+        snapshotInFlight = snapshotWriter.submit(() -> {
+            try {
+                writeSnapshot(devices, coveredUpTo);
+                deleteFiles(SNAPSHOT_SUFFIX, coveredUpTo);
+                deleteFiles(SEGMENT_SUFFIX, coveredUpTo);
+            } catch (IOException e) {
+                log.error("Writing snapshot {} failed, the log is kept", coveredUpTo, e);
+            }
+        });
+    }
+
+    /**
+     * Syncs buffered mutations, waits for a snapshot in progress and closes the log.
+     */
+    @Override
+    public void close() throws IOException {
+        snapshotWriter.shutdown();
+        try {
+            snapshotWriter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (segment != null) {
+            sync();
+            segment.close();
+        }
+    }
+
+    private void openSegment(long id) throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        segmentId = id;
+        segment = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void writeSnapshot(List<Device> devices, long id) throws IOException {
+        Path temp = directory.resolve(SNAPSHOT_PREFIX + id + SNAPSHOT_SUFFIX + TEMP_SUFFIX);
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            RecordBuffer snapshotRecord = new RecordBuffer();
+            DataOutputStream snapshotRecordOut = new DataOutputStream(snapshotRecord);
+            CRC32C snapshotChecksum = new CRC32C();
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(devices.size());
+            for (Device device : devices) {
+                snapshotRecord.reset();
+                DeviceMutation.add(device).writeTo(snapshotRecordOut);
+                snapshotChecksum.reset();
+                snapshotChecksum.update(snapshotRecord.array(), 0, snapshotRecord.size());
+                out.writeInt(snapshotRecord.size());
+                out.writeInt((int) snapshotChecksum.getValue());
+                snapshotRecord.writeTo(out);
+            }
+            out.flush();
+            file.getChannel().force(true);
+        }
+        Files.move(temp, snapshotPath(id), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readSnapshot(Path path, Consumer<DeviceMutation> apply) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a device snapshot: " + path);
+            }
+            long count = in.readLong();
+            for (long i = 0; i < count; i++) {
+                byte[] payload = readRecord(in, Long.MAX_VALUE);
+                if (payload == null) {
+                    throw new IOException("Corrupt device snapshot: " + path);
+                }
+                apply.accept(decode(payload));
+            }
+        }
+    }
+
+    /**
+     * Replays a log segment, truncating it at the first torn or corrupt record.
+     * @return true if the whole segment was intact
+     */
+    private boolean replaySegment(Path path, Consumer<DeviceMutation> apply) throws IOException {
+        long size = Files.size(path);
+        long position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (position < size) {
+                byte[] payload = readRecord(in, size - position);
+                if (payload == null) {
+                    break;
+                }
+                apply.accept(decode(payload));
+                position += FRAME_HEADER_BYTES + payload.length;
+            }
+        }
+        if (position == size) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(position);
+        }
+        return false;
+    }
+
+    /**
+     * Reads one framed record.
+     * @param remaining number of bytes left in the source
+     * @return the record payload, or null if it is torn or fails its checksum
+     */
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        if (remaining < FRAME_HEADER_BYTES) {
+            return null;
+        }
+        int length = in.readInt();
+        int expected = in.readInt();
+        if (length < 0 || length > remaining - FRAME_HEADER_BYTES) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        if ((int) crc.getValue() != expected) {
+            return null;
+        }
+        return bytes;
+    }
+
+    private static DeviceMutation decode(byte[] payload) throws IOException {
+        return DeviceMutation.readFrom(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    private List<Long> listIds(String prefix, String suffix) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .forEach(name -> ids.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()))));
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    /**
+     * Deletes files with the given suffix whose id is below the given bound.
+     */
+    private void deleteFiles(String suffix, long belowId) throws IOException {
+        String prefix = suffix.equals(SEGMENT_SUFFIX) ? SEGMENT_PREFIX : SNAPSHOT_PREFIX;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                String name = path.getFileName().toString();
+                if (suffix.equals(TEMP_SUFFIX) ? name.endsWith(TEMP_SUFFIX)
+                        : name.startsWith(prefix) && name.endsWith(suffix)
+                            && Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())) < belowId) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private Path snapshotPath(long id) {
+        return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, id, SNAPSHOT_SUFFIX));
+    }
+}
@@ -0,0 +1,23 @@
+package org.example;
+
+/**
+ * Reasons for rejecting a device that is added, with the error message returned to the client
+ * and the tag of the devicenet.devices.rejected counter.
+ */
+public enum DeviceRejection {
+    MISSING_MAC("missing_mac", "MAC address is required"),
+    MISSING_TYPE("missing_type", "Device type is required"),
+    INVALID_TYPE("invalid_type", "Invalid device type"),
+    SELF_UPLINK("self_uplink", "Device cannot be its own uplink"),
+    INVALID_MAC("invalid_mac", "Invalid MAC address"),
+    DUPLICATE("duplicate", "Device with this MAC address already exists"),
+    CYCLE("cycle", "Cycle detected: cannot link node as it would create a cycle.");
+
+    public final String tag;
+    public final String message;
+
+    DeviceRejection(String tag, String message) {
+        this.tag = tag;
+        this.message = message;
+    }
+}
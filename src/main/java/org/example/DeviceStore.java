@@ -0,0 +1,191 @@
+package org.example;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Storage of the device forest.
+ * Implementations own the linking logic, so the root set, the devices waiting for their uplink
+ * and the descendant counts, in total and by device type, stay consistent with whatever layout they keep the topology in.
+ * Mutations are only called from the ingest applier thread; reads may run concurrently on request threads.
+ * Returned NetworkNode objects are either the stored nodes themselves or read-only views.
+ */
+public interface DeviceStore extends AutoCloseable {
+
+    /**
+     * Checks whether the store can hold a device with the given MAC address.
+     * @param macAddress MAC address of a device or uplink
+     * @return true if the address can be stored
+     */
+    default boolean accepts(String macAddress) {
+        return true;
+    }
+
+    /**
+     * Sets the listener notified of the cycle checks made by this store while linking, replacing the previous one.
+     * Stores that do not report their cycle checks ignore it.
+     * @param listener the listener, called on the ingest applier thread; it should not allocate
+     */
+    default void setCycleCheckListener(NetworkNode.CycleCheckListener listener) {
+    }
+
+    /**
+     * Adds a device, links it to its parent if registered and adopts the devices waiting for it.
+     * @param device the device to add
+     * @throws IllegalArgumentException if the device already exists or would create a cycle
+     */
+    void put(Device device);
+
+    /**
+     * Adds a batch of devices and links them in one pass.
+     * None of them may be registered already or appear twice in the batch.
+     * @param devices the devices to add, in insertion order
+     * @return the devices rejected because they would create a cycle, as if added one at a time
+     */
+    List<Device> putAll(List<Device> devices);
+
+    /**
+     * Moves a registered device, with its subtree, under a new uplink.
+     * If the new uplink is not registered, the device becomes a root waiting for it.
+     * @param macAddress MAC address of the device
+     * @param uplinkMacAddress MAC address of the new uplink, or null/empty to make the device a root
+     * @return the device with its new uplink
+     * @throws IllegalArgumentException if the device is not registered or the new uplink lies in its subtree
+     */
+    Device move(String macAddress, String uplinkMacAddress);
+
+    /**
+     * Removes a registered device. Its children become roots waiting for it,
+     * so they are adopted again if a device with the same MAC address is added later.
+     * @param macAddress MAC address of the device
+     * @return the removed device, or null if not registered
+     */
+    Device remove(String macAddress);
+
+    /**
+     * Checks whether one device lies strictly above another in the forest, in constant time.
+     * @param ancestorMacAddress MAC address of the candidate ancestor
+     * @param descendantMacAddress MAC address of the candidate descendant
+     * @return true if both are registered and the first is an ancestor of the second
+     */
+    boolean isAncestor(String ancestorMacAddress, String descendantMacAddress);
+
+    /**
+     * Returns the node of a device, whose children can be walked down to the whole subtree.
+     * @param macAddress MAC address of the device
+     * @return the node, or null if not registered
+     */
+    NetworkNode get(String macAddress);
+
+    /**
+     * Checks whether a device is registered.
+     * @param macAddress MAC address of the device
+     * @return true if registered
+     */
+    boolean contains(String macAddress);
+
+    /**
+     * Returns the devices linked directly below a device, in the order they were linked.
+     * @param macAddress MAC address of the parent device
+     * @return the child nodes, or null if the parent is not registered
+     */
+    List<NetworkNode> children(String macAddress);
+
+    /**
+     * Returns the roots of the forest: devices without an uplink or whose uplink is not registered.
+     * @return the root nodes
+     */
+    Collection<NetworkNode> roots();
+
+    /**
+     * Returns the number of registered devices of a type, in constant time. Safe to call from any thread.
+     * @param typeCode code of the device type, as returned by Device.typeCode
+     * @return the number of devices of the type
+     */
+    int count(byte typeCode);
+
+    /**
+     * Returns the number of roots of the forest. Safe to call from any thread.
+     * @return the number of roots
+     */
+    default int rootCount() {
+        return roots().size();
+    }
+
+    /**
+     * Returns the number of devices waiting for their uplink to be registered: the roots that have an uplink.
+     * Walks the roots, so it is meant for metrics scrapes, not for request paths. Safe to call from any thread.
+     * @return the number of waiting devices
+     */
+    default int orphanCount() {
+        int waiting = 0;
+        for (NetworkNode root : roots()) {
+            String uplink = root.device.getUplinkMacAddress();
+            if (uplink != null && !uplink.isEmpty()) {
+                waiting++;
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * Returns the path from a device up to the root of its tree, excluding the device itself.
+     * @param macAddress MAC address of the device
+     * @return the ancestor nodes, parent first, or null if the device is not registered
+     */
+    List<NetworkNode> ancestors(String macAddress);
+
+    /**
+     * Publishes the mutations applied since the last call as one new version of the topology, visible to snapshots.
+     * Called on the ingest applier thread once per batch. Stores that keep no versions have nothing to publish:
+     * their snapshots read the live topology.
+     * @return the latest published version, unchanged if nothing was mutated since the last call
+     */
+    default long publish() {
+        return 0;
+    }
+
+    /**
+     * Pins a published version of the topology for reading.
+     * Stores that keep no versions only serve version 0, which reads the live topology.
+     * @param version a published version, or TopologySnapshot.LATEST
+     * @return the snapshot, or null if the version is no longer retained or not published yet
+     */
+    default TopologySnapshot snapshot(long version) {
+        return version == TopologySnapshot.LATEST || version == 0 ? TopologySnapshot.live(this, 0) : null;
+    }
+
+    /**
+     * Returns the oldest version that snapshot can still pin. Safe to call from any thread.
+     * @return the oldest retained version
+     */
+    default long oldestVersion() {
+        return 0;
+    }
+
+    /**
+     * Returns devices whose uplink is not registered yet. Called on the ingest applier thread.
+     * @return map of uplink MAC address to the devices waiting for it
+     */
+    Map<String, List<Device>> orphans();
+
+    /**
+     * Returns the number of registered devices.
+     * @return the number of devices
+     */
+    int size();
+
+    /**
+     * Passes every registered device to the action, in insertion order where the layout keeps it.
+     * @param action the action to run for each device
+     */
+    void forEach(Consumer<Device> action);
+
+    /**
+     * Releases the storage. Closing a closed store does nothing.
+     */
+    @Override
+    void close();
+}
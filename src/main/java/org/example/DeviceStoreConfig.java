@@ -0,0 +1,39 @@
+package org.example;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Selects the device store backend from the devicenet.store.* properties.
+ */
+@Configuration
+public class DeviceStoreConfig {
+    /**
+     * Creates the device store. It is closed by the controller once the ingest pipeline has stopped
+     * writing to it, so Spring must not close it on its own.
+     * @param type "memory" for NetworkNode objects on the heap, "compact" for primitive arrays on the heap,
+     *             "offheap" for records outside the heap
+     * @param file file the off-heap records are mapped from, or empty to keep them in a direct buffer
+     * @param expectedSize expected number of devices, used to size the compact and off-heap stores
+     * @param retentionMillis how long the in-memory store keeps a topology version readable after the next one is published
+     * @return the device store
+     * @throws IOException if the off-heap store file cannot be opened
+     */
+    @Bean(destroyMethod = "")
+    public DeviceStore deviceStore(
+            @Value("${devicenet.store.type:memory}") String type,
+            @Value("${devicenet.store.file:}") String file,
+            @Value("${devicenet.store.expected-size:1000000}") int expectedSize,
+            @Value("${devicenet.store.version-retention-ms:60000}") long retentionMillis) throws IOException {
+        return switch (type) {
+            case "memory" -> new InMemoryDeviceStore(retentionMillis);
+            case "compact" -> new CompactDeviceStore(expectedSize);
+            case "offheap" -> new OffHeapDeviceStore(file.isEmpty() ? null : Path.of(file), expectedSize);
+            default -> throw new IllegalArgumentException("Unknown device store type: " + type);
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package org.example;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted index of devices by device type, maintained on insert.
+ * Devices are kept in one bucket per type, buckets in Device.compareTo order and each bucket
+ * sorted by MAC address, so listing a page never sorts and costs O(log n + page size).
+ * A page resumes at a position, the device type and MAC address of the last device listed,
+ * so the cursor stays valid after that device is removed.
+ * Written by the ingest applier thread only, read concurrently by request threads.
+ */
+public class DeviceTypeIndex {
+    /**
+     * Buckets in priority order, keyed by device type. The key set is fixed at construction.
+     */
+    private final Map<String, NavigableMap<String, Device>> buckets = new LinkedHashMap<>();
+
+    public DeviceTypeIndex() {
+        for (String deviceType : Device.deviceTypesInOrder()) {
+            buckets.put(deviceType, new ConcurrentSkipListMap<>());
+        }
+    }
+
+    /**
+     * Adds a device to the bucket of its type.
+     * @param device the device to add
+     */
+    public void add(Device device) {
+        buckets.get(device.getDeviceType()).put(device.getMacAddress(), device);
+    }
+
+    /**
+     * Removes a device from the bucket of its type.
+     * @param device the device to remove
+     */
+    public void remove(Device device) {
+        buckets.get(device.getDeviceType()).remove(device.getMacAddress());
+    }
+
+    /**
+     * Returns a page of devices in priority order, then by MAC address.
+     * @param deviceType only list devices of this type, or null for all types
+     * @param afterType device type of the last device of the previous page, or null to start from the beginning
+     * @param afterMacAddress MAC address of the last device of the previous page; it need not be registered any more
+     * @param limit maximum number of devices to return
+     * @return the devices following the cursor
+     */
+    public List<Device> page(String deviceType, String afterType, String afterMacAddress, int limit) {
+        List<Device> page = new ArrayList<>(Math.min(limit, 1024));
+        boolean started = afterType == null;
+        for (Map.Entry<String, NavigableMap<String, Device>> bucket : buckets.entrySet()) {
+            NavigableMap<String, Device> devices = bucket.getValue();
+            if (!started) {
+                if (!bucket.getKey().equals(afterType)) {
+                    continue;
+                }
+                devices = devices.tailMap(afterMacAddress, false);
+                started = true;
+            }
+            if (deviceType != null && !deviceType.equals(bucket.getKey())) {
+                continue;
+            }
+            for (Device device : devices.values()) {
+                if (page.size() == limit) {
+                    return page;
+                }
+                page.add(device);
+            }
+        }
+        return page;
+    }
+}
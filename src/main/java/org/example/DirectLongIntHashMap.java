@@ -0,0 +1,213 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Open-addressing hash map from long keys to non-negative int values, kept in a direct ByteBuffer
+ * outside the Java heap, with linear probing and backward-shift deletion.
+ * Values are stored plus one, so a zeroed buffer is an empty table and needs no initialization.
+ * Written by a single thread. get may run concurrently with put: it sees either the table
+ * before a resize or the one after it, and may miss an entry that is being added.
+ */
+public class DirectLongIntHashMap {
+    /**
+     * Value returned by get for absent keys.
+     */
+    public static final int MISSING = -1;
+
+    private static final int SLOT_BYTES = 16;
+    private static final int VALUE_OFFSET = 8;
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    /**
+     * Receives the entries of the map.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+
+    /**
+     * A table and its mask, swapped as one on resize so readers never mix them up.
+     */
+    private static final class Table {
+        private final ByteBuffer slots;
+        private final int mask;
+
+        private Table(int capacity) {
+            this.slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+            this.mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table;
+    private int size;
+    private int resizeAt;
+
+    /**
+     * Creates a map sized for the given number of entries without resizing.
+     * @param expectedSize expected number of entries
+     */
+    public DirectLongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) Math.min(MAX_CAPACITY, (long) expectedSize * 4 / 3)) - 1) << 1;
+        allocate(Math.min(MAX_CAPACITY, capacity));
+    }
+
+    /**
+     * Returns the value mapped to the key.
+     * @param key the key
+     * @return the value, or MISSING if the key is absent
+     */
+    public int get(long key) {
+        Table current = table;
+        for (int slot = slot(key, current.mask); ; slot = (slot + 1) & current.mask) {
+            int stored = current.slots.getInt(slot * SLOT_BYTES + VALUE_OFFSET);
+            if (stored == 0) {
+                return MISSING;
+            }
+            if (current.slots.getLong(slot * SLOT_BYTES) == key) {
+                return stored - 1;
+            }
+        }
+    }
+
+    /**
+     * Maps the key to the value, replacing any previous mapping.
+     * @param key the key
+     * @param value the value, must not be negative
+     * @throws IllegalStateException if the table cannot grow any further
+     */
+    public void put(long key, int value) {
+        if (value < 0 || value == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Values must be between 0 and Integer.MAX_VALUE - 1");
+        }
+        ByteBuffer slots = table.slots;
+        int mask = table.mask;
+        int slot = slot(key, mask);
+        while (slots.getInt(slot * SLOT_BYTES + VALUE_OFFSET) != 0) {
+            if (slots.getLong(slot * SLOT_BYTES) == key) {
+                slots.putInt(slot * SLOT_BYTES + VALUE_OFFSET, value + 1);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots.putLong(slot * SLOT_BYTES, key);
+        slots.putInt(slot * SLOT_BYTES + VALUE_OFFSET, value + 1);
+        if (++size >= resizeAt) {
+            resize();
+        }
+    }
+
+    /**
+     * Removes the mapping for the key.
+     * @param key the key
+     * @return the removed value, or MISSING if the key was absent
+     */
+    public int remove(long key) {
+        ByteBuffer slots = table.slots;
+        int mask = table.mask;
+        int slot = slot(key, mask);
+        int stored;
+        while ((stored = slots.getInt(slot * SLOT_BYTES + VALUE_OFFSET)) != 0) {
+            if (slots.getLong(slot * SLOT_BYTES) == key) {
+                shiftBack(slot);
+                size--;
+                return stored - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Passes every entry to the consumer, in table order.
+     * @param consumer receives each key and value
+     */
+    public void forEach(EntryConsumer consumer) {
+        Table current = table;
+        for (int slot = 0; slot <= current.mask; slot++) {
+            int stored = current.slots.getInt(slot * SLOT_BYTES + VALUE_OFFSET);
+            if (stored != 0) {
+                consumer.accept(current.slots.getLong(slot * SLOT_BYTES), stored - 1);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes held by the direct buffer.
+     * @return off-heap footprint of the table
+     */
+    public long estimatedBytes() {
+        return table.slots.capacity();
+    }
+
+    /**
+     * Closes the gap left at the given slot by moving later entries of the probe run back.
+     */
+    private void shiftBack(int gap) {
+        ByteBuffer slots = table.slots;
+        int mask = table.mask;
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            int stored = slots.getInt(slot * SLOT_BYTES + VALUE_OFFSET);
+            if (stored == 0) {
+                break;
+            }
+            long key = slots.getLong(slot * SLOT_BYTES);
+            int home = slot(key, mask);
+            // Move the entry unless its home slot lies cyclically in (gap, slot]
+            boolean movable = gap <= slot ? (home <= gap || home > slot) : (home <= gap && home > slot);
+            if (movable) {
+                slots.putLong(gap * SLOT_BYTES, key);
+                slots.putInt(gap * SLOT_BYTES + VALUE_OFFSET, stored);
+                gap = slot;
+            }
+        }
+        slots.putInt(gap * SLOT_BYTES + VALUE_OFFSET, 0);
+    }
+
+    private static int slot(long key, int mask) {
+        // Murmur3 finalizer, spreads sequential MACs across the table
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    private void allocate(int capacity) {
+        table = new Table(capacity);
+        resizeAt = capacity == MAX_CAPACITY ? capacity - 1 : (int) (capacity * 0.75);
+    }
+
+    private void resize() {
+        Table old = table;
+        int capacity = old.mask + 1;
+        if (capacity == MAX_CAPACITY) {
+            throw new IllegalStateException("Hash index is full");
+        }
+        // Fill the new table before publishing it, so concurrent readers keep using the old one meanwhile
+        Table resized = new Table(capacity * 2);
+        for (int slot = 0; slot < capacity; slot++) {
+            int stored = old.slots.getInt(slot * SLOT_BYTES + VALUE_OFFSET);
+            if (stored == 0) {
+                continue;
+            }
+            long key = old.slots.getLong(slot * SLOT_BYTES);
+            int target = slot(key, resized.mask);
+            while (resized.slots.getInt(target * SLOT_BYTES + VALUE_OFFSET) != 0) {
+                target = (target + 1) & resized.mask;
+            }
+            resized.slots.putLong(target * SLOT_BYTES, key);
+            resized.slots.putInt(target * SLOT_BYTES + VALUE_OFFSET, stored);
+        }
+        table = resized;
+        resizeAt = capacity * 2 == MAX_CAPACITY ? capacity * 2 - 1 : (int) (capacity * 2 * 0.75);
+    }
+}
@@ -0,0 +1,270 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Continuously tracks the users producing the most log lines per error type over a sliding time window.
+ * The window is split into a ring of time buckets, and each bucket keeps one Space-Saving sketch per error type,
+ * so memory is bounded by buckets * types * counters no matter how many lines are ingested.
+ * A query merges the sketches of the buckets inside the window, its cost does not grow with the log volume either.
+ * Lines are placed in buckets by arrival time; buckets older than the window are dropped as the ring wraps around.
+ */
+public class ErrorHeavyHitters {
+
+    /**
+     * Most error types a bucket tracks; lines of further types in the same bucket are dropped.
+     */
+    public static final int MAX_TYPES = 64;
+
+    /**
+     * Lines are parsed outside the lock and recorded in batches of this many.
+     */
+    private static final int BATCH_LINES = 1024;
+
+    /**
+     * A user with the estimated number of log lines of an error type in the window.
+     * The true number is between count - error and count.
+     */
+    public static class HeavyHitter {
+        public String user;
+        public long count;
+        public long error;
+
+        public HeavyHitter(String user, long count, long error) {
+            this.user = user;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Outcome of ingesting a batch of log lines.
+     */
+    public static class Ingested {
+        public long lines;
+        public long malformed;
+        public long dropped;
+    }
+
+    private static class Bucket {
+        long epoch = -1;
+        final Map<String, SpaceSaving> sketches = new HashMap<>();
+    }
+
+    private final Bucket[] buckets;
+    private final long bucketMillis;
+    private final int counters;
+    private final LongSupplier clock;
+
+    /**
+     * @param windowMillis length of the sliding window
+     * @param bucketMillis length of a bucket, the granularity at which lines leave the window
+     * @param counters Space-Saving counters per error type and bucket
+     */
+    public ErrorHeavyHitters(long windowMillis, long bucketMillis, int counters) {
+        this(windowMillis, bucketMillis, counters, System::currentTimeMillis);
+    }
+
+    /**
+     * @param windowMillis length of the sliding window
+     * @param bucketMillis length of a bucket, the granularity at which lines leave the window
+     * @param counters Space-Saving counters per error type and bucket
+     * @param clock current time in milliseconds
+     */
+    public ErrorHeavyHitters(long windowMillis, long bucketMillis, int counters, LongSupplier clock) {
+        if (bucketMillis <= 0 || windowMillis < bucketMillis || counters <= 0) {
+            throw new IllegalArgumentException("Window must hold at least one bucket, and sketches at least one counter");
+        }
+        this.buckets = new Bucket[(int) ((windowMillis + bucketMillis - 1) / bucketMillis)];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.bucketMillis = bucketMillis;
+        this.counters = counters;
+        this.clock = clock;
+    }
+
+    /**
+     * @return Space-Saving counters per error type and bucket, the largest k a query answers with guaranteed bounds
+     */
+    public int counters() {
+        return counters;
+    }
+
+    /**
+     * Reads log lines in the format read by NetworkNode.getLogCountMap ("LEVEL date time user message")
+     * and counts each for its error type and user in the current bucket.
+     * @param in log lines, UTF-8
+     * @return number of lines counted, skipped as malformed and dropped because their bucket tracks too many types
+     * @throws IOException if the stream cannot be read
+     */
+    public Ingested ingest(InputStream in) throws IOException {
+        Ingested ingested = new Ingested();
+        String[] batch = new String[2 * BATCH_LINES];
+        int size = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int typeEnd = line.indexOf(' ');
+            int userStart = field(line, typeEnd, 2);
+            int userEnd = userStart < 0 ? -1 : line.indexOf(' ', userStart);
+            if (typeEnd <= 0 || userStart < 0 || userStart == line.length() || userEnd == userStart) {
+                ingested.malformed++;
+                continue;
+            }
+            batch[size++] = line.substring(0, typeEnd);
+            batch[size++] = userEnd < 0 ? line.substring(userStart) : line.substring(userStart, userEnd);
+            if (size == batch.length) {
+                record(batch, size, ingested);
+                size = 0;
+            }
+        }
+        record(batch, size, ingested);
+        return ingested;
+    }
+
+    /**
+     * Counts one log line.
+     * @param type error type
+     * @param user user of the line
+     * @return false if the line was dropped because the current bucket already tracks MAX_TYPES other error types
+     */
+    public synchronized boolean record(String type, String user) {
+        SpaceSaving sketch = sketch(current(), type);
+        if (sketch == null) {
+            return false;
+        }
+        sketch.offer(user);
+        return true;
+    }
+
+    /**
+     * @param k number of users per error type
+     * @return the k users with the most lines of each error type in the window, most lines first
+     */
+    public synchronized Map<String, List<HeavyHitter>> top(int k) {
+        long now = epoch();
+        Set<String> types = new TreeSet<>();
+        for (Bucket bucket : buckets) {
+            if (live(bucket, now)) {
+                types.addAll(bucket.sketches.keySet());
+            }
+        }
+        Map<String, List<HeavyHitter>> top = new LinkedHashMap<>();
+        for (String type : types) {
+            top.put(type, top(type, k, now));
+        }
+        return top;
+    }
+
+    /**
+     * @param type error type
+     * @param k number of users
+     * @return the k users with the most lines of the error type in the window, most lines first; empty if there are none
+     */
+    public synchronized List<HeavyHitter> top(String type, int k) {
+        return top(type, k, epoch());
+    }
+
+    private List<HeavyHitter> top(String type, int k, long now) {
+        // A user missing from a full bucket sketch may still have up to its min lines there, counted in count and error.
+        // Track per user the total of those mins over the buckets where the user is monitored, and subtract at the end.
+        Map<String, long[]> merged = new HashMap<>();
+        long missingBound = 0;
+        for (Bucket bucket : buckets) {
+            SpaceSaving sketch = live(bucket, now) ? bucket.sketches.get(type) : null;
+            if (sketch == null) {
+                continue;
+            }
+            long min = sketch.min();
+            missingBound += min;
+            sketch.forEach((user, count, error) -> {
+                long[] total = merged.computeIfAbsent(user, u -> new long[3]);
+                total[0] += count;
+                total[1] += error;
+                total[2] += min;
+            });
+        }
+        List<HeavyHitter> hitters = new ArrayList<>(merged.size());
+        for (Map.Entry<String, long[]> entry : merged.entrySet()) {
+            long[] total = entry.getValue();
+            long unseen = missingBound - total[2];
+            hitters.add(new HeavyHitter(entry.getKey(), total[0] + unseen, total[1] + unseen));
+        }
+        hitters.sort(Comparator.comparingLong((HeavyHitter h) -> -h.count).thenComparing(h -> h.user));
+        return hitters.size() > k ? new ArrayList<>(hitters.subList(0, k)) : hitters;
+    }
+
+    private void record(String[] batch, int size, Ingested ingested) {
+        if (size == 0) {
+            return;
+        }
+        synchronized (this) {
+            Bucket bucket = current();
+            for (int i = 0; i < size; i += 2) {
+                SpaceSaving sketch = sketch(bucket, batch[i]);
+                if (sketch == null) {
+                    ingested.dropped++;
+                } else {
+                    sketch.offer(batch[i + 1]);
+                    ingested.lines++;
+                }
+            }
+        }
+    }
+
+    private SpaceSaving sketch(Bucket bucket, String type) {
+        SpaceSaving sketch = bucket.sketches.get(type);
+        if (sketch == null && bucket.sketches.size() < MAX_TYPES) {
+            sketch = new SpaceSaving(counters);
+            bucket.sketches.put(type, sketch);
+        }
+        return sketch;
+    }
+
+    /**
+     * @return the bucket of the current time, cleared first if it still holds an earlier turn of the ring
+     */
+    private Bucket current() {
+        long now = epoch();
+        Bucket bucket = buckets[(int) Math.floorMod(now, (long) buckets.length)];
+        if (bucket.epoch != now) {
+            bucket.epoch = now;
+            bucket.sketches.clear();
+        }
+        return bucket;
+    }
+
+    private boolean live(Bucket bucket, long now) {
+        return bucket.epoch > now - buckets.length && bucket.epoch <= now;
+    }
+
+    private long epoch() {
+        return Math.floorDiv(clock.getAsLong(), bucketMillis);
+    }
+
+    /**
+     * @return index of the first character of the field after the given number of further spaces following from, or -1
+     */
+    private static int field(String line, int from, int spaces) {
+        if (from < 0) {
+            return -1;
+        }
+        for (int i = 0; i < spaces; i++) {
+            from = line.indexOf(' ', from + 1);
+            if (from < 0) {
+                return -1;
+            }
+        }
+        return from + 1;
+    }
+}
@@ -0,0 +1,255 @@
+package org.example;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * Device store keeping the forest as NetworkNode objects on the heap, keyed by MAC address.
+ * Nodes are returned as they are stored, so a returned subtree follows later mutations.
+ * Every node gets a dense id in an AncestorIndex, used for cycle checks on link and move;
+ * ids of removed nodes are reused.
+ * Every mutation marks the nodes it changed in TopologyVersions, so snapshots read published versions
+ * of the forest instead of the live nodes.
+ */
+public class InMemoryDeviceStore implements DeviceStore {
+    public static final long DEFAULT_RETENTION_MILLIS = 60_000;
+
+    /**
+     * Devices as NetworkNode objects, keyed by MAC address.
+     * Written by the ingest applier thread only, read concurrently by request threads.
+     */
+    private final Map<String, NetworkNode> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Devices whose uplink is not registered yet, keyed by the missing uplink MAC address.
+     * Owned by the ingest applier thread.
+     */
+    private final Map<String, List<NetworkNode>> orphans = new HashMap<>();
+
+    /**
+     * Root nodes of the network forest, maintained by the linking logic.
+     * Written by the ingest applier thread only, read concurrently by request threads.
+     */
+    private final Set<NetworkNode> roots = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Euler-tour labels of the forest, keyed by node id. Owned by the ingest applier thread.
+     */
+    private final AncestorIndex ancestors = new AncestorIndex(1_024);
+    /**
+     * Number of registered devices by type code; devices of unsupported types are not counted.
+     */
+    private final AtomicIntegerArray typeCounts = new AtomicIntegerArray(Device.deviceTypesInOrder().size());
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+    private int nextId = 0;
+    /**
+     * Published versions of the forest, for snapshot reads.
+     */
+    private final TopologyVersions versions;
+    /**
+     * Notified of the cycle checks of this store's link calls, on the ingest applier thread.
+     */
+    private volatile NetworkNode.CycleCheckListener cycleCheckListener = NetworkNode.CycleCheckListener.NONE;
+
+    /**
+     * Creates a store retaining versions for a minute after they are superseded.
+     */
+    public InMemoryDeviceStore() {
+        this(DEFAULT_RETENTION_MILLIS);
+    }
+
+    /**
+     * @param retentionMillis how long a published version stays readable after the next one is published
+     */
+    public InMemoryDeviceStore(long retentionMillis) {
+        this.versions = new TopologyVersions(retentionMillis);
+    }
+
+    @Override
+    public void setCycleCheckListener(NetworkNode.CycleCheckListener listener) {
+        cycleCheckListener = listener;
+    }
+
+    @Override
+    public void put(Device device) {
+        if (devices.containsKey(device.getMacAddress())) {
+            throw new IllegalArgumentException("Device with this MAC address already exists");
+        }
+        NetworkNode node = newNode(device);
+        devices.put(device.getMacAddress(), node);
+        try {
+            NetworkNode.linkNode(node, devices, orphans, roots, ancestors, cycleCheckListener);
+        } catch (IllegalArgumentException e) {
+            // linkNode already removed the node from the map
+            freeIds.push(node.id);
+            throw e;
+        }
+        markLinked(node);
+        countType(device, 1);
+    }
+
+    @Override
+    public List<Device> putAll(List<Device> batch) {
+        List<NetworkNode> nodes = new ArrayList<>(batch.size());
+        for (Device device : batch) {
+            NetworkNode node = newNode(device);
+            devices.put(device.getMacAddress(), node);
+            nodes.add(node);
+        }
+        List<NetworkNode> rejected = NetworkNode.linkBatch(nodes, devices, orphans, roots, ancestors, cycleCheckListener);
+        for (NetworkNode node : nodes) {
+            if (devices.get(node.device.getMacAddress()) == node) {
+                markLinked(node);
+            }
+        }
+        rejected.forEach(node -> freeIds.push(node.id));
+        batch.forEach(device -> countType(device, 1));
+        rejected.forEach(node -> countType(node.device, -1));
+        return rejected.stream().map(node -> node.device).toList();
+    }
+
+    @Override
+    public Device move(String macAddress, String uplinkMacAddress) {
+        NetworkNode node = devices.get(macAddress);
+        if (node == null) {
+            throw new IllegalArgumentException("Device not found");
+        }
+        Device moved = new Device(macAddress, node.device.getDeviceType(), uplinkMacAddress);
+        NetworkNode oldParent = node.parent;
+        NetworkNode.moveNode(node, moved, devices, orphans, roots, ancestors);
+        if (oldParent != null) {
+            versions.changedPath(oldParent);
+        }
+        versions.relinked(node);
+        return moved;
+    }
+
+    @Override
+    public Device remove(String macAddress) {
+        NetworkNode node = devices.get(macAddress);
+        if (node == null) {
+            return null;
+        }
+        NetworkNode parent = node.parent;
+        List<NetworkNode> children = node.children;
+        NetworkNode.removeNode(node, devices, orphans, roots, ancestors);
+        if (parent != null) {
+            versions.changedPath(parent);
+        }
+        versions.changed(node);
+        children.forEach(versions::changed);
+        freeIds.push(node.id);
+        countType(node.device, -1);
+        return node.device;
+    }
+
+    @Override
+    public boolean isAncestor(String ancestorMacAddress, String descendantMacAddress) {
+        NetworkNode ancestor = devices.get(ancestorMacAddress);
+        NetworkNode descendant = devices.get(descendantMacAddress);
+        return ancestor != null && descendant != null && ancestors.isAncestor(ancestor.id, descendant.id);
+    }
+
+    @Override
+    public NetworkNode get(String macAddress) {
+        return devices.get(macAddress);
+    }
+
+    @Override
+    public boolean contains(String macAddress) {
+        return devices.containsKey(macAddress);
+    }
+
+    @Override
+    public List<NetworkNode> children(String macAddress) {
+        NetworkNode node = devices.get(macAddress);
+        return node == null ? null : node.children;
+    }
+
+    @Override
+    public Collection<NetworkNode> roots() {
+        return Collections.unmodifiableSet(roots);
+    }
+
+    @Override
+    public long publish() {
+        int[] counts = new int[typeCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = typeCounts.get(i);
+        }
+        return versions.publish(devices, counts);
+    }
+
+    @Override
+    public TopologySnapshot snapshot(long version) {
+        return versions.snapshot(version, devices);
+    }
+
+    @Override
+    public long oldestVersion() {
+        return versions.oldestVersion();
+    }
+
+    @Override
+    public int count(byte typeCode) {
+        return typeCounts.get(typeCode);
+    }
+
+    @Override
+    public List<NetworkNode> ancestors(String macAddress) {
+        NetworkNode node = devices.get(macAddress);
+        if (node == null) {
+            return null;
+        }
+        List<NetworkNode> path = new ArrayList<>();
+        for (NetworkNode ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            path.add(ancestor);
+        }
+        return path;
+    }
+
+    @Override
+    public Map<String, List<Device>> orphans() {
+        Map<String, List<Device>> result = new HashMap<>();
+        orphans.forEach((uplink, nodes) -> result.put(uplink, nodes.stream().map(node -> node.device).toList()));
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return devices.size();
+    }
+
+    @Override
+    public void forEach(Consumer<Device> action) {
+        devices.values().forEach(node -> action.accept(node.device));
+    }
+
+    private void countType(Device device, int delta) {
+        int typeCode = Device.deviceTypesInOrder().indexOf(device.getDeviceType());
+        if (typeCode >= 0) {
+            typeCounts.addAndGet(typeCode, delta);
+        }
+    }
+
+    /**
+     * Marks a node that was just linked, its ancestors whose descendant counts grew, and the children it adopted.
+     */
+    private void markLinked(NetworkNode node) {
+        versions.changedPath(node);
+        node.children.forEach(versions::changed);
+    }
+
+    private NetworkNode newNode(Device device) {
+        NetworkNode node = new NetworkNode(device);
+        node.id = freeIds.isEmpty() ? nextId++ : freeIds.pop();
+        return node;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, the nodes are garbage collected with the store
+    }
+}
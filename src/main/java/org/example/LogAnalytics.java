@@ -0,0 +1,454 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Streaming, parallel version of NetworkNode.getLogCountMap for logs that do not fit in memory:
+ * finds the most common user (4th space-separated field) per error type (1st field).
+ * The input is cut into chunks at line boundaries; files are memory-mapped chunk by chunk, streams
+ * are read block by block. Chunks are counted on fork-join workers. Fields are compared as raw bytes
+ * and interned into per-chunk token tables, so a String is only created for each distinct error type
+ * and user, and (error type, user) pairs are counted in a primitive open-addressing table.
+ * The per-chunk counts are then merged. Ties go to the user whose name sorts first.
+ * Lines with fewer than four fields, or an empty error type or user, are skipped and counted as malformed.
+ */
+public class LogAnalytics {
+
+    /**
+     * Default size of the chunks counted by one task.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 16 << 20;
+
+    private static final int SCAN_BYTES = 64 << 10;
+
+    private final ForkJoinPool pool;
+    private final int chunkBytes;
+
+    /**
+     * Creates an engine counting on the common fork-join pool, in chunks of the default size.
+     */
+    public LogAnalytics() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param pool pool the chunks are counted on
+     * @param chunkBytes size of the chunks counted by one task; lines longer than that make their chunk longer
+     */
+    public LogAnalytics(ForkJoinPool pool, int chunkBytes) {
+        this.pool = pool;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Result of a log analysis.
+     */
+    public static class Result {
+        /**
+         * Lines counted.
+         */
+        public long lines;
+        /**
+         * Non-empty lines skipped because they lack an error type or user.
+         */
+        public long malformed;
+        /**
+         * Most common user of every error type, with their number of lines.
+         */
+        public Map<String, Pair> mostCommonUserByErrorType = new HashMap<>();
+    }
+
+    /**
+     * Analyzes a log file, memory-mapping it chunk by chunk.
+     * @param file the log file
+     * @return the most common user per error type
+     * @throws IOException if the file cannot be read
+     */
+    public Result analyze(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<ForkJoinTask<ChunkCounts>> tasks = new ArrayList<>();
+            long start = 0;
+            while (start < size) {
+                long end = lineEnd(channel, Math.min(size, start + chunkBytes), size);
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IOException("Log line longer than 2 GB at offset " + start);
+                }
+                ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                tasks.add(pool.submit(() -> count(chunk)));
+                start = end;
+            }
+            Merger merger = new Merger();
+            for (ForkJoinTask<ChunkCounts> task : tasks) {
+                merger.add(task.join());
+            }
+            return merger.result();
+        }
+    }
+
+    /**
+     * Returns the position after the first line break at or after the given position, or the end of the file.
+     */
+    private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_BYTES);
+        while (position < size) {
+            scan.clear();
+            int read = channel.read(scan, position);
+            if (read <= 0) {
+                return size;
+            }
+            for (int i = 0; i < read; i++) {
+                if (scan.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Analyzes a log stream, e.g. an uploaded body, reading it block by block.
+     * Blocks are counted while the next ones are read; at most a few blocks per worker are held at once.
+     * @param input the log stream; it is read to the end but not closed
+     * @return the most common user per error type
+     * @throws IOException if the stream cannot be read
+     */
+    public Result analyze(InputStream input) throws IOException {
+        Merger merger = new Merger();
+        Deque<ForkJoinTask<ChunkCounts>> inFlight = new ArrayDeque<>();
+        int maxInFlight = pool.getParallelism() + 1;
+        byte[] carry = new byte[0];
+        boolean eof = false;
+        while (!eof) {
+            byte[] block = new byte[Math.max(chunkBytes, carry.length * 2)];
+            System.arraycopy(carry, 0, block, 0, carry.length);
+            int filled = carry.length;
+            while (filled < block.length) {
+                int read = input.read(block, filled, block.length - filled);
+                if (read < 0) {
+                    eof = true;
+                    break;
+                }
+                filled += read;
+            }
+            int end = filled;
+            if (!eof) {
+                end = lastLineEnd(block, filled);
+                if (end == 0) {
+                    // A line longer than the block: read on into a larger one
+                    carry = Arrays.copyOf(block, filled);
+                    continue;
+                }
+            }
+            carry = Arrays.copyOfRange(block, end, filled);
+            ByteBuffer chunk = ByteBuffer.wrap(block, 0, end).slice();
+            inFlight.add(pool.submit(() -> count(chunk)));
+            if (inFlight.size() >= maxInFlight) {
+                merger.add(inFlight.poll().join());
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            merger.add(inFlight.poll().join());
+        }
+        return merger.result();
+    }
+
+    private static int lastLineEnd(byte[] block, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (block[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Counts the (error type, user) pairs of a chunk of whole lines.
+     */
+    static ChunkCounts count(ByteBuffer chunk) {
+        ChunkCounts counts = new ChunkCounts();
+        int limit = chunk.limit();
+        int position = 0;
+        while (position < limit) {
+            // Field 0 is the error type, field 3 the user; only their bounds are kept
+            int field = 0;
+            int typeEnd = -1;
+            int userStart = -1;
+            int userEnd = -1;
+            int i = position;
+            for (; i < limit; i++) {
+                byte b = chunk.get(i);
+                if (b == '\n') {
+                    break;
+                }
+                if (b == ' ') {
+                    if (field == 0) {
+                        typeEnd = i;
+                    } else if (field == 3) {
+                        userEnd = i;
+                    }
+                    field++;
+                    if (field == 3) {
+                        userStart = i + 1;
+                    }
+                }
+            }
+            int lineEnd = i > position && chunk.get(i - 1) == '\r' ? i - 1 : i;
+            if (field == 0) {
+                typeEnd = lineEnd;
+            } else if (field == 3) {
+                userEnd = lineEnd;
+            }
+            if (lineEnd > position) {
+                if (field < 3 || typeEnd == position || userEnd <= userStart) {
+                    counts.malformed++;
+                } else {
+                    int type = counts.types.intern(chunk, position, typeEnd);
+                    int user = counts.users.intern(chunk, userStart, userEnd);
+                    counts.pairs.add(((long) type << 32) | user, 1);
+                    counts.lines++;
+                }
+            }
+            position = i + 1;
+        }
+        return counts;
+    }
+
+    /**
+     * Counts of one chunk.
+     */
+    static class ChunkCounts {
+        final TokenTable types = new TokenTable();
+        final TokenTable users = new TokenTable();
+        final LongCounter pairs = new LongCounter(1_024);
+        long lines;
+        long malformed;
+    }
+
+    /**
+     * Adds up chunk counts under global token ids and picks the most common user per error type.
+     */
+    private static class Merger {
+        private final Map<String, Integer> typeIds = new HashMap<>();
+        private final Map<String, Integer> userIds = new HashMap<>();
+        private final List<String> types = new ArrayList<>();
+        private final List<String> users = new ArrayList<>();
+        private final LongCounter pairs = new LongCounter(1_024);
+        private long lines;
+        private long malformed;
+
+        void add(ChunkCounts counts) {
+            int[] typeIdsOfChunk = globalIds(counts.types, typeIds, types);
+            int[] userIdsOfChunk = globalIds(counts.users, userIds, users);
+            counts.pairs.forEach((key, count) ->
+                    pairs.add(((long) typeIdsOfChunk[(int) (key >>> 32)] << 32) | userIdsOfChunk[(int) key], count));
+            lines += counts.lines;
+            malformed += counts.malformed;
+        }
+
+        private static int[] globalIds(TokenTable tokens, Map<String, Integer> ids, List<String> names) {
+            int[] global = new int[tokens.size()];
+            for (int id = 0; id < global.length; id++) {
+                String name = tokens.token(id);
+                global[id] = ids.computeIfAbsent(name, key -> {
+                    names.add(key);
+                    return names.size() - 1;
+                });
+            }
+            return global;
+        }
+
+        Result result() {
+            long[] bestCount = new long[types.size()];
+            int[] bestUser = new int[types.size()];
+            pairs.forEach((key, count) -> {
+                int type = (int) (key >>> 32);
+                int user = (int) key;
+                if (count > bestCount[type]
+                        || (count == bestCount[type] && users.get(user).compareTo(users.get(bestUser[type])) < 0)) {
+                    bestCount[type] = count;
+                    bestUser[type] = user;
+                }
+            });
+            Result result = new Result();
+            result.lines = lines;
+            result.malformed = malformed;
+            for (int type = 0; type < types.size(); type++) {
+                result.mostCommonUserByErrorType.put(types.get(type),
+                        new Pair(users.get(bestUser[type]), (int) Math.min(bestCount[type], Integer.MAX_VALUE)));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Interns byte ranges as dense int ids, keeping one copy of each distinct token.
+     */
+    static class TokenTable {
+        private byte[] bytes = new byte[4_096];
+        private int used = 0;
+        private int[] offsets = new int[64];
+        private int[] lengths = new int[64];
+        private int[] hashes = new int[64];
+        private int size = 0;
+        /**
+         * Open-addressing slots holding id + 1, 0 for free.
+         */
+        private int[] slots = new int[128];
+
+        int intern(ByteBuffer source, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + source.get(i);
+            }
+            hash ^= hash >>> 16;
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int id = slots[slot] - 1;
+                if (id < 0) {
+                    return add(source, from, to, hash, slot);
+                }
+                if (hashes[id] == hash && equal(id, source, from, to)) {
+                    return id;
+                }
+            }
+        }
+
+        private boolean equal(int id, ByteBuffer source, int from, int to) {
+            if (lengths[id] != to - from) {
+                return false;
+            }
+            for (int i = 0, offset = offsets[id]; i < to - from; i++) {
+                if (bytes[offset + i] != source.get(from + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int add(ByteBuffer source, int from, int to, int hash, int slot) {
+            int length = to - from;
+            if (used + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + length));
+            }
+            source.get(from, bytes, used, length);
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            int id = size++;
+            offsets[id] = used;
+            lengths[id] = length;
+            hashes[id] = hash;
+            used += length;
+            slots[slot] = id + 1;
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int id = 0; id < size; id++) {
+                int slot = hashes[id] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = id + 1;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        String token(int id) {
+            return new String(bytes, offsets[id], lengths[id], StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Open-addressing map of non-negative long keys to long counts.
+     */
+    static class LongCounter {
+        private static final long FREE = -1;
+
+        private long[] keys;
+        private long[] counts;
+        private int size = 0;
+
+        LongCounter(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+            keys = new long[capacity];
+            counts = new long[capacity];
+            Arrays.fill(keys, FREE);
+        }
+
+        void add(long key, long delta) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    counts[slot] += delta;
+                    return;
+                }
+                if (keys[slot] == FREE) {
+                    keys[slot] = key;
+                    counts[slot] = delta;
+                    if (++size * 2 > keys.length) {
+                        grow();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new long[oldKeys.length * 2];
+            Arrays.fill(keys, FREE);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    int slot = mix(oldKeys[i]) & mask;
+                    while (keys[slot] != FREE) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        interface Visitor {
+            void visit(long key, long count);
+        }
+
+        void forEach(Visitor visitor) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != FREE) {
+                    visitor.visit(keys[i], counts[i]);
+                }
+            }
+        }
+    }
+}
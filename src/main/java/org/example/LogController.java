@@ -0,0 +1,86 @@
+package org.example;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * REST controller for analyzing device logs.
+ */
+@RestController
+@RequestMapping("/api")
+public class LogController {
+
+    private final LogAnalytics analytics = new LogAnalytics();
+    private final ErrorHeavyHitters heavyHitters;
+
+    /**
+     * @param windowMinutes length of the sliding window of the heavy-hitter tracking
+     * @param bucketSeconds granularity at which log lines leave the window
+     * @param counters Space-Saving counters per error type and bucket
+     */
+    public LogController(
+            @Value("${devicenet.logs.window-minutes:15}") long windowMinutes,
+            @Value("${devicenet.logs.bucket-seconds:60}") long bucketSeconds,
+            @Value("${devicenet.logs.counters:100}") int counters) {
+        this.heavyHitters = new ErrorHeavyHitters(windowMinutes * 60_000, bucketSeconds * 1_000, counters);
+    }
+
+    /**
+     * Finds the most common user per error type of an uploaded log, in the format read by
+     * NetworkNode.getLogCountMap ("LEVEL date time user message", one entry per line).
+     * The body is streamed through the parallel log analytics engine, so it can be far larger than the heap.
+     * @param body request body stream with the log lines
+     * @return line counts and the most common user per error type
+     * @throws IOException if the body cannot be read
+     */
+    @PostMapping("/logs/analysis")
+    public LogAnalytics.Result analyzeLogs(InputStream body) throws IOException {
+        return analytics.analyze(body);
+    }
+
+    /**
+     * Adds log lines to the continuous heavy-hitter tracking. Lines count towards the window from the time they arrive.
+     * @param body request body stream with the log lines
+     * @return number of lines counted, skipped as malformed and dropped because too many error types arrived at once
+     * @throws IOException if the body cannot be read
+     */
+    @PostMapping("/logs/stream")
+    public ErrorHeavyHitters.Ingested streamLogs(InputStream body) throws IOException {
+        return heavyHitters.ingest(body);
+    }
+
+    /**
+     * Gets the users with the most log lines per error type in the sliding window.
+     * @param k number of users per error type
+     * @return the top users of each error type, most lines first
+     */
+    @GetMapping("/logs/top")
+    public Map<String, List<ErrorHeavyHitters.HeavyHitter>> getTopUsers(@RequestParam(defaultValue = "10") int k) {
+        return heavyHitters.top(checkK(k));
+    }
+
+    /**
+     * Gets the users with the most log lines of one error type in the sliding window.
+     * @param type error type
+     * @param k number of users
+     * @return the top users of the error type, most lines first; empty if it has no lines in the window
+     */
+    @GetMapping("/logs/top/{type}")
+    public List<ErrorHeavyHitters.HeavyHitter> getTopUsers(@PathVariable String type, @RequestParam(defaultValue = "10") int k) {
+        return heavyHitters.top(type, checkK(k));
+    }
+
+    private int checkK(int k) {
+        if (k < 1 || k > heavyHitters.counters()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "k must be between 1 and " + heavyHitters.counters());
+        }
+        return k;
+    }
+}
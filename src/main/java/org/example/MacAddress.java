@@ -0,0 +1,68 @@
+package org.example;
+
+/**
+ * Conversions between the textual MAC address form "AA:BB:CC:DD:EE:FF" and a 48-bit long.
+ */
+public final class MacAddress {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private MacAddress() {}
+
+    /**
+     * Parses a colon-separated MAC address into the low 48 bits of a long.
+     * @param macAddress MAC address, e.g. "AA:BB:CC:DD:EE:FF" (case-insensitive)
+     * @return the MAC address as a long
+     * @throws IllegalArgumentException if the MAC address is malformed
+     */
+    public static long parse(String macAddress) {
+        if (macAddress == null || macAddress.length() != 17) {
+            throw new IllegalArgumentException("Invalid MAC address: " + macAddress);
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i += 3) {
+            if (i > 0 && macAddress.charAt(i - 1) != ':') {
+                throw new IllegalArgumentException("Invalid MAC address: " + macAddress);
+            }
+            int high = Character.digit(macAddress.charAt(i), 16);
+            int low = Character.digit(macAddress.charAt(i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid MAC address: " + macAddress);
+            }
+            value = (value << 8) | (high << 4) | low;
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether the given string is a well-formed MAC address.
+     * @param macAddress the string to check
+     * @return true if parse would accept it
+     */
+    public static boolean isValid(String macAddress) {
+        try {
+            parse(macAddress);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Formats the low 48 bits of a long as an upper-case, colon-separated MAC address.
+     * @param value the MAC address as a long
+     * @return the MAC address, e.g. "AA:BB:CC:DD:EE:FF"
+     */
+    public static String format(long value) {
+        char[] chars = new char[17];
+        for (int octet = 0; octet < 6; octet++) {
+            int b = (int) (value >>> (40 - 8 * octet)) & 0xFF;
+            int pos = octet * 3;
+            chars[pos] = HEX_DIGITS[b >>> 4];
+            chars[pos + 1] = HEX_DIGITS[b & 0xF];
+            if (octet < 5) {
+                chars[pos + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+}
@@ -1,5 +1,7 @@
 package org.example;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.*;
 
 /**
@@ -20,6 +22,51 @@ public class NetworkNode {
      * Indicates whether this node has a parent in the network tree.
      */
     public boolean hasParent = false;
+    /**
+     * The parent node, or null for a root. Not serialized, the tree is rendered top-down.
+     */
+    @JsonIgnore
+    public NetworkNode parent;
+    /**
+     * Number of nodes in the subtree below this node, maintained on link.
+     */
+    public int descendantCount = 0;
+    /**
+     * Number of nodes of each device type in the subtree below this node, indexed by Device.typeCode,
+     * maintained on link along with descendantCount. Null while the node never had a descendant.
+     */
+    @JsonIgnore
+    public int[] descendantTypeCounts;
+    /**
+     * Id of the node in the store's ancestor index, or -1 when linked without one.
+     */
+    @JsonIgnore
+    public int id = -1;
+    /**
+     * Latest published state of the node, linked to the older ones still retained, or null if the store keeps no versions.
+     */
+    @JsonIgnore
+    public TopologyVersions.State published;
+
+    /**
+     * Receives the number of steps of every cycle check made while linking, e.g. for metrics.
+     * The listener is passed to each link call, so stores sharing this class do not share listeners.
+     */
+    @FunctionalInterface
+    public interface CycleCheckListener {
+        /**
+         * Listener that ignores every cycle check.
+         */
+        CycleCheckListener NONE = (indexed, steps) -> {};
+
+        /**
+         * @param indexed true for a check against the ancestor index, false for a walk up the uplinks
+         * @param steps waiting trees checked against the index, or uplinks walked
+         */
+        void checked(boolean indexed, int steps);
+    }
+
+    private static final int TYPE_COUNT = Device.deviceTypesInOrder().size();
 
     /**
      * Constructs a NetworkNode for the given device.
@@ -30,12 +77,64 @@ public class NetworkNode {
     }
 
     /**
-     * Links a child node to a parent node.
+     * Returns the number of nodes of a device type in the subtree below this node.
+     * @param typeCode code of the device type, as returned by Device.typeCode
+     * @return the number of descendants of the type
+     */
+    public int descendantCount(byte typeCode) {
+        int[] counts = descendantTypeCounts;
+        return counts == null ? 0 : counts[typeCode];
+    }
+
+    /**
+     * Links a child node to a parent node. The child stops being a root, and the child's subtree
+     * is added to the descendant count, in total and by type, of the parent and every ancestor above it.
      * @param parent the parent node
      * @param child the child node
+     * @param roots the set of root nodes
+     * @param ancestors the ancestor index, or null
      */
-    private static void linkParentChild(NetworkNode parent, NetworkNode child) {
+    private static void linkParentChild(NetworkNode parent, NetworkNode child, Set<NetworkNode> roots, AncestorIndex ancestors) {
+        if (ancestors != null) {
+            ancestors.move(child.id, parent.id);
+        }
         parent.children.add(child);
+        child.parent = parent;
+        child.hasParent = true;
+        roots.remove(child);
+        addSubtree(parent, child, 1);
+    }
+
+    /**
+     * Adds (sign 1) or subtracts (sign -1) the subtree of a child to the descendant counts of a parent and its ancestors.
+     */
+    private static void addSubtree(NetworkNode parent, NetworkNode child, int sign) {
+        int subtreeSize = sign * (child.descendantCount + 1);
+        int[] childTypeCounts = child.descendantTypeCounts;
+        int childType = typeIndex(child.device);
+        for (NetworkNode ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.descendantCount += subtreeSize;
+            int[] counts = ancestor.descendantTypeCounts;
+            if (counts == null) {
+                counts = new int[TYPE_COUNT];
+                ancestor.descendantTypeCounts = counts;
+            }
+            if (childTypeCounts != null) {
+                for (int type = 0; type < TYPE_COUNT; type++) {
+                    counts[type] += sign * childTypeCounts[type];
+                }
+            }
+            if (childType >= 0) {
+                counts[childType] += sign;
+            }
+        }
+    }
+
+    /**
+     * @return the type code of a device, or -1 for a type that is not supported and not counted by type
+     */
+    private static int typeIndex(Device device) {
+        return Device.deviceTypesInOrder().indexOf(device.getDeviceType());
     }
 
     /**
@@ -44,52 +143,332 @@ public class NetworkNode {
      * @param nodeMap the map of all nodes
      * @return true if a cycle is detected, false otherwise
      */
-    private static boolean isSelfDescendant(NetworkNode node, Map<String, NetworkNode> nodeMap) {
+    static boolean isSelfDescendant(NetworkNode node, Map<String, NetworkNode> nodeMap) {
+        return isSelfDescendant(node, nodeMap, CycleCheckListener.NONE);
+    }
+
+    /**
+     * Checks if the given node is its own descendant like isSelfDescendant, reporting the steps walked.
+     * @param node the node to check
+     * @param nodeMap the map of all nodes
+     * @param listener notified of the number of uplinks walked
+     * @return true if a cycle is detected, false otherwise
+     */
+    static boolean isSelfDescendant(NetworkNode node, Map<String, NetworkNode> nodeMap, CycleCheckListener listener) {
         NetworkNode current = node;
+        int steps = 0;
         while (current.device.getUplinkMacAddress() != null && !node.device.getUplinkMacAddress().isEmpty()) {
             NetworkNode parent = nodeMap.get(current.device.getUplinkMacAddress());
+            steps++;
             if (parent == null) {
+                listener.checked(false, steps);
                 return false; // No further parent, so no cycle
             }
             if (parent == node) {
+                listener.checked(false, steps);
                 return true; // Cycle detected
             }
             current = parent; // Move up the tree
         }
+        listener.checked(false, steps);
         return false; // Reached the top without finding a cycle
     }
 
     /**
      * Links the given node to its parent and children in the node map, checking for cycles.
+     * Children registered before their parent wait in the orphans index, keyed by the uplink
+     * MAC address they point to, so adopting them does not require a scan of the node map.
+     * The root set is kept up to date: the node becomes a root unless its parent is registered,
+     * and adopted children stop being roots.
      * @param node the node to link
      * @param nodeMap the map of all nodes
+     * @param orphans index of nodes waiting for their (not yet registered) parent, keyed by uplink MAC address
+     * @param roots the set of root nodes
+     * @throws IllegalArgumentException if a cycle would be created
+     */
+    public static void linkNode(NetworkNode node, Map<String, NetworkNode> nodeMap, Map<String, List<NetworkNode>> orphans,
+                                Set<NetworkNode> roots) {
+        linkNode(node, nodeMap, orphans, roots, null, CycleCheckListener.NONE);
+    }
+
+    /**
+     * Links the given node like linkNode, keeping an ancestor index up to date and using it for cycle
+     * detection: the node is new, so a cycle can only close through the trees waiting for it, and
+     * whether its parent lies in one of them takes one constant-time check per waiting tree.
+     * @param node the node to link, its id not in the index yet
+     * @param nodeMap the map of all nodes
+     * @param orphans index of nodes waiting for their (not yet registered) parent, keyed by uplink MAC address
+     * @param roots the set of root nodes
+     * @param ancestors the ancestor index, or null to detect cycles by walking up the uplinks
+     * @param listener notified of the cycle check, on the linking thread; it should not allocate
      * @throws IllegalArgumentException if a cycle would be created
      */
-    public static void linkNode(NetworkNode node, Map<String, NetworkNode> nodeMap) {
+    public static void linkNode(NetworkNode node, Map<String, NetworkNode> nodeMap, Map<String, List<NetworkNode>> orphans,
+                                Set<NetworkNode> roots, AncestorIndex ancestors, CycleCheckListener listener) {
+        if (ancestors != null) {
+            ancestors.add(node.id);
+        }
         // Link device to its parent if uplinkMacAddress is set.
-        // If such parent does not exist yet, it will be linked when the parent is added.
-        if (node.device.getUplinkMacAddress() != null && !node.device.getUplinkMacAddress().isEmpty()) {
-            NetworkNode parent = nodeMap.get(node.device.getUplinkMacAddress());
+        // If such parent does not exist yet, the node waits in the orphans index until the parent is added.
+        String uplinkMacAddress = node.device.getUplinkMacAddress();
+        if (uplinkMacAddress != null && !uplinkMacAddress.isEmpty()) {
+            NetworkNode parent = nodeMap.get(uplinkMacAddress);
             if (parent != null) {
                 // Check for cycle: parent must not be a descendant of node
-                if (isSelfDescendant(node, nodeMap)) {
+                if (ancestors != null ? waitsBelow(parent, node, orphans, ancestors, listener) : isSelfDescendant(node, nodeMap, listener)) {
                     nodeMap.remove(node.device.getMacAddress()); // Clean up to avoid partial addition  
+                    if (ancestors != null) {
+                        ancestors.remove(node.id);
+                    }
                     throw new IllegalArgumentException("Cycle detected: cannot link node as it would create a cycle.");
                 }
-                linkParentChild(parent, node);
-                node.hasParent = true;
+                linkParentChild(parent, node, roots, ancestors);
+            } else {
+                orphans.computeIfAbsent(uplinkMacAddress, k -> new ArrayList<>()).add(node);
             }
         }
-        // Link existing children to this device
-        for (NetworkNode n : nodeMap.values()) {
-            if (node.device.getMacAddress().equals(n.device.getUplinkMacAddress())) {
-                NetworkNode.linkParentChild(node, n);
-                n.hasParent = true;
+        if (!node.hasParent) {
+            roots.add(node);
+        }
+        // Adopt existing children waiting for this device
+        List<NetworkNode> waitingChildren = orphans.remove(node.device.getMacAddress());
+        if (waitingChildren != null) {
+            for (NetworkNode child : waitingChildren) {
+                linkParentChild(node, child, roots, ancestors);
             }
         }
     }
 
+    /**
+     * Checks whether a registered node lies in one of the trees waiting for a new node.
+     */
+    private static boolean waitsBelow(NetworkNode parent, NetworkNode node, Map<String, List<NetworkNode>> orphans, AncestorIndex ancestors,
+                                      CycleCheckListener listener) {
+        List<NetworkNode> waitingTrees = orphans.get(node.device.getMacAddress());
+        if (waitingTrees == null) {
+            listener.checked(true, 0);
+            return false;
+        }
+        int steps = 0;
+        for (NetworkNode waiting : waitingTrees) {
+            steps++;
+            if (waiting == parent || ancestors.isAncestor(waiting.id, parent.id)) {
+                listener.checked(true, steps);
+                return true;
+            }
+        }
+        listener.checked(true, steps);
+        return false;
+    }
 
+    /**
+     * Links a batch of nodes, already put into the node map, in one pass.
+     * Cycle detection runs once over the batch's new edges: only upward walks starting at a batch
+     * node can close a cycle, and every node is walked at most once across the whole batch.
+     * When a cycle is found, the batch node added last on it is rejected, as it would have been
+     * rejected had the batch been added one device at a time.
+     * @param batch the new nodes, in insertion order
+     * @param nodeMap the map of all nodes
+     * @param orphans index of nodes waiting for their (not yet registered) parent, keyed by uplink MAC address
+     * @param roots the set of root nodes
+     * @return the nodes rejected because they would create a cycle; they are removed from the node map
+     */
+    public static List<NetworkNode> linkBatch(List<NetworkNode> batch, Map<String, NetworkNode> nodeMap, Map<String, List<NetworkNode>> orphans,
+                                              Set<NetworkNode> roots) {
+        return linkBatch(batch, nodeMap, orphans, roots, null, CycleCheckListener.NONE);
+    }
+
+    /**
+     * Links a batch of nodes like linkBatch, keeping an ancestor index up to date.
+     * @param batch the new nodes, in insertion order, their ids not in the index yet
+     * @param nodeMap the map of all nodes
+     * @param orphans index of nodes waiting for their (not yet registered) parent, keyed by uplink MAC address
+     * @param roots the set of root nodes
+     * @param ancestors the ancestor index, or null
+     * @param listener notified of every cycle check walk, on the linking thread; it should not allocate
+     * @return the nodes rejected because they would create a cycle; they are removed from the node map
+     */
+    public static List<NetworkNode> linkBatch(List<NetworkNode> batch, Map<String, NetworkNode> nodeMap, Map<String, List<NetworkNode>> orphans,
+                                              Set<NetworkNode> roots, AncestorIndex ancestors, CycleCheckListener listener) {
+        Map<NetworkNode, Integer> batchIndex = new IdentityHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            batchIndex.put(batch.get(i), i);
+        }
+
+        // Cycle detection over the uplink pointers of the new nodes
+        Set<NetworkNode> rejected = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<NetworkNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<NetworkNode, Integer> pathIndex = new IdentityHashMap<>();
+        List<NetworkNode> path = new ArrayList<>();
+        for (NetworkNode start : batch) {
+            NetworkNode current = start;
+            while (current != null && !visited.contains(current)) {
+                Integer cycleStart = pathIndex.get(current);
+                if (cycleStart != null) {
+                    NetworkNode last = null;
+                    for (NetworkNode onCycle : path.subList(cycleStart, path.size())) {
+                        Integer index = batchIndex.get(onCycle);
+                        if (index != null && (last == null || index > batchIndex.get(last))) {
+                            last = onCycle;
+                        }
+                    }
+                    rejected.add(last);
+                    nodeMap.remove(last.device.getMacAddress());
+                    break;
+                }
+                pathIndex.put(current, path.size());
+                path.add(current);
+                current = uplinkOf(current, nodeMap);
+            }
+            listener.checked(false, path.size());
+            visited.addAll(path);
+            pathIndex.clear();
+            path.clear();
+        }
+
+        // Link every accepted node to its parent, or park it until the parent arrives
+        for (NetworkNode node : batch) {
+            if (!rejected.contains(node) && ancestors != null) {
+                ancestors.add(node.id);
+            }
+        }
+        for (NetworkNode node : batch) {
+            if (rejected.contains(node)) {
+                continue;
+            }
+            NetworkNode parent = uplinkOf(node, nodeMap);
+            if (parent != null) {
+                linkParentChild(parent, node, roots, ancestors);
+            } else {
+                if (node.device.getUplinkMacAddress() != null && !node.device.getUplinkMacAddress().isEmpty()) {
+                    orphans.computeIfAbsent(node.device.getUplinkMacAddress(), k -> new ArrayList<>()).add(node);
+                }
+                roots.add(node);
+            }
+        }
+        // Adopt children registered before the batch
+        for (NetworkNode node : batch) {
+            if (rejected.contains(node)) {
+                continue;
+            }
+            List<NetworkNode> waitingChildren = orphans.remove(node.device.getMacAddress());
+            if (waitingChildren != null) {
+                for (NetworkNode child : waitingChildren) {
+                    linkParentChild(node, child, roots, ancestors);
+                }
+            }
+        }
+        return batch.stream().filter(rejected::contains).toList();
+    }
+
+    /**
+     * Moves a registered node, with its subtree, under a new uplink. The node is unlinked from its
+     * parent (or from the orphans index), then linked to the new uplink if it is registered, or parked
+     * as a root waiting for it. Descendant counts of the old and new ancestors are adjusted.
+     * @param node the node to move
+     * @param device the node's device with the new uplink MAC address, replacing node.device
+     * @param nodeMap the map of all nodes
+     * @param orphans index of nodes waiting for their (not yet registered) parent, keyed by uplink MAC address
+     * @param roots the set of root nodes
+     * @param ancestors the ancestor index
+     * @throws IllegalArgumentException if the new uplink lies in the node's subtree
+     */
+    public static void moveNode(NetworkNode node, Device device, Map<String, NetworkNode> nodeMap, Map<String, List<NetworkNode>> orphans,
+                                Set<NetworkNode> roots, AncestorIndex ancestors) {
+        String uplinkMacAddress = device.getUplinkMacAddress();
+        NetworkNode parent = uplinkMacAddress == null || uplinkMacAddress.isEmpty() ? null : nodeMap.get(uplinkMacAddress);
+        if (parent != null && (parent == node || ancestors.isAncestor(node.id, parent.id))) {
+            throw new IllegalArgumentException("Cycle detected: cannot link node as it would create a cycle.");
+        }
+        boolean wasRoot = node.parent == null;
+        unlinkNode(node, orphans, roots);
+        node.device = device;
+        if (parent != null) {
+            linkParentChild(parent, node, roots, ancestors);
+        } else {
+            if (uplinkMacAddress != null && !uplinkMacAddress.isEmpty()) {
+                orphans.computeIfAbsent(uplinkMacAddress, k -> new ArrayList<>()).add(node);
+            }
+            if (!wasRoot) {
+                ancestors.move(node.id, AncestorIndex.NONE);
+            }
+        }
+    }
+
+    /**
+     * Removes a registered node from the topology. Its children become roots waiting in the orphans
+     * index for the removed MAC address, so they are adopted again if the device comes back.
+     * @param node the node to remove
+     * @param nodeMap the map of all nodes
+     * @param orphans index of nodes waiting for their (not yet registered) parent, keyed by uplink MAC address
+     * @param roots the set of root nodes
+     * @param ancestors the ancestor index
+     */
+    public static void removeNode(NetworkNode node, Map<String, NetworkNode> nodeMap, Map<String, List<NetworkNode>> orphans,
+                                  Set<NetworkNode> roots, AncestorIndex ancestors) {
+        unlinkNode(node, orphans, roots);
+        roots.remove(node);
+        for (NetworkNode child : node.children) {
+            child.parent = null;
+            child.hasParent = false;
+            roots.add(child);
+            orphans.computeIfAbsent(node.device.getMacAddress(), k -> new ArrayList<>()).add(child);
+            ancestors.move(child.id, AncestorIndex.NONE);
+        }
+        // Readers walking the removed node keep the old list
+        node.children = new ArrayList<>();
+        node.descendantCount = 0;
+        node.descendantTypeCounts = null;
+        nodeMap.remove(node.device.getMacAddress());
+        ancestors.remove(node.id);
+    }
+
+    /**
+     * Detaches a node from its parent, or from the orphans index if it waits for its uplink, and makes it a root.
+     * The parent's child list is replaced rather than shrunk in place, so readers walking it are not disturbed.
+     */
+    private static void unlinkNode(NetworkNode node, Map<String, List<NetworkNode>> orphans, Set<NetworkNode> roots) {
+        NetworkNode parent = node.parent;
+        if (parent != null) {
+            List<NetworkNode> siblings = new ArrayList<>(parent.children);
+            siblings.remove(node);
+            parent.children = siblings;
+            addSubtree(parent, node, -1);
+            node.parent = null;
+            node.hasParent = false;
+            roots.add(node);
+            return;
+        }
+        String uplinkMacAddress = node.device.getUplinkMacAddress();
+        List<NetworkNode> waiting = uplinkMacAddress == null ? null : orphans.get(uplinkMacAddress);
+        if (waiting != null) {
+            waiting.remove(node);
+            if (waiting.isEmpty()) {
+                orphans.remove(uplinkMacAddress);
+            }
+        }
+    }
+
+    /**
+     * Returns the registered parent of the given node.
+     * @param node the node
+     * @param nodeMap the map of all nodes
+     * @return the parent node, or null if the uplink is not set or not registered
+     */
+    private static NetworkNode uplinkOf(NetworkNode node, Map<String, NetworkNode> nodeMap) {
+        String uplinkMacAddress = node.device.getUplinkMacAddress();
+        if (uplinkMacAddress == null || uplinkMacAddress.isEmpty()) {
+            return null;
+        }
+        return nodeMap.get(uplinkMacAddress);
+    }
+
+    /**
+     * Finds the most common user (4th field) per error type (1st field) of log lines held in memory.
+     * LogAnalytics answers the same question for files and streams that do not fit in memory.
+     * @param logs log lines
+     * @return the most common user of every error type, with their number of lines
+     */
     public static Map<String, Pair> getLogCountMap(List<String> logs) {
         Map<String, Map<String, Integer>> logCountMap = new HashMap<>();
         for (String log : logs) {
@@ -0,0 +1,125 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Writes NetworkNode trees, bounded SubtreeQuery views and lists or arrays of trees straight to the response with TopologyJsonWriter,
+ * instead of letting Jackson serialize them recursively as one bean graph.
+ * Registered ahead of the default JSON converter in WebConfig.
+ */
+public class NetworkTreeMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final LongConsumer writtenBytes;
+
+    public NetworkTreeMessageConverter() {
+        this(bytes -> {});
+    }
+
+    /**
+     * @param writtenBytes receives the size of every tree written
+     */
+    public NetworkTreeMessageConverter(LongConsumer writtenBytes) {
+        super(MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+        this.writtenBytes = writtenBytes;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        // Arrays carry their element type at runtime, unlike lists returned inside a ResponseEntity<Object>
+        return NetworkNode.class.isAssignableFrom(clazz) || SubtreeQuery.class.isAssignableFrom(clazz)
+                || NetworkNode[].class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        return (supports(clazz) || isNodeCollection(type)) && canWrite(mediaType);
+    }
+
+    @Override
+    public List<MediaType> getSupportedMediaTypes(Class<?> clazz) {
+        // Lists are only recognized by their generic type, which canWrite(Type, ...) checks
+        return getSupportedMediaTypes();
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void writeInternal(Object value, Type type, HttpOutputMessage outputMessage) throws IOException {
+        TopologyJsonWriter writer = new TopologyJsonWriter();
+        CountingOutputStream body = new CountingOutputStream(outputMessage.getBody());
+        try (JsonGenerator generator = jsonFactory.createGenerator(body, JsonEncoding.UTF8)) {
+            if (value instanceof NetworkNode node) {
+                writer.writeTree(node, generator);
+            } else if (value instanceof SubtreeQuery query) {
+                writer.writeTree(query, generator);
+            } else if (value instanceof NetworkNode[] roots) {
+                writer.writeForest(Arrays.asList(roots), generator);
+            } else {
+                writer.writeForest((Collection<NetworkNode>) value, generator);
+            }
+        } finally {
+            writtenBytes.accept(body.count);
+        }
+    }
+
+    /**
+     * Passes bytes through to the response body, counting them.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new UnsupportedOperationException("NetworkNode trees are write-only");
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) {
+        throw new UnsupportedOperationException("NetworkNode trees are write-only");
+    }
+
+    private static boolean isNodeCollection(Type type) {
+        return type instanceof ParameterizedType parameterized
+                && parameterized.getRawType() instanceof Class<?> raw
+                && Collection.class.isAssignableFrom(raw)
+                && parameterized.getActualTypeArguments()[0] == NetworkNode.class;
+    }
+}
@@ -0,0 +1,755 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * Device store keeping the forest outside the Java heap.
+ * Every device is a fixed-size record holding its 48-bit MAC address, uplink, type and adjacency
+ * (parent, first child, next and previous sibling, descendant count in total and by type, and the previous
+ * and next root of the doubly linked root list). The records live in a memory-mapped file, or in a direct ByteBuffer
+ * when no file is given, so the topology adds no objects for the garbage collector to trace.
+ * Records of removed devices are marked deleted and reused by later additions.
+ * <p>
+ * Reopening the file remaps the records. The MAC index and the pending index of devices waiting
+ * for their uplink are direct buffers rebuilt from the records on open, and the ancestor index is
+ * rebuilt from the adjacency. If the store was not closed cleanly, the adjacency is rebuilt as well,
+ * by linking the records again from their MAC, uplink and type fields alone. Those fields are the
+ * only ones a mutation commits with (the type byte last, or the header's record count for appended
+ * records), so a process crash never exposes a half-applied mutation.
+ * <p>
+ * NetworkNode and Device objects are views created on read. Child lists are materialized lazily,
+ * so walking a subtree only creates objects for the nodes actually visited.
+ * Written by a single applier thread; reads may run concurrently.
+ */
+public class OffHeapDeviceStore implements DeviceStore {
+    /**
+     * Marks a file holding 64-byte records with descendant counts by type; files of the earlier 48-byte layout are refused.
+     */
+    private static final int MAGIC = 0x444E4F32;
+    private static final int NONE = -1;
+    private static final long NO_UPLINK = -1L;
+    private static final byte DELETED = -1;
+
+    // Header layout
+    private static final int HEADER_BYTES = 64;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_USED = 4;
+    private static final int HEADER_ROOT_HEAD = 8;
+    private static final int HEADER_ROOT_COUNT = 12;
+    private static final int HEADER_CLEAN = 16;
+
+    // Record layout
+    private static final int RECORD_BYTES = 64;
+    private static final int MAC = 0;
+    private static final int UPLINK = 8;
+    private static final int PARENT = 16;
+    private static final int FIRST_CHILD = 20;
+    private static final int NEXT_SIBLING = 24;
+    private static final int DESCENDANTS = 28;
+    private static final int PREV_ROOT = 32;
+    private static final int NEXT_ROOT = 36;
+    private static final int TYPE = 40;
+    private static final int PREV_SIBLING = 44;
+    /**
+     * One int per device type code: the number of descendants of that type.
+     */
+    private static final int TYPE_DESCENDANTS = 48;
+    private static final int TYPE_COUNT = Device.deviceTypesInOrder().size();
+
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_BYTES) / RECORD_BYTES;
+
+    private final FileChannel channel;
+    private volatile ByteBuffer records;
+    private int capacity;
+    /**
+     * Number of records ever appended, including deleted ones.
+     */
+    private int used;
+    /**
+     * Number of registered devices; written after each mutation so readers see its effects.
+     */
+    private volatile int count;
+    /**
+     * Number of registered devices by type code.
+     */
+    private final AtomicIntegerArray typeCounts = new AtomicIntegerArray(TYPE_COUNT);
+    private boolean closed = false;
+
+    private final DirectLongIntHashMap index;
+    /**
+     * Uplink MAC to the last device parked waiting for it; the waiting devices are doubly linked
+     * through NEXT_SIBLING (towards earlier ones) and PREV_SIBLING.
+     */
+    private final DirectLongIntHashMap pendingChildren = new DirectLongIntHashMap(16);
+    /**
+     * Euler-tour labels of the forest, keyed by record index, used for cycle checks on add and move.
+     */
+    private final AncestorIndex ancestors;
+    /**
+     * Deleted records available for reuse.
+     */
+    private final Deque<Integer> freeRecords = new ArrayDeque<>();
+
+    /**
+     * Opens the store backed by the given file, creating it if needed, or by a direct buffer.
+     * @param file file holding the records, or null to keep them in a direct buffer that is lost on close
+     * @param expectedSize expected number of devices, so the records do not need to be remapped while growing
+     * @throws IOException if the file cannot be opened or is not a device store
+     */
+    public OffHeapDeviceStore(Path file, int expectedSize) throws IOException {
+        int initialCapacity = Math.max(16, Math.min(MAX_CAPACITY, expectedSize));
+        if (file == null) {
+            channel = null;
+            capacity = initialCapacity;
+            records = ByteBuffer.allocateDirect(bytes(capacity));
+        } else {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long existing = channel.size();
+            int existingCapacity = existing <= HEADER_BYTES ? 0 : (int) Math.min(MAX_CAPACITY, (existing - HEADER_BYTES) / RECORD_BYTES);
+            capacity = Math.max(initialCapacity, existingCapacity);
+            records = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes(capacity));
+            if (existing > 0 && records.getInt(HEADER_MAGIC) != MAGIC) {
+                channel.close();
+                throw new IOException("Not a device store file: " + file);
+            }
+        }
+
+        if (records.getInt(HEADER_MAGIC) != MAGIC) {
+            records.putInt(HEADER_MAGIC, MAGIC);
+            records.putInt(HEADER_USED, 0);
+            records.putInt(HEADER_ROOT_HEAD, NONE);
+            records.putInt(HEADER_ROOT_COUNT, 0);
+            records.put(HEADER_CLEAN, (byte) 1);
+        }
+        used = records.getInt(HEADER_USED);
+        index = new DirectLongIntHashMap(Math.max(capacity, used));
+        ancestors = new AncestorIndex(Math.max(capacity, used));
+        boolean clean = records.get(HEADER_CLEAN) == 1;
+        records.put(HEADER_CLEAN, (byte) 0);
+        if (clean) {
+            reindex();
+        } else {
+            relink();
+        }
+    }
+
+    @Override
+    public boolean accepts(String macAddress) {
+        return MacAddress.isValid(macAddress);
+    }
+
+    /**
+     * @throws IllegalArgumentException also if a MAC address is malformed
+     */
+    @Override
+    public void put(Device device) {
+        add(MacAddress.parse(device.getMacAddress()), Device.typeCode(device.getDeviceType()), uplinkOf(device.getUplinkMacAddress()));
+    }
+
+    /**
+     * Adding the devices one at a time already rejects the last device of every cycle,
+     * and the ancestor index keeps each cycle check cheap.
+     */
+    @Override
+    public List<Device> putAll(List<Device> devices) {
+        List<Device> rejected = new ArrayList<>();
+        for (Device device : devices) {
+            try {
+                put(device);
+            } catch (IllegalArgumentException e) {
+                rejected.add(device);
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * @throws IllegalArgumentException also if a MAC address is malformed
+     */
+    @Override
+    public Device move(String macAddress, String uplinkMacAddress) {
+        int node = indexOf(macAddress);
+        if (node == NONE) {
+            throw new IllegalArgumentException("Device not found");
+        }
+        long uplink = uplinkOf(uplinkMacAddress);
+        int parent = uplink == NO_UPLINK ? NONE : index.get(uplink);
+        if (parent == node || (parent != NONE && ancestors.isAncestor(node, parent))) {
+            throw new IllegalArgumentException("Cycle detected: cannot link node as it would create a cycle.");
+        }
+        boolean wasRoot = field(node, PARENT) == NONE;
+        unlink(node);
+        records.putLong(offset(node) + UPLINK, uplink);
+        if (parent != NONE) {
+            removeRoot(node);
+            attach(parent, node);
+            ancestors.move(node, parent);
+        } else {
+            if (uplink != NO_UPLINK) {
+                park(uplink, node);
+            }
+            if (!wasRoot) {
+                ancestors.move(node, AncestorIndex.NONE);
+            }
+        }
+        count = count; // Publishes the move to readers
+        return device(node);
+    }
+
+    @Override
+    public Device remove(String macAddress) {
+        int node = indexOf(macAddress);
+        if (node == NONE) {
+            return null;
+        }
+        Device removed = device(node);
+        long mac = records.getLong(offset(node) + MAC);
+        unlink(node);
+        removeRoot(node);
+        // Children wait for the removed MAC again, oldest first, as they were linked
+        int child = lastChild(node);
+        while (child != NONE) {
+            int later = field(child, PREV_SIBLING);
+            setField(child, PARENT, NONE);
+            addRoot(child);
+            park(mac, child);
+            ancestors.move(child, AncestorIndex.NONE);
+            child = later;
+        }
+        setField(node, FIRST_CHILD, NONE);
+        clearDescendants(node);
+        ancestors.remove(node);
+        index.remove(mac);
+        typeCounts.decrementAndGet(records.get(offset(node) + TYPE));
+        records.put(offset(node) + TYPE, DELETED);
+        freeRecords.push(node);
+        count = count - 1;
+        return removed;
+    }
+
+    @Override
+    public boolean isAncestor(String ancestorMacAddress, String descendantMacAddress) {
+        int ancestor = indexOf(ancestorMacAddress);
+        int descendant = indexOf(descendantMacAddress);
+        return ancestor != NONE && descendant != NONE && ancestors.isAncestor(ancestor, descendant);
+    }
+
+    @Override
+    public NetworkNode get(String macAddress) {
+        int node = indexOf(macAddress);
+        return node == NONE ? null : view(node);
+    }
+
+    @Override
+    public boolean contains(String macAddress) {
+        return indexOf(macAddress) != NONE;
+    }
+
+    @Override
+    public List<NetworkNode> children(String macAddress) {
+        NetworkNode node = get(macAddress);
+        return node == null ? null : node.children;
+    }
+
+    @Override
+    public Collection<NetworkNode> roots() {
+        int limit = count;
+        ByteBuffer buffer = records;
+        List<NetworkNode> result = new ArrayList<>(buffer.getInt(HEADER_ROOT_COUNT));
+        // Bounded by the device count, so a list changing under the walk cannot loop forever
+        for (int root = buffer.getInt(HEADER_ROOT_HEAD); root != NONE && result.size() < limit; root = field(root, NEXT_ROOT)) {
+            result.add(view(root));
+        }
+        return result;
+    }
+
+    @Override
+    public int count(byte typeCode) {
+        return typeCounts.get(typeCode);
+    }
+
+    @Override
+    public int rootCount() {
+        return records.getInt(HEADER_ROOT_COUNT);
+    }
+
+    @Override
+    public List<NetworkNode> ancestors(String macAddress) {
+        int node = indexOf(macAddress);
+        if (node == NONE) {
+            return null;
+        }
+        List<NetworkNode> path = new ArrayList<>();
+        for (int ancestor = field(node, PARENT); ancestor != NONE; ancestor = field(ancestor, PARENT)) {
+            path.add(view(ancestor));
+        }
+        return path;
+    }
+
+    @Override
+    public Map<String, List<Device>> orphans() {
+        Map<String, List<Device>> result = new HashMap<>();
+        pendingChildren.forEach((uplink, last) -> {
+            List<Device> waiting = new ArrayList<>();
+            for (int node = last; node != NONE; node = field(node, NEXT_SIBLING)) {
+                waiting.add(device(node));
+            }
+            Collections.reverse(waiting);
+            result.put(MacAddress.format(uplink), waiting);
+        });
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public void forEach(Consumer<Device> action) {
+        int limit = used;
+        for (int node = 0; node < limit; node++) {
+            if (!deleted(node)) {
+                action.accept(device(node));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes held outside the heap by the records and both indexes.
+     * The ancestor index adds primitive arrays on the heap, which the garbage collector does not trace.
+     * @return off-heap footprint of the store
+     */
+    public long estimatedBytes() {
+        return (long) bytes(capacity) + index.estimatedBytes() + pendingChildren.estimatedBytes();
+    }
+
+    /**
+     * Flushes the mapped records to the file and marks the store as cleanly closed,
+     * so the next open can skip rebuilding the adjacency.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (channel == null) {
+            return;
+        }
+        try {
+            MappedByteBuffer mapped = (MappedByteBuffer) records;
+            mapped.force();
+            mapped.put(HEADER_CLEAN, (byte) 1);
+            mapped.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a record, reusing a deleted one if any, links it to its parent if registered
+     * and adopts the devices waiting for it.
+     * @throws IllegalArgumentException if the device already exists or would create a cycle
+     */
+    private void add(long mac, byte type, long uplink) {
+        if (index.get(mac) != DirectLongIntHashMap.MISSING) {
+            throw new IllegalArgumentException("Device with this MAC address already exists");
+        }
+        if (uplink == mac) {
+            throw new IllegalArgumentException("Device cannot be its own uplink");
+        }
+        int parent = uplink == NO_UPLINK ? NONE : index.get(uplink);
+        if (parent != NONE) {
+            // The new device's subtree will be the trees waiting for it; the parent must not lie in one of them
+            for (int waiting = pendingChildren.get(mac); waiting != NONE; waiting = field(waiting, NEXT_SIBLING)) {
+                if (waiting == parent || ancestors.isAncestor(waiting, parent)) {
+                    throw new IllegalArgumentException("Cycle detected: cannot link node as it would create a cycle.");
+                }
+            }
+        }
+
+        boolean reused = !freeRecords.isEmpty();
+        if (!reused && used == capacity) {
+            grow();
+        }
+        int node = reused ? freeRecords.pop() : used;
+        int offset = offset(node);
+        records.putLong(offset + MAC, mac);
+        records.putLong(offset + UPLINK, uplink);
+        records.put(offset + TYPE, type);
+        if (!reused) {
+            used = node + 1;
+            records.putInt(HEADER_USED, used);
+        }
+        index.put(mac, node);
+        link(node);
+        typeCounts.incrementAndGet(type);
+        count = count + 1;
+    }
+
+    /**
+     * Links a record whose MAC is indexed: attaches it to its parent or parks it under its missing
+     * uplink as a root, then adopts the devices waiting for it.
+     */
+    private void link(int node) {
+        setField(node, PARENT, NONE);
+        setField(node, FIRST_CHILD, NONE);
+        setField(node, NEXT_SIBLING, NONE);
+        setField(node, PREV_SIBLING, NONE);
+        clearDescendants(node);
+        long uplink = records.getLong(offset(node) + UPLINK);
+        int parent = uplink == NO_UPLINK ? NONE : index.get(uplink);
+        if (parent != NONE) {
+            attach(parent, node);
+            ancestors.add(node, parent);
+        } else {
+            addRoot(node);
+            ancestors.add(node);
+            if (uplink != NO_UPLINK) {
+                park(uplink, node);
+            }
+        }
+
+        // Adopt the waiting devices oldest first, so children stay in the order they were added
+        int waiting = pendingChildren.remove(records.getLong(offset(node) + MAC));
+        if (waiting != DirectLongIntHashMap.MISSING) {
+            while (field(waiting, NEXT_SIBLING) != NONE) {
+                waiting = field(waiting, NEXT_SIBLING);
+            }
+            while (waiting != NONE) {
+                int later = field(waiting, PREV_SIBLING);
+                removeRoot(waiting);
+                attach(node, waiting);
+                ancestors.move(waiting, node);
+                waiting = later;
+            }
+        }
+    }
+
+    /**
+     * Detaches a device from its parent, adjusting the ancestors' descendant counts, and makes it
+     * a root; a device that is a root already is taken out of the pending index instead.
+     */
+    private void unlink(int node) {
+        int parent = field(node, PARENT);
+        if (parent == NONE) {
+            long uplink = records.getLong(offset(node) + UPLINK);
+            if (uplink != NO_UPLINK) {
+                unpark(uplink, node);
+            }
+            return;
+        }
+        int prev = field(node, PREV_SIBLING);
+        int next = field(node, NEXT_SIBLING);
+        if (prev == NONE) {
+            setField(parent, FIRST_CHILD, next);
+        } else {
+            setField(prev, NEXT_SIBLING, next);
+        }
+        if (next != NONE) {
+            setField(next, PREV_SIBLING, prev);
+        }
+        setField(node, PREV_SIBLING, NONE);
+        setField(node, NEXT_SIBLING, NONE);
+        addSubtree(parent, node, -1);
+        setField(node, PARENT, NONE);
+        addRoot(node);
+    }
+
+    /**
+     * Links a child under a parent and adds the child's subtree to every ancestor's descendant counts.
+     * Children are prepended; views list them in reverse, i.e. in the order they were linked.
+     */
+    private void attach(int parent, int child) {
+        int first = field(parent, FIRST_CHILD);
+        setField(child, PARENT, parent);
+        setField(child, PREV_SIBLING, NONE);
+        setField(child, NEXT_SIBLING, first);
+        if (first != NONE) {
+            setField(first, PREV_SIBLING, child);
+        }
+        setField(parent, FIRST_CHILD, child);
+        addSubtree(parent, child, 1);
+    }
+
+    /**
+     * Adds (sign 1) or subtracts (sign -1) the subtree of a child to the descendant counts of a parent and its ancestors.
+     */
+    private void addSubtree(int parent, int child, int sign) {
+        int subtreeSize = sign * (field(child, DESCENDANTS) + 1);
+        byte childType = records.get(offset(child) + TYPE);
+        for (int ancestor = parent; ancestor != NONE; ancestor = field(ancestor, PARENT)) {
+            setField(ancestor, DESCENDANTS, field(ancestor, DESCENDANTS) + subtreeSize);
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                int subtreeOfType = field(child, TYPE_DESCENDANTS + 4 * type) + (type == childType ? 1 : 0);
+                setField(ancestor, TYPE_DESCENDANTS + 4 * type, field(ancestor, TYPE_DESCENDANTS + 4 * type) + sign * subtreeOfType);
+            }
+        }
+    }
+
+    private void clearDescendants(int node) {
+        setField(node, DESCENDANTS, 0);
+        for (int type = 0; type < TYPE_COUNT; type++) {
+            setField(node, TYPE_DESCENDANTS + 4 * type, 0);
+        }
+    }
+
+    /**
+     * Parks a root under the uplink it waits for, as the latest waiting device.
+     */
+    private void park(long uplink, int node) {
+        int last = pendingChildren.get(uplink); // MISSING doubles as NONE, both are -1
+        setField(node, PREV_SIBLING, NONE);
+        setField(node, NEXT_SIBLING, last);
+        if (last != NONE) {
+            setField(last, PREV_SIBLING, node);
+        }
+        pendingChildren.put(uplink, node);
+    }
+
+    private void unpark(long uplink, int node) {
+        int prev = field(node, PREV_SIBLING);
+        int next = field(node, NEXT_SIBLING);
+        if (prev == NONE) {
+            if (next == NONE) {
+                pendingChildren.remove(uplink);
+            } else {
+                pendingChildren.put(uplink, next);
+            }
+        } else {
+            setField(prev, NEXT_SIBLING, next);
+        }
+        if (next != NONE) {
+            setField(next, PREV_SIBLING, prev);
+        }
+        setField(node, PREV_SIBLING, NONE);
+        setField(node, NEXT_SIBLING, NONE);
+    }
+
+    private void addRoot(int node) {
+        int head = records.getInt(HEADER_ROOT_HEAD);
+        setField(node, PREV_ROOT, NONE);
+        setField(node, NEXT_ROOT, head);
+        if (head != NONE) {
+            setField(head, PREV_ROOT, node);
+        }
+        records.putInt(HEADER_ROOT_HEAD, node);
+        records.putInt(HEADER_ROOT_COUNT, records.getInt(HEADER_ROOT_COUNT) + 1);
+    }
+
+    private void removeRoot(int node) {
+        int prev = field(node, PREV_ROOT);
+        int next = field(node, NEXT_ROOT);
+        if (prev == NONE) {
+            records.putInt(HEADER_ROOT_HEAD, next);
+        } else {
+            setField(prev, NEXT_ROOT, next);
+        }
+        if (next != NONE) {
+            setField(next, PREV_ROOT, prev);
+        }
+        setField(node, PREV_ROOT, NONE);
+        setField(node, NEXT_ROOT, NONE);
+        records.putInt(HEADER_ROOT_COUNT, records.getInt(HEADER_ROOT_COUNT) - 1);
+    }
+
+    /**
+     * Rebuilds the indexes of a cleanly closed store; the adjacency in the records is intact.
+     * The ancestor index is filled depth-first from every root, with an explicit stack.
+     */
+    private void reindex() {
+        int live = 0;
+        for (int node = 0; node < used; node++) {
+            if (deleted(node)) {
+                freeRecords.push(node);
+                continue;
+            }
+            live++;
+            index.put(records.getLong(offset(node) + MAC), node);
+            typeCounts.incrementAndGet(records.get(offset(node) + TYPE));
+        }
+        // Waiting devices are re-parked in record order; their relative order is not kept across restarts
+        for (int node = 0; node < used; node++) {
+            long uplink = records.getLong(offset(node) + UPLINK);
+            if (!deleted(node) && field(node, PARENT) == NONE && uplink != NO_UPLINK) {
+                park(uplink, node);
+            }
+        }
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (int root = records.getInt(HEADER_ROOT_HEAD); root != NONE; root = field(root, NEXT_ROOT)) {
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                int node = stack.pop();
+                int parent = field(node, PARENT);
+                ancestors.add(node, parent == NONE ? AncestorIndex.NONE : parent);
+                for (int child = field(node, FIRST_CHILD); child != NONE; child = field(child, NEXT_SIBLING)) {
+                    stack.push(child);
+                }
+            }
+        }
+        count = live;
+    }
+
+    /**
+     * Rebuilds the indexes and the adjacency of a store that was not closed cleanly,
+     * linking the live records again in record order.
+     */
+    private void relink() {
+        records.putInt(HEADER_ROOT_HEAD, NONE);
+        records.putInt(HEADER_ROOT_COUNT, 0);
+        int live = 0;
+        for (int node = 0; node < used; node++) {
+            if (deleted(node)) {
+                freeRecords.push(node);
+                continue;
+            }
+            live++;
+            index.put(records.getLong(offset(node) + MAC), node);
+            link(node);
+            typeCounts.incrementAndGet(records.get(offset(node) + TYPE));
+        }
+        count = live;
+    }
+
+    private boolean deleted(int node) {
+        return records.get(offset(node) + TYPE) == DELETED;
+    }
+
+    private int lastChild(int node) {
+        int last = field(node, FIRST_CHILD);
+        if (last == NONE) {
+            return NONE;
+        }
+        while (field(last, NEXT_SIBLING) != NONE) {
+            last = field(last, NEXT_SIBLING);
+        }
+        return last;
+    }
+
+    private int indexOf(String macAddress) {
+        if (count == 0 || !MacAddress.isValid(macAddress)) {
+            return NONE;
+        }
+        return index.get(MacAddress.parse(macAddress));
+    }
+
+    private static long uplinkOf(String uplinkMacAddress) {
+        return uplinkMacAddress == null || uplinkMacAddress.isEmpty() ? NO_UPLINK : MacAddress.parse(uplinkMacAddress);
+    }
+
+    private Device device(int node) {
+        int offset = offset(node);
+        long uplink = records.getLong(offset + UPLINK);
+        return new Device(
+                MacAddress.format(records.getLong(offset + MAC)),
+                Device.typeName(records.get(offset + TYPE)),
+                uplink == NO_UPLINK ? "" : MacAddress.format(uplink));
+    }
+
+    private NetworkNode view(int node) {
+        NetworkNode view = new NetworkNode(device(node));
+        view.hasParent = field(node, PARENT) != NONE;
+        view.descendantCount = field(node, DESCENDANTS);
+        if (view.descendantCount > 0) {
+            view.descendantTypeCounts = new int[TYPE_COUNT];
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                view.descendantTypeCounts[type] = field(node, TYPE_DESCENDANTS + 4 * type);
+            }
+        }
+        view.children = new ChildList(node);
+        return view;
+    }
+
+    /**
+     * Read-only child list of a view, resolved on first access.
+     */
+    private final class ChildList extends AbstractList<NetworkNode> {
+        private final int parent;
+        private int[] children;
+
+        private ChildList(int parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        public NetworkNode get(int i) {
+            return view(children()[i]);
+        }
+
+        @Override
+        public int size() {
+            return children().length;
+        }
+
+        private int[] children() {
+            if (children == null) {
+                int[] newestFirst = new int[Math.min(field(parent, DESCENDANTS), 16)];
+                int linked = 0;
+                int limit = count;
+                for (int child = field(parent, FIRST_CHILD); child != NONE && linked < limit; child = field(child, NEXT_SIBLING)) {
+                    if (linked == newestFirst.length) {
+                        newestFirst = Arrays.copyOf(newestFirst, Math.max(16, linked * 2));
+                    }
+                    newestFirst[linked++] = child;
+                }
+                // Linked first comes first
+                int[] ordered = new int[linked];
+                for (int i = 0; i < linked; i++) {
+                    ordered[i] = newestFirst[linked - 1 - i];
+                }
+                children = ordered;
+            }
+            return children;
+        }
+    }
+
+    private int field(int node, int field) {
+        return records.getInt(offset(node) + field);
+    }
+
+    private void setField(int node, int field, int value) {
+        records.putInt(offset(node) + field, value);
+    }
+
+    private static int offset(int node) {
+        return HEADER_BYTES + node * RECORD_BYTES;
+    }
+
+    private static int bytes(int capacity) {
+        return HEADER_BYTES + capacity * RECORD_BYTES;
+    }
+
+    /**
+     * Makes room for more records: the file is extended and remapped, a direct buffer is copied.
+     * Readers holding the previous buffer keep reading valid records.
+     */
+    private void grow() {
+        if (capacity == MAX_CAPACITY) {
+            throw new IllegalStateException("Off-heap device store is full");
+        }
+        int grown = (int) Math.min(MAX_CAPACITY, capacity + (capacity >> 1));
+        try {
+            if (channel != null) {
+                records = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes(grown));
+            } else {
+                ByteBuffer copy = ByteBuffer.allocateDirect(bytes(grown));
+                copy.put(0, records, 0, bytes(capacity));
+                records = copy;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        capacity = grown;
+    }
+}
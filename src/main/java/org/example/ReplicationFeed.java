@@ -0,0 +1,404 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Ordered stream of the applied device mutations, shipped to read replicas.
+ * The ingest applier appends each group of mutations it applied together (the devices linked in one pass,
+ * or a single move or removal), numbering every mutation. flush, called once per batch after the batch is
+ * durable, encodes the batch's groups once as binary frames and hands the same bytes to every follower.
+ * A follower resumes after the last sequence number it received out of the retained frames; if those are gone,
+ * or the feed was restarted since (its stream id changed), it is sent a reset and a snapshot of the topology instead.
+ * Every follower has a bounded frame buffer drained by its own virtual thread, so a slow follower never blocks
+ * the applier: one whose buffer overflows is disconnected and resumes on reconnect.
+ * <p>
+ * Frames, in DataOutput encoding:
+ * <ul>
+ *   <li>{@code 'R'} stream id, sequence: drop the topology; a snapshot at that sequence follows</li>
+ *   <li>{@code 'S'} count, mutations: devices of the snapshot as additions, parents before their children</li>
+ *   <li>{@code 'G'} primary time millis, last sequence, group count, then per group its size and mutations</li>
+ *   <li>{@code 'H'} primary time millis, sequence: the follower is up to date with the primary at that time</li>
+ * </ul>
+ * Appending and flushing run on the ingest applier thread only; subscribing is thread-safe.
+ */
+public class ReplicationFeed implements AutoCloseable {
+
+    public static final byte RESET = 'R';
+    public static final byte SNAPSHOT = 'S';
+    public static final byte GROUPS = 'G';
+    public static final byte HEARTBEAT = 'H';
+
+    private static final int SNAPSHOT_FRAME_DEVICES = 4_096;
+    /**
+     * A batch's groups are cut into frames of about this many mutations, so a bulk load is not one huge frame.
+     */
+    private static final int FRAME_MUTATIONS = 16_384;
+    private static final long HEARTBEAT_MILLIS = 1_000;
+    /**
+     * Queued to end a subscription: its sender thread closes the sink and exits.
+     */
+    private static final Frame END = new Frame(new byte[0], 0);
+
+    /**
+     * An encoded frame with the sequence of its last mutation.
+     */
+    private record Frame(byte[] bytes, long sequence) {}
+
+    private final long streamId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final int historySize;
+    private final int subscriberBuffer;
+    private final Supplier<List<Device>> snapshot;
+
+    /**
+     * Groups appended during the current batch.
+     */
+    private final List<List<DeviceMutation>> pending = new ArrayList<>();
+
+    /**
+     * The latest flushed frames, oldest first, for followers resuming from a sequence.
+     */
+    private final ArrayDeque<Frame> history = new ArrayDeque<>();
+    private long retained = 0;
+
+    private final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Subscriptions waiting for the next flush, where they are attached at a batch boundary.
+     */
+    private final Queue<Subscription> joining = new ConcurrentLinkedQueue<>();
+
+    private long sequence = 0;
+    private volatile long flushedSequence = 0;
+    /**
+     * Sequence of the latest mutation dropped from history; followers that received less cannot resume.
+     */
+    private long trimmedSequence = 0;
+    private long droppedSubscribers = 0;
+
+    /**
+     * @param historySize number of flushed mutations retained for resuming followers
+     * @param subscriberBuffer number of frames buffered per follower before it is disconnected
+     * @param snapshot the registered devices, parents before their children; called on the ingest applier thread
+     */
+    public ReplicationFeed(int historySize, int subscriberBuffer, Supplier<List<Device>> snapshot) {
+        this.historySize = historySize;
+        this.subscriberBuffer = subscriberBuffer;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Appends a group of mutations applied together and numbers them.
+     * @param group the mutations, in the order they were applied
+     */
+    public void append(List<DeviceMutation> group) {
+        if (!group.isEmpty()) {
+            pending.add(group);
+            sequence += group.size();
+        }
+    }
+
+    /**
+     * Publishes the groups appended since the last flush to history and to every follower,
+     * then attaches the followers that subscribed since. Runs on the ingest applier thread, once per applied batch.
+     */
+    public synchronized void flush() {
+        int start = 0;
+        int mutations = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            mutations += pending.get(i).size();
+            if (mutations >= FRAME_MUTATIONS || i == pending.size() - 1) {
+                publish(pending.subList(start, i + 1), flushedSequence + mutations);
+                start = i + 1;
+                mutations = 0;
+            }
+        }
+        pending.clear();
+        Subscription subscription;
+        while ((subscription = joining.poll()) != null) {
+            attach(subscription);
+        }
+    }
+
+    /**
+     * Encodes groups as one frame, retains it and queues it for every follower.
+     */
+    private void publish(List<List<DeviceMutation>> groups, long lastSequence) {
+        Frame frame = new Frame(encodeGroups(groups, lastSequence), lastSequence);
+        history.add(frame);
+        retained += lastSequence - flushedSequence;
+        while (retained > historySize && history.size() > 1) {
+            Frame trimmed = history.removeFirst();
+            retained -= trimmed.sequence - trimmedSequence;
+            trimmedSequence = trimmed.sequence;
+        }
+        flushedSequence = lastSequence;
+        for (Subscription subscription : subscribers) {
+            subscription.offer(frame);
+        }
+    }
+
+    /**
+     * Subscribes a follower. It is attached at the end of the next applied batch, so the caller should make sure
+     * one runs, e.g. by submitting an empty mutation to the ingest pipeline.
+     * @param streamId stream id of the frames the follower has, or 0 if it has none
+     * @param from sequence of the last mutation the follower received
+     * @param sink target of the follower's frames
+     * @return the subscription, to be closed when the follower goes away
+     */
+    public Subscription subscribe(long streamId, long from, TopologyEventFeed.FrameSink sink) {
+        Subscription subscription = new Subscription(sink, streamId, from);
+        joining.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Queues the replay or the snapshot a new follower needs, then starts sending.
+     */
+    private void attach(Subscription subscription) {
+        if (subscription.closed) {
+            subscription.sink.close();
+            return;
+        }
+        List<Frame> replay = null;
+        long from = subscription.from;
+        if (subscription.streamId == streamId && from >= trimmedSequence && from <= flushedSequence) {
+            replay = new ArrayList<>();
+            for (Iterator<Frame> it = history.descendingIterator(); it.hasNext(); ) {
+                Frame frame = it.next();
+                if (frame.sequence <= from) {
+                    // Followers resume at frame boundaries; anything else means a history it cannot continue
+                    replay = frame.sequence == from ? replay : null;
+                    break;
+                }
+                replay.add(frame);
+            }
+            if (replay != null) {
+                Collections.reverse(replay);
+            }
+        }
+        if (replay == null) {
+            subscription.snapshot = snapshot.get();
+            subscription.snapshotSequence = flushedSequence;
+        } else {
+            subscription.replay = replay;
+        }
+        subscribers.add(subscription);
+        subscription.start();
+    }
+
+    /**
+     * Returns the id of this feed, which changes on every start.
+     * @return stream id
+     */
+    public long streamId() {
+        return streamId;
+    }
+
+    /**
+     * Returns the sequence of the latest flushed mutation.
+     * @return current sequence, 0 before the first mutation
+     */
+    public long sequence() {
+        return flushedSequence;
+    }
+
+    /**
+     * Returns the number of connected followers.
+     * @return follower count
+     */
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Returns the number of followers disconnected because their buffer overflowed.
+     * @return dropped follower count
+     */
+    public synchronized long droppedSubscribers() {
+        return droppedSubscribers;
+    }
+
+    /**
+     * Ends every subscription.
+     */
+    @Override
+    public void close() {
+        for (Subscription subscription : subscribers) {
+            subscription.close();
+        }
+        for (Subscription subscription : joining) {
+            subscription.close();
+        }
+    }
+
+    private static byte[] encodeGroups(List<List<DeviceMutation>> groups, long lastSequence) {
+        return encode(out -> {
+            out.writeByte(GROUPS);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(lastSequence);
+            out.writeInt(groups.size());
+            for (List<DeviceMutation> group : groups) {
+                out.writeInt(group.size());
+                for (DeviceMutation mutation : group) {
+                    mutation.writeTo(out);
+                }
+            }
+        });
+    }
+
+    private static byte[] heartbeat(long sequence) {
+        return encode(out -> {
+            out.writeByte(HEARTBEAT);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(sequence);
+        });
+    }
+
+    private interface Encoder {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(Encoder encoder) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            encoder.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A connected follower: its frame buffer and the virtual thread writing it out.
+     */
+    public class Subscription implements AutoCloseable {
+        private final TopologyEventFeed.FrameSink sink;
+        private final long streamId;
+        private final long from;
+        private final BlockingQueue<Frame> queue;
+        /**
+         * Retained frames to send before the live ones when resuming, else null.
+         */
+        private List<Frame> replay;
+        /**
+         * Devices to send before the live frames, encoded on the sender thread, or null when resuming.
+         */
+        private List<Device> snapshot;
+        private long snapshotSequence;
+        /**
+         * Sequence of the last frame handed to the sink.
+         */
+        private long sent;
+        private volatile boolean closed = false;
+
+        private Subscription(TopologyEventFeed.FrameSink sink, long streamId, long from) {
+            this.sink = sink;
+            this.streamId = streamId;
+            this.from = from;
+            this.sent = from;
+            // One slot more than the live buffer, kept free for END
+            this.queue = new ArrayBlockingQueue<>(subscriberBuffer + 1);
+        }
+
+        private void start() {
+            Thread.ofVirtual().name("replication-feed").start(this::sendLoop);
+        }
+
+        /**
+         * Queues a live frame, or disconnects the follower if its buffer is full.
+         */
+        private void offer(Frame frame) {
+            if (closed) {
+                return;
+            }
+            if (queue.remainingCapacity() <= 1 || !queue.offer(frame)) {
+                synchronized (ReplicationFeed.this) {
+                    droppedSubscribers++;
+                }
+                // The follower resumes from the last frame it actually received
+                queue.clear();
+                close();
+            }
+        }
+
+        private void sendLoop() {
+            try {
+                if (snapshot != null) {
+                    sendSnapshot();
+                }
+                if (replay != null) {
+                    for (Frame frame : replay) {
+                        sink.send(frame.bytes);
+                        sent = frame.sequence;
+                    }
+                    replay = null;
+                }
+                while (true) {
+                    Frame frame = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (frame == END) {
+                        break;
+                    }
+                    if (frame != null) {
+                        sink.send(frame.bytes);
+                        sent = frame.sequence;
+                    } else if (sent == flushedSequence) {
+                        // Only claim to be up to date when no frame is on its way
+                        sink.send(heartbeat(sent));
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // The follower went away
+            } finally {
+                close();
+                sink.close();
+            }
+        }
+
+        private void sendSnapshot() throws IOException {
+            List<Device> devices = snapshot;
+            snapshot = null;
+            sink.send(encode(out -> {
+                out.writeByte(RESET);
+                out.writeLong(ReplicationFeed.this.streamId);
+                out.writeLong(snapshotSequence);
+            }));
+            for (int start = 0; start < devices.size(); start += SNAPSHOT_FRAME_DEVICES) {
+                List<Device> chunk = devices.subList(start, Math.min(devices.size(), start + SNAPSHOT_FRAME_DEVICES));
+                sink.send(encode(out -> {
+                    out.writeByte(SNAPSHOT);
+                    out.writeInt(chunk.size());
+                    for (Device device : chunk) {
+                        DeviceMutation.add(device).writeTo(out);
+                    }
+                }));
+            }
+            sink.send(heartbeat(snapshotSequence));
+            sent = snapshotSequence;
+        }
+
+        /**
+         * Ends the subscription; frames still buffered are not sent.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            subscribers.remove(this);
+            queue.clear();
+            queue.offer(END);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows the replication feed of a primary and hands the received mutations to a replica.
+ * Reads frames on a virtual thread; when the connection drops, it reconnects with backoff and resumes after
+ * the last frame it received, so the primary only sends what is missing, or a reset and snapshot if it cannot.
+ * A snapshot is collected completely before it is applied, so readers of the replica never see half of it.
+ * Lag is measured against the primary's sequence and clock as of the latest frame or heartbeat.
+ */
+public class ReplicationFollower implements AutoCloseable {
+
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+    /**
+     * Opens the primary's replication stream.
+     */
+    @FunctionalInterface
+    public interface Connector {
+        /**
+         * @param streamId stream id of the frames received so far, or 0 if none
+         * @param from sequence of the last mutation received
+         * @return the stream of frames
+         * @throws IOException if the primary cannot be reached
+         */
+        InputStream open(long streamId, long from) throws IOException;
+    }
+
+    /**
+     * Applies received mutations to the local topology, in order.
+     */
+    @FunctionalInterface
+    public interface Replica {
+        /**
+         * @param reset whether to drop the topology first
+         * @param groups groups of mutations, each applied together as on the primary
+         * @param whenApplied to run once the mutations are applied
+         */
+        void apply(boolean reset, List<List<DeviceMutation>> groups, Runnable whenApplied);
+    }
+
+    /**
+     * Replication state of a follower.
+     */
+    public static class Status {
+        public boolean connected;
+        public long streamId;
+        public long appliedSequence;
+        public long primarySequence;
+        public long lagMutations;
+        /**
+         * Time since the primary sent the latest applied state, or -1 before the first one.
+         */
+        public long lagMillis;
+        public long reconnects;
+        public long resets;
+    }
+
+    private final Connector connector;
+    private final Replica replica;
+    private final Thread thread;
+
+    private volatile boolean closed = false;
+    private volatile InputStream current;
+
+    private volatile boolean connected = false;
+    private volatile long streamId = 0;
+    private volatile long receivedSequence = 0;
+    private volatile long primarySequence = 0;
+    private volatile long appliedSequence = 0;
+    private volatile long appliedPrimaryMillis = 0;
+    private volatile long reconnects = 0;
+    private volatile long resets = 0;
+
+    /**
+     * Starts following.
+     * @param connector opens the primary's stream
+     * @param replica applies the mutations
+     */
+    public ReplicationFollower(Connector connector, Replica replica) {
+        this.connector = connector;
+        this.replica = replica;
+        this.thread = Thread.ofVirtual().name("replication-follower").start(this::run);
+    }
+
+    /**
+     * Returns a connector reading GET /api/replication/stream of a primary over HTTP.
+     * @param primaryUrl base URL of the primary, e.g. http://localhost:8080
+     * @return the connector
+     */
+    public static Connector http(String primaryUrl) {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        String base = primaryUrl.endsWith("/") ? primaryUrl.substring(0, primaryUrl.length() - 1) : primaryUrl;
+        return (streamId, from) -> {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/api/replication/stream?stream=" + streamId + "&from=" + from)).build();
+            HttpResponse<InputStream> response;
+            try {
+                response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while connecting to " + base, e);
+            }
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new IOException("Primary " + base + " answered " + response.statusCode());
+            }
+            return response.body();
+        };
+    }
+
+    /**
+     * @return the current replication state
+     */
+    public Status status() {
+        Status status = new Status();
+        status.connected = connected;
+        status.streamId = streamId;
+        status.appliedSequence = appliedSequence;
+        status.primarySequence = Math.max(primarySequence, status.appliedSequence);
+        status.lagMutations = status.primarySequence - status.appliedSequence;
+        long applied = appliedPrimaryMillis;
+        status.lagMillis = applied == 0 ? -1 : Math.max(0, System.currentTimeMillis() - applied);
+        status.reconnects = reconnects;
+        status.resets = resets;
+        return status;
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (!closed) {
+            try (InputStream in = connector.open(streamId, receivedSequence)) {
+                current = in;
+                if (closed) {
+                    break;
+                }
+                connected = true;
+                backoff = MIN_BACKOFF_MILLIS;
+                read(new DataInputStream(new BufferedInputStream(in)));
+            } catch (IOException e) {
+                // Lost the primary, retry below
+            } finally {
+                current = null;
+                connected = false;
+            }
+            if (closed) {
+                break;
+            }
+            reconnects++;
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+        }
+    }
+
+    /**
+     * Reads frames until the stream ends.
+     */
+    private void read(DataInputStream in) throws IOException {
+        // Snapshot being received since a reset, applied as a whole on the heartbeat that ends it
+        List<List<DeviceMutation>> snapshot = null;
+        long snapshotStreamId = 0;
+        long snapshotSequence = 0;
+        while (true) {
+            int kind;
+            try {
+                kind = in.readByte();
+            } catch (EOFException e) {
+                return;
+            }
+            switch (kind) {
+                case ReplicationFeed.RESET -> {
+                    snapshotStreamId = in.readLong();
+                    snapshotSequence = in.readLong();
+                    snapshot = new ArrayList<>();
+                }
+                case ReplicationFeed.SNAPSHOT -> {
+                    if (snapshot == null) {
+                        throw new IOException("Snapshot frame without a reset");
+                    }
+                    snapshot.add(readMutations(in, in.readInt()));
+                }
+                case ReplicationFeed.GROUPS -> {
+                    long primaryMillis = in.readLong();
+                    long lastSequence = in.readLong();
+                    int groupCount = in.readInt();
+                    List<List<DeviceMutation>> groups = new ArrayList<>(groupCount);
+                    for (int i = 0; i < groupCount; i++) {
+                        groups.add(readMutations(in, in.readInt()));
+                    }
+                    receivedSequence = lastSequence;
+                    primarySequence = Math.max(primarySequence, lastSequence);
+                    replica.apply(false, groups, () -> applied(lastSequence, primaryMillis));
+                }
+                case ReplicationFeed.HEARTBEAT -> {
+                    long primaryMillis = in.readLong();
+                    long sequence = in.readLong();
+                    if (snapshot != null) {
+                        resets++;
+                        replica.apply(true, snapshot, () -> applied(sequence, primaryMillis));
+                        snapshot = null;
+                        streamId = snapshotStreamId;
+                        receivedSequence = snapshotSequence;
+                    } else {
+                        // Up to date as of the heartbeat once everything received before it is applied
+                        replica.apply(false, List.of(), () -> applied(sequence, primaryMillis));
+                    }
+                    primarySequence = sequence;
+                }
+                default -> throw new IOException("Unknown replication frame " + kind);
+            }
+        }
+    }
+
+    private static List<DeviceMutation> readMutations(DataInputStream in, int count) throws IOException {
+        List<DeviceMutation> mutations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mutations.add(DeviceMutation.readFrom(in));
+        }
+        return mutations;
+    }
+
+    private void applied(long sequence, long primaryMillis) {
+        appliedSequence = sequence;
+        appliedPrimaryMillis = primaryMillis;
+    }
+
+    /**
+     * Stops following and waits for the reader thread to end.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        InputStream in = current;
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Closing only unblocks the reader
+            }
+        }
+        thread.interrupt();
+        try {
+            thread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.example;
+
+/**
+ * Replication role of an instance: the feed it serves to its own followers and, on a replica,
+ * how far it is behind its primary.
+ */
+public class ReplicationStatus {
+    /**
+     * "primary", or "replica" when following a primary.
+     */
+    public String role;
+    public long streamId;
+    public long sequence;
+    public int followers;
+    /**
+     * Base URL of the followed primary, null on a primary.
+     */
+    public String primary;
+    /**
+     * State of the follower, null on a primary.
+     */
+    public ReplicationFollower.Status replication;
+}
@@ -0,0 +1,14 @@
+package org.example;
+
+/**
+ * A root of the network forest with the size of its tree, without the tree itself.
+ */
+public class RootSummary {
+    public String macAddress;
+    public int subtreeSize;
+
+    public RootSummary(String macAddress, int subtreeSize) {
+        this.macAddress = macAddress;
+        this.subtreeSize = subtreeSize;
+    }
+}
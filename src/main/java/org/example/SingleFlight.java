@@ -0,0 +1,88 @@
+package org.example;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical computations: while the computation of a key is running, other
+ * callers with the same key wait for it and share its result instead of computing it again.
+ * Nothing is kept once the computation is done, so a caller arriving after it starts a new one.
+ * Keys must identify the input completely, e.g. include the topology version a read is based on.
+ * Thread-safe.
+ * @param <K> type of the keys
+ * @param <V> type of the shared results
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder followers = new LongAdder();
+
+    /**
+     * Returns the result of the computation of the key, running it unless an identical one is in flight.
+     * A failure of the shared computation is rethrown to every caller waiting for it.
+     * @param key identifies the computation
+     * @param computation computes the result, on the calling thread of the first caller
+     * @return the shared result
+     */
+    public V run(K key, Supplier<V> computation) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            followers.increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+        leaders.increment();
+        try {
+            V result = computation.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Returns how many calls ran their computation and how many shared one.
+     * @return a snapshot of the counters
+     */
+    public Stats stats() {
+        Stats stats = new Stats();
+        stats.computed = leaders.sum();
+        stats.coalesced = followers.sum();
+        long calls = stats.computed + stats.coalesced;
+        stats.coalescingRatio = calls == 0 ? 0 : (double) stats.coalesced / calls;
+        return stats;
+    }
+
+    /**
+     * Counters of a SingleFlight.
+     */
+    public static class Stats {
+        /**
+         * Calls that ran the computation.
+         */
+        public long computed;
+        /**
+         * Calls that waited for an identical computation in flight and shared its result.
+         */
+        public long coalesced;
+        /**
+         * Share of the calls that were coalesced.
+         */
+        public double coalescingRatio;
+    }
+}
@@ -0,0 +1,130 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Space-Saving summary of the most frequent items of a stream, in a fixed number of counters (Metwally et al.).
+ * While there is a free counter, every item is counted exactly. Once all are taken, a new item replaces
+ * the item with the smallest count and inherits that count as its error. So the count of a monitored item
+ * overestimates its true count by at most its error, and an item that is not monitored occurred at most min() times.
+ * Every item occurring more than total() / capacity times is monitored.
+ * The counters form a min-heap on the count, so an update costs O(log capacity). Not thread-safe.
+ */
+public class SpaceSaving {
+
+    /**
+     * Receives the monitored items.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(String item, long count, long error);
+    }
+
+    private final String[] items;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<String, Integer> positions;
+    private int size = 0;
+    private long total = 0;
+
+    /**
+     * @param capacity number of counters
+     */
+    public SpaceSaving(int capacity) {
+        items = new String[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        positions = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Counts one occurrence of an item.
+     * @param item the item
+     */
+    public void offer(String item) {
+        total++;
+        Integer position = positions.get(item);
+        if (position != null) {
+            counts[position]++;
+            siftDown(position);
+        } else if (size < items.length) {
+            int slot = size++;
+            set(slot, item, 1, 0);
+            siftUp(slot);
+        } else {
+            // Replace the least counted item; the new one may have occurred that often without being seen
+            positions.remove(items[0]);
+            set(0, item, counts[0] + 1, counts[0]);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return the count an item that is not monitored can have at most: the smallest count once all counters are taken, else 0
+     */
+    public long min() {
+        return size < items.length ? 0 : counts[0];
+    }
+
+    /**
+     * @return number of occurrences counted
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Visits every monitored item, in no particular order.
+     * @param visitor receives the items with their counts and errors
+     */
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < size; i++) {
+            visitor.visit(items[i], counts[i], errors[i]);
+        }
+    }
+
+    private void set(int slot, String item, long count, long error) {
+        items[slot] = item;
+        counts[slot] = count;
+        errors[slot] = error;
+        positions.put(item, slot);
+    }
+
+    private void siftUp(int slot) {
+        while (slot > 0) {
+            int parent = (slot - 1) / 2;
+            if (counts[parent] <= counts[slot]) {
+                return;
+            }
+            swap(slot, parent);
+            slot = parent;
+        }
+    }
+
+    private void siftDown(int slot) {
+        while (true) {
+            int smallest = slot;
+            int left = 2 * slot + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (left + 1 < size && counts[left + 1] < counts[smallest]) {
+                smallest = left + 1;
+            }
+            if (smallest == slot) {
+                return;
+            }
+            swap(slot, smallest);
+            slot = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String item = items[a];
+        long count = counts[a];
+        long error = errors[a];
+        set(a, items[b], counts[b], errors[b]);
+        set(b, item, count, error);
+    }
+}
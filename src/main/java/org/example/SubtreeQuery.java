@@ -0,0 +1,35 @@
+package org.example;
+
+/**
+ * A network subtree to render, with the limits that bound how much of it is written.
+ * Limits apply while the tree is streamed, nothing is copied up front.
+ */
+public class SubtreeQuery {
+    /**
+     * Root of the subtree.
+     */
+    public NetworkNode root;
+    /**
+     * Number of levels below the root to include; nodes at this depth are written without children.
+     */
+    public int maxDepth = Integer.MAX_VALUE;
+    /**
+     * Maximum number of children written per node.
+     */
+    public int childLimit = Integer.MAX_VALUE;
+    /**
+     * Offset of the first child of the root to write.
+     */
+    public int childCursor = 0;
+
+    public SubtreeQuery(NetworkNode root) {
+        this.root = root;
+    }
+
+    public SubtreeQuery(NetworkNode root, int maxDepth, int childLimit, int childCursor) {
+        this.root = root;
+        this.maxDepth = maxDepth;
+        this.childLimit = childLimit;
+        this.childCursor = childCursor;
+    }
+}
@@ -0,0 +1,241 @@
+package org.example;
+
+import org.springframework.util.DigestUtils;
+
+import java.util.*;
+
+/**
+ * Cache of encoded /network/{mac} responses: the JSON bytes of a subtree and their ETag,
+ * keyed by the subtree root and the query limits.
+ * The cache is bounded by the total size of the cached bodies and evicts the least recently used entry.
+ * A mutation drops the entries of every subtree it may have changed, found by walking the uplink chain
+ * of the mutated device; entries of unrelated subtrees stay.
+ * Fills are tagged with the epoch read before the tree was encoded, and a fill is dropped if any mutation
+ * was applied since, so a body encoded while the tree changed below it is never cached. The epoch stays odd
+ * from the first mutation of a batch until the batch is published to snapshot readers, and fills are refused
+ * meanwhile, so a body encoded from the version before the batch cannot be cached after its invalidation.
+ * Thread-safe: filled and read by request threads, invalidated by the ingest applier thread.
+ */
+public class SubtreeResponseCache {
+
+    /**
+     * Identifies a cached response: the subtree root and the limits of the query.
+     */
+    public record Key(String macAddress, int maxDepth, int childLimit, int childCursor) {
+        public static Key of(SubtreeQuery query) {
+            return new Key(query.root.device.getMacAddress(), query.maxDepth, query.childLimit, query.childCursor);
+        }
+    }
+
+    /**
+     * An encoded response body with its strong ETag.
+     */
+    public static class Entry {
+        public final byte[] body;
+        public final String etag;
+
+        Entry(byte[] body) {
+            this.body = body;
+            this.etag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+        }
+
+        /**
+         * Checks the ETag against an If-None-Match header: "*" or a comma-separated list of (weak) ETags.
+         * @param ifNoneMatch value of the header, or null
+         * @return true if the client's copy is current and 304 can be answered
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final long maxBytes;
+    private final int maxEntryBytes;
+
+    /**
+     * Entries in access order, least recently used first.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * Keys of the cached entries, grouped by subtree root, so all variants of a root are dropped together.
+     */
+    private final Map<String, Set<Key>> keysByRoot = new HashMap<>();
+
+    private long bytes = 0;
+    private volatile long epoch = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+    private long rejectedFills = 0;
+
+    /**
+     * @param maxBytes total size of the cached bodies
+     * @param maxEntryBytes size of the largest body that is cached; larger subtrees are always streamed
+     */
+    public SubtreeResponseCache(long maxBytes, int maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = (int) Math.min(maxEntryBytes, maxBytes);
+    }
+
+    /**
+     * Returns the size of the largest body that is cached.
+     * @return maximum entry size in bytes
+     */
+    public int maxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * Returns the current epoch. Read it before pinning the version a tree is encoded from, and pass it to put.
+     * @return the epoch, odd while a batch is applied and not published yet
+     */
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns a cached response and counts the hit or miss.
+     * @param key root and limits of the query
+     * @return the cached entry, or null
+     */
+    public synchronized Entry get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches an encoded response unless a mutation was applied since the given epoch.
+     * Evicts least recently used entries until the new one fits.
+     * @param key root and limits of the query
+     * @param body encoded response
+     * @param epoch epoch read before the tree was encoded
+     * @return the entry for the body, cached or not
+     */
+    public synchronized Entry put(Key key, byte[] body, long epoch) {
+        Entry entry = new Entry(body);
+        if (epoch != this.epoch || (epoch & 1) != 0 || body.length > maxEntryBytes) {
+            rejectedFills++;
+            return entry;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.body.length;
+        }
+        bytes += body.length;
+        keysByRoot.computeIfAbsent(key.macAddress(), mac -> new HashSet<>()).add(key);
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            Map.Entry<Key, Entry> evicted = eldest.next();
+            eldest.remove();
+            bytes -= evicted.getValue().body.length;
+            dropKey(evicted.getKey());
+            evictions++;
+        }
+        return entry;
+    }
+
+    /**
+     * Starts the invalidation of a mutation: fills of bodies encoded before this call are dropped from now on,
+     * and so are all fills until settle is called. Call it after the mutation is applied, then invalidate
+     * the changed subtrees if this returns true.
+     * @return true if there are cached entries that may need to be dropped
+     */
+    public synchronized boolean advance() {
+        if ((epoch & 1) == 0) {
+            epoch++;
+        }
+        return !entries.isEmpty();
+    }
+
+    /**
+     * Ends the invalidations of a batch once its mutations are published to snapshot readers,
+     * so bodies encoded from now on may be cached again.
+     */
+    public synchronized void settle() {
+        if ((epoch & 1) != 0) {
+            epoch++;
+        }
+    }
+
+    /**
+     * Drops every cached response of the given subtree roots.
+     * @param macAddresses roots of the subtrees changed by a mutation
+     */
+    public synchronized void invalidate(Collection<String> macAddresses) {
+        for (String macAddress : macAddresses) {
+            Set<Key> keys = keysByRoot.remove(macAddress);
+            if (keys == null) {
+                continue;
+            }
+            for (Key key : keys) {
+                bytes -= entries.remove(key).body.length;
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Returns the counters and size of the cache.
+     * @return a snapshot of the cache statistics
+     */
+    public synchronized Stats stats() {
+        Stats stats = new Stats();
+        stats.hits = hits;
+        stats.misses = misses;
+        stats.evictions = evictions;
+        stats.invalidations = invalidations;
+        stats.rejectedFills = rejectedFills;
+        stats.entries = entries.size();
+        stats.bytes = bytes;
+        stats.maxBytes = maxBytes;
+        return stats;
+    }
+
+    private void dropKey(Key key) {
+        Set<Key> keys = keysByRoot.get(key.macAddress());
+        keys.remove(key);
+        if (keys.isEmpty()) {
+            keysByRoot.remove(key.macAddress());
+        }
+    }
+
+    /**
+     * Counters and size of the cache.
+     */
+    public static class Stats {
+        public long hits;
+        public long misses;
+        public long evictions;
+        /**
+         * Entries dropped because a mutation changed their subtree.
+         */
+        public long invalidations;
+        /**
+         * Encoded bodies not cached because they were too large or a mutation raced with their encoding.
+         */
+        public long rejectedFills;
+        public int entries;
+        public long bytes;
+        public long maxBytes;
+    }
+}
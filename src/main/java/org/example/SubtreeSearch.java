@@ -0,0 +1,217 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Searches the devices below a node for a device type and MAC address prefix, in pre-order.
+ * Subtrees larger than the sequential threshold, judged by their descendant counts, are searched as fork-join tasks:
+ * a run of siblings is split in halves, and a single large node is taken before its children are searched in turn.
+ * Smaller subtrees are walked sequentially with an explicit stack. Results of the tasks are concatenated
+ * left to right, so the order is the same as a sequential walk, and every task stops at the page limit.
+ * Searches walk the nodes of a pinned TopologySnapshot, so the tasks see one version of the topology
+ * while the applier keeps linking.
+ */
+public class SubtreeSearch {
+
+    /**
+     * Subtree size below which a search runs sequentially by default.
+     */
+    public static final int SEQUENTIAL_THRESHOLD = 8_192;
+
+    /**
+     * Conditions a device has to meet to be returned.
+     * @param deviceType device type, or null for any
+     * @param macPrefix MAC address prefix, compared ignoring case, or null for any
+     * @param maxDepth deepest level searched, children of the searched node being level 1
+     */
+    public record Filter(String deviceType, String macPrefix, int maxDepth) {
+        boolean matches(Device device) {
+            return (deviceType == null || deviceType.equals(device.getDeviceType()))
+                    && (macPrefix == null || device.getMacAddress().regionMatches(true, 0, macPrefix, 0, macPrefix.length()));
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int sequentialThreshold;
+
+    /**
+     * Creates a search on the common fork-join pool.
+     */
+    public SubtreeSearch() {
+        this(ForkJoinPool.commonPool(), SEQUENTIAL_THRESHOLD);
+    }
+
+    /**
+     * @param pool pool running the tasks
+     * @param sequentialThreshold subtree size below which no further tasks are forked
+     */
+    public SubtreeSearch(ForkJoinPool pool, int sequentialThreshold) {
+        this.pool = pool;
+        this.sequentialThreshold = sequentialThreshold;
+    }
+
+    /**
+     * Returns the first page of matching devices below a node.
+     * @param root the searched node, not returned itself
+     * @param filter conditions on the devices
+     * @param limit maximum number of devices to return
+     * @return the matching devices in pre-order
+     */
+    public List<Device> search(NetworkNode root, Filter filter, int limit) {
+        return search(List.of(root), filter, limit);
+    }
+
+    /**
+     * Returns the page of matching devices following a cursor device in the pre-order below a node.
+     * The walk resumes at the cursor: its own children first, then the siblings after it,
+     * then the siblings after each of its ancestors, up to the children of the searched node.
+     * @param path the cursor device followed by its ancestors, the searched node last
+     * @param filter conditions on the devices
+     * @param limit maximum number of devices to return
+     * @return the matching devices in pre-order, after the cursor
+     */
+    public List<Device> search(List<NetworkNode> path, Filter filter, int limit) {
+        List<Device> page = new ArrayList<>();
+        int depth = path.size() - 1;
+        for (int i = 0; i < path.size() && page.size() < limit; i++, depth--) {
+            NetworkNode node = path.get(i);
+            if (depth < filter.maxDepth()) {
+                List<NetworkNode> children = node.children;
+                int from = i == 0 ? 0 : indexOf(children, path.get(i - 1)) + 1;
+                page.addAll(pool.invoke(new SearchTask(children, from, children.size(), depth + 1, filter, limit - page.size())));
+            }
+        }
+        return page;
+    }
+
+    private static int indexOf(List<NetworkNode> children, NetworkNode child) {
+        String macAddress = child.device.getMacAddress();
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i).device.getMacAddress().equals(macAddress)) {
+                return i;
+            }
+        }
+        return children.size();
+    }
+
+    /**
+     * Siblings from index from (inclusive) to index to (exclusive), on the given level.
+     */
+    private record Run(List<NetworkNode> siblings, int from, int to, int depth) {
+    }
+
+    /**
+     * Searches the subtrees of a run of siblings, the siblings included.
+     * Runs waiting for their turn are kept on an explicit stack, so a deep chain of large subtrees
+     * is searched in a loop; a task only forks when both halves of a run are above the threshold.
+     */
+    private final class SearchTask extends RecursiveTask<List<Device>> {
+        private final Run run;
+        private final Filter filter;
+        private final int limit;
+
+        SearchTask(List<NetworkNode> siblings, int from, int to, int depth, Filter filter, int limit) {
+            this(new Run(siblings, from, to, depth), filter, limit);
+        }
+
+        private SearchTask(Run run, Filter filter, int limit) {
+            this.run = run;
+            this.filter = filter;
+            this.limit = limit;
+        }
+
+        @Override
+        protected List<Device> compute() {
+            List<Device> page = new ArrayList<>();
+            Deque<Run> pending = new ArrayDeque<>();
+            pending.push(run);
+            while (!pending.isEmpty() && page.size() < limit) {
+                Run next = pending.pop();
+                if (size(next) < sequentialThreshold) {
+                    walk(next, page);
+                    continue;
+                }
+                if (next.to() - next.from() > 1) {
+                    int middle = (next.from() + next.to()) >>> 1;
+                    Run left = new Run(next.siblings(), next.from(), middle, next.depth());
+                    Run right = new Run(next.siblings(), middle, next.to(), next.depth());
+                    if (size(left) < sequentialThreshold || size(right) < sequentialThreshold) {
+                        // Nothing to gain from a fork, search both halves in this task, left first
+                        pending.push(right);
+                        pending.push(left);
+                        continue;
+                    }
+                    SearchTask rightTask = new SearchTask(right, filter, limit - page.size());
+                    rightTask.fork();
+                    concat(page, new SearchTask(left, filter, limit - page.size()).compute());
+                    if (page.size() >= limit && rightTask.cancel(false)) {
+                        break;
+                    }
+                    concat(page, rightTask.join());
+                    continue;
+                }
+                // A single large node: take it, then its children before the runs waiting after it
+                NetworkNode node = next.siblings().get(next.from());
+                if (filter.matches(node.device)) {
+                    page.add(node.device);
+                }
+                if (next.depth() < filter.maxDepth()) {
+                    pending.push(new Run(node.children, 0, node.children.size(), next.depth() + 1));
+                }
+            }
+            return page;
+        }
+
+        /**
+         * Returns the nodes a run visits: the siblings alone on the deepest searched level, else their whole subtrees,
+         * counted up to the sequential threshold.
+         */
+        private long size(Run run) {
+            long size = run.to() - run.from();
+            if (run.depth() < filter.maxDepth()) {
+                for (int i = run.from(); i < run.to() && size < sequentialThreshold; i++) {
+                    size += run.siblings().get(i).descendantCount;
+                }
+            }
+            return size;
+        }
+
+        private void concat(List<Device> page, List<Device> more) {
+            for (int i = 0; i < more.size() && page.size() < limit; i++) {
+                page.add(more.get(i));
+            }
+        }
+
+        /**
+         * Walks the subtrees of a run sequentially, children in order, stopping at the limit.
+         */
+        private void walk(Run run, List<Device> page) {
+            Deque<NetworkNode> nodes = new ArrayDeque<>();
+            Deque<Integer> depths = new ArrayDeque<>();
+            for (int i = run.to() - 1; i >= run.from(); i--) {
+                nodes.push(run.siblings().get(i));
+                depths.push(run.depth());
+            }
+            while (!nodes.isEmpty() && page.size() < limit) {
+                NetworkNode node = nodes.pop();
+                int nodeDepth = depths.pop();
+                if (filter.matches(node.device)) {
+                    page.add(node.device);
+                }
+                if (nodeDepth < filter.maxDepth()) {
+                    List<NetworkNode> children = node.children;
+                    int childCount = children.size();
+                    for (int i = childCount - 1; i >= 0; i--) {
+                        nodes.push(children.get(i));
+                        depths.push(nodeDepth + 1);
+                    }
+                }
+            }
+        }
+    }
+}
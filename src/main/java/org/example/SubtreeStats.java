@@ -0,0 +1,24 @@
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Device counts below a device by device type, with the totals of the whole forest, without the tree itself.
+ */
+public class SubtreeStats {
+    public String macAddress;
+    public String deviceType;
+    public int descendantCount;
+    public Map<String, Integer> descendantsByType = new LinkedHashMap<>();
+    public Forest forest = new Forest();
+
+    /**
+     * Totals of the whole forest.
+     */
+    public static class Forest {
+        public int deviceCount;
+        public int rootCount;
+        public Map<String, Integer> devicesByType = new LinkedHashMap<>();
+    }
+}
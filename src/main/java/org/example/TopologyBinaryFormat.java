@@ -0,0 +1,260 @@
+package org.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Compact binary encoding of devices and network trees, served for {@value #MEDIA_TYPE_VALUE}.
+ * A device is a flags byte, the one-byte type code of Device.typeCode and its MAC address in 6 bytes, followed by
+ * its uplink in 6 bytes if it has one. MAC addresses that are not in the form "AA:BB:CC:DD:EE:FF" (in either case)
+ * are written as DataOutput UTF strings instead, so every device the store accepts round-trips unchanged.
+ * <p>
+ * A tree node is a device whose flags also carry hasParent and whether its children were cut by the child limit,
+ * followed by the varint descendant count, the varint number of children written, the varint nextChildCursor if the
+ * children were cut, and the children, in pre-order. A forest is the varint number of trees followed by the trees.
+ * A device list is devices up to the end of the stream, so a client can stream a bulk load without counting first.
+ * Varints are unsigned LEB128.
+ */
+public final class TopologyBinaryFormat {
+
+    public static final String MEDIA_TYPE_VALUE = "application/x-devicenet";
+
+    /**
+     * Uplink kinds in the low two bits of the flags.
+     */
+    static final int UPLINK_NONE = 0;
+    static final int UPLINK_EMPTY = 1;
+    static final int UPLINK_BINARY = 2;
+    static final int UPLINK_TEXT = 3;
+    static final int UPLINK_MASK = 3;
+    static final int MAC_TEXT = 1 << 2;
+    static final int MAC_LOWER_CASE = 1 << 3;
+    static final int UPLINK_LOWER_CASE = 1 << 4;
+    public static final int HAS_PARENT = 1 << 5;
+    public static final int CHILDREN_CUT = 1 << 6;
+
+    /**
+     * Results of parse for MAC addresses without a binary form, outside the range of 48-bit values.
+     */
+    private static final long MIXED = 1L << 48;
+    private static final long TEXT = 1L << 49;
+
+    /**
+     * Largest encoding of a device whose MAC addresses are written in binary: flags, type code and two MAC addresses.
+     */
+    public static final int MAX_BINARY_DEVICE_BYTES = 14;
+
+    private TopologyBinaryFormat() {}
+
+    /**
+     * Writes a device.
+     * @param device the device
+     * @param nodeFlags HAS_PARENT and CHILDREN_CUT for a tree node, 0 for a device alone
+     * @param out target
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the device type is not supported
+     */
+    public static void writeDevice(Device device, int nodeFlags, DataOutput out) throws IOException {
+        byte[] buffer = new byte[MAX_BINARY_DEVICE_BYTES];
+        int end = encodeDevice(device, nodeFlags, buffer, 0);
+        if (end >= 0) {
+            out.write(buffer, 0, end);
+            return;
+        }
+        String macAddress = device.getMacAddress();
+        String uplink = device.getUplinkMacAddress();
+        long mac = parse(macAddress);
+        long uplinkMac = uplink == null || uplink.isEmpty() ? 0 : parse(uplink);
+        int flags = nodeFlags | macFlags(mac) | uplinkFlags(uplink, uplinkMac);
+        out.writeByte(flags);
+        out.writeByte(Device.typeCode(device.getDeviceType()));
+        if ((flags & MAC_TEXT) != 0) {
+            out.writeUTF(macAddress);
+        } else {
+            out.writeShort((int) (mac >>> 32));
+            out.writeInt((int) mac);
+        }
+        if ((flags & UPLINK_MASK) == UPLINK_TEXT) {
+            out.writeUTF(uplink);
+        } else if ((flags & UPLINK_MASK) == UPLINK_BINARY) {
+            out.writeShort((int) (uplinkMac >>> 32));
+            out.writeInt((int) uplinkMac);
+        }
+    }
+
+    /**
+     * Encodes a device into a buffer, if its MAC addresses can be written in binary; the usual case, without any stream calls.
+     * @param device the device
+     * @param nodeFlags HAS_PARENT and CHILDREN_CUT for a tree node, 0 for a device alone
+     * @param buffer target, with room for MAX_BINARY_DEVICE_BYTES from offset
+     * @param offset position of the first byte
+     * @return position after the last byte written, or -1 if a MAC address has to be written as text (use writeDevice)
+     * @throws IllegalArgumentException if the device type is not supported
+     */
+    public static int encodeDevice(Device device, int nodeFlags, byte[] buffer, int offset) {
+        long mac = parse(device.getMacAddress());
+        String uplink = device.getUplinkMacAddress();
+        long uplinkMac = uplink == null || uplink.isEmpty() ? 0 : parse(uplink);
+        int flags = nodeFlags | macFlags(mac) | uplinkFlags(uplink, uplinkMac);
+        if ((flags & MAC_TEXT) != 0 || (flags & UPLINK_MASK) == UPLINK_TEXT) {
+            return -1;
+        }
+        buffer[offset++] = (byte) flags;
+        buffer[offset++] = Device.typeCode(device.getDeviceType());
+        offset = putMac(mac, buffer, offset);
+        if ((flags & UPLINK_MASK) == UPLINK_BINARY) {
+            offset = putMac(uplinkMac, buffer, offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Encodes an unsigned LEB128 varint into a buffer.
+     * @param value a non-negative value
+     * @param buffer target, with room for 10 bytes from offset
+     * @param offset position of the first byte
+     * @return position after the last byte written
+     */
+    public static int encodeVarint(long value, byte[] buffer, int offset) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Reads a device written by writeDevice.
+     * @param flags the flags byte, already read
+     * @param in source, positioned after the flags
+     * @return the device
+     * @throws IOException if reading fails or the type code is unknown
+     */
+    public static Device readDevice(int flags, DataInput in) throws IOException {
+        int typeCode = in.readUnsignedByte();
+        if (typeCode >= Device.deviceTypesInOrder().size()) {
+            throw new IOException("Unknown device type code " + typeCode);
+        }
+        String macAddress = readMac((flags & MAC_TEXT) != 0, (flags & MAC_LOWER_CASE) != 0, in);
+        String uplink = switch (flags & UPLINK_MASK) {
+            case UPLINK_NONE -> null;
+            case UPLINK_EMPTY -> "";
+            case UPLINK_BINARY -> readMac(false, (flags & UPLINK_LOWER_CASE) != 0, in);
+            default -> readMac(true, false, in);
+        };
+        return new Device(macAddress, Device.typeName((byte) typeCode), uplink);
+    }
+
+    /**
+     * Reads the flags byte of the next device of a device list.
+     * @param in source
+     * @return the flags, or -1 at the end of the list
+     * @throws IOException if reading fails
+     */
+    public static int readFlags(DataInput in) throws IOException {
+        try {
+            return in.readUnsignedByte();
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     * @param value a non-negative value
+     * @param out target
+     * @throws IOException if writing fails
+     */
+    public static void writeVarint(long value, DataOutput out) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     * @param in source
+     * @return the value
+     * @throws IOException if reading fails or the varint is longer than 64 bits
+     */
+    public static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static String readMac(boolean text, boolean lowerCase, DataInput in) throws IOException {
+        if (text) {
+            return in.readUTF();
+        }
+        long value = (long) in.readUnsignedShort() << 32 | (in.readInt() & 0xFFFFFFFFL);
+        String macAddress = MacAddress.format(value);
+        return lowerCase ? macAddress.toLowerCase() : macAddress;
+    }
+
+    private static int putMac(long mac, byte[] buffer, int offset) {
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            buffer[offset++] = (byte) (mac >>> shift);
+        }
+        return offset;
+    }
+
+    private static int macFlags(long parsed) {
+        return parsed == TEXT || parsed == MIXED ? MAC_TEXT : parsed < 0 ? MAC_LOWER_CASE : 0;
+    }
+
+    private static int uplinkFlags(String uplink, long parsed) {
+        if (uplink == null) {
+            return UPLINK_NONE;
+        }
+        if (uplink.isEmpty()) {
+            return UPLINK_EMPTY;
+        }
+        return parsed == TEXT || parsed == MIXED ? UPLINK_TEXT : UPLINK_BINARY | (parsed < 0 ? UPLINK_LOWER_CASE : 0);
+    }
+
+    /**
+     * Parses a MAC address in one pass, telling at the same time how it can be written.
+     * @return the 48-bit value, with the sign bit set if its hex digits are lower case; MIXED if they are of both cases;
+     * TEXT if it is not in the form "AA:BB:CC:DD:EE:FF"
+     */
+    private static long parse(String macAddress) {
+        if (macAddress.length() != 17) {
+            return TEXT;
+        }
+        long value = 0;
+        boolean upper = false;
+        boolean lower = false;
+        for (int i = 0; i < 17; i++) {
+            char c = macAddress.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+                upper = true;
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+                lower = true;
+            } else {
+                return TEXT;
+            }
+            value = (value << 4) | digit;
+            if (i % 3 == 1 && i < 16 && macAddress.charAt(++i) != ':') {
+                return TEXT;
+            }
+        }
+        return upper && lower ? MIXED : lower ? value | Long.MIN_VALUE : value;
+    }
+}
@@ -0,0 +1,103 @@
+package org.example;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Writes NetworkNode trees, bounded SubtreeQuery views, forests and device lists in the binary format of
+ * TopologyBinaryFormat, for clients that accept {@value TopologyBinaryFormat#MEDIA_TYPE_VALUE}.
+ * Registered after the JSON converters in WebConfig.
+ */
+public class TopologyBinaryMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(TopologyBinaryFormat.MEDIA_TYPE_VALUE);
+
+    private static final int BUFFER_BYTES = 64 << 10;
+
+    private final LongConsumer writtenBytes;
+
+    public TopologyBinaryMessageConverter() {
+        this(bytes -> {});
+    }
+
+    /**
+     * @param writtenBytes receives the size of every body written
+     */
+    public TopologyBinaryMessageConverter(LongConsumer writtenBytes) {
+        super(MEDIA_TYPE);
+        this.writtenBytes = writtenBytes;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return NetworkNode.class.isAssignableFrom(clazz) || SubtreeQuery.class.isAssignableFrom(clazz)
+                || NetworkNode[].class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        return (supports(clazz) || isCollectionOf(type, NetworkNode.class) || isCollectionOf(type, Device.class)) && canWrite(mediaType);
+    }
+
+    @Override
+    public List<MediaType> getSupportedMediaTypes(Class<?> clazz) {
+        // Lists are only recognized by their generic type, which canWrite(Type, ...) checks
+        return getSupportedMediaTypes();
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void writeInternal(Object value, Type type, HttpOutputMessage outputMessage) throws IOException {
+        TopologyBinaryWriter writer = new TopologyBinaryWriter();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputMessage.getBody(), BUFFER_BYTES));
+        try {
+            if (value instanceof NetworkNode node) {
+                writer.writeTree(new SubtreeQuery(node), out);
+            } else if (value instanceof SubtreeQuery query) {
+                writer.writeTree(query, out);
+            } else if (value instanceof NetworkNode[] roots) {
+                writer.writeForest(Arrays.asList(roots), out);
+            } else if (isCollectionOf(type, Device.class)) {
+                writer.writeDevices((Collection<Device>) value, out);
+            } else {
+                writer.writeForest((Collection<NetworkNode>) value, out);
+            }
+        } finally {
+            writtenBytes.accept(out.size());
+        }
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new UnsupportedOperationException("Binary bodies are read by the batch endpoint");
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) {
+        throw new UnsupportedOperationException("Binary bodies are read by the batch endpoint");
+    }
+
+    private static boolean isCollectionOf(Type type, Class<?> element) {
+        return type instanceof ParameterizedType parameterized
+                && parameterized.getRawType() instanceof Class<?> raw
+                && Collection.class.isAssignableFrom(raw)
+                && parameterized.getActualTypeArguments()[0] == element;
+    }
+}
@@ -0,0 +1,116 @@
+package org.example;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Streams NetworkNode trees and device lists in the binary format of TopologyBinaryFormat,
+ * with the same depth and child limits as TopologyJsonWriter. Trees are walked with an explicit stack,
+ * and the output is flushed every few thousand nodes, so it reaches the client while the rest is written.
+ */
+public class TopologyBinaryWriter {
+
+    /**
+     * A node in binary: the device and up to three varints, encoded here and written with one call.
+     */
+    private final byte[] nodeBuffer = new byte[TopologyBinaryFormat.MAX_BINARY_DEVICE_BYTES + 3 * 5];
+    private final int flushInterval;
+    private int unflushed = 0;
+
+    public TopologyBinaryWriter() {
+        this(TopologyJsonWriter.DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param flushInterval number of nodes written between two flushes of the output
+     */
+    public TopologyBinaryWriter(int flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Writes a forest: the number of trees, then the trees.
+     * @param roots root nodes of the trees
+     * @param out target
+     * @throws IOException if writing fails
+     */
+    public void writeForest(Collection<NetworkNode> roots, DataOutputStream out) throws IOException {
+        TopologyBinaryFormat.writeVarint(roots.size(), out);
+        for (NetworkNode root : roots) {
+            writeTree(new SubtreeQuery(root), out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the tree below the query's root, within the query's limits.
+     * @param query root and limits of the subtree
+     * @param out target
+     * @throws IOException if writing fails
+     */
+    public void writeTree(SubtreeQuery query, DataOutputStream out) throws IOException {
+        // Unlike JSON, a node's child count comes before its children, so a node is written whole when it is reached.
+        // Each frame is a node whose children are being written: its depth, next child and end of its child page.
+        Deque<List<NetworkNode>> childLists = new ArrayDeque<>();
+        Deque<int[]> frames = new ArrayDeque<>();
+        writeNode(query.root, 0, query.childCursor, query, childLists, frames, out);
+        while (!frames.isEmpty()) {
+            int[] frame = frames.peek();
+            if (frame[1] < frame[2]) {
+                NetworkNode child = childLists.peek().get(frame[1]++);
+                writeNode(child, frame[0] + 1, 0, query, childLists, frames, out);
+            } else {
+                childLists.pop();
+                frames.pop();
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes devices one after the other, without a count.
+     * @param devices the devices
+     * @param out target
+     * @throws IOException if writing fails
+     */
+    public void writeDevices(Collection<Device> devices, DataOutputStream out) throws IOException {
+        for (Device device : devices) {
+            int end = TopologyBinaryFormat.encodeDevice(device, 0, nodeBuffer, 0);
+            if (end >= 0) {
+                out.write(nodeBuffer, 0, end);
+            } else {
+                TopologyBinaryFormat.writeDevice(device, 0, out);
+            }
+        }
+        out.flush();
+    }
+
+    private void writeNode(NetworkNode node, int depth, int cursor, SubtreeQuery query,
+                           Deque<List<NetworkNode>> childLists, Deque<int[]> frames, DataOutputStream out) throws IOException {
+        // The child list is read once, like in TopologyJsonWriter, so the count written matches the children written
+        List<NetworkNode> children = node.children;
+        int[] frame = TopologyJsonWriter.childPage(children.size(), depth, cursor, query);
+        int flags = (node.hasParent ? TopologyBinaryFormat.HAS_PARENT : 0) | (frame[3] != 0 ? TopologyBinaryFormat.CHILDREN_CUT : 0);
+        int end = TopologyBinaryFormat.encodeDevice(node.device, flags, nodeBuffer, 0);
+        if (end < 0) {
+            TopologyBinaryFormat.writeDevice(node.device, flags, out);
+            end = 0;
+        }
+        end = TopologyBinaryFormat.encodeVarint(node.descendantCount, nodeBuffer, end);
+        end = TopologyBinaryFormat.encodeVarint(frame[2] - frame[1], nodeBuffer, end);
+        if (frame[3] != 0) {
+            end = TopologyBinaryFormat.encodeVarint(frame[2], nodeBuffer, end);
+        }
+        out.write(nodeBuffer, 0, end);
+        childLists.push(children);
+        frames.push(frame);
+        if (++unflushed >= flushInterval) {
+            out.flush();
+            unflushed = 0;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.example;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A change of the device topology as sent on the /network/events stream.
+ * Versions increase with every event, so a client can resume the stream after the last version it saw.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TopologyEvent {
+    /**
+     * A device was registered. It carries the parent it was linked below, if its uplink is registered.
+     */
+    public static final String ADDED = "device-added";
+    /**
+     * A registered device was linked below its uplink after a move.
+     */
+    public static final String LINKED = "linked";
+    /**
+     * Devices waiting for a newly registered device were linked below it.
+     */
+    public static final String ADOPTED = "orphan-adopted";
+    /**
+     * A device got a new uplink. It is followed by a "linked" event if the uplink is registered.
+     */
+    public static final String MOVED = "device-moved";
+    /**
+     * A device was removed; its children now wait for it.
+     */
+    public static final String REMOVED = "device-removed";
+
+    public long version;
+    public String type;
+    /**
+     * The device, for added, moved and removed events.
+     */
+    public Device device;
+    /**
+     * MAC address of the linked device, for linked events.
+     */
+    public String macAddress;
+    /**
+     * MAC address of the parent, for linked and orphan-adopted events and for added devices linked on insert.
+     */
+    public String parentMacAddress;
+    /**
+     * MAC addresses of the adopted devices, for orphan-adopted events.
+     */
+    public List<String> adopted;
+
+    public TopologyEvent() {}
+
+    private TopologyEvent(String type) {
+        this.type = type;
+    }
+
+    public static TopologyEvent added(Device device, String parentMacAddress) {
+        TopologyEvent event = new TopologyEvent(ADDED);
+        event.device = device;
+        event.parentMacAddress = parentMacAddress;
+        return event;
+    }
+
+    public static TopologyEvent linked(String macAddress, String parentMacAddress) {
+        TopologyEvent event = new TopologyEvent(LINKED);
+        event.macAddress = macAddress;
+        event.parentMacAddress = parentMacAddress;
+        return event;
+    }
+
+    public static TopologyEvent adopted(String parentMacAddress, List<String> adopted) {
+        TopologyEvent event = new TopologyEvent(ADOPTED);
+        event.parentMacAddress = parentMacAddress;
+        event.adopted = new ArrayList<>(adopted);
+        return event;
+    }
+
+    public static TopologyEvent moved(Device device) {
+        TopologyEvent event = new TopologyEvent(MOVED);
+        event.device = device;
+        return event;
+    }
+
+    public static TopologyEvent removed(Device device) {
+        TopologyEvent event = new TopologyEvent(REMOVED);
+        event.device = device;
+        return event;
+    }
+
+    /**
+     * Returns the key under which a later event of the same kind replaces this one within a flush,
+     * or null if the event is never coalesced.
+     * @return coalescing key, or null
+     */
+    String coalescingKey() {
+        return switch (type) {
+            case LINKED -> LINKED + " " + macAddress;
+            case MOVED -> MOVED + " " + device.getMacAddress();
+            case ADOPTED -> ADOPTED + " " + parentMacAddress;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,313 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-sent event feed of topology changes.
+ * The ingest applier records events while it applies a batch; flush, called once per batch,
+ * coalesces them, encodes them once as server-sent event frames and hands the same bytes to every subscriber.
+ * Coalescing keeps only the latest link and the latest move of a device within a flush,
+ * and merges the adoptions of a parent; a device linked as it is added gets no separate link event.
+ * Every subscriber has a bounded frame buffer drained by its own virtual thread, so a slow client never
+ * blocks the applier: a subscriber whose buffer overflows is disconnected, and resumes from the last
+ * version it received (the Last-Event-ID of its reconnect) out of the retained history.
+ * Versions restart at 0 with the process, so an event id is "epoch-version", where the epoch is drawn at random
+ * per feed; a client resuming with an id of another epoch gets a reset instead of unrelated events.
+ * Event recording and flush run on the ingest applier thread only; subscribing is thread-safe.
+ */
+public class TopologyEventFeed implements AutoCloseable {
+
+    /**
+     * Receives the encoded frames of one subscriber, on the subscriber's sender thread.
+     */
+    public interface FrameSink {
+        /**
+         * Writes one or more complete server-sent event frames to the client.
+         * @param frames encoded frames
+         * @throws IOException if the client is gone
+         */
+        void send(byte[] frames) throws IOException;
+
+        /**
+         * Ends the stream, e.g. after the subscriber fell behind.
+         */
+        void close();
+    }
+
+    private static final int MAX_EVENTS_PER_FRAME = 1_024;
+    private static final long HEARTBEAT_MILLIS = 15_000;
+    private static final byte[] HEARTBEAT = ": keepalive\n\n".getBytes(StandardCharsets.UTF_8);
+    /**
+     * Queued to end a subscription: its sender thread closes the sink and exits.
+     */
+    private static final byte[] END = new byte[0];
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final int historySize;
+    private final int subscriberBuffer;
+
+    /**
+     * Events recorded during the current batch in version order; replaced events leave a null behind.
+     */
+    private final List<TopologyEvent> pending = new ArrayList<>();
+
+    /**
+     * Position in pending of the latest event per coalescing key, during the current batch.
+     */
+    private final Map<String, Integer> coalesced = new HashMap<>();
+
+    /**
+     * The latest flushed events, oldest first, for subscribers resuming from a version.
+     */
+    private final ArrayDeque<TopologyEvent> history = new ArrayDeque<>();
+
+    private final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Identifies this run of the feed in event ids, since versions are only unique within a run.
+     */
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private long version = 0;
+    private volatile long flushedVersion = 0;
+    /**
+     * Version of the latest event dropped from history; clients that saw less than this cannot resume.
+     */
+    private long trimmedVersion = 0;
+    private long droppedSubscribers = 0;
+
+    /**
+     * @param historySize number of flushed events retained for resuming subscribers
+     * @param subscriberBuffer number of frames buffered per subscriber before it is disconnected
+     */
+    public TopologyEventFeed(int historySize, int subscriberBuffer) {
+        this.historySize = historySize;
+        this.subscriberBuffer = subscriberBuffer;
+    }
+
+    /**
+     * Records an event of the batch being applied and assigns it the next version.
+     * An earlier event of the same batch with the same coalescing key is replaced;
+     * adoptions of the same parent are merged.
+     * @param event the event
+     */
+    public void record(TopologyEvent event) {
+        event.version = ++version;
+        String key = event.coalescingKey();
+        if (key != null) {
+            Integer previous = coalesced.put(key, pending.size());
+            if (previous != null) {
+                TopologyEvent replaced = pending.set(previous, null);
+                if (TopologyEvent.ADOPTED.equals(event.type)) {
+                    replaced.adopted.addAll(event.adopted);
+                    event.adopted = replaced.adopted;
+                }
+            }
+        }
+        pending.add(event);
+    }
+
+    /**
+     * Publishes the events recorded since the last flush to history and to every subscriber.
+     * Runs on the ingest applier thread, once per applied batch.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<TopologyEvent> events = new ArrayList<>(pending.size());
+        for (TopologyEvent event : pending) {
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        pending.clear();
+        coalesced.clear();
+        history.addAll(events);
+        while (history.size() > historySize) {
+            trimmedVersion = history.removeFirst().version;
+        }
+        flushedVersion = events.get(events.size() - 1).version;
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        for (int from = 0; from < events.size(); from += MAX_EVENTS_PER_FRAME) {
+            byte[] frame = encode(events.subList(from, Math.min(events.size(), from + MAX_EVENTS_PER_FRAME)));
+            for (Subscription subscription : subscribers) {
+                subscription.offer(frame);
+            }
+        }
+    }
+
+    /**
+     * Subscribes to the feed, starting after the given version.
+     * If that version is of another epoch (e.g. from before a restart), is no longer retained, or is newer than
+     * anything published, the stream starts with a "reset" event carrying the current version: the client
+     * should fetch the topology again and continue from there.
+     * @param epoch epoch of the version the client has seen, or 0 if it does not know it
+     * @param since last version the client has seen, or null to receive new events only
+     * @param sink target of the subscriber's frames
+     * @return the subscription, to be closed when the client goes away
+     */
+    public synchronized Subscription subscribe(long epoch, Long since, FrameSink sink) {
+        List<byte[]> initial = new ArrayList<>();
+        if (since != null) {
+            if (epoch != this.epoch || since < trimmedVersion || since > flushedVersion) {
+                initial.add(resetFrame(this.epoch, flushedVersion));
+            } else {
+                List<TopologyEvent> replay = new ArrayList<>();
+                for (Iterator<TopologyEvent> it = history.descendingIterator(); it.hasNext(); ) {
+                    TopologyEvent event = it.next();
+                    if (event.version <= since) {
+                        break;
+                    }
+                    replay.add(event);
+                }
+                Collections.reverse(replay);
+                for (int from = 0; from < replay.size(); from += MAX_EVENTS_PER_FRAME) {
+                    initial.add(encode(replay.subList(from, Math.min(replay.size(), from + MAX_EVENTS_PER_FRAME))));
+                }
+            }
+        }
+        // The replay is queued ahead of any live frame, on top of the subscriber's buffer
+        Subscription subscription = new Subscription(sink, initial);
+        subscribers.add(subscription);
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * Returns the version of the latest flushed event.
+     * @return current version, 0 before the first event
+     */
+    public long version() {
+        return flushedVersion;
+    }
+
+    /**
+     * Returns the epoch of this feed, the first part of its event ids.
+     * @return epoch, never 0
+     */
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the number of connected subscribers.
+     * @return subscriber count
+     */
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Returns the number of subscribers disconnected because their buffer overflowed.
+     * @return dropped subscriber count
+     */
+    public synchronized long droppedSubscribers() {
+        return droppedSubscribers;
+    }
+
+    /**
+     * Ends every subscription.
+     */
+    @Override
+    public void close() {
+        for (Subscription subscription : subscribers) {
+            subscription.close();
+        }
+    }
+
+    private byte[] encode(List<TopologyEvent> events) {
+        try {
+            String data = JSON.writeValueAsString(events);
+            String frame = "id: " + epoch + "-" + events.get(events.size() - 1).version + "\nevent: topology\ndata: " + data + "\n\n";
+            return frame.getBytes(StandardCharsets.UTF_8);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] resetFrame(long epoch, long version) {
+        String frame = "id: " + epoch + "-" + version + "\nevent: reset\ndata: {\"version\":" + version + "}\n\n";
+        return frame.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A connected client: its frame buffer and the virtual thread writing it out.
+     */
+    public class Subscription implements AutoCloseable {
+        private final FrameSink sink;
+        private final BlockingQueue<byte[]> queue;
+        private volatile boolean closed = false;
+
+        private Subscription(FrameSink sink, List<byte[]> initial) {
+            this.sink = sink;
+            // One slot stays free for END, so a full buffer can always be ended
+            this.queue = new ArrayBlockingQueue<>(initial.size() + subscriberBuffer + 1);
+            queue.addAll(initial);
+        }
+
+        private void start() {
+            Thread.ofVirtual().name("topology-events").start(this::sendLoop);
+        }
+
+        /**
+         * Queues a live frame, or disconnects the subscriber if its buffer is full.
+         */
+        private void offer(byte[] frame) {
+            if (closed) {
+                return;
+            }
+            if (queue.remainingCapacity() <= 1 || !queue.offer(frame)) {
+                synchronized (TopologyEventFeed.this) {
+                    droppedSubscribers++;
+                }
+                // Drop what is buffered: the client resumes from the last frame it actually received
+                queue.clear();
+                close();
+            }
+        }
+
+        private void sendLoop() {
+            try {
+                while (true) {
+                    byte[] frame = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (frame == END) {
+                        break;
+                    }
+                    sink.send(frame == null ? HEARTBEAT : frame);
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client went away
+            } finally {
+                close();
+                sink.close();
+            }
+        }
+
+        /**
+         * Ends the subscription; frames still buffered are not sent.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            subscribers.remove(this);
+            queue.clear();
+            queue.offer(END);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Streams NetworkNode trees as JSON, in the same shape Jackson gives the NetworkNode bean.
+ * Subtrees can be bounded by depth and by the number of children per node; a node whose
+ * children were cut by the child limit also carries the "nextChildCursor" to continue from.
+ * Trees are walked with an explicit stack instead of recursion, so deep chains cannot overflow
+ * the call stack, and the generator is flushed every few thousand nodes, so output reaches the
+ * client while the rest of the forest is still being written and is never buffered in full.
+ */
+public class TopologyJsonWriter {
+    /**
+     * Number of nodes written between two flushes of the generator.
+     */
+    public static final int DEFAULT_FLUSH_INTERVAL = 4_096;
+
+    private final int flushInterval;
+    private int unflushed = 0;
+
+    public TopologyJsonWriter() {
+        this(DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param flushInterval number of nodes written between two flushes of the generator
+     */
+    public TopologyJsonWriter(int flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Writes a forest as a JSON array of trees.
+     * @param roots root nodes of the trees
+     * @param generator target generator
+     * @throws IOException if writing fails
+     */
+    public void writeForest(Collection<NetworkNode> roots, JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
+        for (NetworkNode root : roots) {
+            writeTree(root, generator);
+        }
+        generator.writeEndArray();
+        generator.flush();
+    }
+
+    /**
+     * Writes the tree below the given node as a JSON object.
+     * @param root root node of the tree
+     * @param generator target generator
+     * @throws IOException if writing fails
+     */
+    public void writeTree(NetworkNode root, JsonGenerator generator) throws IOException {
+        writeTree(new SubtreeQuery(root), generator);
+    }
+
+    /**
+     * Writes the tree below the query's root as a JSON object, within the query's limits.
+     * @param query root and limits of the subtree
+     * @param generator target generator
+     * @throws IOException if writing fails
+     */
+    public void writeTree(SubtreeQuery query, JsonGenerator generator) throws IOException {
+        // Each frame is a node whose "children" array is open: its depth, next child and end of its child page.
+        // A node's child list is read once per frame: removals replace the list rather than shrink it,
+        // so the page stays within the list it was computed from while the topology changes.
+        Deque<NetworkNode> nodes = new ArrayDeque<>();
+        Deque<List<NetworkNode>> childLists = new ArrayDeque<>();
+        Deque<int[]> frames = new ArrayDeque<>();
+        startNode(query.root, generator);
+        push(query.root, 0, query.childCursor, query, nodes, childLists, frames);
+        while (!nodes.isEmpty()) {
+            NetworkNode node = nodes.peek();
+            int[] frame = frames.peek();
+            if (frame[1] < frame[2]) {
+                NetworkNode child = childLists.peek().get(frame[1]++);
+                startNode(child, generator);
+                push(child, frame[0] + 1, 0, query, nodes, childLists, frames);
+            } else {
+                generator.writeEndArray();
+                generator.writeBooleanField("hasParent", node.hasParent);
+                generator.writeNumberField("descendantCount", node.descendantCount);
+                if (frame[3] != 0) {
+                    generator.writeNumberField("nextChildCursor", frame[2]);
+                }
+                generator.writeEndObject();
+                nodes.pop();
+                childLists.pop();
+                frames.pop();
+            }
+        }
+    }
+
+    private static void push(NetworkNode node, int depth, int cursor, SubtreeQuery query,
+                             Deque<NetworkNode> nodes, Deque<List<NetworkNode>> childLists, Deque<int[]> frames) {
+        List<NetworkNode> children = node.children;
+        nodes.push(node);
+        childLists.push(children);
+        frames.push(childPage(children.size(), depth, cursor, query));
+    }
+
+    /**
+     * Computes the frame of a node: {depth, first child, end of the child page, 1 if cut by the child limit}.
+     */
+    static int[] childPage(int childCount, int depth, int cursor, SubtreeQuery query) {
+        if (depth >= query.maxDepth) {
+            return new int[] {depth, 0, 0, 0};
+        }
+        int start = Math.min(cursor, childCount);
+        int end = (int) Math.min(childCount, (long) start + query.childLimit);
+        return new int[] {depth, start, end, end < childCount ? 1 : 0};
+    }
+
+    /**
+     * Writes a node's device and opens its "children" array.
+     */
+    private void startNode(NetworkNode node, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName("device");
+        writeDevice(node.device, generator);
+        generator.writeArrayFieldStart("children");
+        if (++unflushed >= flushInterval) {
+            generator.flush();
+            unflushed = 0;
+        }
+    }
+
+    private static void writeDevice(Device device, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("macAddress", device.getMacAddress());
+        generator.writeStringField("deviceType", device.getDeviceType());
+        generator.writeStringField("uplinkMacAddress", device.getUplinkMacAddress());
+        generator.writeEndObject();
+    }
+}
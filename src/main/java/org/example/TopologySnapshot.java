@@ -0,0 +1,120 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A published version of the topology, pinned for reading.
+ * Nodes returned by a snapshot are read-only views of that version: walking their children never sees
+ * a later mutation, however long the walk takes, and pinning or walking a snapshot takes no lock.
+ */
+public interface TopologySnapshot {
+
+    /**
+     * Passed to DeviceStore.snapshot to pin the latest published version.
+     */
+    long LATEST = -1;
+
+    /**
+     * Returns the version this snapshot pins. Versions increase by one with every ingest batch that changed the topology.
+     * @return the version, 0 before the first change
+     */
+    long version();
+
+    /**
+     * Returns the node of a device as of this version.
+     * @param macAddress MAC address of the device
+     * @return the node, or null if the device was not registered at this version
+     */
+    NetworkNode get(String macAddress);
+
+    /**
+     * Returns the path from a device up to the root of its tree as of this version, excluding the device itself.
+     * A linked node's parent is the device its uplink names, so the path is found by MAC address, level by level.
+     * @param macAddress MAC address of the device
+     * @return the ancestor nodes, parent first, or null if the device was not registered at this version
+     */
+    default List<NetworkNode> ancestors(String macAddress) {
+        NetworkNode node = get(macAddress);
+        if (node == null) {
+            return null;
+        }
+        List<NetworkNode> path = new ArrayList<>();
+        while (node.hasParent && (node = get(node.device.getUplinkMacAddress())) != null) {
+            path.add(node);
+        }
+        return path;
+    }
+
+    /**
+     * Returns the roots of the forest as of this version.
+     * @return the root nodes
+     */
+    Collection<NetworkNode> roots();
+
+    /**
+     * Returns the number of devices registered at this version.
+     * @return the number of devices
+     */
+    int size();
+
+    /**
+     * Returns the number of devices of a type registered at this version.
+     * @param typeCode code of the device type, as returned by Device.typeCode
+     * @return the number of devices of the type
+     */
+    int count(byte typeCode);
+
+    /**
+     * Returns the number of roots of the forest at this version.
+     * @return the number of roots
+     */
+    int rootCount();
+
+    /**
+     * Returns a snapshot that reads the live topology, for stores that keep no versions.
+     * Its nodes follow later mutations like the store's own.
+     * @param store the store
+     * @param version version to report
+     * @return the live snapshot
+     */
+    static TopologySnapshot live(DeviceStore store, long version) {
+        return new TopologySnapshot() {
+            @Override
+            public long version() {
+                return version;
+            }
+
+            @Override
+            public NetworkNode get(String macAddress) {
+                return store.get(macAddress);
+            }
+
+            @Override
+            public List<NetworkNode> ancestors(String macAddress) {
+                return store.ancestors(macAddress);
+            }
+
+            @Override
+            public Collection<NetworkNode> roots() {
+                return store.roots();
+            }
+
+            @Override
+            public int size() {
+                return store.size();
+            }
+
+            @Override
+            public int count(byte typeCode) {
+                return store.count(typeCode);
+            }
+
+            @Override
+            public int rootCount() {
+                return store.rootCount();
+            }
+        };
+    }
+}
@@ -0,0 +1,456 @@
+package org.example;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Multi-version view of an in-memory forest of NetworkNode objects, for readers that must not see it change under them.
+ * <p>
+ * The applier mutates the live nodes as before and marks every node whose fields it changed. Once per ingest batch,
+ * publish gives each marked node a new immutable State of the next version, linked in front of its older states,
+ * and makes the version visible with a single volatile write. A reader pins a version by reading that field, then
+ * resolves every node it walks to its newest state not above the pinned version, so it sees the forest exactly
+ * as the batch left it, without locks and without blocking the applier.
+ * <p>
+ * The child array of a state is shared with the next state while children are only appended: the new state writes
+ * the new children past the end of the older one and keeps the array, so a batch costs the nodes it changed, not
+ * the size of their child lists. Roots are an append-only list of entries, each valid from the version a node
+ * became a root until the version it stopped being one.
+ * <p>
+ * A version is retained until it has been superseded for the retention time. States, root entries and removed
+ * nodes that only older versions need are then cut loose, a constant amount of work per state.
+ * Reads still walking a version once it is dropped fail with IllegalStateException.
+ */
+public class TopologyVersions {
+
+    /**
+     * The fields of a node as of a version. Immutable once published, except for the link to the older state.
+     */
+    public static final class State {
+        final long version;
+        /**
+         * The device, or null from the version the node was removed.
+         */
+        final Device device;
+        final boolean hasParent;
+        final int descendantCount;
+        final int[] descendantTypeCounts;
+        final NetworkNode[] children;
+        final int childCount;
+        /**
+         * The state before this one, or null once no retained version needs it.
+         */
+        State previous;
+        /**
+         * Live child list the children were copied from; applier only.
+         */
+        List<NetworkNode> source;
+
+        private State(long version, NetworkNode node, NetworkNode[] children, int childCount, int[] descendantTypeCounts, State previous) {
+            this.version = version;
+            this.device = node == null ? null : node.device;
+            this.hasParent = node != null && node.hasParent;
+            this.descendantCount = node == null ? 0 : node.descendantCount;
+            this.descendantTypeCounts = descendantTypeCounts;
+            this.children = children;
+            this.childCount = childCount;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * A node that was a root from one version until another one (exclusive).
+     */
+    private static final class RootEntry {
+        final NetworkNode node;
+        final long from;
+        volatile long until = Long.MAX_VALUE;
+
+        RootEntry(NetworkNode node, long from) {
+            this.node = node;
+            this.from = from;
+        }
+    }
+
+    /**
+     * A published version: the root entries, device counts and number of roots it had, linked to the version before.
+     */
+    private static final class Published {
+        final long version;
+        final RootEntry[] roots;
+        final int rootCount;
+        final int size;
+        final int[] typeCounts;
+        final int openRootCount;
+        Published previous;
+        /**
+         * When the next version was published; applier only.
+         */
+        long supersededAt;
+
+        Published(long version, RootEntry[] roots, int rootCount, int size, int[] typeCounts, int openRootCount, Published previous) {
+            this.version = version;
+            this.roots = roots;
+            this.rootCount = rootCount;
+            this.size = size;
+            this.typeCounts = typeCounts;
+            this.openRootCount = openRootCount;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * A removed node, still reachable by MAC address from the versions that had it, and the one removed before it.
+     */
+    private record Retired(NetworkNode node, long removedAt, Retired older) {}
+
+    private static final NetworkNode[] NO_CHILDREN = new NetworkNode[0];
+
+    private final long retentionNanos;
+    private volatile Published latest = new Published(0, new RootEntry[0], 0, 0, new int[Device.deviceTypesInOrder().size()], 0, null);
+    private volatile long oldest = 0;
+
+    /**
+     * Removed nodes by MAC address, newest first. Written by the applier, read by snapshots.
+     */
+    private final Map<String, Retired> retired = new ConcurrentHashMap<>();
+
+    // Owned by the applier
+    private final Set<NetworkNode> changed = new LinkedHashSet<>();
+    /**
+     * Changed nodes whose ancestors are all marked as changed too, where marking a path can stop.
+     */
+    private final Set<NetworkNode> changedUpward = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<NetworkNode, RootEntry> openRoots = new IdentityHashMap<>();
+    private RootEntry[] rootEntries = new RootEntry[16];
+    private int rootEntryCount = 0;
+    /**
+     * Root entries closed since the last compaction, in the order they ended, and how many of them no retained version reads.
+     */
+    private final ArrayDeque<RootEntry> closedRoots = new ArrayDeque<>();
+    private int endedRoots = 0;
+    private final ArrayDeque<Published> retained = new ArrayDeque<>();
+    /**
+     * Published states that still link to an older state, in version order.
+     */
+    private final ArrayDeque<State> linked = new ArrayDeque<>();
+    private final ArrayDeque<Retired> retiredOrder = new ArrayDeque<>();
+
+    /**
+     * @param retentionMillis how long a version stays readable after the next one is published
+     */
+    public TopologyVersions(long retentionMillis) {
+        this.retentionNanos = retentionMillis * 1_000_000;
+        retained.add(latest);
+    }
+
+    /**
+     * Marks a node whose own fields changed: its device, parent flag, descendant counts or children.
+     * @param node the node
+     */
+    public void changed(NetworkNode node) {
+        changed.add(node);
+    }
+
+    /**
+     * Marks a node and all its ancestors, e.g. after the node was linked and their descendant counts grew.
+     * @param node the node
+     */
+    public void changedPath(NetworkNode node) {
+        for (NetworkNode current = node; current != null && changedUpward.add(current); current = current.parent) {
+            changed.add(current);
+        }
+    }
+
+    /**
+     * Marks a node that was moved under another parent and its new ancestors.
+     * @param node the node
+     */
+    public void relinked(NetworkNode node) {
+        changedUpward.remove(node);
+        changedPath(node);
+    }
+
+    /**
+     * Publishes the states of the nodes marked since the last call as a new version. Called on the applier thread.
+     * @param devices the live nodes by MAC address, telling which marked nodes are still registered
+     * @param typeCounts number of registered devices of each type, indexed by Device.typeCode; kept by the version
+     * @return the latest published version, unchanged if nothing was marked
+     */
+    public long publish(Map<String, NetworkNode> devices, int[] typeCounts) {
+        Published previous = latest;
+        if (changed.isEmpty()) {
+            return previous.version;
+        }
+        long version = previous.version + 1;
+        for (NetworkNode node : changed) {
+            State before = node.published;
+            boolean registered = devices.get(node.device.getMacAddress()) == node;
+            if (!registered && before == null) {
+                continue; // Added and removed in the same batch
+            }
+            State state = registered ? registeredState(node, before, version) : new State(version, null, NO_CHILDREN, 0, null, before);
+            node.published = state;
+            if (before != null) {
+                linked.add(state);
+            }
+            boolean wasRoot = before != null && before.device != null && !before.hasParent;
+            boolean isRoot = registered && !node.hasParent;
+            if (isRoot && !wasRoot) {
+                addRoot(new RootEntry(node, version));
+            } else if (wasRoot && !isRoot) {
+                RootEntry entry = openRoots.remove(node);
+                entry.until = version;
+                closedRoots.add(entry);
+            }
+            if (!registered) {
+                String macAddress = node.device.getMacAddress();
+                Retired removed = new Retired(node, version, retired.get(macAddress));
+                retired.put(macAddress, removed);
+                retiredOrder.add(removed);
+            }
+        }
+        changed.clear();
+        changedUpward.clear();
+
+        long now = System.nanoTime();
+        Published published = new Published(version, rootEntries, rootEntryCount, devices.size(), typeCounts, openRoots.size(), previous);
+        previous.supersededAt = now;
+        retained.add(published);
+        // Every state of the version is written before this, so a reader that sees the version sees them all
+        latest = published;
+        trim(now);
+        return version;
+    }
+
+    /**
+     * Pins a published version.
+     * @param version a published version, or TopologySnapshot.LATEST
+     * @param devices the live nodes by MAC address
+     * @return the snapshot, or null if the version is no longer retained or not published yet
+     */
+    public TopologySnapshot snapshot(long version, Map<String, NetworkNode> devices) {
+        Published published = latest;
+        if (version != TopologySnapshot.LATEST) {
+            while (published != null && published.version > version) {
+                published = published.previous;
+            }
+            if (published == null || published.version != version || version < oldest) {
+                return null;
+            }
+        }
+        return new Snapshot(published, devices);
+    }
+
+    /**
+     * Returns the latest published version. Safe to call from any thread.
+     * @return the version, 0 before the first publish
+     */
+    public long version() {
+        return latest.version;
+    }
+
+    /**
+     * Returns the oldest version still retained. Safe to call from any thread.
+     * @return the oldest retained version
+     */
+    public long oldestVersion() {
+        return oldest;
+    }
+
+    private State registeredState(NetworkNode node, State before, long version) {
+        List<NetworkNode> live = node.children;
+        int count = live.size();
+        NetworkNode[] children;
+        if (before != null && before.source == live && before.childCount <= count && count <= before.children.length) {
+            // Only appended to since: the older states never read past their own count
+            children = before.children;
+            for (int i = before.childCount; i < count; i++) {
+                children[i] = live.get(i);
+            }
+        } else if (count == 0) {
+            children = NO_CHILDREN;
+        } else {
+            children = live.toArray(new NetworkNode[before == null ? count : count + (count >> 1)]);
+        }
+        int[] counts = node.descendantTypeCounts;
+        if (counts != null) {
+            counts = before != null && Arrays.equals(before.descendantTypeCounts, counts) ? before.descendantTypeCounts : counts.clone();
+        }
+        State state = new State(version, node, children, count, counts, before);
+        state.source = live;
+        return state;
+    }
+
+    private void addRoot(RootEntry entry) {
+        if (rootEntryCount == rootEntries.length) {
+            rootEntries = Arrays.copyOf(rootEntries, rootEntryCount * 2);
+        }
+        rootEntries[rootEntryCount++] = entry;
+        openRoots.put(entry.node, entry);
+    }
+
+    /**
+     * Drops the versions superseded for longer than the retention time, and cuts what only they still need.
+     */
+    private void trim(long now) {
+        while (retained.size() > 1 && now - retained.peekFirst().supersededAt >= retentionNanos) {
+            retained.removeFirst();
+        }
+        Published first = retained.peekFirst();
+        first.previous = null;
+        long oldestRetained = first.version;
+        oldest = oldestRetained;
+        // A state at or below the oldest retained version is the one that version reads; older ones are unreachable
+        while (!linked.isEmpty() && linked.peekFirst().version <= oldestRetained) {
+            linked.removeFirst().previous = null;
+        }
+        while (!retiredOrder.isEmpty() && retiredOrder.peekFirst().removedAt() <= oldestRetained) {
+            String macAddress = retiredOrder.removeFirst().node().device.getMacAddress();
+            Retired kept = keptSince(retired.get(macAddress), oldestRetained);
+            if (kept == null) {
+                retired.remove(macAddress);
+            } else {
+                retired.put(macAddress, kept);
+            }
+        }
+        // Compact the root entries once most of them ended before every retained version; published arrays stay as they are
+        while (!closedRoots.isEmpty() && closedRoots.peekFirst().until <= oldestRetained) {
+            closedRoots.removeFirst();
+            endedRoots++;
+        }
+        if (endedRoots > rootEntryCount / 2) {
+            RootEntry[] compacted = new RootEntry[Math.max(16, (rootEntryCount - endedRoots) * 2)];
+            int count = 0;
+            for (int i = 0; i < rootEntryCount; i++) {
+                if (rootEntries[i].until > oldestRetained) {
+                    compacted[count++] = rootEntries[i];
+                }
+            }
+            rootEntries = compacted;
+            rootEntryCount = count;
+            endedRoots = 0;
+        }
+    }
+
+    /**
+     * Rebuilds a chain of removed nodes without the ones removed at or before a version.
+     */
+    private static Retired keptSince(Retired newest, long version) {
+        if (newest == null || newest.removedAt() <= version) {
+            return null;
+        }
+        return new Retired(newest.node(), newest.removedAt(), keptSince(newest.older(), version));
+    }
+
+    /**
+     * Returns the newest state of a node not above a version.
+     * @return the state, or null if the node has none, because it was added later or its states were cut
+     */
+    private static State stateAt(NetworkNode node, long version) {
+        State state = node.published;
+        while (state != null && state.version > version) {
+            state = state.previous;
+        }
+        return state;
+    }
+
+    private final class Snapshot implements TopologySnapshot {
+        private final Published published;
+        private final Map<String, NetworkNode> devices;
+
+        private Snapshot(Published published, Map<String, NetworkNode> devices) {
+            this.published = published;
+            this.devices = devices;
+        }
+
+        @Override
+        public long version() {
+            return published.version;
+        }
+
+        @Override
+        public NetworkNode get(String macAddress) {
+            NetworkNode node = devices.get(macAddress);
+            State state = node == null ? null : stateAt(node, published.version);
+            if (state != null && state.device != null) {
+                return view(node, state);
+            }
+            for (Retired removed = retired.get(macAddress); removed != null; removed = removed.older()) {
+                state = stateAt(removed.node(), published.version);
+                if (state != null && state.device != null) {
+                    return view(removed.node(), state);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Collection<NetworkNode> roots() {
+            long version = published.version;
+            List<NetworkNode> roots = new ArrayList<>();
+            for (int i = 0; i < published.rootCount; i++) {
+                RootEntry entry = published.roots[i];
+                if (entry.from <= version && version < entry.until) {
+                    roots.add(view(entry.node));
+                }
+            }
+            return roots;
+        }
+
+        @Override
+        public int size() {
+            return published.size;
+        }
+
+        @Override
+        public int count(byte typeCode) {
+            return published.typeCounts[typeCode];
+        }
+
+        @Override
+        public int rootCount() {
+            return published.openRootCount;
+        }
+
+        private NetworkNode view(NetworkNode node) {
+            State state = stateAt(node, published.version);
+            if (state == null || state.device == null) {
+                throw new IllegalStateException("Topology version " + published.version + " is no longer retained");
+            }
+            return view(node, state);
+        }
+
+        private NetworkNode view(NetworkNode node, State state) {
+            NetworkNode view = new NetworkNode(state.device);
+            view.hasParent = state.hasParent;
+            view.descendantCount = state.descendantCount;
+            view.descendantTypeCounts = state.descendantTypeCounts;
+            view.id = node.id;
+            view.children = new ChildList(state);
+            return view;
+        }
+
+        /**
+         * Read-only child list of a view, resolved to the pinned version on access.
+         */
+        private final class ChildList extends AbstractList<NetworkNode> {
+            private final State parent;
+
+            private ChildList(State parent) {
+                this.parent = parent;
+            }
+
+            @Override
+            public NetworkNode get(int i) {
+                Objects.checkIndex(i, parent.childCount);
+                return view(parent.children[i]);
+            }
+
+            @Override
+            public int size() {
+                return parent.childCount;
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.example;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Web MVC configuration: streams network trees ahead of the default JSON converter, as JSON or in the binary format.
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    private final DeviceMetrics metrics;
+
+    public WebConfig(DeviceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new NetworkTreeMessageConverter(metrics::streamedResponse));
+        // Last, so clients accepting anything keep getting JSON; only an explicit Accept selects the binary format
+        converters.add(new TopologyBinaryMessageConverter(metrics::binaryResponse));
+    }
+}
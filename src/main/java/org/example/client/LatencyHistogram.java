@@ -0,0 +1,106 @@
+package org.example.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds.
+ * Values below 64 get a bucket each; above that, every power of two is split into 32 buckets,
+ * so a recorded value is off by less than 1/32 (about 3%) at any magnitude, with a fixed footprint of under 2k counters.
+ * Recording is lock-free and can run from any number of threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one latency.
+     * @param nanos latency in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Adds every value recorded in another histogram to this one.
+     * @param other the histogram to merge in
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucket = other.counts.get(i);
+            if (bucket != 0) {
+                counts.addAndGet(i, bucket);
+            }
+        }
+        count.add(other.count());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max());
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @return mean latency in nanoseconds, 0 if nothing was recorded
+     */
+    public double mean() {
+        long n = count();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns the latency below which the given share of the recorded values fall,
+     * as the upper end of the bucket it lies in.
+     * @param quantile share between 0 and 1, e.g. 0.99
+     * @return latency in nanoseconds, 0 if nothing was recorded
+     */
+    public long percentile(double quantile) {
+        long n = count();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max());
+            }
+        }
+        return max();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+    }
+
+    static long highestValueIn(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,145 @@
+package org.example.client;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Settings of a load generator run, parsed from "--name=value" command line arguments.
+ */
+public class LoadConfig {
+
+    /**
+     * Requests the load generator sends, with the names used in the --mix argument.
+     */
+    public enum Operation {
+        ADD("add"),
+        BATCH("batch"),
+        GET("get"),
+        LIST("list"),
+        CHILDREN("children"),
+        NETWORK("network"),
+        SUBTREE("subtree"),
+        ROOTS("roots"),
+        PATH("path"),
+        SEARCH("search"),
+        STATS("stats"),
+        ORPHANS("orphans"),
+        MOVE("move"),
+        REMOVE("remove");
+
+        public final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        static Operation of(String label) {
+            for (Operation operation : values()) {
+                if (operation.label.equals(label)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation in mix: " + label);
+        }
+    }
+
+    public static final String USAGE = """
+            Usage: ./gradlew runClientMain --args="--name=value ..."
+              --url=http://localhost:8080   server base URL
+              --gateways=20                 gateways in the synthetic forest
+              --switches=20                 switches per gateway
+              --aps=40                      access points per switch
+              --out-of-order=0.1            share of devices sent before their uplink
+              --orphans=0.01                share of devices whose uplink is never sent
+              --preload=0.5                 share of devices bulk-loaded before the timed run
+              --concurrency=32              concurrent clients, one virtual thread each
+              --warmup=5                    seconds run before latencies are recorded
+              --duration=30                 seconds of recorded load
+              --seed=42                     seed of the synthetic forest
+              --mix=add:15,get:30,...       relative weight of each operation:
+                                            add, batch, get, list, children, network, subtree, roots, path,
+                                            search, stats, orphans, move, remove
+                                            (add and batch stop once the whole forest is sent)
+            """;
+
+    public String baseUrl = "http://localhost:8080";
+    public int gateways = 20;
+    public int switchesPerGateway = 20;
+    public int accessPointsPerSwitch = 40;
+    public double outOfOrderRatio = 0.1;
+    public double orphanRatio = 0.01;
+    public double preloadRatio = 0.5;
+    public int concurrency = 32;
+    public int warmupSeconds = 5;
+    public int durationSeconds = 30;
+    public long seed = 42;
+    public Map<Operation, Integer> mix = parseMix(
+            "add:15,batch:1,get:30,list:10,children:5,network:1,subtree:15,roots:5,path:10,search:5,stats:5,orphans:4,move:7,remove:3");
+
+    /**
+     * Parses command line arguments; settings that are not given keep their defaults.
+     * @param args arguments of the form --name=value
+     * @return the settings
+     * @throws IllegalArgumentException if an argument is unknown or malformed
+     */
+    public static LoadConfig parse(String[] args) {
+        LoadConfig config = new LoadConfig();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            switch (name) {
+                case "url" -> config.baseUrl = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                case "gateways" -> config.gateways = positive(name, Integer.parseInt(value));
+                case "switches" -> config.switchesPerGateway = Integer.parseInt(value);
+                case "aps" -> config.accessPointsPerSwitch = Integer.parseInt(value);
+                case "out-of-order" -> config.outOfOrderRatio = ratio(name, Double.parseDouble(value));
+                case "orphans" -> config.orphanRatio = ratio(name, Double.parseDouble(value));
+                case "preload" -> config.preloadRatio = ratio(name, Double.parseDouble(value));
+                case "concurrency" -> config.concurrency = positive(name, Integer.parseInt(value));
+                case "warmup" -> config.warmupSeconds = Integer.parseInt(value);
+                case "duration" -> config.durationSeconds = positive(name, Integer.parseInt(value));
+                case "seed" -> config.seed = Long.parseLong(value);
+                case "mix" -> config.mix = parseMix(value);
+                default -> throw new IllegalArgumentException("Unknown argument: --" + name);
+            }
+        }
+        return config;
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            String[] entry = part.trim().split(":");
+            if (entry.length != 2) {
+                throw new IllegalArgumentException("Expected operation:weight in mix but got: " + part);
+            }
+            int weight = Integer.parseInt(entry[1]);
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weights in mix must not be negative: " + part);
+            }
+            weights.put(Operation.of(entry[0]), weight);
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("Mix has no operation with a positive weight");
+        }
+        return weights;
+    }
+
+    private static int positive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("--" + name + " must be positive");
+        }
+        return value;
+    }
+
+    private static double ratio(String name, double value) {
+        if (value < 0 || value > 1) {
+            throw new IllegalArgumentException("--" + name + " must be between 0 and 1");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,306 @@
+package org.example.client;
+
+import org.example.client.LoadConfig.Operation;
+import org.example.client.SyntheticForest.SyntheticDevice;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load generator for the device API.
+ * A synthetic forest is generated up front and partly bulk-loaded; then every client, each on its own
+ * virtual thread, sends requests back to back for the configured time, picking each one from the
+ * weighted operation mix. Additions, one device at a time or in batches, send the rest of the forest
+ * in its (partly shuffled) order; once it is all sent, they are dropped from the mix.
+ * Latencies are recorded per operation once the warmup is over.
+ */
+public class LoadGenerator {
+
+    private static final int PRELOAD_CHUNK = 10_000;
+    private static final int BATCH_SIZE = 100;
+    private static final int PAGE_SIZE = 100;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    /**
+     * Operations with positive weights, and their cumulative weights for a weighted pick.
+     */
+    private record Mix(Operation[] operations, int[] cumulativeWeights) {
+        static Mix of(Map<Operation, Integer> weights, boolean additions) {
+            List<Operation> weighted = new ArrayList<>();
+            List<Integer> cumulative = new ArrayList<>();
+            int total = 0;
+            for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+                if (entry.getValue() > 0 && (additions || !isAddition(entry.getKey()))) {
+                    total += entry.getValue();
+                    weighted.add(entry.getKey());
+                    cumulative.add(total);
+                }
+            }
+            return new Mix(weighted.toArray(new Operation[0]), cumulative.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        boolean isEmpty() {
+            return operations.length == 0;
+        }
+
+        Operation pick(ThreadLocalRandom random) {
+            int ticket = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int i = 0; i < operations.length; i++) {
+                if (ticket < cumulativeWeights[i]) {
+                    return operations[i];
+                }
+            }
+            return operations[operations.length - 1];
+        }
+    }
+
+    /**
+     * Outcome counters and latencies of one operation.
+     */
+    public static class OperationStats {
+        public final LatencyHistogram latencies = new LatencyHistogram();
+        public final LongAdder ok = new LongAdder();
+        public final LongAdder clientErrors = new LongAdder();
+        public final LongAdder failures = new LongAdder();
+    }
+
+    private final LoadConfig config;
+    private final HttpClient client;
+    private final SyntheticForest forest;
+    private final Map<Operation, Integer> weights;
+    /**
+     * Operation mix in use; switched to the mix without additions once the whole forest is sent.
+     */
+    private volatile Mix mix;
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+
+    /**
+     * Number of forest devices handed out for sending so far; reads pick among them.
+     */
+    private final AtomicInteger sent = new AtomicInteger();
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.forest = new SyntheticForest(config.gateways, config.switchesPerGateway, config.accessPointsPerSwitch,
+                config.outOfOrderRatio, config.orphanRatio, new Random(config.seed));
+        this.weights = config.mix;
+        this.mix = Mix.of(weights, true);
+        for (Operation operation : mix.operations()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    /**
+     * Bulk-loads the first part of the forest, runs the timed load and prints the report.
+     * @param out target of the report
+     * @throws IOException if the server cannot be reached for the bulk load
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public void run(PrintStream out) throws IOException, InterruptedException {
+        List<SyntheticDevice> devices = forest.devices();
+        out.printf("Synthetic forest: %d devices (%d gateways, %d switches, %d access points)%n",
+                devices.size(), forest.gateways().size(), forest.switches().size(), forest.accessPoints().size());
+        int preload = (int) (devices.size() * config.preloadRatio);
+        long start = System.nanoTime();
+        for (int from = 0; from < preload; from += PRELOAD_CHUNK) {
+            preloadChunk(devices.subList(from, Math.min(preload, from + PRELOAD_CHUNK)));
+        }
+        sent.set(preload);
+        if (preload == devices.size()) {
+            mix = Mix.of(weights, false);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("Preloaded %d devices through /api/devices/batch in %.2f s (%.0f devices/s)%n",
+                preload, seconds, preload / Math.max(seconds, 1e-9));
+
+        out.printf("Running %d clients for %d s after %d s of warmup%n",
+                config.concurrency, config.durationSeconds, config.warmupSeconds);
+        long recordFrom = System.nanoTime() + Duration.ofSeconds(config.warmupSeconds).toNanos();
+        long end = recordFrom + Duration.ofSeconds(config.durationSeconds).toNanos();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < config.concurrency; i++) {
+                clients.submit(() -> clientLoop(recordFrom, end));
+            }
+        }
+        report(out);
+    }
+
+    /**
+     * Sends requests back to back until the end of the run, or until the mix has nothing left but additions
+     * and the whole forest is sent.
+     */
+    private void clientLoop(long recordFrom, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+            Mix current = mix;
+            if (current.isEmpty()) {
+                return;
+            }
+            Operation operation = current.pick(random);
+            HttpRequest request = request(operation, random);
+            if (request == null) {
+                // The forest is used up, the next pick comes from the mix without additions
+                continue;
+            }
+            long begin = System.nanoTime();
+            int status;
+            try {
+                status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (IOException e) {
+                status = -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long elapsed = System.nanoTime() - begin;
+            if (begin < recordFrom) {
+                continue;
+            }
+            OperationStats operationStats = stats.get(operation);
+            operationStats.latencies.record(elapsed);
+            if (status < 0 || status >= 500) {
+                operationStats.failures.increment();
+            } else if (status >= 400) {
+                operationStats.clientErrors.increment();
+            } else {
+                operationStats.ok.increment();
+            }
+        }
+    }
+
+    private static boolean isAddition(Operation operation) {
+        return operation == Operation.ADD || operation == Operation.BATCH;
+    }
+
+    /**
+     * Builds the request of an operation, or returns null if it has nothing left to do (all devices added).
+     * The first addition finding the forest used up drops additions from the mix.
+     */
+    private HttpRequest request(Operation operation, ThreadLocalRandom random) {
+        List<SyntheticDevice> devices = forest.devices();
+        return switch (operation) {
+            case ADD -> {
+                int next = sent.getAndIncrement();
+                if (next >= devices.size()) {
+                    forestSent();
+                    yield null;
+                }
+                yield post("/api/devices", devices.get(next).toJson());
+            }
+            case BATCH -> {
+                int from = sent.getAndAdd(BATCH_SIZE);
+                if (from >= devices.size()) {
+                    forestSent();
+                    yield null;
+                }
+                StringBuilder body = new StringBuilder(BATCH_SIZE * 100);
+                for (SyntheticDevice device : devices.subList(from, Math.min(devices.size(), from + BATCH_SIZE))) {
+                    body.append(device.toJson()).append('\n');
+                }
+                yield post("/api/devices/batch", body.toString());
+            }
+            case GET -> get("/api/devices/" + anySent(random).macAddress());
+            case LIST -> get("/api/devices?limit=" + PAGE_SIZE);
+            case CHILDREN -> get("/api/devices/" + any(forest.switches(), random).macAddress() + "/children?limit=" + PAGE_SIZE);
+            case NETWORK -> get("/api/network");
+            case SUBTREE -> get("/api/network/" + any(forest.gateways(), random).macAddress());
+            case ROOTS -> get("/api/network/roots");
+            case PATH -> get("/api/network/" + anySent(random).macAddress() + "/path");
+            case SEARCH -> get("/api/network/" + any(forest.gateways(), random).macAddress()
+                    + "/search?type=Access%20Point&limit=" + PAGE_SIZE);
+            case STATS -> get("/api/network/" + any(forest.gateways(), random).macAddress() + "/stats");
+            case ORPHANS -> get("/api/network/orphans");
+            case MOVE -> builder("/api/devices/" + any(forest.accessPoints(), random).macAddress())
+                    .header("Content-Type", "application/json")
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString(
+                            "{\"uplinkMacAddress\":\"" + any(forest.switches(), random).macAddress() + "\"}"))
+                    .build();
+            case REMOVE -> builder("/api/devices/" + any(forest.accessPoints(), random).macAddress()).DELETE().build();
+        };
+    }
+
+    /**
+     * Drops additions from the mix, so clients stop picking operations that have nothing left to send.
+     */
+    private void forestSent() {
+        sent.set(forest.devices().size());
+        mix = Mix.of(weights, false);
+    }
+
+    private SyntheticDevice anySent(ThreadLocalRandom random) {
+        int bound = Math.min(sent.get(), forest.devices().size());
+        return forest.devices().get(bound == 0 ? 0 : random.nextInt(bound));
+    }
+
+    private static SyntheticDevice any(List<SyntheticDevice> devices, ThreadLocalRandom random) {
+        return devices.get(random.nextInt(devices.size()));
+    }
+
+    private void preloadChunk(List<SyntheticDevice> chunk) throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder(chunk.size() * 100);
+        for (SyntheticDevice device : chunk) {
+            body.append(device.toJson()).append('\n');
+        }
+        HttpResponse<String> response = client.send(post("/api/devices/batch", body.toString()),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Bulk load failed with status " + response.statusCode() + ": " + response.body());
+        }
+    }
+
+    private HttpRequest.Builder builder(String path) {
+        return HttpRequest.newBuilder(URI.create(config.baseUrl + path)).timeout(REQUEST_TIMEOUT);
+    }
+
+    private HttpRequest get(String path) {
+        return builder(path).GET().build();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return builder(path)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    private void report(PrintStream out) {
+        double seconds = config.durationSeconds;
+        out.printf("%-10s %9s %9s %7s %7s %9s %9s %9s %9s %9s%n",
+                "operation", "requests", "ok", "4xx", "failed", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        OperationStats total = new OperationStats();
+        for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+            printRow(out, entry.getKey().label, entry.getValue(), seconds);
+            total.latencies.add(entry.getValue().latencies);
+            total.ok.add(entry.getValue().ok.sum());
+            total.clientErrors.add(entry.getValue().clientErrors.sum());
+            total.failures.add(entry.getValue().failures.sum());
+        }
+        printRow(out, "total", total, seconds);
+    }
+
+    private static void printRow(PrintStream out, String label, OperationStats row, double seconds) {
+        LatencyHistogram latencies = row.latencies;
+        out.printf("%-10s %9d %9d %7d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n",
+                label, latencies.count(), row.ok.sum(), row.clientErrors.sum(), row.failures.sum(),
+                latencies.count() / seconds,
+                latencies.percentile(0.50) / 1e6, latencies.percentile(0.99) / 1e6,
+                latencies.percentile(0.999) / 1e6, latencies.max() / 1e6);
+    }
+}
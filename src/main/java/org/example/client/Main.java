@@ -1,102 +1,23 @@
 package org.example.client;
 
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
-import java.util.List;
-
+/**
+ * Load generator for a running server: ./gradlew runClientMain --args="--concurrency=64 --duration=60"
+ */
 public class Main {
-    public static void main(String[] args) {
-        System.out.print("Sample server workflow.\n");
-
-        // Connect to Spring Boot server and add sample devices to the datastore
-        String accessNode = "{\"macAddress\":\"00:11:AA:BB:44:55\",\"deviceType\":\"Access Point\",\"uplinkMacAddress\":\"00:11:22:33:44:55\"}";
-        String switchNode = "{\"macAddress\":\"00:11:22:33:44:55\",\"deviceType\":\"Switch\",\"uplinkMacAddress\":\"AA:BB:CC:DD:EE:FF\"}";
-        String gatewayNode = "{\"macAddress\":\"AA:BB:CC:DD:EE:FF\",\"deviceType\":\"Gateway\",\"uplinkMacAddress\":\"\"}";
-        String orphanSwitchNode = "{\"macAddress\":\"FF:EE:DD:CC:BB:AA\",\"deviceType\":\"Switch\",\"uplinkMacAddress\":\"\"}";
-
-        List<String> devices = List.of(accessNode, switchNode, gatewayNode, orphanSwitchNode);
-        for (String deviceJson : devices) {
-            try {
-                URL url = URI.create("http://localhost:8080/api/devices").toURL();
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setDoOutput(true);
-                try (OutputStream os = conn.getOutputStream()) {
-                    byte[] input = deviceJson.getBytes("utf-8");
-                    os.write(input, 0, input.length);
-                }
-                int responseCode = conn.getResponseCode();
-                System.out.println("addDevice response code: " + responseCode);
-                conn.disconnect();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-
-        // Retrieve sample devices by their macAddress
-        String[] macAddresses = {"00:11:AA:BB:44:55", "00:11:22:33:44:55", "AA:BB:CC:DD:EE:FF", "FF:EE:DD:CC:BB:AA"};
-        for (String mac : macAddresses) {
-            try {
-                URL url = URI.create("http://localhost:8080/api/devices/" + mac).toURL();
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-                int responseCode = conn.getResponseCode();
-                System.out.println("GET device " + mac + " response code: " + responseCode);
-                try (var is = conn.getInputStream()) {
-                    System.out.println(new String(is.readAllBytes()));
-                }
-                conn.disconnect();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-
-        // Retrieve a sorted list of all devices
-        try {
-            URL url = URI.create("http://localhost:8080/api/devices").toURL();
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            int responseCode = conn.getResponseCode();
-            System.out.println("GET all devices response code: " + responseCode);
-            try (var is = conn.getInputStream()) {
-                System.out.println(new String(is.readAllBytes()));
-            }
-            conn.disconnect();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        // Retrieve and print the full network topology
-        try {
-            URL url = URI.create("http://localhost:8080/api/network").toURL();
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            int responseCode = conn.getResponseCode();
-            System.out.println("GET full network response code: " + responseCode);
-            try (var is = conn.getInputStream()) {
-                System.out.println(new String(is.readAllBytes()));
-            }
-            conn.disconnect();
-        } catch (Exception e) {
-            e.printStackTrace();
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && (args[0].equals("--help") || args[0].equals("-h"))) {
+            System.out.print(LoadConfig.USAGE);
+            return;
         }
-
-        // Retrieve and print the subtree from the switch node
+        LoadConfig config;
         try {
-            URL url = URI.create("http://localhost:8080/api/network/00:11:22:33:44:55").toURL();
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            int responseCode = conn.getResponseCode();
-            System.out.println("GET switch subtree response code: " + responseCode);
-            try (var is = conn.getInputStream()) {
-                System.out.println(new String(is.readAllBytes()));
-            }
-            conn.disconnect();
-        } catch (Exception e) {
-            e.printStackTrace();
+            config = LoadConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadConfig.USAGE);
+            System.exit(2);
+            return;
         }
+        new LoadGenerator(config).run(System.out);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,101 @@
+package org.example.client;
+
+import org.example.MacAddress;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A generated network: gateways with switches below them and access points below the switches.
+ * Devices are listed in the order the load generator sends them. Some are moved ahead of their uplink
+ * (they wait as orphans until it arrives), and some point at an uplink that is never sent.
+ */
+public class SyntheticForest {
+
+    /**
+     * A generated device.
+     */
+    public record SyntheticDevice(String macAddress, String deviceType, String uplinkMacAddress) {
+        public String toJson() {
+            return "{\"macAddress\":\"" + macAddress + "\",\"deviceType\":\"" + deviceType
+                    + "\",\"uplinkMacAddress\":\"" + uplinkMacAddress + "\"}";
+        }
+    }
+
+    /**
+     * Devices are moved ahead of their uplink by at most this many positions.
+     */
+    private static final int REORDER_WINDOW = 1_000;
+    /**
+     * High bits of the uplink MAC addresses that are never sent.
+     */
+    private static final long MISSING_UPLINK_PREFIX = 0xFEL << 40;
+
+    private final List<SyntheticDevice> devices = new ArrayList<>();
+    private final List<SyntheticDevice> gateways = new ArrayList<>();
+    private final List<SyntheticDevice> switches = new ArrayList<>();
+    private final List<SyntheticDevice> accessPoints = new ArrayList<>();
+
+    /**
+     * Generates a forest.
+     * @param gateways number of gateways
+     * @param switchesPerGateway number of switches below each gateway
+     * @param accessPointsPerSwitch number of access points below each switch
+     * @param outOfOrderRatio share of the devices moved ahead of their uplink
+     * @param orphanRatio share of the switches and access points whose uplink is never sent
+     * @param random source of randomness, seeded for reproducible runs
+     */
+    public SyntheticForest(int gateways, int switchesPerGateway, int accessPointsPerSwitch,
+                           double outOfOrderRatio, double orphanRatio, Random random) {
+        long mac = 1;
+        long missing = 1;
+        for (int g = 0; g < gateways; g++) {
+            SyntheticDevice gateway = new SyntheticDevice(MacAddress.format(mac++), "Gateway", "");
+            add(gateway, this.gateways);
+            for (int s = 0; s < switchesPerGateway; s++) {
+                String uplink = random.nextDouble() < orphanRatio
+                        ? MacAddress.format(MISSING_UPLINK_PREFIX | missing++) : gateway.macAddress();
+                SyntheticDevice sw = new SyntheticDevice(MacAddress.format(mac++), "Switch", uplink);
+                add(sw, switches);
+                for (int a = 0; a < accessPointsPerSwitch; a++) {
+                    String apUplink = random.nextDouble() < orphanRatio
+                            ? MacAddress.format(MISSING_UPLINK_PREFIX | missing++) : sw.macAddress();
+                    add(new SyntheticDevice(MacAddress.format(mac++), "Access Point", apUplink), accessPoints);
+                }
+            }
+        }
+        // Swapping a device with a later one sends that later device, often a child, before its uplink
+        for (int i = 0; i < devices.size(); i++) {
+            if (random.nextDouble() < outOfOrderRatio) {
+                int j = i + random.nextInt(Math.min(REORDER_WINDOW, devices.size() - i));
+                Collections.swap(devices, i, j);
+            }
+        }
+    }
+
+    private void add(SyntheticDevice device, List<SyntheticDevice> byType) {
+        devices.add(device);
+        byType.add(device);
+    }
+
+    /**
+     * @return all devices, in sending order
+     */
+    public List<SyntheticDevice> devices() {
+        return devices;
+    }
+
+    public List<SyntheticDevice> gateways() {
+        return gateways;
+    }
+
+    public List<SyntheticDevice> switches() {
+        return switches;
+    }
+
+    public List<SyntheticDevice> accessPoints() {
+        return accessPoints;
+    }
+}
@@ -0,0 +1,126 @@
+package org.example.client;
+
+import org.example.Device;
+import org.example.TopologyBinaryFormat;
+import org.example.TopologyBinaryWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Client side of the binary wire format (Accept or Content-Type application/x-devicenet):
+ * decodes the trees of /api/network and /api/network/{mac} and the device lists of /api/devices,
+ * and encodes bulk loads for /api/devices/batch. Trees are rebuilt with an explicit stack,
+ * so arbitrarily deep chains decode without recursion.
+ */
+public class TopologyBinaryDecoder {
+
+    private static final int BUFFER_BYTES = 64 << 10;
+
+    /**
+     * A decoded tree node, with the same fields as the JSON form.
+     * @param nextChildCursor offset to continue the children from if they were cut by the child limit, else null
+     */
+    public record Node(Device device, boolean hasParent, int descendantCount, Integer nextChildCursor, List<Node> children) {}
+
+    private TopologyBinaryDecoder() {}
+
+    /**
+     * Decodes a forest, the body of /api/network.
+     * @param body response body
+     * @return the trees
+     * @throws IOException if the body cannot be read or is malformed
+     */
+    public static List<Node> readForest(InputStream body) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(body, BUFFER_BYTES));
+        long count = TopologyBinaryFormat.readVarint(in);
+        List<Node> roots = new ArrayList<>();
+        for (long i = 0; i < count; i++) {
+            roots.add(readTree(in));
+        }
+        return roots;
+    }
+
+    /**
+     * Decodes a tree, the body of /api/network/{mac}.
+     * @param body response body
+     * @return the root of the tree, or null for an empty body (device not found)
+     * @throws IOException if the body cannot be read or is malformed
+     */
+    public static Node readTree(InputStream body) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(body, BUFFER_BYTES));
+        in.mark(1);
+        if (in.read() < 0) {
+            return null;
+        }
+        in.reset();
+        return readTree(in);
+    }
+
+    /**
+     * Decodes a device list, the body of /api/devices.
+     * @param body response body
+     * @return the devices
+     * @throws IOException if the body cannot be read or is malformed
+     */
+    public static List<Device> readDevices(InputStream body) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(body, BUFFER_BYTES));
+        List<Device> devices = new ArrayList<>();
+        int flags;
+        while ((flags = TopologyBinaryFormat.readFlags(in)) >= 0) {
+            devices.add(TopologyBinaryFormat.readDevice(flags, in));
+        }
+        return devices;
+    }
+
+    /**
+     * Encodes devices as a body for /api/devices/batch.
+     * @param devices the devices
+     * @param body request body
+     * @throws IOException if writing fails
+     */
+    public static void writeDevices(Collection<Device> devices, OutputStream body) throws IOException {
+        new TopologyBinaryWriter().writeDevices(devices, new DataOutputStream(new BufferedOutputStream(body, BUFFER_BYTES)));
+    }
+
+    /**
+     * Reads one tree in pre-order. Each open node waits on the stack with the number of children still to read.
+     */
+    private static Node readTree(DataInputStream in) throws IOException {
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<long[]> remaining = new ArrayDeque<>();
+        Node root = null;
+        do {
+            int flags = in.readUnsignedByte();
+            Device device = TopologyBinaryFormat.readDevice(flags, in);
+            int descendantCount = (int) TopologyBinaryFormat.readVarint(in);
+            long childCount = TopologyBinaryFormat.readVarint(in);
+            Integer cursor = (flags & TopologyBinaryFormat.CHILDREN_CUT) != 0 ? (int) TopologyBinaryFormat.readVarint(in) : null;
+            Node node = new Node(device, (flags & TopologyBinaryFormat.HAS_PARENT) != 0, descendantCount, cursor,
+                    new ArrayList<>((int) Math.min(childCount, 1024)));
+            if (root == null) {
+                root = node;
+            } else {
+                nodes.peek().children().add(node);
+                remaining.peek()[0]--;
+            }
+            nodes.push(node);
+            remaining.push(new long[] {childCount});
+            while (!remaining.isEmpty() && remaining.peek()[0] == 0) {
+                nodes.pop();
+                remaining.pop();
+            }
+        } while (!nodes.isEmpty());
+        return root;
+    }
+}
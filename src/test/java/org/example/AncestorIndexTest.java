@@ -0,0 +1,69 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AncestorIndexTest {
+    private static boolean walkUp(int[] parents, int ancestor, int node) {
+        for (int current = parents[node]; current != AncestorIndex.NONE; current = parents[current]) {
+            if (current == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void testAddMoveRemove() {
+        AncestorIndex index = new AncestorIndex(4);
+        index.add(0);
+        index.add(1, 0);
+        index.add(2, 1);
+        index.add(3);
+        assertTrue(index.isAncestor(0, 2));
+        assertFalse(index.isAncestor(2, 0));
+        assertFalse(index.isAncestor(3, 2));
+        assertFalse(index.isAncestor(1, 1));
+
+        index.move(1, 3);
+        assertTrue(index.isAncestor(3, 2));
+        assertFalse(index.isAncestor(0, 2));
+        assertThrows(IllegalArgumentException.class, () -> index.move(3, 2));
+
+        assertThrows(IllegalStateException.class, () -> index.remove(1));
+        index.remove(2);
+        assertFalse(index.contains(2));
+        assertTrue(index.contains(1));
+    }
+
+    @Test
+    void testMatchesParentWalkUnderRandomMoves() {
+        int size = 2_000;
+        Random random = new Random(42);
+        AncestorIndex index = new AncestorIndex(16);
+        int[] parents = new int[size];
+        for (int node = 0; node < size; node++) {
+            // Deep, skewed trees force many relabels
+            parents[node] = node == 0 || random.nextInt(10) == 0 ? AncestorIndex.NONE : node - 1 - random.nextInt(Math.min(node, 3));
+            index.add(node, parents[node]);
+        }
+        for (int round = 0; round < 5_000; round++) {
+            int node = random.nextInt(size);
+            int parent = random.nextInt(5) == 0 ? AncestorIndex.NONE : random.nextInt(size);
+            boolean cycle = parent != AncestorIndex.NONE && (parent == node || walkUp(parents, node, parent));
+            if (cycle) {
+                int target = parent;
+                assertThrows(IllegalArgumentException.class, () -> index.move(node, target));
+            } else {
+                index.move(node, parent);
+                parents[node] = parent;
+            }
+        }
+        for (int i = 0; i < 20_000; i++) {
+            int a = random.nextInt(size);
+            int b = random.nextInt(size);
+            assertEquals(walkUp(parents, a, b), index.isAncestor(a, b));
+        }
+    }
+}
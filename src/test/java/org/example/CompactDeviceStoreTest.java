@@ -0,0 +1,67 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactDeviceStoreTest {
+
+    @Test
+    void testMatchesInMemoryStore() {
+        try (DeviceStore compact = new CompactDeviceStore(2)) {
+            OffHeapDeviceStoreTest.addTopology(compact);
+            OffHeapDeviceStoreTest.assertTopology(compact);
+
+            assertNull(compact.get("00:00:00:00:00:01"));
+            assertNull(compact.children("not a mac"));
+            assertFalse(compact.accepts("not a mac"));
+            assertThrows(IllegalArgumentException.class, () -> compact.put(new Device("AA:BB:CC:DD:EE:FF", "Gateway", "")));
+            // The uplink of the gateway waits below it: the chain gateway -> switch -> AP would close a cycle
+            assertThrows(IllegalArgumentException.class, () -> compact.put(new Device("99:99:99:99:99:99", "Switch", "EE:FF:AA:BB:CC:DD")));
+            List<Device> rejected = compact.putAll(List.of(
+                    new Device("11:11:11:11:11:11", "Switch", "22:22:22:22:22:22"),
+                    new Device("22:22:22:22:22:22", "Switch", "11:11:11:11:11:11")));
+            assertEquals(List.of("22:22:22:22:22:22"), rejected.stream().map(Device::getMacAddress).toList());
+            assertEquals(6, compact.size());
+        }
+    }
+
+    @Test
+    void testMoveAndRemoveMatchInMemoryStore() {
+        try (DeviceStore compact = new CompactDeviceStore(2)) {
+            OffHeapDeviceStoreTest.moveAndRemove(compact);
+            OffHeapDeviceStoreTest.assertMovedAndRemoved(compact);
+        }
+    }
+
+    @Test
+    void testControllerOnCompactStore() {
+        DeviceController controller = new DeviceController(new CompactDeviceStore(16), null, 1_000);
+        try {
+            controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+            controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+            assertThrows(RuntimeException.class, () -> controller.addDevice(new Device("not a mac", "Switch", "")));
+            assertEquals(1, controller.getNetwork("AA:BB:CC:DD:EE:FF").children.size());
+            assertEquals(2, controller.getRoots().get(0).subtreeSize);
+        } finally {
+            controller.close();
+        }
+    }
+
+    @Test
+    void testMemoryPerDevice() {
+        int total = 100_000;
+        try (CompactDeviceStore store = new CompactDeviceStore(16)) {
+            store.put(new Device(MacAddress.format(0), "Gateway", ""));
+            for (int i = 1; i < total; i++) {
+                store.put(new Device(MacAddress.format(i), i < 1_000 ? "Switch" : "Access Point", MacAddress.format(i / 100)));
+            }
+
+            assertEquals(total, store.size());
+            assertEquals(total - 1, store.get(MacAddress.format(0)).descendantCount);
+            long bytesPerDevice = store.estimatedBytes() / total;
+            // Arrays grown by half past the expected size, and a hash index at most half full after its last resize
+            assertTrue(bytesPerDevice <= 128, "bytes per device: " + bytesPerDevice);
+        }
+    }
+}
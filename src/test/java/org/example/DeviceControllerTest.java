@@ -1,10 +1,18 @@
 package org.example;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.server.ResponseStatusException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class DeviceControllerTest {
@@ -15,6 +23,11 @@ public class DeviceControllerTest {
     void setUp() {
         controller = new DeviceController();
     }
+
+    @AfterEach
+    void tearDown() {
+        controller.close();
+    }
     
     @Test
     void testAddDevice() {
@@ -218,4 +231,454 @@ public class DeviceControllerTest {
         assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
         assertEquals(2, controller.listDevices().size()); // Ensure no additional device was added
     }
+
+    @Test
+    void testGetOrphans() {
+        Device switchDevice = new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF");
+        Device accessPoint = new Device("CC:DD:EE:FF:AA:BB", "Access Point", "AA:BB:CC:DD:EE:FF");
+
+        controller.addDevice(switchDevice);
+        controller.addDevice(accessPoint);
+
+        Map<String, List<Device>> orphans = controller.getOrphans();
+        assertEquals(1, orphans.size());
+        assertEquals(2, orphans.get("AA:BB:CC:DD:EE:FF").size());
+
+        // Registering the uplink adopts the waiting devices
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        assertTrue(controller.getOrphans().isEmpty());
+        assertEquals(2, controller.getNetwork("AA:BB:CC:DD:EE:FF").children.size());
+    }
+
+    @Test
+    void testConcurrentAddDevice() throws Exception {
+        int switches = 50;
+        int accessPointsPerSwitch = 20;
+        List<Device> toAdd = new ArrayList<>();
+        for (int s = 0; s < switches; s++) {
+            String switchMac = String.format("00:00:00:00:%02X:00", s);
+            toAdd.add(new Device(switchMac, "Switch", "AA:BB:CC:DD:EE:FF"));
+            for (int a = 0; a < accessPointsPerSwitch; a++) {
+                toAdd.add(new Device(String.format("00:00:00:00:%02X:%02X", s, a + 1), "Access Point", switchMac));
+            }
+        }
+        toAdd.add(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        Collections.shuffle(toAdd, new Random(42));
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Device>> results = new ArrayList<>();
+            for (Device device : toAdd) {
+                results.add(executor.submit(() -> controller.addDevice(device)));
+            }
+            for (Future<Device> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(toAdd.size(), controller.listDevices().size());
+        assertEquals(1, controller.getFullNetwork().size());
+        NetworkNode gateway = controller.getNetwork("AA:BB:CC:DD:EE:FF");
+        assertEquals(switches, gateway.children.size());
+        gateway.children.forEach(switchNode -> assertEquals(accessPointsPerSwitch, switchNode.children.size()));
+        assertTrue(controller.getOrphans().isEmpty());
+    }
+
+    @Test
+    void testAddDevicesJsonArray() throws IOException {
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        String body = """
+            [
+              {"macAddress": "CC:DD:EE:FF:AA:BB", "deviceType": "Access Point", "uplinkMacAddress": "BB:CC:DD:EE:FF:AA"},
+              {"macAddress": "BB:CC:DD:EE:FF:AA", "deviceType": "Switch", "uplinkMacAddress": "AA:BB:CC:DD:EE:FF"},
+              {"macAddress": "AA:BB:CC:DD:EE:FF", "deviceType": "Gateway", "uplinkMacAddress": ""},
+              {"macAddress": "DD:EE:FF:AA:BB:CC", "deviceType": "Router", "uplinkMacAddress": ""}
+            ]
+            """;
+
+        BatchResult result = controller.addDevices(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, result.accepted);
+        assertEquals(2, result.rejected.size());
+        assertTrue(result.rejected.stream().anyMatch(r ->
+            r.macAddress.equals("AA:BB:CC:DD:EE:FF") && r.reason.equals("Device with this MAC address already exists")));
+        assertTrue(result.rejected.stream().anyMatch(r ->
+            r.macAddress.equals("DD:EE:FF:AA:BB:CC") && r.reason.equals("Invalid device type")));
+        NetworkNode switchNode = controller.getNetwork("BB:CC:DD:EE:FF:AA");
+        assertTrue(switchNode.hasParent);
+        assertEquals(1, switchNode.children.size());
+    }
+
+    @Test
+    void testAddDevicesNdjsonWithCycle() throws IOException {
+        String body = """
+            {"macAddress": "BB:CC:DD:EE:FF:AA", "deviceType": "Switch", "uplinkMacAddress": "CC:DD:EE:FF:AA:BB"}
+            {"macAddress": "CC:DD:EE:FF:AA:BB", "deviceType": "Access Point", "uplinkMacAddress": "BB:CC:DD:EE:FF:AA"}
+            {"macAddress": "AA:BB:CC:DD:EE:FF", "deviceType": "Gateway", "uplinkMacAddress": ""}
+            """;
+
+        BatchResult result = controller.addDevices(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, result.accepted);
+        assertEquals(1, result.rejected.size());
+        assertEquals("CC:DD:EE:FF:AA:BB", result.rejected.get(0).macAddress);
+        assertEquals(2, controller.listDevices().size());
+    }
+
+    @Test
+    void testAddDevicesMalformedBody() {
+        String body = "[{\"macAddress\": \"AA:BB:CC:DD:EE:FF\", \"deviceType\": \"Gateway\"}, {\"macAddress\": ";
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+            () -> controller.addDevices(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+        assertEquals(1, controller.listDevices().size());
+    }
+
+    @Test
+    void testListDevicesPaginated() {
+        controller.addDevice(new Device("AA:00:00:00:00:01", "Gateway", ""));
+        controller.addDevice(new Device("BB:00:00:00:00:02", "Switch", "AA:00:00:00:00:01"));
+        controller.addDevice(new Device("BB:00:00:00:00:01", "Switch", "AA:00:00:00:00:01"));
+        controller.addDevice(new Device("CC:00:00:00:00:02", "Access Point", "BB:00:00:00:00:01"));
+        controller.addDevice(new Device("CC:00:00:00:00:01", "Access Point", "BB:00:00:00:00:01"));
+
+        List<Device> first = controller.listDevices(2, null, null);
+        assertEquals(List.of("CC:00:00:00:00:01", "CC:00:00:00:00:02"),
+            first.stream().map(Device::getMacAddress).toList());
+
+        List<Device> second = controller.listDevices(2, "CC:00:00:00:00:02", null);
+        assertEquals(List.of("BB:00:00:00:00:01", "BB:00:00:00:00:02"),
+            second.stream().map(Device::getMacAddress).toList());
+
+        List<Device> last = controller.listDevices(2, "BB:00:00:00:00:02", null);
+        assertEquals(List.of("AA:00:00:00:00:01"), last.stream().map(Device::getMacAddress).toList());
+
+        List<Device> switches = controller.listDevices(null, null, "Switch");
+        assertEquals(2, switches.size());
+        assertTrue(switches.stream().allMatch(d -> d.getDeviceType().equals("Switch")));
+    }
+
+    @Test
+    void testListDevicesResumesAfterCursorRemoved() {
+        controller.addDevice(new Device("AA:00:00:00:00:01", "Gateway", ""));
+        controller.addDevice(new Device("BB:00:00:00:00:01", "Switch", "AA:00:00:00:00:01"));
+        controller.addDevice(new Device("BB:00:00:00:00:02", "Switch", "AA:00:00:00:00:01"));
+        controller.addDevice(new Device("BB:00:00:00:00:03", "Switch", "AA:00:00:00:00:01"));
+        controller.addDevice(new Device("CC:00:00:00:00:01", "Access Point", "BB:00:00:00:00:01"));
+
+        List<Device> first = controller.listDevices(2, null, null);
+        assertEquals(List.of("CC:00:00:00:00:01", "BB:00:00:00:00:01"),
+            first.stream().map(Device::getMacAddress).toList());
+        controller.removeDevice("BB:00:00:00:00:01");
+
+        List<Device> second = controller.listDevices(2, "BB:00:00:00:00:01", null, null, "Switch");
+        assertEquals(List.of("BB:00:00:00:00:02", "BB:00:00:00:00:03"),
+            second.stream().map(Device::getMacAddress).toList());
+        List<Device> cursorOtherType = controller.listDevices(2, "CC:00:00:00:00:01", "Switch", null, "Access Point");
+        assertEquals(List.of("BB:00:00:00:00:02", "BB:00:00:00:00:03"),
+            cursorOtherType.stream().map(Device::getMacAddress).toList());
+
+        List<Device> switches = controller.listDevices(1, "BB:00:00:00:00:01", "Switch");
+        assertEquals(List.of("BB:00:00:00:00:02"), switches.stream().map(Device::getMacAddress).toList());
+    }
+
+    @Test
+    void testListDevicesInvalidParameters() {
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> controller.listDevices(0, null, null));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+        exception = assertThrows(ResponseStatusException.class, () -> controller.listDevices(10, null, "Router"));
+        assertEquals("Invalid device type", exception.getReason());
+        exception = assertThrows(ResponseStatusException.class, () -> controller.listDevices(10, "FF:FF:FF:FF:FF:FF", null));
+        assertEquals("Unknown cursor device", exception.getReason());
+        exception = assertThrows(ResponseStatusException.class, () -> controller.listDevices(10, null, null, "AA:B:", null));
+        assertEquals("Invalid MAC prefix", exception.getReason());
+    }
+
+    @Test
+    void testGetChildrenPaginated() {
+        controller.addDevice(new Device("AA:00:00:00:00:01", "Gateway", ""));
+        controller.addDevice(new Device("BB:00:00:00:00:03", "Switch", "AA:00:00:00:00:01"));
+        controller.addDevice(new Device("BB:00:00:00:00:01", "Switch", "AA:00:00:00:00:01"));
+        controller.addDevice(new Device("CC:00:00:00:00:01", "Access Point", "BB:00:00:00:00:01"));
+        controller.addDevice(new Device("BB:00:00:00:00:02", "Switch", "AA:00:00:00:00:01"));
+
+        // Children come in MAC address order, whatever order they were linked in
+        assertEquals(List.of("BB:00:00:00:00:01", "BB:00:00:00:00:02"),
+            controller.getChildren("AA:00:00:00:00:01", null, 2).stream().map(Device::getMacAddress).toList());
+        assertEquals(List.of("BB:00:00:00:00:03"),
+            controller.getChildren("AA:00:00:00:00:01", "BB:00:00:00:00:02", 2).stream().map(Device::getMacAddress).toList());
+        assertEquals(List.of(), controller.getChildren("CC:00:00:00:00:01", null, null));
+        assertNull(controller.getChildren("DD:00:00:00:00:01", null, null));
+
+        // Moves and removals keep the index in step with the topology
+        controller.moveDevice("BB:00:00:00:00:02", new Device(null, null, "BB:00:00:00:00:01"));
+        controller.removeDevice("BB:00:00:00:00:03");
+        assertEquals(List.of("BB:00:00:00:00:01"),
+            controller.getChildren("AA:00:00:00:00:01", null, null).stream().map(Device::getMacAddress).toList());
+        assertEquals(List.of("BB:00:00:00:00:02", "CC:00:00:00:00:01"),
+            controller.getChildren("BB:00:00:00:00:01", null, null).stream().map(Device::getMacAddress).toList());
+
+        // Devices waiting for a removed parent are listed again once it is back
+        controller.removeDevice("BB:00:00:00:00:01");
+        assertNull(controller.getChildren("BB:00:00:00:00:01", null, null));
+        controller.addDevice(new Device("BB:00:00:00:00:01", "Switch", ""));
+        assertEquals(2, controller.getChildren("BB:00:00:00:00:01", null, null).size());
+    }
+
+    @Test
+    void testListDevicesByMacPrefix() {
+        controller.addDevice(new Device("00:11:22:00:00:02", "Gateway", ""));
+        controller.addDevice(new Device("00:11:22:00:00:01", "Switch", "00:11:22:00:00:02"));
+        controller.addDevice(new Device("00:11:2f:00:00:03", "Switch", "00:11:22:00:00:02"));
+        controller.addDevice(new Device("00:11:23:00:00:01", "Access Point", "00:11:22:00:00:01"));
+        controller.addDevice(new Device("00:12:22:00:00:01", "Access Point", "00:11:22:00:00:01"));
+
+        assertEquals(List.of("00:11:22:00:00:01", "00:11:22:00:00:02"),
+            controller.listDevices(null, null, null, "00:11:22", null).stream().map(Device::getMacAddress).toList());
+        assertEquals(List.of("00:11:22:00:00:01", "00:11:22:00:00:02", "00:11:23:00:00:01"),
+            controller.listDevices(3, null, null, "00:11:2", null).stream().map(Device::getMacAddress).toList());
+        assertEquals(List.of("00:11:23:00:00:01", "00:11:2f:00:00:03"),
+            controller.listDevices(null, "00:11:22:00:00:02", null, "00:11:2", null).stream().map(Device::getMacAddress).toList());
+        assertEquals(List.of("00:11:22:00:00:01", "00:11:2f:00:00:03"),
+            controller.listDevices(null, null, "Switch", "00:11:", null).stream().map(Device::getMacAddress).toList());
+        assertEquals(5, controller.listDevices(null, "00:00:00:00:00:00", null, "0", null).size());
+        assertEquals(List.of(), controller.listDevices(null, null, null, "00:11:22:00:00:03", null));
+    }
+
+    @Test
+    void testGetRoots() {
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("CC:DD:EE:FF:AA:BB", "Access Point", "BB:CC:DD:EE:FF:AA"));
+        controller.addDevice(new Device("11:22:33:44:55:66", "Gateway", ""));
+
+        // The switch is a root until its uplink is registered
+        List<RootSummary> roots = controller.getRoots();
+        assertEquals(2, roots.size());
+        assertTrue(roots.stream().anyMatch(r -> r.macAddress.equals("BB:CC:DD:EE:FF:AA") && r.subtreeSize == 2));
+
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        roots = controller.getRoots();
+        assertEquals(2, roots.size());
+        assertTrue(roots.stream().anyMatch(r -> r.macAddress.equals("AA:BB:CC:DD:EE:FF") && r.subtreeSize == 3));
+        assertTrue(roots.stream().anyMatch(r -> r.macAddress.equals("11:22:33:44:55:66") && r.subtreeSize == 1));
+        assertEquals(2, controller.getFullNetwork().size());
+    }
+
+    @Test
+    void testGetNetworkBounded() {
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("CC:DD:EE:FF:AA:BB", "Access Point", "BB:CC:DD:EE:FF:AA"));
+
+        SubtreeQuery query = controller.getNetwork("AA:BB:CC:DD:EE:FF", 1, 50, null);
+        assertEquals(2, query.root.descendantCount);
+        assertEquals(1, query.maxDepth);
+        assertEquals(50, query.childLimit);
+        assertEquals(0, query.childCursor);
+        assertNull(controller.getNetwork("FF:EE:DD:CC:BB:AA", 1, null, null));
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+            () -> controller.getNetwork("AA:BB:CC:DD:EE:FF", -1, null, null));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+        exception = assertThrows(ResponseStatusException.class,
+            () -> controller.getNetwork("AA:BB:CC:DD:EE:FF", null, 0, null));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+    }
+
+    @Test
+    void testGetNetworkCachedWithETag() {
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("11:11:11:11:11:11", "Gateway", ""));
+
+        ResponseEntity<Object> first = controller.getNetworkResponse("AA:BB:CC:DD:EE:FF", null, null, null, null, null);
+        String etag = first.getHeaders().getETag();
+        assertNotNull(etag);
+        String body = new String((byte[]) first.getBody(), StandardCharsets.UTF_8);
+        assertTrue(body.contains("\"macAddress\":\"BB:CC:DD:EE:FF:AA\""));
+        assertTrue(body.contains("\"descendantCount\":1"));
+        assertEquals(HttpStatus.NOT_MODIFIED,
+            controller.getNetworkResponse("AA:BB:CC:DD:EE:FF", null, null, null, null, etag).getStatusCode());
+        controller.getNetworkResponse("11:11:11:11:11:11", null, null, null, null, null);
+        controller.getNetworkResponse("BB:CC:DD:EE:FF:AA", null, null, null, null, null);
+        assertEquals(1, controller.getCacheStats().hits);
+        assertEquals(3, controller.getCacheStats().entries);
+
+        // Adding below the switch changes the switch and the gateway above it, not the other gateway
+        controller.addDevice(new Device("CC:DD:EE:FF:AA:BB", "Access Point", "BB:CC:DD:EE:FF:AA"));
+        assertEquals(1, controller.getCacheStats().entries);
+        ResponseEntity<Object> changed = controller.getNetworkResponse("AA:BB:CC:DD:EE:FF", null, null, null, null, etag);
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertNotEquals(etag, changed.getHeaders().getETag());
+        assertTrue(new String((byte[]) changed.getBody(), StandardCharsets.UTF_8).contains("\"descendantCount\":2"));
+
+        // Moving the access point under the other gateway changes both trees
+        controller.getNetworkResponse("BB:CC:DD:EE:FF:AA", null, null, null, null, null);
+        controller.moveDevice("CC:DD:EE:FF:AA:BB", new Device(null, null, "11:11:11:11:11:11"));
+        assertEquals(0, controller.getCacheStats().entries);
+        assertNull(controller.getNetworkResponse("FF:EE:DD:CC:BB:AA", null, null, null, null, null).getBody());
+    }
+
+    @Test
+    void testGetFullNetworkWithETag() {
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+
+        ResponseEntity<Object> first = controller.getFullNetworkResponse(null, null);
+        String etag = first.getHeaders().getETag();
+        String body = new String((byte[]) first.getBody(), StandardCharsets.UTF_8);
+        assertTrue(body.startsWith("[{\"device\":{\"macAddress\":\"AA:BB:CC:DD:EE:FF\""));
+        assertEquals(HttpStatus.NOT_MODIFIED, controller.getFullNetworkResponse(null, etag).getStatusCode());
+        controller.addDevice(new Device("11:11:11:11:11:11", "Gateway", ""));
+        assertNotEquals(etag, controller.getFullNetworkResponse(null, etag).getHeaders().getETag());
+        assertEquals(3, controller.getCoalescingStats().computed);
+    }
+
+    @Test
+    void testMoveDevice() {
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("CC:DD:EE:FF:AA:BB", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("DD:EE:FF:AA:BB:CC", "Access Point", "BB:CC:DD:EE:FF:AA"));
+
+        Device moved = controller.moveDevice("DD:EE:FF:AA:BB:CC", new Device(null, null, "CC:DD:EE:FF:AA:BB"));
+        assertEquals("CC:DD:EE:FF:AA:BB", moved.getUplinkMacAddress());
+        assertEquals("CC:DD:EE:FF:AA:BB", controller.getDevice("DD:EE:FF:AA:BB:CC").getUplinkMacAddress());
+        assertEquals(0, controller.getNetwork("BB:CC:DD:EE:FF:AA").descendantCount);
+        assertEquals(1, controller.getNetwork("CC:DD:EE:FF:AA:BB").children.size());
+        assertEquals(3, controller.getNetwork("AA:BB:CC:DD:EE:FF").descendantCount);
+
+        // Moving a switch under its own access point would close a cycle
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+            () -> controller.moveDevice("CC:DD:EE:FF:AA:BB", new Device(null, null, "DD:EE:FF:AA:BB:CC")));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+        exception = assertThrows(ResponseStatusException.class,
+            () -> controller.moveDevice("11:11:11:11:11:11", new Device(null, null, "")));
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatusCode());
+        exception = assertThrows(ResponseStatusException.class,
+            () -> controller.moveDevice("CC:DD:EE:FF:AA:BB", new Device(null, "Gateway", "")));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+
+        // A move to an unregistered uplink parks the subtree until the uplink arrives
+        controller.moveDevice("CC:DD:EE:FF:AA:BB", new Device(null, null, "EE:EE:EE:EE:EE:EE"));
+        assertEquals(1, controller.getNetwork("AA:BB:CC:DD:EE:FF").descendantCount);
+        assertEquals(Set.of("EE:EE:EE:EE:EE:EE"), controller.getOrphans().keySet());
+        controller.addDevice(new Device("EE:EE:EE:EE:EE:EE", "Gateway", ""));
+        assertEquals(2, controller.getNetwork("EE:EE:EE:EE:EE:EE").descendantCount);
+        assertTrue(controller.getOrphans().isEmpty());
+    }
+
+    @Test
+    void testRemoveDevice() {
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("CC:DD:EE:FF:AA:BB", "Access Point", "BB:CC:DD:EE:FF:AA"));
+
+        Device removed = controller.removeDevice("BB:CC:DD:EE:FF:AA");
+        assertEquals("Switch", removed.getDeviceType());
+        assertNull(controller.getDevice("BB:CC:DD:EE:FF:AA"));
+        assertEquals(2, controller.listDevices().size());
+        assertEquals(0, controller.getNetwork("AA:BB:CC:DD:EE:FF").descendantCount);
+        assertEquals(2, controller.getRoots().size());
+        assertEquals(Set.of("BB:CC:DD:EE:FF:AA"), controller.getOrphans().keySet());
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+            () -> controller.removeDevice("BB:CC:DD:EE:FF:AA"));
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatusCode());
+
+        // Re-adding the switch adopts its access point again
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        assertEquals(2, controller.getNetwork("AA:BB:CC:DD:EE:FF").descendantCount);
+        assertEquals(1, controller.getRoots().size());
+    }
+
+    @Test
+    void testSearchNetwork() {
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.addDevice(new Device("BB:00:00:00:00:01", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("BB:00:00:00:00:02", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("00:11:00:00:00:01", "Access Point", "BB:00:00:00:00:01"));
+        controller.addDevice(new Device("00:22:00:00:00:02", "Access Point", "BB:00:00:00:00:01"));
+        controller.addDevice(new Device("00:11:00:00:00:03", "Access Point", "BB:00:00:00:00:02"));
+        controller.addDevice(new Device("00:11:00:00:00:04", "Access Point", "00:11:00:00:00:03"));
+
+        assertEquals(List.of("00:11:00:00:00:01", "00:11:00:00:00:03", "00:11:00:00:00:04"),
+            controller.searchNetwork("AA:BB:CC:DD:EE:FF", "Access Point", "00:11", null, null, null).stream().map(Device::getMacAddress).toList());
+        assertEquals(List.of("BB:00:00:00:00:01", "00:11:00:00:00:01", "00:22:00:00:00:02", "BB:00:00:00:00:02", "00:11:00:00:00:03"),
+            controller.searchNetwork("AA:BB:CC:DD:EE:FF", null, null, 2, null, null).stream().map(Device::getMacAddress).toList());
+        assertEquals(List.of("00:11:00:00:00:04"),
+            controller.searchNetwork("BB:00:00:00:00:02", null, "00:11:00:00:00:0", null, null, "00:11:00:00:00:03").stream().map(Device::getMacAddress).toList());
+
+        // Pages resume after the cursor, below it first, then after its siblings and its ancestors'
+        List<String> pages = new ArrayList<>();
+        String after = null;
+        List<Device> page;
+        do {
+            page = controller.searchNetwork("AA:BB:CC:DD:EE:FF", null, null, null, 2, after);
+            page.forEach(device -> pages.add(device.getMacAddress()));
+            after = page.isEmpty() ? null : page.get(page.size() - 1).getMacAddress();
+        } while (page.size() == 2);
+        assertEquals(List.of("BB:00:00:00:00:01", "00:11:00:00:00:01", "00:22:00:00:00:02", "BB:00:00:00:00:02", "00:11:00:00:00:03", "00:11:00:00:00:04"), pages);
+
+        assertNull(controller.searchNetwork("11:11:11:11:11:11", null, null, null, null, null));
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+            () -> controller.searchNetwork("AA:BB:CC:DD:EE:FF", "Router", null, null, null, null));
+        assertEquals("Invalid device type", exception.getReason());
+        exception = assertThrows(ResponseStatusException.class,
+            () -> controller.searchNetwork("AA:BB:CC:DD:EE:FF", null, null, 0, null, null));
+        assertEquals("Max depth must be positive", exception.getReason());
+        exception = assertThrows(ResponseStatusException.class,
+            () -> controller.searchNetwork("BB:00:00:00:00:02", null, null, null, null, "00:11:00:00:00:01"));
+        assertEquals("Unknown cursor device", exception.getReason());
+    }
+
+    @Test
+    void testGetStats() throws IOException {
+        // Access points registered before their switch wait as orphans and are counted once adopted
+        controller.addDevice(new Device("CC:DD:EE:FF:AA:BB", "Access Point", "BB:CC:DD:EE:FF:AA"));
+        controller.addDevice(new Device("DD:EE:FF:AA:BB:CC", "Access Point", "BB:CC:DD:EE:FF:AA"));
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        String body = """
+            {"macAddress": "BB:CC:DD:EE:FF:AA", "deviceType": "Switch", "uplinkMacAddress": "AA:BB:CC:DD:EE:FF"}
+            {"macAddress": "EE:FF:AA:BB:CC:DD", "deviceType": "Switch", "uplinkMacAddress": "AA:BB:CC:DD:EE:FF"}
+            {"macAddress": "FF:AA:BB:CC:DD:EE", "deviceType": "Access Point", "uplinkMacAddress": "EE:FF:AA:BB:CC:DD"}
+            """;
+        controller.addDevices(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+        SubtreeStats stats = controller.getStats("AA:BB:CC:DD:EE:FF");
+        assertEquals("Gateway", stats.deviceType);
+        assertEquals(5, stats.descendantCount);
+        assertEquals(Map.of("Access Point", 3, "Switch", 2, "Gateway", 0), stats.descendantsByType);
+        assertEquals(List.of("Access Point", "Switch", "Gateway"), new ArrayList<>(stats.descendantsByType.keySet()));
+        assertEquals(Map.of("Access Point", 2, "Switch", 0, "Gateway", 0), controller.getStats("BB:CC:DD:EE:FF:AA").descendantsByType);
+        assertEquals(6, stats.forest.deviceCount);
+        assertEquals(1, stats.forest.rootCount);
+        assertEquals(Map.of("Access Point", 3, "Switch", 2, "Gateway", 1), stats.forest.devicesByType);
+
+        // Moves and removals take their subtree's counts along
+        controller.moveDevice("EE:FF:AA:BB:CC:DD", new Device(null, null, "BB:CC:DD:EE:FF:AA"));
+        assertEquals(Map.of("Access Point", 3, "Switch", 1, "Gateway", 0), controller.getStats("BB:CC:DD:EE:FF:AA").descendantsByType);
+        controller.removeDevice("BB:CC:DD:EE:FF:AA");
+        stats = controller.getStats("AA:BB:CC:DD:EE:FF");
+        assertEquals(0, stats.descendantCount);
+        assertEquals(Map.of("Access Point", 0, "Switch", 0, "Gateway", 0), stats.descendantsByType);
+        assertEquals(Map.of("Access Point", 3, "Switch", 1, "Gateway", 1), stats.forest.devicesByType);
+        assertEquals(Map.of("Access Point", 1, "Switch", 0, "Gateway", 0), controller.getStats("EE:FF:AA:BB:CC:DD").descendantsByType);
+        assertNull(controller.getStats("11:11:11:11:11:11"));
+    }
+
+    @Test
+    void testGetPath() {
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("CC:DD:EE:FF:AA:BB", "Access Point", "BB:CC:DD:EE:FF:AA"));
+
+        List<Device> path = controller.getPath("CC:DD:EE:FF:AA:BB");
+        assertEquals(List.of("CC:DD:EE:FF:AA:BB", "BB:CC:DD:EE:FF:AA", "AA:BB:CC:DD:EE:FF"),
+            path.stream().map(Device::getMacAddress).toList());
+        assertEquals(1, controller.getPath("AA:BB:CC:DD:EE:FF").size());
+        assertNull(controller.getPath("FF:EE:DD:CC:BB:AA"));
+    }
 }
@@ -0,0 +1,77 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeviceIngestPipelineTest {
+    @Test
+    void testMutationsAppliedInOrderOnSingleThread() {
+        List<Integer> applied = new ArrayList<>();
+        Set<Thread> applierThreads = new HashSet<>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        try (DeviceIngestPipeline pipeline = new DeviceIngestPipeline(8, 4)) {
+            for (int i = 0; i < 100; i++) {
+                int value = i;
+                futures.add(pipeline.submit(() -> {
+                    applied.add(value);
+                    applierThreads.add(Thread.currentThread());
+                    return value;
+                }));
+            }
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, futures.get(i).join());
+            }
+        }
+        assertEquals(100, applied.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, applied.get(i));
+        }
+        assertEquals(1, applierThreads.size());
+    }
+
+    @Test
+    void testFailedMutationCompletesExceptionally() {
+        try (DeviceIngestPipeline pipeline = new DeviceIngestPipeline(8, 4)) {
+            CompletableFuture<Object> failed = pipeline.submit(() -> {
+                throw new IllegalArgumentException("rejected");
+            });
+            CompletableFuture<String> next = pipeline.submit(() -> "applied");
+
+            CompletionException exception = assertThrows(CompletionException.class, failed::join);
+            assertInstanceOf(IllegalArgumentException.class, exception.getCause());
+            assertEquals("applied", next.join());
+        }
+    }
+
+    @Test
+    void testFailedBatchHookKeepsMutationsApplied() {
+        List<String> applied = new ArrayList<>();
+        boolean[] failNext = {true};
+        DeviceIngestPipeline.BatchHook hook = () -> {
+            if (failNext[0]) {
+                failNext[0] = false;
+                throw new OutOfMemoryError("publish");
+            }
+        };
+        try (DeviceIngestPipeline pipeline = new DeviceIngestPipeline(8, 4, hook)) {
+            CompletableFuture<Boolean> failed = pipeline.submit(() -> applied.add("first"));
+
+            CompletionException exception = assertThrows(CompletionException.class, failed::join);
+            assertInstanceOf(OutOfMemoryError.class, exception.getCause());
+            // The applier survives the error, and the failed batch's mutation was not rolled back
+            assertTrue(pipeline.submit(() -> applied.add("second")).join());
+            assertEquals(List.of("first", "second"), applied);
+        }
+    }
+
+    @Test
+    void testSubmitAfterClose() {
+        DeviceIngestPipeline pipeline = new DeviceIngestPipeline(8, 4);
+        pipeline.close();
+        CompletionException exception = assertThrows(CompletionException.class, () -> pipeline.submit(() -> "late").join());
+        assertInstanceOf(IllegalStateException.class, exception.getCause());
+    }
+}
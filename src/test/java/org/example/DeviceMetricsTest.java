@@ -0,0 +1,89 @@
+package org.example;
+
+import com.sun.management.ThreadMXBean;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeviceMetricsTest {
+
+    @Test
+    void testControllerMetrics() throws Exception {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        DeviceController controller = new DeviceController(new InMemoryDeviceStore(), new DeviceMetrics(registry), null, 1_000,
+                1 << 20, 1 << 16, 1 << 20, null);
+        try {
+            controller.addDevice(new Device("00:00:00:00:00:01", "Gateway", ""));
+            controller.addDevice(new Device("00:00:00:00:00:02", "Switch", "00:00:00:00:00:01"));
+            controller.addDevice(new Device("00:00:00:00:00:03", "Switch", "00:00:00:00:00:09"));
+            assertThrows(ResponseStatusException.class, () -> controller.addDevice(new Device("00:00:00:00:00:01", "Gateway", "")));
+            assertThrows(ResponseStatusException.class, () -> controller.addDevice(new Device("00:00:00:00:00:04", "Router", "")));
+            controller.addDevices(new ByteArrayInputStream("""
+                    {"macAddress":"00:00:00:00:00:05","deviceType":"Access Point","uplinkMacAddress":"00:00:00:00:00:02"}
+                    {"macAddress":"00:00:00:00:00:05","deviceType":"Access Point","uplinkMacAddress":"00:00:00:00:00:02"}
+                    {"deviceType":"Access Point"}
+                    """.getBytes(StandardCharsets.UTF_8)));
+            controller.getFullNetworkResponse(null, null);
+
+            assertEquals(4, registry.get("devicenet.devices.added").counter().count());
+            assertEquals(2, registry.get("devicenet.devices.rejected").tag("reason", "duplicate").counter().count());
+            assertEquals(1, registry.get("devicenet.devices.rejected").tag("reason", "invalid_type").counter().count());
+            assertEquals(1, registry.get("devicenet.devices.rejected").tag("reason", "missing_mac").counter().count());
+            assertEquals(4, registry.get("devicenet.devices").gauge().value());
+            assertEquals(2, registry.get("devicenet.roots").gauge().value());
+            assertEquals(1, registry.get("devicenet.orphans").gauge().value());
+            assertEquals(3, registry.get("devicenet.link").tag("mode", "device").timer().count());
+            assertTrue(registry.get("devicenet.link.cycle.check.steps").tag("method", "index").summary().count() > 0);
+            assertEquals(1, registry.get("devicenet.response.size").tag("endpoint", "network").summary().count());
+
+            String scrape = registry.scrape();
+            assertTrue(scrape.contains("devicenet_devices_rejected_total{reason=\"duplicate\",} 2.0"), scrape);
+            assertTrue(scrape.contains("devicenet_link_cycle_check_steps_bucket{method=\"index\""), scrape);
+        } finally {
+            controller.close();
+        }
+    }
+
+    @Test
+    void testCycleChecksRecordedPerStore() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        DeviceController controller = new DeviceController(new InMemoryDeviceStore(), new DeviceMetrics(registry), null, 1_000,
+                1 << 20, 1 << 16, 1 << 20, null);
+        // A second controller has its own metrics, and must not take over the cycle checks of the first one
+        DeviceController other = new DeviceController();
+        try {
+            controller.addDevice(new Device("00:00:00:00:00:01", "Gateway", ""));
+            other.addDevice(new Device("00:00:00:00:00:01", "Gateway", ""));
+            other.addDevice(new Device("00:00:00:00:00:02", "Switch", "00:00:00:00:00:01"));
+            controller.addDevice(new Device("00:00:00:00:00:02", "Switch", "00:00:00:00:00:01"));
+
+            assertEquals(1, registry.get("devicenet.link.cycle.check.steps").tag("method", "index").summary().count());
+        } finally {
+            other.close();
+            controller.close();
+        }
+    }
+
+    @Test
+    void testRecordingDoesNotAllocate() {
+        DeviceMetrics metrics = new DeviceMetrics(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (int round = 0; round < 5; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 100_000; i++) {
+                metrics.added(1);
+                metrics.linkedDevice(1_000 + i);
+                metrics.rejected(DeviceRejection.CYCLE);
+            }
+            allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        }
+        // Once warmed up, 300k recordings must not allocate beyond measurement noise
+        assertTrue(allocated < 10_000, "allocated " + allocated + " bytes");
+    }
+}
@@ -0,0 +1,162 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DevicePersistenceTest {
+    @TempDir
+    Path directory;
+
+    private List<String> files(String prefix) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.map(path -> path.getFileName().toString()).filter(name -> name.startsWith(prefix)).sorted().toList();
+        }
+    }
+
+    @Test
+    void testRecoverFromLog() {
+        DeviceController controller = new DeviceController(directory.toString(), 1_000);
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.addDevice(new Device("CC:DD:EE:FF:AA:BB", "Access Point", "DD:DD:DD:DD:DD:DD"));
+        controller.close();
+
+        DeviceController recovered = new DeviceController(directory.toString(), 1_000);
+        try {
+            assertEquals(3, recovered.listDevices().size());
+            NetworkNode gateway = recovered.getNetwork("AA:BB:CC:DD:EE:FF");
+            assertEquals(1, gateway.children.size());
+            assertEquals(1, gateway.descendantCount);
+            assertEquals(1, recovered.getOrphans().size());
+            assertEquals("DD:DD:DD:DD:DD:DD", recovered.getDevice("CC:DD:EE:FF:AA:BB").getUplinkMacAddress());
+
+            // Recovered devices keep being rejected as duplicates, and new ones are logged after them
+            assertThrows(RuntimeException.class, () -> recovered.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", "")));
+            recovered.addDevice(new Device("DD:DD:DD:DD:DD:DD", "Switch", "AA:BB:CC:DD:EE:FF"));
+        } finally {
+            recovered.close();
+        }
+
+        DeviceController again = new DeviceController(directory.toString(), 1_000);
+        try {
+            assertEquals(4, again.listDevices().size());
+            assertEquals(3, again.getNetwork("AA:BB:CC:DD:EE:FF").descendantCount);
+            assertTrue(again.getOrphans().isEmpty());
+        } finally {
+            again.close();
+        }
+    }
+
+    @Test
+    void testSnapshotTruncatesLog() throws IOException {
+        DeviceController controller = new DeviceController(directory.toString(), 100);
+        StringBuilder body = new StringBuilder();
+        body.append("{\"macAddress\": \"AA:00:00:00:00:00\", \"deviceType\": \"Gateway\", \"uplinkMacAddress\": \"\"}\n");
+        for (int i = 1; i <= 250; i++) {
+            body.append(String.format("{\"macAddress\": \"AA:00:00:00:%02X:%02X\", \"deviceType\": \"Switch\", \"uplinkMacAddress\": \"AA:00:00:00:00:00\"}%n", i / 256, i % 256));
+        }
+        controller.addDevices(new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)));
+        for (int i = 0; i < 150; i++) {
+            controller.addDevice(new Device(String.format("BB:00:00:00:%02X:%02X", i / 256, i % 256), "Access Point", "AA:00:00:00:00:01"));
+        }
+        controller.close();
+
+        assertEquals(1, files("snapshot-").size());
+        // Segments covered by the snapshot are deleted
+        String snapshotId = files("snapshot-").get(0).substring("snapshot-".length(), "snapshot-".length() + 20);
+        assertTrue(files("wal-").stream().allMatch(name -> name.compareTo("wal-" + snapshotId) >= 0));
+
+        DeviceController recovered = new DeviceController(directory.toString(), 100);
+        try {
+            assertEquals(401, recovered.listDevices().size());
+            assertEquals(400, recovered.getNetwork("AA:00:00:00:00:00").descendantCount);
+            assertEquals(150, recovered.getNetwork("AA:00:00:00:00:01").children.size());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void testTornTailIsTruncated() throws IOException {
+        DeviceController controller = new DeviceController(directory.toString(), 1_000);
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.close();
+
+        // Simulate a crash in the middle of writing a record
+        Path segment = directory.resolve(files("wal-").get(files("wal-").size() - 1));
+        long intactSize = Files.size(segment);
+        Files.write(segment, new byte[] {0, 0, 0, 40, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        DeviceController recovered = new DeviceController(directory.toString(), 1_000);
+        try {
+            assertEquals(2, recovered.listDevices().size());
+            assertEquals(intactSize, Files.size(segment));
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void testSegmentsAfterTornRecordAreDeleted() throws IOException {
+        DeviceController controller = new DeviceController(directory.toString(), 1_000);
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.close();
+        // Every start opens a new segment, so this device is logged in the second one
+        DeviceController restarted = new DeviceController(directory.toString(), 1_000);
+        restarted.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        restarted.close();
+
+        List<String> segments = files("wal-");
+        Files.write(directory.resolve(segments.get(0)), new byte[] {0, 0, 0, 40, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        DeviceController recovered = new DeviceController(directory.toString(), 1_000);
+        try {
+            assertEquals(1, recovered.listDevices().size());
+            // The later segment was deleted, and its id reused for the new, empty segment
+            assertEquals(0, Files.size(directory.resolve(segments.get(1))));
+            recovered.addDevice(new Device("CC:DD:EE:FF:AA:BB", "Switch", "AA:BB:CC:DD:EE:FF"));
+        } finally {
+            recovered.close();
+        }
+
+        // The switch lost with the torn segment's successors must not come back on the next start
+        DeviceController again = new DeviceController(directory.toString(), 1_000);
+        try {
+            assertEquals(2, again.listDevices().size());
+            assertNull(again.getDevice("BB:CC:DD:EE:FF:AA"));
+        } finally {
+            again.close();
+        }
+    }
+
+    @Test
+    void testRecoverMovesAndRemovals() {
+        DeviceController controller = new DeviceController(directory.toString(), 1_000);
+        controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("CC:DD:EE:FF:AA:BB", "Switch", "AA:BB:CC:DD:EE:FF"));
+        controller.addDevice(new Device("DD:EE:FF:AA:BB:CC", "Access Point", "BB:CC:DD:EE:FF:AA"));
+        controller.moveDevice("DD:EE:FF:AA:BB:CC", new Device(null, null, "CC:DD:EE:FF:AA:BB"));
+        controller.removeDevice("BB:CC:DD:EE:FF:AA");
+        controller.close();
+
+        DeviceController recovered = new DeviceController(directory.toString(), 1_000);
+        try {
+            assertEquals(3, recovered.listDevices().size());
+            assertNull(recovered.getDevice("BB:CC:DD:EE:FF:AA"));
+            assertEquals("CC:DD:EE:FF:AA:BB", recovered.getDevice("DD:EE:FF:AA:BB:CC").getUplinkMacAddress());
+            assertEquals(2, recovered.getNetwork("AA:BB:CC:DD:EE:FF").descendantCount);
+        } finally {
+            recovered.close();
+        }
+    }
+}
+
@@ -0,0 +1,84 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ErrorHeavyHittersTest {
+
+    @Test
+    void testTopUsersAcrossBucketsWithinBounds() {
+        // Zipf-like users spread over 5 buckets, far more distinct users than counters
+        AtomicLong now = new AtomicLong();
+        ErrorHeavyHitters tracker = new ErrorHeavyHitters(5_000, 1_000, 20, now::get);
+        Random random = new Random(5);
+        Map<String, Long> exact = new HashMap<>();
+        for (int bucket = 0; bucket < 5; bucket++) {
+            now.set(bucket * 1_000L);
+            for (int i = 0; i < 20_000; i++) {
+                String user = "User" + (int) Math.floor(Math.pow(2_000, random.nextDouble()));
+                assertTrue(tracker.record("ERROR", user));
+                exact.merge(user, 1L, Long::sum);
+            }
+        }
+        List<String> expected = exact.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(3).map(Map.Entry::getKey).toList();
+
+        List<ErrorHeavyHitters.HeavyHitter> top = tracker.top("ERROR", 3);
+        assertEquals(expected, top.stream().map(h -> h.user).toList());
+        for (ErrorHeavyHitters.HeavyHitter hitter : tracker.top("ERROR", 20)) {
+            long count = exact.get(hitter.user);
+            assertTrue(hitter.count - hitter.error <= count && count <= hitter.count, hitter.user);
+        }
+        assertEquals(List.of(), tracker.top("WARN", 3));
+    }
+
+    @Test
+    void testWindowExpiresOldBuckets() throws Exception {
+        AtomicLong now = new AtomicLong(10_000);
+        ErrorHeavyHitters tracker = new ErrorHeavyHitters(3_000, 1_000, 10, now::get);
+        String log = "ERROR 2025-10-24 10:12:05 bob failed login\r\n"
+                + "ERROR 2025-10-24 10:12:05 bob failed login\n"
+                + "\n"
+                + "WARN 2025-10-24 10:12:06 alice disk full\n"
+                + "ERROR 2025-10-24 10:12:06\n"
+                + "ERROR 2025-10-24 10:12:07  carol no user\n";
+        ErrorHeavyHitters.Ingested ingested = tracker.ingest(new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(3, ingested.lines);
+        assertEquals(2, ingested.malformed);
+
+        now.set(12_500);
+        tracker.record("ERROR", "alice");
+        Map<String, List<ErrorHeavyHitters.HeavyHitter>> top = tracker.top(5);
+        assertEquals(List.of("ERROR", "WARN"), new ArrayList<>(top.keySet()));
+        assertEquals("bob", top.get("ERROR").get(0).user);
+        assertEquals(2, top.get("ERROR").get(0).count);
+        assertEquals(0, top.get("ERROR").get(0).error);
+
+        // The bucket of the first lines leaves the window; its slot in the ring is reused
+        now.set(13_000);
+        tracker.record("ERROR", "alice");
+        top = tracker.top(5);
+        assertEquals(List.of("ERROR"), new ArrayList<>(top.keySet()));
+        assertEquals(1, top.get("ERROR").size());
+        assertEquals("alice", top.get("ERROR").get(0).user);
+        assertEquals(2, top.get("ERROR").get(0).count);
+
+        now.set(20_000);
+        assertTrue(tracker.top(5).isEmpty());
+    }
+
+    @Test
+    void testTypesPerBucketAreBounded() {
+        ErrorHeavyHitters tracker = new ErrorHeavyHitters(1_000, 1_000, 4, () -> 0);
+        for (int i = 0; i < ErrorHeavyHitters.MAX_TYPES; i++) {
+            assertTrue(tracker.record("TYPE" + i, "bob"));
+        }
+        assertFalse(tracker.record("ONE_TOO_MANY", "bob"));
+        assertEquals(ErrorHeavyHitters.MAX_TYPES, tracker.top(1).size());
+    }
+}
@@ -0,0 +1,67 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogAnalyticsTest {
+
+    @Test
+    void testMatchesGetLogCountMapAcrossChunks(@TempDir Path directory) throws Exception {
+        // Every error type has one clearly most common user, so the answer does not depend on tie-breaking
+        Random random = new Random(3);
+        String[] levels = {"ERROR", "WARN", "INFO", "DEBUG"};
+        List<String> logs = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            int level = random.nextInt(levels.length);
+            String user = random.nextInt(3) == 0 ? "User" + level : "User" + (10 + random.nextInt(500));
+            logs.add(levels[level] + " 2025-10-24 10:12:05 " + user + " message number " + i);
+        }
+        Map<String, Pair> expected = NetworkNode.getLogCountMap(logs);
+        byte[] body = (String.join("\n", logs) + "\n").getBytes(StandardCharsets.UTF_8);
+        Path file = Files.write(directory.resolve("devices.log"), body);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // Small chunks, so lines straddle many chunk and block boundaries
+            LogAnalytics analytics = new LogAnalytics(pool, 4_096);
+            for (LogAnalytics.Result result : List.of(analytics.analyze(file), analytics.analyze(new ByteArrayInputStream(body)))) {
+                assertEquals(20_000, result.lines);
+                assertEquals(0, result.malformed);
+                assertEquals(expected.keySet(), result.mostCommonUserByErrorType.keySet());
+                for (String level : levels) {
+                    assertEquals(expected.get(level).user, result.mostCommonUserByErrorType.get(level).user);
+                    assertEquals(expected.get(level).count, result.mostCommonUserByErrorType.get(level).count);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testMalformedLongAndUnterminatedLines() throws Exception {
+        String longMessage = "x".repeat(10_000);
+        String log = "ERROR 2025-10-24 10:12:05 bob failed login\r\n"
+                + "\n"
+                + "WARN 2025-10-24 " + longMessage + "\n"
+                + "ERROR 2025-10-24 10:12:06 alice " + longMessage + "\n"
+                + " 2025-10-24 10:12:07 carol no level\n"
+                + "ERROR 2025-10-24 10:12:07 alice été\n"
+                + "FATAL 2025-10-24 10:12:08 bob";
+        LogAnalytics analytics = new LogAnalytics(ForkJoinPool.commonPool(), 64);
+        LogAnalytics.Result result = analytics.analyze(new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(4, result.lines);
+        assertEquals(2, result.malformed);
+        assertEquals("alice", result.mostCommonUserByErrorType.get("ERROR").user);
+        assertEquals(2, result.mostCommonUserByErrorType.get("ERROR").count);
+        assertEquals("bob", result.mostCommonUserByErrorType.get("FATAL").user);
+        assertFalse(result.mostCommonUserByErrorType.containsKey("WARN"));
+    }
+}
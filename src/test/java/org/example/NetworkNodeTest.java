@@ -15,7 +15,7 @@ public class NetworkNodeTest {
         nodeMap.put(parentDevice.getMacAddress(), parentNode);
         nodeMap.put(childDevice.getMacAddress(), childNode);
         // Checks that linkNode links childNode to its parent in nodeMap
-        NetworkNode.linkNode(childNode, nodeMap);
+        NetworkNode.linkNode(childNode, nodeMap, new HashMap<>(), new HashSet<>());
         assertTrue(parentNode.children.contains(childNode));
         assertTrue(childNode.children.isEmpty());
         assertTrue(childNode.hasParent);
@@ -28,7 +28,7 @@ public class NetworkNodeTest {
         Map<String, NetworkNode> nodeMap = new HashMap<>();
         nodeMap.put(childDevice.getMacAddress(), childNode);
         // Parent does not exist in nodeMap
-        NetworkNode.linkNode(childNode, nodeMap);
+        NetworkNode.linkNode(childNode, nodeMap, new HashMap<>(), new HashSet<>());
         assertTrue(childNode.children.isEmpty());
         assertFalse(childNode.hasParent);
     }
@@ -42,15 +42,34 @@ public class NetworkNodeTest {
         NetworkNode childNode1 = new NetworkNode(childDevice1);
         NetworkNode childNode2 = new NetworkNode(childDevice2);
         Map<String, NetworkNode> nodeMap = new HashMap<>();
+        Map<String, List<NetworkNode>> orphans = new HashMap<>();
+        Set<NetworkNode> roots = new HashSet<>();
         nodeMap.put(childDevice1.getMacAddress(), childNode1);
+        NetworkNode.linkNode(childNode1, nodeMap, orphans, roots);
         nodeMap.put(childDevice2.getMacAddress(), childNode2);
+        NetworkNode.linkNode(childNode2, nodeMap, orphans, roots);
         // Now add parentNode and link
         nodeMap.put(parentDevice.getMacAddress(), parentNode);
-        NetworkNode.linkNode(parentNode, nodeMap);
+        NetworkNode.linkNode(parentNode, nodeMap, orphans, roots);
         assertTrue(parentNode.children.contains(childNode1));
         assertTrue(parentNode.children.contains(childNode2));
         assertTrue(childNode1.hasParent);
         assertTrue(childNode2.hasParent);
+        assertTrue(orphans.isEmpty());
+        assertEquals(Set.of(parentNode), roots);
+        assertEquals(2, parentNode.descendantCount);
+    }
+
+    @Test
+    void testLinkNodeRegistersOrphan() {
+        Device childDevice = new Device("child", "Switch", "parent");
+        NetworkNode childNode = new NetworkNode(childDevice);
+        Map<String, NetworkNode> nodeMap = new HashMap<>();
+        Map<String, List<NetworkNode>> orphans = new HashMap<>();
+        Set<NetworkNode> roots = new HashSet<>();
+        nodeMap.put(childDevice.getMacAddress(), childNode);
+        NetworkNode.linkNode(childNode, nodeMap, orphans, roots);
+        assertEquals(List.of(childNode), orphans.get("parent"));
     }
 
     @Test
@@ -59,7 +78,7 @@ public class NetworkNodeTest {
         NetworkNode node = new NetworkNode(device);
         Map<String, NetworkNode> nodeMap = new HashMap<>();
         nodeMap.put(device.getMacAddress(), node);
-        NetworkNode.linkNode(node, nodeMap);
+        NetworkNode.linkNode(node, nodeMap, new HashMap<>(), new HashSet<>());
         assertTrue(node.children.isEmpty());
         assertFalse(node.hasParent);
     }
@@ -71,11 +90,13 @@ public class NetworkNodeTest {
         NetworkNode nodeA = new NetworkNode(deviceA);
         NetworkNode nodeB = new NetworkNode(deviceB);
         Map<String, NetworkNode> nodeMap = new HashMap<>();
+        Map<String, List<NetworkNode>> orphans = new HashMap<>();
+        Set<NetworkNode> roots = new HashSet<>();
         nodeMap.put(deviceA.getMacAddress(), nodeA);
-        NetworkNode.linkNode(nodeA, nodeMap);
+        NetworkNode.linkNode(nodeA, nodeMap, orphans, roots);
         // Linking should not create loops
         nodeMap.put(deviceB.getMacAddress(), nodeB);
-        assertThrows(IllegalArgumentException.class, () -> NetworkNode.linkNode(nodeB, nodeMap));
+        assertThrows(IllegalArgumentException.class, () -> NetworkNode.linkNode(nodeB, nodeMap, orphans, roots));
     }
 
     @Test
@@ -89,4 +110,65 @@ public class NetworkNodeTest {
         System.out.println(result.toString());
         assertTrue(true);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testLinkBatchOutOfOrder() {
+        Map<String, NetworkNode> nodeMap = new HashMap<>();
+        Map<String, List<NetworkNode>> orphans = new HashMap<>();
+        Set<NetworkNode> roots = new HashSet<>();
+        NetworkNode waiting = new NetworkNode(new Device("waiting", "Access Point", "switch"));
+        nodeMap.put("waiting", waiting);
+        NetworkNode.linkNode(waiting, nodeMap, orphans, roots);
+
+        List<NetworkNode> batch = new ArrayList<>();
+        for (Device device : List.of(
+                new Device("ap", "Access Point", "switch"),
+                new Device("switch", "Switch", "gateway"),
+                new Device("gateway", "Gateway", ""))) {
+            NetworkNode node = new NetworkNode(device);
+            nodeMap.put(device.getMacAddress(), node);
+            batch.add(node);
+        }
+        List<NetworkNode> rejected = NetworkNode.linkBatch(batch, nodeMap, orphans, roots);
+
+        assertTrue(rejected.isEmpty());
+        assertTrue(orphans.isEmpty());
+        NetworkNode gateway = nodeMap.get("gateway");
+        assertFalse(gateway.hasParent);
+        assertEquals(List.of(nodeMap.get("switch")), gateway.children);
+        assertEquals(2, nodeMap.get("switch").children.size());
+        assertTrue(nodeMap.get("switch").children.contains(waiting));
+        assertTrue(waiting.hasParent);
+        assertEquals(Set.of(gateway), roots);
+        assertEquals(3, gateway.descendantCount);
+    }
+
+    @Test
+    void testLinkBatchRejectsLastNodeOfCycle() {
+        Map<String, NetworkNode> nodeMap = new HashMap<>();
+        Map<String, List<NetworkNode>> orphans = new HashMap<>();
+        Set<NetworkNode> roots = new HashSet<>();
+        NetworkNode existing = new NetworkNode(new Device("A", "Switch", "C"));
+        nodeMap.put("A", existing);
+        NetworkNode.linkNode(existing, nodeMap, orphans, roots);
+
+        List<NetworkNode> batch = new ArrayList<>();
+        for (Device device : List.of(
+                new Device("B", "Switch", "A"),
+                new Device("C", "Switch", "B"),
+                new Device("D", "Access Point", "C"))) {
+            NetworkNode node = new NetworkNode(device);
+            nodeMap.put(device.getMacAddress(), node);
+            batch.add(node);
+        }
+        List<NetworkNode> rejected = NetworkNode.linkBatch(batch, nodeMap, orphans, roots);
+
+        // A -> C -> B -> A is closed by C, the last batch node on the cycle
+        assertEquals(1, rejected.size());
+        assertEquals("C", rejected.get(0).device.getMacAddress());
+        assertFalse(nodeMap.containsKey("C"));
+        assertEquals(List.of(nodeMap.get("B")), nodeMap.get("A").children);
+        // Children of the rejected node keep waiting for it
+        assertEquals(List.of(existing, nodeMap.get("D")), orphans.get("C"));
+    }
+}
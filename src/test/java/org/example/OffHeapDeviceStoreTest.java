@@ -0,0 +1,227 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapDeviceStoreTest {
+    @TempDir
+    Path directory;
+
+    static List<String> macs(Collection<NetworkNode> nodes) {
+        return nodes.stream().map(node -> node.device.getMacAddress()).toList();
+    }
+
+    static void addTopology(DeviceStore store) {
+        store.put(new Device("CC:DD:EE:FF:AA:BB", "Access Point", "BB:CC:DD:EE:FF:AA"));
+        store.put(new Device("DD:EE:FF:AA:BB:CC", "Access Point", "BB:CC:DD:EE:FF:AA"));
+        store.put(new Device("EE:FF:AA:BB:CC:DD", "Access Point", "99:99:99:99:99:99"));
+        store.put(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+        store.put(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+    }
+
+    static void assertTypeCounts(int accessPoints, int switches, int gateways, NetworkNode node) {
+        assertEquals(accessPoints, node.descendantCount(Device.typeCode("Access Point")));
+        assertEquals(switches, node.descendantCount(Device.typeCode("Switch")));
+        assertEquals(gateways, node.descendantCount(Device.typeCode("Gateway")));
+    }
+
+    static void assertTypeCounts(int accessPoints, int switches, int gateways, DeviceStore store) {
+        assertEquals(accessPoints, store.count(Device.typeCode("Access Point")));
+        assertEquals(switches, store.count(Device.typeCode("Switch")));
+        assertEquals(gateways, store.count(Device.typeCode("Gateway")));
+    }
+
+    static void assertTopology(DeviceStore store) {
+        assertEquals(5, store.size());
+        NetworkNode gateway = store.get("AA:BB:CC:DD:EE:FF");
+        assertEquals(3, gateway.descendantCount);
+        assertTypeCounts(2, 1, 0, gateway);
+        assertTypeCounts(3, 1, 1, store);
+        assertFalse(gateway.hasParent);
+        assertEquals(List.of("BB:CC:DD:EE:FF:AA"), macs(gateway.children));
+        assertEquals(List.of("CC:DD:EE:FF:AA:BB", "DD:EE:FF:AA:BB:CC"), macs(gateway.children.get(0).children));
+        assertEquals(List.of("BB:CC:DD:EE:FF:AA", "AA:BB:CC:DD:EE:FF"), macs(store.ancestors("DD:EE:FF:AA:BB:CC")));
+        assertEquals(Set.of("AA:BB:CC:DD:EE:FF", "EE:FF:AA:BB:CC:DD"), new HashSet<>(macs(store.roots())));
+        assertEquals(Set.of("99:99:99:99:99:99"), store.orphans().keySet());
+        assertEquals("Switch", store.get("BB:CC:DD:EE:FF:AA").device.getDeviceType());
+    }
+
+    @Test
+    void testMatchesInMemoryStore() throws IOException {
+        try (DeviceStore offHeap = new OffHeapDeviceStore(null, 2); DeviceStore inMemory = new InMemoryDeviceStore()) {
+            addTopology(offHeap);
+            addTopology(inMemory);
+            assertTopology(offHeap);
+            assertTopology(inMemory);
+
+            assertNull(offHeap.get("00:00:00:00:00:01"));
+            assertNull(offHeap.children("not a mac"));
+            assertFalse(offHeap.accepts("not a mac"));
+            assertThrows(IllegalArgumentException.class, () -> offHeap.put(new Device("AA:BB:CC:DD:EE:FF", "Gateway", "")));
+            // The uplink of the gateway waits below it: the chain gateway -> switch -> AP would close a cycle
+            assertThrows(IllegalArgumentException.class, () -> offHeap.put(new Device("99:99:99:99:99:99", "Switch", "EE:FF:AA:BB:CC:DD")));
+            List<Device> rejected = offHeap.putAll(List.of(
+                    new Device("11:11:11:11:11:11", "Switch", "22:22:22:22:22:22"),
+                    new Device("22:22:22:22:22:22", "Switch", "11:11:11:11:11:11")));
+            assertEquals(List.of("22:22:22:22:22:22"), rejected.stream().map(Device::getMacAddress).toList());
+            assertEquals(6, offHeap.size());
+        }
+    }
+
+    @Test
+    void testReopenRemapsRecords() throws IOException {
+        Path file = directory.resolve("devices.store");
+        try (OffHeapDeviceStore store = new OffHeapDeviceStore(file, 2)) {
+            addTopology(store);
+        }
+        try (OffHeapDeviceStore store = new OffHeapDeviceStore(file, 2)) {
+            assertTopology(store);
+            store.put(new Device("99:99:99:99:99:99", "Switch", "AA:BB:CC:DD:EE:FF"));
+            assertEquals(5, store.get("AA:BB:CC:DD:EE:FF").descendantCount);
+            assertTrue(store.orphans().isEmpty());
+        }
+    }
+
+    @Test
+    void testReopenAfterCrashRelinks() throws IOException {
+        Path file = directory.resolve("devices.store");
+        OffHeapDeviceStore crashed = new OffHeapDeviceStore(file, 2);
+        addTopology(crashed);
+        // Not closed: the clean flag stays unset and the adjacency is rebuilt from the records
+        try (OffHeapDeviceStore store = new OffHeapDeviceStore(file, 2)) {
+            assertTopology(store);
+        }
+    }
+
+    @Test
+    void testGrowsPastExpectedSize() throws IOException {
+        try (OffHeapDeviceStore store = new OffHeapDeviceStore(directory.resolve("devices.store"), 16)) {
+            store.put(new Device("00:00:00:00:00:00", "Gateway", ""));
+            for (int i = 1; i < 10_000; i++) {
+                store.put(new Device(MacAddress.format(i), "Access Point", MacAddress.format(i / 10)));
+            }
+            assertEquals(10_000, store.size());
+            assertEquals(9_999, store.get("00:00:00:00:00:00").descendantCount);
+            assertEquals(1, store.roots().size());
+            assertTrue(store.estimatedBytes() >= 10_000L * 48);
+        }
+    }
+
+    @Test
+    void testControllerOnOffHeapStore() throws IOException {
+        DeviceController controller = new DeviceController(new OffHeapDeviceStore(null, 16), null, 1_000);
+        try {
+            controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+            controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+            assertThrows(RuntimeException.class, () -> controller.addDevice(new Device("not a mac", "Switch", "")));
+            assertEquals(1, controller.getNetwork("AA:BB:CC:DD:EE:FF").children.size());
+            assertEquals(2, controller.getRoots().get(0).subtreeSize);
+            assertEquals(List.of("BB:CC:DD:EE:FF:AA", "AA:BB:CC:DD:EE:FF"),
+                    controller.listDevices().stream().map(Device::getMacAddress).toList());
+        } finally {
+            controller.close();
+        }
+    }
+
+    static void moveAndRemove(DeviceStore store) {
+        addTopology(store);
+        store.put(new Device("FF:AA:BB:CC:DD:EE", "Switch", "AA:BB:CC:DD:EE:FF"));
+        assertThrows(IllegalArgumentException.class, () -> store.move("BB:CC:DD:EE:FF:AA", "CC:DD:EE:FF:AA:BB"));
+        assertEquals("FF:AA:BB:CC:DD:EE", store.move("CC:DD:EE:FF:AA:BB", "FF:AA:BB:CC:DD:EE").getUplinkMacAddress());
+        assertTrue(store.isAncestor("FF:AA:BB:CC:DD:EE", "CC:DD:EE:FF:AA:BB"));
+        assertFalse(store.isAncestor("BB:CC:DD:EE:FF:AA", "CC:DD:EE:FF:AA:BB"));
+        assertEquals("Switch", store.remove("BB:CC:DD:EE:FF:AA").getDeviceType());
+        assertNull(store.remove("BB:CC:DD:EE:FF:AA"));
+        // Reuses the removed record
+        store.put(new Device("12:12:12:12:12:12", "Access Point", "FF:AA:BB:CC:DD:EE"));
+    }
+
+    static void assertMovedAndRemoved(DeviceStore store) {
+        assertEquals(6, store.size());
+        assertNull(store.get("BB:CC:DD:EE:FF:AA"));
+        assertEquals(3, store.get("AA:BB:CC:DD:EE:FF").descendantCount);
+        assertTypeCounts(2, 1, 0, store.get("AA:BB:CC:DD:EE:FF"));
+        assertTypeCounts(2, 0, 0, store.get("FF:AA:BB:CC:DD:EE"));
+        assertTypeCounts(0, 0, 0, store.get("DD:EE:FF:AA:BB:CC"));
+        assertTypeCounts(4, 1, 1, store);
+        assertEquals(List.of("CC:DD:EE:FF:AA:BB", "12:12:12:12:12:12"), macs(store.children("FF:AA:BB:CC:DD:EE")));
+        assertEquals(List.of("DD:EE:FF:AA:BB:CC"), store.orphans().get("BB:CC:DD:EE:FF:AA").stream().map(Device::getMacAddress).toList());
+        assertEquals(3, store.roots().size());
+        assertTrue(store.isAncestor("AA:BB:CC:DD:EE:FF", "12:12:12:12:12:12"));
+        List<String> all = new ArrayList<>();
+        store.forEach(device -> all.add(device.getMacAddress()));
+        assertEquals(6, all.size());
+    }
+
+    @Test
+    void testMoveAndRemoveMatchInMemoryStore() throws IOException {
+        Path file = directory.resolve("devices.store");
+        try (DeviceStore offHeap = new OffHeapDeviceStore(file, 2); DeviceStore inMemory = new InMemoryDeviceStore()) {
+            moveAndRemove(offHeap);
+            moveAndRemove(inMemory);
+            assertMovedAndRemoved(offHeap);
+            assertMovedAndRemoved(inMemory);
+        }
+        try (OffHeapDeviceStore reopened = new OffHeapDeviceStore(file, 2)) {
+            assertMovedAndRemoved(reopened);
+        }
+        OffHeapDeviceStore crashed = new OffHeapDeviceStore(file, 2);
+        crashed.move("DD:EE:FF:AA:BB:CC", "12:12:12:12:12:12");
+        try (OffHeapDeviceStore relinked = new OffHeapDeviceStore(file, 2)) {
+            assertEquals(4, relinked.get("AA:BB:CC:DD:EE:FF").descendantCount);
+            assertTypeCounts(3, 1, 0, relinked.get("AA:BB:CC:DD:EE:FF"));
+            assertTypeCounts(4, 1, 1, relinked);
+            assertTrue(relinked.isAncestor("12:12:12:12:12:12", "DD:EE:FF:AA:BB:CC"));
+            assertEquals(Set.of("99:99:99:99:99:99"), relinked.orphans().keySet());
+        }
+    }
+
+    @Test
+    void testDirectLongIntHashMap() {
+        DirectLongIntHashMap map = new DirectLongIntHashMap(4);
+        for (int i = 0; i < 10_000; i++) {
+            map.put(i * 31L, i);
+        }
+        for (int i = 0; i < 10_000; i += 2) {
+            assertEquals(i, map.remove(i * 31L));
+        }
+        assertEquals(5_000, map.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i % 2 == 0 ? DirectLongIntHashMap.MISSING : i, map.get(i * 31L));
+        }
+    }
+
+    @Test
+    void testMemoryPerDevice() throws IOException {
+        int gateways = 100;
+        int switchesPerGateway = 20;
+        int accessPointsPerSwitch = 49;
+        int total = gateways * (1 + switchesPerGateway * (1 + accessPointsPerSwitch));
+        List<Device> devices = new ArrayList<>(total);
+        long mac = 0;
+        for (int g = 0; g < gateways; g++) {
+            String gateway = MacAddress.format(++mac);
+            devices.add(new Device(gateway, "Gateway", ""));
+            for (int s = 0; s < switchesPerGateway; s++) {
+                String switchMac = MacAddress.format(++mac);
+                devices.add(new Device(switchMac, "Switch", gateway));
+                for (int a = 0; a < accessPointsPerSwitch; a++) {
+                    devices.add(new Device(MacAddress.format(++mac), "Access Point", switchMac));
+                }
+            }
+        }
+        try (OffHeapDeviceStore store = new OffHeapDeviceStore(null, total)) {
+            store.putAll(devices);
+
+            assertEquals(total, store.size());
+            assertEquals(gateways, store.rootCount());
+            assertEquals(total / gateways - 1, store.get(MacAddress.format(1)).descendantCount);
+            long bytesPerDevice = store.estimatedBytes() / total;
+            assertTrue(bytesPerDevice <= 128, "bytes per device: " + bytesPerDevice);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicationTest {
+
+    /**
+     * Connects a follower to a primary controller in the same JVM through a pipe, in place of HTTP.
+     */
+    private static class PipeConnector implements ReplicationFollower.Connector {
+        final AtomicReference<DeviceController> primary;
+        volatile ReplicationFeed.Subscription subscription;
+
+        PipeConnector(DeviceController primary) {
+            this.primary = new AtomicReference<>(primary);
+        }
+
+        @Override
+        public InputStream open(long streamId, long from) throws IOException {
+            PipedInputStream in = new PipedInputStream(1 << 16);
+            PipedOutputStream out = new PipedOutputStream(in);
+            subscription = primary.get().subscribeReplication(streamId, from, new TopologyEventFeed.FrameSink() {
+                @Override
+                public void send(byte[] frames) throws IOException {
+                    out.write(frames);
+                    out.flush();
+                }
+
+                @Override
+                public void close() {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // The follower closed its end
+                    }
+                }
+            });
+            return in;
+        }
+    }
+
+    @Test
+    void testReplicaFollowsPrimary() throws Exception {
+        DeviceController primary = new DeviceController();
+        DeviceController replica = new DeviceController();
+        try {
+            primary.addDevice(new Device("00:00:00:00:00:01", "Gateway", ""));
+            primary.addDevice(new Device("00:00:00:00:00:04", "Access Point", "00:00:00:00:00:02"));
+            primary.addDevices(new ByteArrayInputStream("""
+                    {"macAddress":"00:00:00:00:00:03","deviceType":"Switch","uplinkMacAddress":"00:00:00:00:00:01"}
+                    {"macAddress":"00:00:00:00:00:02","deviceType":"Switch","uplinkMacAddress":"00:00:00:00:00:01"}
+                    {"macAddress":"00:00:00:00:00:05","deviceType":"Access Point","uplinkMacAddress":"00:00:00:00:00:02"}
+                    """.getBytes(StandardCharsets.UTF_8)));
+
+            // The existing topology arrives as a snapshot
+            PipeConnector connector = new PipeConnector(primary);
+            replica.follow(connector);
+            awaitCaughtUp(primary, replica);
+            assertSameTopology(primary, replica);
+            assertEquals("replica", replica.getReplicationStatus().role);
+            assertEquals(1, replica.getReplicationStatus().replication.resets);
+
+            // Later mutations are shipped as they are applied
+            primary.moveDevice("00:00:00:00:00:05", new Device(null, null, "00:00:00:00:00:03"));
+            primary.removeDevice("00:00:00:00:00:02");
+            primary.addDevice(new Device("00:00:00:00:00:02", "Switch", "00:00:00:00:00:03"));
+            awaitCaughtUp(primary, replica);
+            assertSameTopology(primary, replica);
+
+            ResponseStatusException rejected = assertThrows(ResponseStatusException.class,
+                    () -> replica.addDevice(new Device("00:00:00:00:00:09", "Gateway", "")));
+            assertEquals(HttpStatus.FORBIDDEN, rejected.getStatusCode());
+            assertThrows(ResponseStatusException.class, () -> replica.removeDevice("00:00:00:00:00:01"));
+
+            // A dropped connection resumes after the last received mutation, without a new snapshot
+            connector.subscription.close();
+            primary.addDevice(new Device("00:00:00:00:00:06", "Access Point", "00:00:00:00:00:04"));
+            awaitCaughtUp(primary, replica);
+            assertSameTopology(primary, replica);
+            assertEquals(1, replica.getReplicationStatus().replication.resets);
+            assertTrue(replica.getReplicationStatus().replication.reconnects >= 1);
+
+            // A primary that restarted has a new stream id, so the replica starts over from a snapshot
+            DeviceController restarted = new DeviceController();
+            try {
+                restarted.addDevice(new Device("00:00:00:00:00:0a", "Gateway", ""));
+                restarted.addDevice(new Device("00:00:00:00:00:0b", "Switch", "00:00:00:00:00:0a"));
+                connector.primary.set(restarted);
+                connector.subscription.close();
+                awaitCaughtUp(restarted, replica);
+                assertSameTopology(restarted, replica);
+                assertEquals(2, replica.getReplicationStatus().replication.resets);
+            } finally {
+                restarted.close();
+            }
+        } finally {
+            replica.close();
+            primary.close();
+        }
+    }
+
+    private static void awaitCaughtUp(DeviceController primary, DeviceController replica) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            ReplicationStatus status = replica.getReplicationStatus();
+            if (status.replication.streamId == primary.getReplicationStatus().streamId
+                    && status.replication.appliedSequence == primary.getReplicationStatus().sequence) {
+                assertEquals(0, status.replication.lagMutations);
+                return;
+            }
+            assertTrue(System.currentTimeMillis() < deadline, "Replica did not catch up");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Compares the devices, the roots and the children of every device in order.
+     */
+    private static void assertSameTopology(DeviceController primary, DeviceController replica) {
+        List<Device> devices = primary.listDevices();
+        assertEquals(macs(devices), macs(replica.listDevices()));
+        assertEquals(rootMacs(primary), rootMacs(replica));
+        for (Device device : devices) {
+            assertEquals(device.getUplinkMacAddress(), replica.getDevice(device.getMacAddress()).getUplinkMacAddress());
+            assertEquals(childMacs(primary, device), childMacs(replica, device), device.getMacAddress());
+        }
+    }
+
+    private static List<String> childMacs(DeviceController controller, Device device) {
+        return controller.getNetwork(device.getMacAddress()).children.stream().map(child -> child.device.getMacAddress()).toList();
+    }
+
+    private static Set<String> rootMacs(DeviceController controller) {
+        Set<String> roots = new HashSet<>();
+        controller.getRoots().forEach(root -> roots.add(root.macAddress));
+        return roots;
+    }
+
+    private static List<String> macs(List<Device> devices) {
+        return devices.stream().map(Device::getMacAddress).toList();
+    }
+}
@@ -0,0 +1,85 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+
+    @Test
+    void testConcurrentCallsShareOneComputation() throws Exception {
+        SingleFlight<String, byte[]> flight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> flight.run("root", () -> {
+                    computations.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new byte[] {42};
+                })));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (flight.stats().coalesced < 7 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            byte[] first = results.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<byte[]> result : results) {
+                assertSame(first, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, computations.get());
+            SingleFlight.Stats stats = flight.stats();
+            assertEquals(1, stats.computed);
+            assertEquals(7, stats.coalesced);
+            assertEquals(0.875, stats.coalescingRatio, 1e-9);
+
+            // Nothing is kept once the flight has landed
+            flight.run("root", () -> new byte[0]);
+            assertEquals(2, flight.stats().computed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFailureReachesEveryWaiter() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> flight.run("root", () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("encoding failed");
+            }));
+            while (flight.stats().computed == 0) {
+                Thread.sleep(5);
+            }
+            Future<String> follower = executor.submit(() -> flight.run("root", () -> "not run"));
+            while (flight.stats().coalesced == 0) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            ExecutionException leaderFailure = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+            ExecutionException followerFailure = assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, leaderFailure.getCause());
+            assertSame(leaderFailure.getCause(), followerFailure.getCause());
+            assertEquals("ok", flight.run("root", () -> "ok"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
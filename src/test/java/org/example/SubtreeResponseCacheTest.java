@@ -0,0 +1,76 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubtreeResponseCacheTest {
+
+    private static SubtreeResponseCache.Key key(String macAddress) {
+        return new SubtreeResponseCache.Key(macAddress, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedBySize() {
+        SubtreeResponseCache cache = new SubtreeResponseCache(250, 100);
+        cache.put(key("A"), new byte[100], cache.epoch());
+        cache.put(key("B"), new byte[100], cache.epoch());
+        assertNotNull(cache.get(key("A")));
+        // A was used last, so B makes room for C
+        cache.put(key("C"), new byte[100], cache.epoch());
+        assertNull(cache.get(key("B")));
+        assertNotNull(cache.get(key("A")));
+        assertNotNull(cache.get(key("C")));
+        // Larger than an entry may be: returned with its ETag, not cached
+        SubtreeResponseCache.Entry large = cache.put(key("D"), new byte[101], cache.epoch());
+        assertNotNull(large.etag);
+        assertNull(cache.get(key("D")));
+
+        SubtreeResponseCache.Stats stats = cache.stats();
+        assertEquals(3, stats.hits);
+        assertEquals(2, stats.misses);
+        assertEquals(1, stats.evictions);
+        assertEquals(1, stats.rejectedFills);
+        assertEquals(2, stats.entries);
+        assertEquals(200, stats.bytes);
+    }
+
+    @Test
+    void testInvalidatesAllVariantsOfARoot() {
+        SubtreeResponseCache cache = new SubtreeResponseCache(1_000, 100);
+        cache.put(key("A"), new byte[10], cache.epoch());
+        cache.put(new SubtreeResponseCache.Key("A", 1, 10, 0), new byte[10], cache.epoch());
+        cache.put(key("B"), new byte[10], cache.epoch());
+        assertTrue(cache.advance());
+        cache.invalidate(List.of("A", "X"));
+        assertNull(cache.get(key("A")));
+        assertNotNull(cache.get(key("B")));
+        assertEquals(2, cache.stats().invalidations);
+        assertEquals(10, cache.stats().bytes);
+    }
+
+    @Test
+    void testDropsFillsRacingWithAMutation() {
+        SubtreeResponseCache cache = new SubtreeResponseCache(1_000, 100);
+        long epoch = cache.epoch();
+        assertFalse(cache.advance());
+        cache.put(key("A"), new byte[10], epoch);
+        assertNull(cache.get(key("A")));
+        // Until the batch is published, a body may still come from the version before it
+        cache.put(key("A"), new byte[10], cache.epoch());
+        assertNull(cache.get(key("A")));
+        cache.settle();
+        cache.put(key("A"), new byte[10], cache.epoch());
+        assertNotNull(cache.get(key("A")));
+    }
+
+    @Test
+    void testMatchesIfNoneMatch() {
+        SubtreeResponseCache.Entry entry = new SubtreeResponseCache(1_000, 100).put(key("A"), new byte[] {'{', '}'}, 0);
+        assertTrue(entry.matches(entry.etag));
+        assertTrue(entry.matches("\"other\", W/" + entry.etag));
+        assertTrue(entry.matches("*"));
+        assertFalse(entry.matches("\"other\""));
+        assertFalse(entry.matches(null));
+    }
+}
@@ -0,0 +1,147 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubtreeSearchTest {
+
+    private static String mac(int i) {
+        return MacAddress.format(i + 1);
+    }
+
+    /**
+     * A gateway with a few switches of very different sizes, so some subtrees are split and others walked.
+     */
+    private static InMemoryDeviceStore topology() {
+        InMemoryDeviceStore store = new InMemoryDeviceStore();
+        List<Device> devices = new ArrayList<>();
+        devices.add(new Device(mac(0), "Gateway", ""));
+        Random random = new Random(7);
+        for (int i = 1; i < 20_000; i++) {
+            int uplink = i < 8 ? 0 : random.nextInt(i < 100 ? i : 100);
+            devices.add(new Device(mac(i), i < 100 ? "Switch" : "Access Point", mac(uplink)));
+        }
+        store.putAll(devices);
+        return store;
+    }
+
+    private static void preOrder(NetworkNode node, int depth, SubtreeSearch.Filter filter, List<Device> result) {
+        for (NetworkNode child : node.children) {
+            if (filter.matches(child.device)) {
+                result.add(child.device);
+            }
+            if (depth + 1 < filter.maxDepth()) {
+                preOrder(child, depth + 1, filter, result);
+            }
+        }
+    }
+
+    @Test
+    void testParallelMatchesSequentialPreOrder() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (InMemoryDeviceStore store = topology()) {
+            NetworkNode gateway = store.get(mac(0));
+            SubtreeSearch parallel = new SubtreeSearch(pool, 16);
+            SubtreeSearch sequential = new SubtreeSearch(pool, Integer.MAX_VALUE);
+            for (SubtreeSearch.Filter filter : List.of(
+                    new SubtreeSearch.Filter(null, null, Integer.MAX_VALUE),
+                    new SubtreeSearch.Filter("Access Point", "00:00:00:00:0", Integer.MAX_VALUE),
+                    new SubtreeSearch.Filter("Switch", null, 2),
+                    new SubtreeSearch.Filter(null, "00:00:00:00:4e:", 3))) {
+                List<Device> expected = new ArrayList<>();
+                preOrder(gateway, 0, filter, expected);
+                assertFalse(expected.isEmpty(), filter.toString());
+                assertEquals(expected, parallel.search(gateway, filter, Integer.MAX_VALUE), filter.toString());
+                assertEquals(expected, sequential.search(gateway, filter, Integer.MAX_VALUE), filter.toString());
+                int limit = Math.max(1, expected.size() / 3);
+                assertEquals(expected.subList(0, limit), parallel.search(gateway, filter, limit), filter.toString());
+            }
+            assertEquals(19_999, parallel.search(gateway, new SubtreeSearch.Filter(null, null, Integer.MAX_VALUE), Integer.MAX_VALUE).size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A chain of switches built directly as nodes, each level also holding a leaf switch when comb is set.
+     */
+    private static NetworkNode chain(int levels, boolean comb) {
+        NetworkNode root = new NetworkNode(new Device(mac(0), "Gateway", ""));
+        NetworkNode parent = root;
+        List<NetworkNode> path = new ArrayList<>();
+        path.add(root);
+        for (int i = 1; i < levels; i++) {
+            NetworkNode child = new NetworkNode(new Device(mac(2 * i), "Switch", parent.device.getMacAddress()));
+            if (comb) {
+                parent.children.add(new NetworkNode(new Device(mac(2 * i + 1), "Switch", parent.device.getMacAddress())));
+            }
+            parent.children.add(child);
+            path.add(child);
+            parent = child;
+        }
+        for (int i = path.size() - 1; i > 0; i--) {
+            path.get(i - 1).descendantCount = path.get(i).descendantCount + path.get(i - 1).children.size();
+        }
+        return root;
+    }
+
+    @Test
+    void testDeepChainWithoutRecursion() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SubtreeSearch search = new SubtreeSearch(pool, 16);
+            SubtreeSearch.Filter nothing = new SubtreeSearch.Filter("Access Point", null, Integer.MAX_VALUE);
+            SubtreeSearch.Filter everything = new SubtreeSearch.Filter(null, null, Integer.MAX_VALUE);
+            NetworkNode chain = chain(30_000, false);
+            assertEquals(List.of(), search.search(chain, nothing, 100));
+            assertEquals(29_999, search.search(chain, everything, Integer.MAX_VALUE).size());
+
+            NetworkNode comb = chain(30_000, true);
+            assertEquals(List.of(), search.search(comb, nothing, 100));
+            List<Device> page = search.search(comb, everything, 4);
+            // Pre-order: the leaf of a level comes before the next level of the chain
+            assertEquals(List.of(mac(3), mac(2), mac(5), mac(4)), page.stream().map(Device::getMacAddress).toList());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testPagesWhileLinking() throws InterruptedException {
+        DeviceController controller = new DeviceController();
+        controller.addDevice(new Device(mac(0), "Gateway", ""));
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = Thread.ofPlatform().start(() -> {
+            try {
+                // Adds only, so every cursor stays below the gateway while the ancestor index grows and relabels
+                Random random = new Random(11);
+                for (int i = 1; i < 5_000; i++) {
+                    controller.addDevice(new Device(mac(i), i < 50 ? "Switch" : "Access Point", mac(random.nextInt(Math.min(i, 200)))));
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            } finally {
+                writing.set(false);
+            }
+        });
+        try {
+            while (writing.get()) {
+                Set<String> seen = new HashSet<>();
+                List<Device> page = controller.searchNetwork(mac(0), null, null, null, 50, null);
+                while (!page.isEmpty()) {
+                    page.forEach(device -> assertTrue(seen.add(device.getMacAddress()), device.getMacAddress()));
+                    page = controller.searchNetwork(mac(0), null, null, null, 50, page.get(page.size() - 1).getMacAddress());
+                }
+            }
+        } finally {
+            writer.join();
+            controller.close();
+        }
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,155 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.example.client.TopologyBinaryDecoder;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopologyBinaryWriterTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private DeviceController sampleController() throws IOException {
+        DeviceController controller = new DeviceController();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        // Upper- and lower-case MAC addresses are sent as 6 bytes, anything else the store accepts as text
+        TopologyBinaryDecoder.writeDevices(List.of(
+                new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""),
+                new Device("bb:cc:dd:ee:ff:aa", "Switch", "AA:BB:CC:DD:EE:FF"),
+                new Device("CC:DD:EE:FF:AA:BB", "Access Point", "bb:cc:dd:ee:ff:aa"),
+                new Device("Dd:EE:FF:AA:BB:CC", "Access Point", "bb:cc:dd:ee:ff:aa"),
+                new Device("00:00:00:00:00:01", "Access Point", "bb:cc:dd:ee:ff:aa"),
+                new Device("FF:EE:DD:CC:BB:AA", "Switch", null),
+                new Device("switch-7", "Switch", "gateway-9")), body);
+        BatchResult result = controller.addDevicesBinary(new ByteArrayInputStream(body.toByteArray()));
+        assertEquals(7, result.accepted);
+        return controller;
+    }
+
+    @Test
+    void testTreesMatchJson() throws IOException {
+        DeviceController controller = sampleController();
+        try {
+            List<NetworkNode> forest = controller.getFullNetwork();
+            ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            new TopologyBinaryWriter(2).writeForest(forest, new DataOutputStream(binary));
+            ArrayNode decoded = mapper.createArrayNode();
+            TopologyBinaryDecoder.readForest(new ByteArrayInputStream(binary.toByteArray())).forEach(node -> decoded.add(toJson(node)));
+            assertEquals(mapper.readTree(mapper.writeValueAsString(forest)), decoded);
+
+            for (SubtreeQuery query : List.of(
+                    controller.getNetwork("AA:BB:CC:DD:EE:FF", null, 2, 1),
+                    controller.getNetwork("AA:BB:CC:DD:EE:FF", 1, null, null),
+                    controller.getNetwork("bb:cc:dd:ee:ff:aa", 0, null, null))) {
+                StringWriter json = new StringWriter();
+                try (JsonGenerator generator = jsonFactory.createGenerator(json)) {
+                    new TopologyJsonWriter().writeTree(query, generator);
+                }
+                binary.reset();
+                new TopologyBinaryWriter().writeTree(query, new DataOutputStream(binary));
+                assertEquals(mapper.readTree(json.toString()),
+                        toJson(TopologyBinaryDecoder.readTree(new ByteArrayInputStream(binary.toByteArray()))));
+            }
+            assertNull(TopologyBinaryDecoder.readTree(new ByteArrayInputStream(new byte[0])));
+
+            binary.reset();
+            List<Device> devices = controller.listDevices();
+            new TopologyBinaryWriter().writeDevices(devices, new DataOutputStream(binary));
+            assertEquals(mapper.writeValueAsString(devices),
+                    mapper.writeValueAsString(TopologyBinaryDecoder.readDevices(new ByteArrayInputStream(binary.toByteArray()))));
+        } finally {
+            controller.close();
+        }
+    }
+
+    @Test
+    void testBatchAndSize() throws IOException {
+        DeviceController controller = new DeviceController();
+        try {
+            List<Device> devices = chain(2_000);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            TopologyBinaryDecoder.writeDevices(devices, body);
+            // Flags, type code and two 6-byte MAC addresses
+            assertEquals(14L * devices.size() - 6, body.size());
+            assertEquals(devices.size(), controller.addDevicesBinary(new ByteArrayInputStream(body.toByteArray())).accepted);
+
+            ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            new TopologyBinaryWriter().writeForest(controller.getFullNetwork(), new DataOutputStream(binary));
+            TopologyBinaryDecoder.Node node = TopologyBinaryDecoder.readForest(new ByteArrayInputStream(binary.toByteArray())).get(0);
+            assertEquals(devices.size() - 1, node.descendantCount());
+
+            // Devices before a malformed part are still added
+            byte[] truncated = Arrays.copyOf(body.toByteArray(), 14 * 3 + 5);
+            DeviceController other = new DeviceController();
+            try {
+                ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                        () -> other.addDevicesBinary(new ByteArrayInputStream(truncated)));
+                assertEquals("Truncated batch body (3 devices before it were added)", e.getReason());
+            } finally {
+                other.close();
+            }
+        } finally {
+            controller.close();
+        }
+    }
+
+    /**
+     * Converts a decoded node to the JSON form of TopologyJsonWriter.
+     */
+    private ObjectNode toJson(TopologyBinaryDecoder.Node node) {
+        ObjectNode json = mapper.createObjectNode();
+        json.set("device", mapper.valueToTree(node.device()));
+        ArrayNode children = json.putArray("children");
+        node.children().forEach(child -> children.add(toJson(child)));
+        json.put("hasParent", node.hasParent());
+        json.put("descendantCount", node.descendantCount());
+        if (node.nextChildCursor() != null) {
+            json.put("nextChildCursor", node.nextChildCursor());
+        }
+        return json;
+    }
+
+    @Test
+    void testDeepChainDecodesWithoutRecursion() throws IOException {
+        // Linked by hand: linking through a store adds to every ancestor's counts, which is quadratic for a chain
+        int depth = 100_000;
+        NetworkNode root = new NetworkNode(new Device(MacAddress.format(1), "Gateway", ""));
+        NetworkNode current = root;
+        for (int i = 1; i < depth; i++) {
+            NetworkNode child = new NetworkNode(new Device(MacAddress.format(i + 1L), "Switch", current.device.getMacAddress()));
+            child.hasParent = true;
+            current.children.add(child);
+            current = child;
+        }
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        new TopologyBinaryWriter().writeForest(List.of(root), new DataOutputStream(binary));
+
+        TopologyBinaryDecoder.Node node = TopologyBinaryDecoder.readForest(new ByteArrayInputStream(binary.toByteArray())).get(0);
+        int decoded = 0;
+        while (!node.children().isEmpty()) {
+            node = node.children().get(0);
+            decoded++;
+        }
+        assertEquals(depth - 1, decoded);
+        assertEquals(current.device.getMacAddress(), node.device().getMacAddress());
+    }
+
+    private static List<Device> chain(int depth) {
+        List<Device> devices = new ArrayList<>(depth);
+        for (int i = 0; i < depth; i++) {
+            devices.add(new Device(MacAddress.format(i + 1L), i == 0 ? "Gateway" : "Switch", i == 0 ? "" : MacAddress.format(i)));
+        }
+        return devices;
+    }
+}
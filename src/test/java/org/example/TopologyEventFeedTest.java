@@ -0,0 +1,157 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopologyEventFeedTest {
+
+    /**
+     * Collects the frames of a subscriber; blocks sending while the gate is closed.
+     */
+    private static class RecordingSink implements TopologyEventFeed.FrameSink {
+        final BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+        final CountDownLatch gate;
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        RecordingSink(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public void send(byte[] frame) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            frames.add(new String(frame, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        String next() throws InterruptedException {
+            String frame = frames.poll(5, TimeUnit.SECONDS);
+            assertNotNull(frame);
+            return frame;
+        }
+    }
+
+    @Test
+    void testCoalescesEventsPerFlush() throws InterruptedException {
+        try (TopologyEventFeed feed = new TopologyEventFeed(100, 10)) {
+            RecordingSink sink = new RecordingSink(new CountDownLatch(0));
+            feed.subscribe(0, null, sink);
+            Device device = new Device("CC:DD:EE:FF:AA:BB", "Access Point", "AA:BB:CC:DD:EE:FF");
+            feed.record(TopologyEvent.added(device, null));
+            feed.record(TopologyEvent.linked("CC:DD:EE:FF:AA:BB", "AA:BB:CC:DD:EE:FF"));
+            feed.record(TopologyEvent.adopted("CC:DD:EE:FF:AA:BB", List.of("11:11:11:11:11:11")));
+            feed.record(TopologyEvent.linked("CC:DD:EE:FF:AA:BB", "BB:CC:DD:EE:FF:AA"));
+            feed.record(TopologyEvent.adopted("CC:DD:EE:FF:AA:BB", List.of("22:22:22:22:22:22")));
+            feed.flush();
+
+            String frame = sink.next();
+            assertTrue(frame.startsWith("id: " + feed.epoch() + "-5\nevent: topology\ndata: [{\"version\":1,\"type\":\"device-added\""));
+            assertTrue(frame.contains("{\"version\":4,\"type\":\"linked\",\"macAddress\":\"CC:DD:EE:FF:AA:BB\",\"parentMacAddress\":\"BB:CC:DD:EE:FF:AA\"}"));
+            assertTrue(frame.contains("\"adopted\":[\"11:11:11:11:11:11\",\"22:22:22:22:22:22\"]"));
+            assertFalse(frame.contains("\"version\":2"));
+            assertEquals(5, feed.version());
+            // Nothing recorded, nothing sent
+            feed.flush();
+            assertNull(sink.frames.poll(100, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    void testResumesFromRetainedHistory() throws InterruptedException {
+        try (TopologyEventFeed feed = new TopologyEventFeed(3, 10)) {
+            for (int i = 1; i <= 4; i++) {
+                feed.record(TopologyEvent.added(new Device(MacAddress.format(i), "Gateway", ""), null));
+                feed.flush();
+            }
+            RecordingSink resumed = new RecordingSink(new CountDownLatch(0));
+            feed.subscribe(feed.epoch(), 2L, resumed);
+            String replay = resumed.next();
+            assertTrue(replay.startsWith("id: " + feed.epoch() + "-4\n"));
+            assertTrue(replay.contains("\"version\":3"));
+            assertFalse(replay.contains("\"version\":2"));
+
+            // Version 1 was trimmed from history, so the client has to fetch the topology again
+            RecordingSink stale = new RecordingSink(new CountDownLatch(0));
+            feed.subscribe(feed.epoch(), 0L, stale);
+            assertEquals("id: " + feed.epoch() + "-4\nevent: reset\ndata: {\"version\":4}\n\n", stale.next());
+            RecordingSink ahead = new RecordingSink(new CountDownLatch(0));
+            feed.subscribe(feed.epoch(), 9L, ahead);
+            assertTrue(ahead.next().contains("event: reset"));
+
+            feed.record(TopologyEvent.removed(new Device(MacAddress.format(1), "Gateway", "")));
+            feed.flush();
+            assertTrue(resumed.next().startsWith("id: " + feed.epoch() + "-5\n"));
+            assertTrue(stale.next().startsWith("id: " + feed.epoch() + "-5\n"));
+            assertEquals(3, feed.subscriberCount());
+        }
+    }
+
+    @Test
+    void testResetsClientFromBeforeRestart() throws InterruptedException {
+        String lastId;
+        long lastEpoch;
+        try (TopologyEventFeed feed = new TopologyEventFeed(100, 10)) {
+            RecordingSink sink = new RecordingSink(new CountDownLatch(0));
+            feed.subscribe(0, null, sink);
+            feed.record(TopologyEvent.added(new Device(MacAddress.format(1), "Gateway", ""), null));
+            feed.flush();
+            lastId = sink.next().lines().findFirst().orElseThrow();
+            lastEpoch = feed.epoch();
+        }
+        assertEquals("id: " + lastEpoch + "-1", lastId);
+
+        // The restarted feed counts versions from 0 again and has already passed the client's version
+        try (TopologyEventFeed feed = new TopologyEventFeed(100, 10)) {
+            assertNotEquals(lastEpoch, feed.epoch());
+            for (int i = 2; i <= 4; i++) {
+                feed.record(TopologyEvent.added(new Device(MacAddress.format(i), "Gateway", ""), null));
+                feed.flush();
+            }
+            RecordingSink resumed = new RecordingSink(new CountDownLatch(0));
+            feed.subscribe(lastEpoch, 1L, resumed);
+            assertEquals("id: " + feed.epoch() + "-3\nevent: reset\ndata: {\"version\":3}\n\n", resumed.next());
+
+            // A version without its epoch may be from any run
+            RecordingSink bare = new RecordingSink(new CountDownLatch(0));
+            feed.subscribe(0, 1L, bare);
+            assertTrue(bare.next().contains("event: reset"));
+        }
+    }
+
+    @Test
+    void testDisconnectsSlowSubscriber() throws InterruptedException {
+        try (TopologyEventFeed feed = new TopologyEventFeed(100, 2)) {
+            CountDownLatch gate = new CountDownLatch(1);
+            RecordingSink slow = new RecordingSink(gate);
+            RecordingSink fast = new RecordingSink(new CountDownLatch(0));
+            feed.subscribe(0, null, slow);
+            feed.subscribe(0, null, fast);
+            for (int i = 1; i <= 5; i++) {
+                feed.record(TopologyEvent.added(new Device(MacAddress.format(i), "Gateway", ""), null));
+                // Never blocks, however far behind the slow subscriber is
+                feed.flush();
+                assertTrue(fast.next().startsWith("id: " + feed.epoch() + "-" + i + "\n"));
+            }
+            assertEquals(1, feed.droppedSubscribers());
+            assertEquals(1, feed.subscriberCount());
+            // The stream ends once the write the slow client is stuck in returns; buffered frames are dropped
+            gate.countDown();
+            assertTrue(slow.closed.await(5, TimeUnit.SECONDS));
+            assertTrue(slow.frames.size() <= 1);
+        }
+    }
+}
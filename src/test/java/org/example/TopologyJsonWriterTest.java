@@ -0,0 +1,98 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopologyJsonWriterTest {
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private List<NetworkNode> sampleForest() {
+        Map<String, NetworkNode> nodeMap = new HashMap<>();
+        Map<String, List<NetworkNode>> orphans = new HashMap<>();
+        Set<NetworkNode> roots = new LinkedHashSet<>();
+        for (Device device : List.of(
+                new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""),
+                new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"),
+                new Device("CC:DD:EE:FF:AA:BB", "Access Point", "BB:CC:DD:EE:FF:AA"),
+                new Device("DD:EE:FF:AA:BB:CC", "Access Point", "BB:CC:DD:EE:FF:AA"),
+                new Device("FF:EE:DD:CC:BB:AA", "Switch", null))) {
+            NetworkNode node = new NetworkNode(device);
+            nodeMap.put(device.getMacAddress(), node);
+            NetworkNode.linkNode(node, nodeMap, orphans, roots);
+        }
+        return new ArrayList<>(roots);
+    }
+
+    @Test
+    void testForestMatchesJacksonBeanSerialization() throws IOException {
+        List<NetworkNode> forest = sampleForest();
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            new TopologyJsonWriter(2).writeForest(forest, generator);
+        }
+        assertEquals(new ObjectMapper().writeValueAsString(forest), out.toString());
+    }
+
+    @Test
+    void testDeepChainDoesNotOverflow() throws IOException {
+        int depth = 100_000;
+        NetworkNode root = new NetworkNode(new Device("0", "Gateway", ""));
+        NetworkNode current = root;
+        for (int i = 1; i < depth; i++) {
+            NetworkNode child = new NetworkNode(new Device(Integer.toString(i), "Switch", current.device.getMacAddress()));
+            child.hasParent = true;
+            current.children.add(child);
+            current = child;
+        }
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            new TopologyJsonWriter().writeTree(root, generator);
+        }
+        String json = out.toString();
+        assertTrue(json.startsWith("{\"device\":{\"macAddress\":\"0\""));
+        assertEquals(depth, json.split("\"hasParent\"", -1).length - 1);
+    }
+
+    @Test
+    void testDepthAndChildLimit() throws IOException {
+        NetworkNode gateway = sampleForest().stream()
+            .filter(node -> node.device.getMacAddress().equals("AA:BB:CC:DD:EE:FF"))
+            .findFirst().orElseThrow();
+        NetworkNode switchNode = gateway.children.get(0);
+
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            new TopologyJsonWriter().writeTree(new SubtreeQuery(gateway, 1, 10, 0), generator);
+        }
+        JsonNode tree = new ObjectMapper().readTree(out.toString());
+        assertEquals(3, tree.get("descendantCount").asInt());
+        JsonNode switchJson = tree.get("children").get(0);
+        assertEquals(2, switchJson.get("descendantCount").asInt());
+        assertEquals(0, switchJson.get("children").size());
+        assertFalse(switchJson.has("nextChildCursor"));
+
+        out = new StringWriter();
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            new TopologyJsonWriter().writeTree(new SubtreeQuery(switchNode, 5, 1, 0), generator);
+        }
+        tree = new ObjectMapper().readTree(out.toString());
+        assertEquals(1, tree.get("children").size());
+        assertEquals("CC:DD:EE:FF:AA:BB", tree.get("children").get(0).get("device").get("macAddress").asText());
+        assertEquals(1, tree.get("nextChildCursor").asInt());
+
+        out = new StringWriter();
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            new TopologyJsonWriter().writeTree(new SubtreeQuery(switchNode, 5, 1, 1), generator);
+        }
+        tree = new ObjectMapper().readTree(out.toString());
+        assertEquals("DD:EE:FF:AA:BB:CC", tree.get("children").get(0).get("device").get("macAddress").asText());
+        assertFalse(tree.has("nextChildCursor"));
+    }
+}
@@ -0,0 +1,178 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopologyVersionsTest {
+
+    @Test
+    void testSnapshotsKeepTheirVersion() {
+        InMemoryDeviceStore store = new InMemoryDeviceStore();
+        store.put(new Device("AA:AA:AA:AA:AA:01", "Gateway", ""));
+        store.put(new Device("AA:AA:AA:AA:AA:02", "Switch", "AA:AA:AA:AA:AA:01"));
+        assertEquals(1, store.publish());
+        TopologySnapshot first = store.snapshot(TopologySnapshot.LATEST);
+
+        // Appended children share the child array of the older state, which keeps its own count
+        store.put(new Device("AA:AA:AA:AA:AA:03", "Switch", "AA:AA:AA:AA:AA:01"));
+        store.put(new Device("AA:AA:AA:AA:AA:04", "Access Point", "AA:AA:AA:AA:AA:02"));
+        assertEquals(1, store.snapshot(TopologySnapshot.LATEST).version());
+        assertEquals(2, store.publish());
+        assertEquals(2, store.publish());
+        TopologySnapshot second = store.snapshot(TopologySnapshot.LATEST);
+
+        store.move("AA:AA:AA:AA:AA:04", "AA:AA:AA:AA:AA:03");
+        store.remove("AA:AA:AA:AA:AA:02");
+        store.put(new Device("AA:AA:AA:AA:AA:05", "Gateway", ""));
+        store.publish();
+        TopologySnapshot third = store.snapshot(TopologySnapshot.LATEST);
+
+        assertEquals(List.of("AA:AA:AA:AA:AA:01[AA:AA:AA:AA:AA:02[]]"), render(first));
+        assertEquals(List.of("AA:AA:AA:AA:AA:01[AA:AA:AA:AA:AA:02[AA:AA:AA:AA:AA:04[]],AA:AA:AA:AA:AA:03[]]"), render(second));
+        assertEquals(List.of("AA:AA:AA:AA:AA:01[AA:AA:AA:AA:AA:03[AA:AA:AA:AA:AA:04[]]]", "AA:AA:AA:AA:AA:05[]"), render(third));
+        assertEquals(3, second.get("AA:AA:AA:AA:AA:01").descendantCount);
+        assertEquals(1, second.get("AA:AA:AA:AA:AA:01").descendantCount(Device.typeCode("Access Point")));
+        assertEquals(4, second.size());
+        assertEquals(2, second.count(Device.typeCode("Switch")));
+        assertEquals(1, third.count(Device.typeCode("Switch")));
+        assertEquals(1, second.rootCount());
+        assertEquals(2, third.rootCount());
+        assertEquals(List.of("AA:AA:AA:AA:AA:02", "AA:AA:AA:AA:AA:01"),
+                second.ancestors("AA:AA:AA:AA:AA:04").stream().map(node -> node.device.getMacAddress()).toList());
+        assertEquals(List.of("AA:AA:AA:AA:AA:03", "AA:AA:AA:AA:AA:01"),
+                third.ancestors("AA:AA:AA:AA:AA:04").stream().map(node -> node.device.getMacAddress()).toList());
+
+        // Removed devices are still found by MAC address in the versions that had them
+        assertEquals("AA:AA:AA:AA:AA:01", second.get("AA:AA:AA:AA:AA:02").device.getUplinkMacAddress());
+        assertNull(third.get("AA:AA:AA:AA:AA:02"));
+        assertNull(first.get("AA:AA:AA:AA:AA:05"));
+        assertEquals(2, store.snapshot(2).version());
+        assertNull(store.snapshot(4));
+        store.close();
+    }
+
+    @Test
+    void testExpiredVersions() {
+        InMemoryDeviceStore store = new InMemoryDeviceStore(0);
+        store.put(new Device("AA:AA:AA:AA:AA:01", "Gateway", ""));
+        store.put(new Device("AA:AA:AA:AA:AA:02", "Switch", "AA:AA:AA:AA:AA:01"));
+        store.publish();
+        NetworkNode pinned = store.snapshot(1).get("AA:AA:AA:AA:AA:01");
+        store.put(new Device("AA:AA:AA:AA:AA:03", "Switch", "AA:AA:AA:AA:AA:02"));
+        store.publish();
+        store.put(new Device("AA:AA:AA:AA:AA:04", "Switch", "AA:AA:AA:AA:AA:03"));
+        store.publish();
+
+        // Without retention only the latest version is readable, and a read still walking an older one fails
+        assertNull(store.snapshot(1));
+        assertEquals(3, store.oldestVersion());
+        assertThrows(IllegalStateException.class, () -> pinned.children.get(0));
+        assertEquals(3, store.snapshot(3).get("AA:AA:AA:AA:AA:01").descendantCount);
+        store.close();
+    }
+
+    @Test
+    void testReadsAtVersion() {
+        DeviceController controller = new DeviceController();
+        try {
+            controller.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+            ResponseEntity<Object> before = controller.getFullNetworkResponse(null, null);
+            long version = Long.parseLong(before.getHeaders().getFirst(DeviceController.TOPOLOGY_VERSION_HEADER));
+            controller.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+
+            ResponseEntity<Object> latest = controller.getNetworkResponse("AA:BB:CC:DD:EE:FF", null, null, null, null, null);
+            assertEquals(Long.toString(version + 1), latest.getHeaders().getFirst(DeviceController.TOPOLOGY_VERSION_HEADER));
+            assertTrue(new String((byte[]) latest.getBody(), StandardCharsets.UTF_8).contains("BB:CC:DD:EE:FF:AA"));
+
+            ResponseEntity<Object> old = controller.getNetworkResponse("AA:BB:CC:DD:EE:FF", null, null, null, version, null);
+            assertEquals(Long.toString(version), old.getHeaders().getFirst(DeviceController.TOPOLOGY_VERSION_HEADER));
+            assertNull(old.getHeaders().getETag());
+            assertEquals(0, ((SubtreeQuery) old.getBody()).root.descendantCount);
+            assertNull(controller.getNetworkResponse("BB:CC:DD:EE:FF:AA", null, null, null, version, null).getBody());
+
+            ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                    () -> controller.getFullNetworkResponse(version + 5, null));
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+        } finally {
+            controller.close();
+        }
+
+        DeviceController expiring = new DeviceController(new InMemoryDeviceStore(0), null, 1_000);
+        try {
+            expiring.addDevice(new Device("AA:BB:CC:DD:EE:FF", "Gateway", ""));
+            expiring.addDevice(new Device("BB:CC:DD:EE:FF:AA", "Switch", "AA:BB:CC:DD:EE:FF"));
+            ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> expiring.getFullNetworkBinary(1L));
+            assertEquals(HttpStatus.GONE, e.getStatusCode());
+        } finally {
+            expiring.close();
+        }
+    }
+
+    @Test
+    void testReadsAreConsistentUnderWrites() throws InterruptedException {
+        DeviceController controller = new DeviceController();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = Thread.ofPlatform().start(() -> {
+            try {
+                Random random = new Random(7);
+                List<String> added = new ArrayList<>();
+                for (int i = 0; i < 3_000; i++) {
+                    String macAddress = MacAddress.format(i + 1L);
+                    String uplink = added.isEmpty() || random.nextInt(20) == 0 ? "" : added.get(random.nextInt(added.size()));
+                    controller.addDevice(new Device(macAddress, uplink.isEmpty() ? "Gateway" : "Switch", uplink));
+                    added.add(macAddress);
+                    if (i % 10 == 9) {
+                        controller.moveDevice(added.get(random.nextInt(added.size())), new Device(null, null, ""));
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            } finally {
+                writing.set(false);
+            }
+        });
+        int reads = 0;
+        while (writing.get() || reads == 0) {
+            // Every subtree count of a version matches the children of that same version
+            List<NetworkNode> forest = controller.getFullNetwork();
+            int walked = 0;
+            for (NetworkNode root : forest) {
+                walked += checkCounts(root) + 1;
+            }
+            assertEquals(walked, forest.stream().mapToInt(root -> root.descendantCount + 1).sum());
+            reads++;
+        }
+        writer.join();
+        controller.close();
+        assertNull(failure.get());
+        assertEquals(3_000, controller.getFullNetwork().stream().mapToInt(root -> root.descendantCount + 1).sum());
+    }
+
+    private static int checkCounts(NetworkNode node) {
+        int descendants = 0;
+        for (NetworkNode child : node.children) {
+            assertTrue(child.hasParent);
+            descendants += checkCounts(child) + 1;
+        }
+        assertEquals(node.descendantCount, descendants);
+        return descendants;
+    }
+
+    private static List<String> render(TopologySnapshot snapshot) {
+        return snapshot.roots().stream().map(TopologyVersionsTest::render).sorted().toList();
+    }
+
+    private static String render(NetworkNode node) {
+        StringJoiner children = new StringJoiner(",", "[", "]");
+        node.children.forEach(child -> children.add(render(child)));
+        return node.device.getMacAddress() + children;
+    }
+}
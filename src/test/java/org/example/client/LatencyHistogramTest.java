@@ -0,0 +1,41 @@
+package org.example.client;
+
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void testBucketsCoverValuesWithinRelativeError() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            long highest = LatencyHistogram.highestValueIn(LatencyHistogram.bucketIndex(value));
+            assertTrue(highest >= value, "bucket of " + value + " ends at " + highest);
+            assertTrue(highest - value <= value / 32, "bucket of " + value + " ends at " + highest);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.99));
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1_000L);
+        }
+        assertEquals(10_000, histogram.count());
+        assertEquals(10_000_000, histogram.max());
+        assertEquals(5_000_500, histogram.mean(), 1e-6);
+        assertEquals(5_000_000, histogram.percentile(0.5), 5_000_000 / 32.0);
+        assertEquals(9_900_000, histogram.percentile(0.99), 9_900_000 / 32.0);
+        assertEquals(10_000_000, histogram.percentile(1.0));
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(20_000_000);
+        histogram.add(other);
+        assertEquals(10_001, histogram.count());
+        assertEquals(20_000_000, histogram.percentile(1.0));
+    }
+}
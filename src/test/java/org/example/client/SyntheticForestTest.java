@@ -0,0 +1,46 @@
+package org.example.client;
+
+import org.example.client.SyntheticForest.SyntheticDevice;
+import org.junit.jupiter.api.Test;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyntheticForestTest {
+
+    @Test
+    void testShapeOrderAndOrphans() {
+        SyntheticForest forest = new SyntheticForest(5, 10, 20, 0.2, 0.05, new Random(1));
+        assertEquals(5, forest.gateways().size());
+        assertEquals(50, forest.switches().size());
+        assertEquals(1000, forest.accessPoints().size());
+        assertEquals(1055, forest.devices().size());
+
+        Map<String, Integer> position = new HashMap<>();
+        for (int i = 0; i < forest.devices().size(); i++) {
+            position.put(forest.devices().get(i).macAddress(), i);
+        }
+        assertEquals(1055, position.size());
+        int beforeUplink = 0;
+        Set<String> missingUplinks = new HashSet<>();
+        for (SyntheticDevice device : forest.devices()) {
+            if (device.uplinkMacAddress().isEmpty()) {
+                continue;
+            }
+            Integer uplink = position.get(device.uplinkMacAddress());
+            if (uplink == null) {
+                missingUplinks.add(device.uplinkMacAddress());
+            } else if (uplink > position.get(device.macAddress())) {
+                beforeUplink++;
+            }
+        }
+        assertTrue(beforeUplink > 0);
+        assertTrue(missingUplinks.size() > 10 && missingUplinks.size() < 150, "orphans: " + missingUplinks.size());
+
+        SyntheticForest again = new SyntheticForest(5, 10, 20, 0.2, 0.05, new Random(1));
+        assertEquals(forest.devices(), again.devices());
+    }
+}